@@ -76,6 +76,8 @@ private fun covertToQueueMessage(record: Message): QueueMessage {
 }
 
 fun onMessage(messageHandlerHolder: MessageHandlerHolder, message: Message, @Nullable channel: Channel?) {
+    // 过载时阻塞当前的消费线程，未确认的消息达到prefetch后Broker停止向该消费者投递
+    messageHandlerHolder.flowController.awaitAvailable()
     val queueMessage = covertToQueueMessage(message)
     messageHandlerHolder.chooseMessageHandler(queueMessage.type).handle(queueMessage) {
         try {
@@ -89,6 +91,7 @@ fun onMessage(messageHandlerHolder: MessageHandlerHolder, message: Message, @Nul
 }
 
 fun onMessageBatch(messageHandlerHolder: MessageHandlerHolder, messages: List<Message>, @Nullable channel: Channel?) {
+    messageHandlerHolder.flowController.awaitAvailable()
     val latch = CountDownLatch(messages.size)
     messages.forEach { message: Message ->
         val queueMessage = covertToQueueMessage(message)
@@ -26,6 +26,7 @@ import org.slf4j.LoggerFactory
 import org.springframework.amqp.core.AmqpTemplate
 import org.springframework.amqp.core.Message
 import org.springframework.amqp.core.MessageProperties
+import org.springframework.amqp.rabbit.core.RabbitOperations
 import reactor.core.publisher.Mono
 import java.util.concurrent.CompletableFuture
 
@@ -57,6 +58,43 @@ class AmqpProducerHolder(private val asyncAmqpTemplate: AmqpTemplate) {
         }
     }
 
+    /**
+     * 批量发送：RabbitTemplate在同一个channel上依次发送整批消息，开启了simple publisher confirm时整批只等待一次确认
+     */
+    fun sendBatch(queueMessages: List<QueueMessage>): CompletableFuture<List<SendMessageResult>> {
+        return Mono.fromCallable {
+            val template = asyncAmqpTemplate
+            if (template is RabbitOperations) {
+                template.invoke { operations ->
+                    queueMessages.forEach { queueMessage -> send(operations, queueMessage) }
+                    if (template.connectionFactory.isSimplePublisherConfirms) {
+                        operations.waitForConfirmsOrDie(CONFIRM_TIMEOUT_MILLIS)
+                    }
+                }
+            } else {
+                queueMessages.forEach { queueMessage -> send(template, queueMessage) }
+            }
+        }.toFuture().exceptionally { throwable: Throwable? ->
+            logger.error(
+                "Async send messages failed, error: {}, messageCount: {}",
+                throwable,
+                queueMessages.size
+            )
+            throw IORuntimeException(throwable)
+        }.thenApply {
+            if (logger.isDebugEnabled) {
+                logger.debug(
+                    "Async send messages success, messageCount: {}", queueMessages.size
+                )
+            }
+            queueMessages.map { SendMessageResult("") }
+        }
+    }
+
+    private fun send(template: AmqpTemplate, queueMessage: QueueMessage) {
+        template.send(queueMessage.topic, "${queueMessage.type}.${queueMessage.tag}", covertToAmqpMessage(queueMessage))
+    }
+
     private fun covertToAmqpMessage(queueMessage: QueueMessage): Message {
         val props = MessageProperties()
         props.messageId = queueMessage.key
@@ -66,4 +104,8 @@ class AmqpProducerHolder(private val asyncAmqpTemplate: AmqpTemplate) {
         props.setHeader(SysProperties.MESSAGE_TAG_KEY, queueMessage.tag)
         return Message(queueMessage.body, props)
     }
+
+    companion object {
+        private const val CONFIRM_TIMEOUT_MILLIS = 10000L
+    }
 }
@@ -10,4 +10,10 @@ interface CommandExecuteContext : CommandContext, TrackingContext {
      * Notify the given command is executed.
      */
     fun onCommandExecutedAsync(commandResult: CommandResult): CompletableFuture<Boolean>
+
+    /**
+     * Release the context after the command is completed, the context must not be used once released.
+     */
+    fun release() {
+    }
 }
\ No newline at end of file
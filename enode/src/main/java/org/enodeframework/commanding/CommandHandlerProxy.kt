@@ -1,11 +1,23 @@
 package org.enodeframework.commanding
 
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.future.future
 import org.enodeframework.infrastructure.MethodInvocation
 import org.enodeframework.infrastructure.ObjectProxy
+import java.util.concurrent.CompletableFuture
 
 interface CommandHandlerProxy : ObjectProxy, MethodInvocation {
     /**
      * Handle the given application command async. deal with aggregate in memory
      */
     suspend fun handleAsync(context: CommandContext, command: CommandMessage)
+
+    /**
+     * Handle the given application command with a non-suspend handler method, the returned future completes when the handler completes.
+     * Runs handleAsync on the calling thread by default, implementations only need to override one of them.
+     */
+    fun handle(context: CommandContext, command: CommandMessage): CompletableFuture<*> {
+        return CoroutineScope(Dispatchers.Unconfined).future { handleAsync(context, command) }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,86 @@
+package org.enodeframework.commanding
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * 记录MailBox中已经被持久化过的命令，用于在重新处理时识别重复的命令。
+ * 事件存储无法从异常消息中解析出CommandId时，会把原始的异常消息作为CommandId返回，
+ * 这里在登记时就将异常消息与MailBox中待处理的命令匹配，转换为真实的CommandId，
+ * 之后每个命令的检查和移除都只是一次哈希查找；
+ * 登记时没有匹配到的异常消息单独保存，在检查命令时继续匹配，匹配成功或者MailBox再次重置时清除。
+ *
+ * @author anruence@gmail.com
+ */
+class DuplicateCommandRegistry {
+    private val commandIds: MutableSet<String> = ConcurrentHashMap.newKeySet()
+    private val unresolvedMessages: MutableList<String> = CopyOnWriteArrayList()
+
+    /**
+     * 登记一个重复的命令，pendingCommandIds为当前MailBox中待处理的命令Id
+     */
+    fun add(value: String, pendingCommandIds: () -> Sequence<String>) {
+        if (value.length <= MAX_COMMAND_ID_LENGTH) {
+            commandIds.add(value)
+            return
+        }
+        var resolved = false
+        for (commandId in pendingCommandIds()) {
+            if (matches(value, commandId)) {
+                commandIds.add(commandId)
+                resolved = true
+            }
+        }
+        if (!resolved) {
+            unresolvedMessages.add(value)
+        }
+    }
+
+    fun contains(commandId: String): Boolean {
+        if (commandIds.isNotEmpty() && commandIds.contains(commandId)) {
+            return true
+        }
+        if (unresolvedMessages.isEmpty()) {
+            return false
+        }
+        for (value in unresolvedMessages) {
+            if (matches(value, commandId)) {
+                unresolvedMessages.remove(value)
+                commandIds.add(commandId)
+                return true
+            }
+        }
+        return false
+    }
+
+    /**
+     * 清除没有匹配到命令的异常消息，MailBox重置consumingSequence时调用
+     */
+    fun clearUnresolved() {
+        if (unresolvedMessages.isNotEmpty()) {
+            unresolvedMessages.clear()
+        }
+    }
+
+    fun remove(commandId: String) {
+        if (commandIds.isNotEmpty()) {
+            commandIds.remove(commandId)
+        }
+    }
+
+    private fun matches(value: String, commandId: String): Boolean {
+        if (value.length == commandId.length) {
+            return value == commandId
+        }
+        // 减少误判率
+        return commandId.length >= MIN_COMMAND_ID_LENGTH && value.contains(commandId)
+    }
+
+    companion object {
+        /**
+         * 超过该长度的值认为是未能解析的异常消息
+         */
+        private const val MAX_COMMAND_ID_LENGTH = 32
+        private const val MIN_COMMAND_ID_LENGTH = 8
+    }
+}
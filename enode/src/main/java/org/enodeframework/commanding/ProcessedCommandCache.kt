@@ -0,0 +1,20 @@
+package org.enodeframework.commanding
+
+import org.enodeframework.eventing.DomainEventStream
+
+/**
+ * A cache of the event streams recently committed by this process, keyed by the command id.
+ * It is consulted before looking up the event store for a command that may have been processed before,
+ * so that replayed commands after a consumer restart or rebalance do not each cost a query.
+ */
+interface ProcessedCommandCache {
+    /**
+     * Record the event stream of a command after it is appended to the event store successfully.
+     */
+    fun add(eventStream: DomainEventStream)
+
+    /**
+     * Get the committed event stream of the given command, null means unknown and the event store must be queried.
+     */
+    fun get(aggregateRootId: String, commandId: String): DomainEventStream?
+}
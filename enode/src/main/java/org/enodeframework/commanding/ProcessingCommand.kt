@@ -1,5 +1,7 @@
 package org.enodeframework.commanding
 
+import org.enodeframework.domain.AggregateRoot
+import org.enodeframework.messaging.ApplicationMessage
 import java.util.concurrent.CompletableFuture
 
 /**
@@ -7,13 +9,81 @@ import java.util.concurrent.CompletableFuture
  */
 class ProcessingCommand(
     val message: CommandMessage,
-    val commandExecuteContext: CommandExecuteContext,
+    commandExecuteContext: CommandExecuteContext,
     val items: MutableMap<String, Any>
 ) {
+    /**
+     * 命令完成后替换为已释放的上下文，回收复用的上下文不会再通过已完成的命令或其回调被访问
+     */
+    @Volatile
+    var commandExecuteContext: CommandExecuteContext = commandExecuteContext
+        private set
     lateinit var mailBox: ProcessingCommandMailbox
     var sequence: Long = 0
     var isDuplicated = false
     fun completeAsync(commandResult: CommandResult): CompletableFuture<Boolean> {
         return commandExecuteContext.onCommandExecutedAsync(commandResult)
     }
-}
\ No newline at end of file
+
+    /**
+     * 命令已经完成并从MailBox中移除后调用，释放命令的上下文
+     */
+    fun releaseContext() {
+        val context = commandExecuteContext
+        commandExecuteContext = ReleasedCommandExecuteContext
+        context.release()
+    }
+
+    /**
+     * 已完成命令的上下文，重复完成时不会再次通知，读取结果时返回空
+     */
+    private object ReleasedCommandExecuteContext : CommandExecuteContext {
+        override fun onCommandExecutedAsync(commandResult: CommandResult): CompletableFuture<Boolean> {
+            return CompletableFuture.completedFuture(true)
+        }
+
+        override suspend fun add(aggregateRoot: AggregateRoot) {
+            throw released()
+        }
+
+        override fun addAsync(aggregateRoot: AggregateRoot): CompletableFuture<Boolean> {
+            throw released()
+        }
+
+        override suspend fun <T : AggregateRoot?> get(id: String, firstFromCache: Boolean, aggregateRootType: Class<T>): T {
+            throw released()
+        }
+
+        override fun <T : AggregateRoot?> getAsync(
+            id: String,
+            firstFromCache: Boolean,
+            aggregateRootType: Class<T>
+        ): CompletableFuture<T> {
+            throw released()
+        }
+
+        override suspend fun <T : AggregateRoot?> get(id: String, aggregateRootType: Class<T>): T {
+            throw released()
+        }
+
+        override fun <T : AggregateRoot?> getAsync(id: String, aggregateRootType: Class<T>): CompletableFuture<T> {
+            throw released()
+        }
+
+        override var result: String
+            get() = ""
+            set(_) {}
+        override var applicationMessage: ApplicationMessage?
+            get() = null
+            set(_) {}
+        override val trackedAggregateRoots: List<AggregateRoot>
+            get() = emptyList()
+
+        override fun clear() {
+        }
+
+        private fun released(): IllegalStateException {
+            return IllegalStateException("The command is completed and its execute context is released.")
+        }
+    }
+}
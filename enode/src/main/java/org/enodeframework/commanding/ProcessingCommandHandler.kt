@@ -7,4 +7,10 @@ interface ProcessingCommandHandler {
      * process given processing command.
      */
     fun handleAsync(processingCommand: ProcessingCommand): CompletableFuture<Boolean>
+
+    /**
+     * Called by the mailbox when a run stops taking commands, before the run completes.
+     */
+    fun onRunCompleted(mailbox: ProcessingCommandMailbox) {
+    }
 }
\ No newline at end of file
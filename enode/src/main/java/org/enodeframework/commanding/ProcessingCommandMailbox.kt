@@ -1,16 +1,17 @@
 package org.enodeframework.commanding
 
 import kotlinx.coroutines.CoroutineDispatcher
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.async
 import org.enodeframework.common.extensions.SystemClock
+import org.enodeframework.common.io.DispatchingExecutor
 import org.enodeframework.common.io.Task
+import org.enodeframework.queue.MessageFlowController
 import org.slf4j.LoggerFactory
 import java.util.*
 import java.util.concurrent.CompletableFuture
-import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
 
 /**
  * @author anruence@gmail.com
@@ -18,79 +19,111 @@ import java.util.concurrent.atomic.AtomicLong
 class ProcessingCommandMailbox(
     var aggregateRootId: String,
     private val messageHandler: ProcessingCommandHandler,
-    private val coroutineDispatcher: CoroutineDispatcher,
-    private val batchSize: Int
+    coroutineDispatcher: CoroutineDispatcher,
+    private val batchSize: Int,
+    private val messageQueue: ProcessingCommandQueue,
+    private val flowController: MessageFlowController
 ) {
     private val logger = LoggerFactory.getLogger(ProcessingCommandMailbox::class.java)
-    private val lockObj = Any()
-    private val asyncLockObj = Any()
-    private var messageDict: ConcurrentHashMap<Long, ProcessingCommand> = ConcurrentHashMap()
-    private var duplicateCommandIdDict: LinkedHashSet<String> = LinkedHashSet()
-    private val isUsing = AtomicInteger(0)
-    private val isRemoved = AtomicInteger(0)
+    private val dispatchingExecutor = DispatchingExecutor(coroutineDispatcher)
+
+    /**
+     * 每次运行复用同一个任务，直接提交到调度器，不再为每次运行创建协程
+     */
+    private val runAction = Runnable { processMessages(0) }
+    private val inFlightCounter = flowController.createMailboxCounter(aggregateRootId)
+    private val duplicateCommandRegistry = DuplicateCommandRegistry()
+
+    /**
+     * 大于等于0时表示当前进入MailBox的生产者数量，RETIRING表示正在判断是否可移除，REMOVED表示已被移除
+     */
+    private val usingState = AtomicInteger(0)
+    private val running = AtomicBoolean(false)
+    private val pauseFuture = AtomicReference<CompletableFuture<Boolean>?>(null)
     private var lastActiveTime: Date
-    var isRunning = false
-        private set
+    val isRunning: Boolean
+        get() = running.get()
+
+    @Volatile
     private var isPauseRequested = false
+
+    @Volatile
     var isPaused = false
         private set
-    private var nextSequence: Long = 0
     var consumingSequence: AtomicLong = AtomicLong(0L)
         private set
 
+    private val resetCounter = AtomicLong(0L)
+
+    /**
+     * consumingSequence被重置的次数，用于识别重置之前已经处理过、之后需要重新处理的命令；
+     * 提交事件流的线程会读取它，所以用原子计数而不是依赖MailBox暂停时才重置
+     */
+    val resetCount: Long
+        get() = resetCounter.get()
+
+    /**
+     * MailBox中积压的命令超过上限时阻塞当前线程，直到积压降到上限的一半以下或者超过最长等待时间；
+     * 只有向该MailBox发送命令的消费线程会等待，不影响其他聚合根
+     */
+    fun awaitAvailable(): Boolean {
+        return inFlightCounter.awaitAvailable()
+    }
+
     fun getTotalUnHandledMessageCount(): Long {
-        return nextSequence - consumingSequence.get()
+        return messageQueue.nextSequence() - consumingSequence.get()
     }
 
     /**
      * 放入一个消息到MailBox，并自动尝试运行MailBox
      */
     fun enqueueMessage(message: ProcessingCommand) {
-        synchronized(lockObj) {
-            message.sequence = nextSequence
-            message.mailBox = this
-            // If the specified key is not already associated with a value (or is mapped to null) associates it with the given value and returns null, else returns the current value.
-            if (messageDict.putIfAbsent(message.sequence, message) == null) {
-                nextSequence++
-                if (logger.isDebugEnabled) {
-                    logger.debug(
-                        "{} enqueued new message, aggregateRootId: {}, messageSequence: {}",
-                        javaClass.name,
-                        aggregateRootId,
-                        message.sequence
-                    )
-                }
-                lastActiveTime = Date()
-                tryRun()
-            } else {
-                logger.error(
-                    "{} enqueue message failed, aggregateRootId: {}, messageId: {}, messageSequence: {}",
+        message.mailBox = this
+        if (messageQueue.enqueue(message)) {
+            flowController.increment()
+            inFlightCounter.increment()
+            if (logger.isDebugEnabled) {
+                logger.debug(
+                    "{} enqueued new message, aggregateRootId: {}, messageSequence: {}",
                     javaClass.name,
                     aggregateRootId,
-                    message.message.id,
                     message.sequence
                 )
             }
+            lastActiveTime = Date()
+            tryRun()
+        } else {
+            logger.error(
+                "{} enqueue message failed, aggregateRootId: {}, messageId: {}, messageSequence: {}",
+                javaClass.name,
+                aggregateRootId,
+                message.message.id,
+                message.sequence
+            )
         }
     }
 
     fun tryRun() {
-        synchronized(lockObj) {
-            if (isRunning || isPauseRequested || isPaused) {
-                return
-            }
-            setAsRunning()
-            if (logger.isDebugEnabled) {
-                logger.debug(
-                    "{} start run, aggregateRootId: {}, consumingSequence: {}",
-                    javaClass.name,
-                    aggregateRootId,
-                    consumingSequence.get()
-                )
-            }
-            CoroutineScope(coroutineDispatcher).async { processMessages() }
+        if (isPauseRequested || isPaused) {
+            return
+        }
+        if (!running.compareAndSet(false, true)) {
+            return
+        }
+        // 抢占运行状态之后再次检查暂停请求，避免与pause并发时在暂停期间启动运行
+        if (isPauseRequested) {
+            setAsNotRunning()
             return
         }
+        if (logger.isDebugEnabled) {
+            logger.debug(
+                "{} start run, aggregateRootId: {}, consumingSequence: {}",
+                javaClass.name,
+                aggregateRootId,
+                consumingSequence.get()
+            )
+        }
+        dispatchingExecutor.execute(runAction)
     }
 
     /**
@@ -111,27 +144,38 @@ class ProcessingCommandMailbox(
      * 暂停当前MailBox的运行，暂停成功可以确保当前MailBox不会处于运行状态，也就是不会在处理任何消息
      */
     fun pause() {
+        Task.await(pauseAsync())
+    }
+
+    /**
+     * 异步暂停当前MailBox的运行，返回的Future在当前的运行结束后完成，调用方不需要等待；
+     * 如果MailBox当前没有运行，则立即完成；并发的多个暂停请求共享同一个Future
+     */
+    fun pauseAsync(): CompletableFuture<Boolean> {
         isPauseRequested = true
         if (logger.isDebugEnabled) {
             logger.debug("{} pause requested, aggregateRootId: {}", javaClass.name, aggregateRootId)
         }
-        var count = 0L
-        while (isRunning) {
-            Task.sleep(10)
-            count++
-            if (count % 100 == 0L) {
-                if (logger.isDebugEnabled) {
-                    logger.debug(
-                        "{} pause requested, but wait for too long to stop the current mailbox, aggregateRootId: {}, waitCount: {}",
-                        javaClass.name,
-                        aggregateRootId,
-                        count
-                    )
-                }
-            }
+        val future = CompletableFuture<Boolean>()
+        val pending = pauseFuture.compareAndExchange(null, future) ?: future
+        tryCompletePause()
+        return pending
+    }
+
+    /**
+     * 如果有等待中的暂停请求并且MailBox已经不在运行，则完成暂停；
+     * 请求暂停之后tryRun不会再抢占运行状态，所以这里观察到的非运行状态是稳定的
+     */
+    private fun tryCompletePause() {
+        if (isRunning) {
+            return
+        }
+        val future = pauseFuture.get() ?: return
+        if (pauseFuture.compareAndSet(future, null)) {
+            lastActiveTime = Date()
+            isPaused = true
+            future.complete(true)
         }
-        lastActiveTime = Date()
-        isPaused = true
     }
 
     /**
@@ -140,6 +184,8 @@ class ProcessingCommandMailbox(
     fun resume() {
         isPauseRequested = false
         isPaused = false
+        // 暂停尚未完成时被恢复，直接完成等待中的暂停请求，避免之后再次进入暂停状态
+        pauseFuture.getAndSet(null)?.complete(true)
         lastActiveTime = Date()
         if (logger.isDebugEnabled) {
             logger.debug(
@@ -151,12 +197,23 @@ class ProcessingCommandMailbox(
         }
     }
 
+    /**
+     * 登记一个重复的命令，需要在MailBox暂停并重置consumingSequence之后调用，以便将异常消息匹配到待处理的命令
+     */
     fun addDuplicateCommandId(commandId: String) {
-        duplicateCommandIdDict.add(commandId)
+        duplicateCommandRegistry.add(commandId) { pendingCommandIds() }
+    }
+
+    private fun pendingCommandIds(): Sequence<String> {
+        return (consumingSequence.get() until messageQueue.nextSequence()).asSequence()
+            .mapNotNull { sequence -> getMessage(sequence)?.message?.id }
     }
 
     fun resetConsumingSequence(consumingSequence: Long) {
         this.consumingSequence.set(consumingSequence)
+        resetCounter.incrementAndGet()
+        // 上一次重置时没有匹配到命令的异常消息已经过期，本次重置之后会重新登记
+        duplicateCommandRegistry.clearUnresolved()
         lastActiveTime = Date()
         if (logger.isDebugEnabled) {
             logger.debug(
@@ -168,27 +225,17 @@ class ProcessingCommandMailbox(
         }
     }
 
-    private fun checkContains(value: String, commandId: String): Boolean {
-        if (value.length < commandId.length) {
-            return false
-        }
-        if (value.length == commandId.length) {
-            return value == commandId
-        }
-        // 减少误判率
-        if (value.length > 32 && commandId.length >= 8) {
-            return value.contains(commandId)
-        }
-        return false
-    }
-
     fun completeMessage(message: ProcessingCommand, result: CommandResult): CompletableFuture<Boolean> {
         try {
-            val removed = messageDict.remove(message.sequence)
-            if (removed != null) {
-                duplicateCommandIdDict.removeIf { x -> checkContains(x, message.message.id) }
+            if (messageQueue.remove(message)) {
+                flowController.decrement()
+                inFlightCounter.decrement()
+                duplicateCommandRegistry.remove(message.message.id)
                 lastActiveTime = Date()
-                return message.completeAsync(result)
+                val future = message.completeAsync(result)
+                // 命令已经完成并从MailBox中移除，之后不会再被处理，可以回收命令的上下文
+                message.releaseContext()
+                return future
             }
         } catch (ex: Exception) {
             logger.error(
@@ -208,71 +255,111 @@ class ProcessingCommandMailbox(
         return SystemClock.now() - lastActiveTime.time >= timeoutSeconds
     }
 
-    private fun processMessages() {
-        synchronized(asyncLockObj) {
-            lastActiveTime = Date()
-            try {
-                processMessagesRecursively(getTotalUnHandledMessageCount(), 0)
-            } catch (ex: Exception) {
-                logger.error("{} run has unknown exception, aggregateRootId: {}", javaClass.name, aggregateRootId, ex)
-                Task.sleep(1)
-                completeRun()
-            }
-        }
+    /**
+     * 距离变为不活跃还剩余的毫秒数，小于等于0表示已经不活跃，与isInactive的判断保持一致
+     */
+    fun getRemainingActiveMillis(timeoutSeconds: Int): Long {
+        return lastActiveTime.time + timeoutSeconds - SystemClock.now()
     }
 
     /**
-     * 处理消息的递归实现
+     * 处理一批消息，命令处理已同步完成时直接在当前线程继续处理下一个命令，
+     * 只有遇到尚未完成的命令时才挂起，并在其完成的回调中从下一个命令继续，避免递归调用导致的栈溢出
      */
-    private fun processMessagesRecursively(unHandledMessageCount: Long, scannedCount: Long) {
-        if (!(unHandledMessageCount > 0 && scannedCount < batchSize && !isPauseRequested)) {
-            completeRun()
-            return
-        }
-        val message = getMessage(consumingSequence.get())
-        if (message != null) {
-            if (duplicateCommandIdDict.any { x -> checkContains(x, message.message.id) }) {
-                message.isDuplicated = true
-            }
-            messageHandler.handleAsync(message).whenComplete { _, _ ->
+    private fun processMessages(scannedCount: Long) {
+        lastActiveTime = Date()
+        try {
+            var scanned = scannedCount
+            while (getTotalUnHandledMessageCount() > 0 && scanned < batchSize && !isPauseRequested) {
+                val message = getMessage(consumingSequence.get())
+                scanned++
+                if (message == null) {
+                    consumingSequence.incrementAndGet()
+                    continue
+                }
+                if (duplicateCommandRegistry.contains(message.message.id)) {
+                    message.isDuplicated = true
+                }
+                val future = messageHandler.handleAsync(message)
+                if (!future.isDone) {
+                    val nextScannedCount = scanned
+                    future.whenComplete { _, _ ->
+                        consumingSequence.incrementAndGet()
+                        processMessages(nextScannedCount)
+                    }
+                    return
+                }
                 consumingSequence.incrementAndGet()
-                processMessagesRecursively(getTotalUnHandledMessageCount(), scannedCount + 1)
             }
-        } else {
-            consumingSequence.incrementAndGet()
-            processMessagesRecursively(getTotalUnHandledMessageCount(), scannedCount + 1)
+            // 本次运行不再处理命令，处理器需要提交为后续命令暂存的内容，不能等待下一次运行
+            messageHandler.onRunCompleted(this)
+            completeRun()
+        } catch (ex: Exception) {
+            logger.error("{} run has unknown exception, aggregateRootId: {}", javaClass.name, aggregateRootId, ex)
+            Task.sleep(1)
+            completeRun()
         }
     }
 
-
     private fun getMessage(sequence: Long): ProcessingCommand? {
-        return messageDict[sequence]
-    }
-
-    private fun setAsRunning() {
-        isRunning = true
+        return messageQueue.get(sequence)
     }
 
+    /**
+     * 尝试进入MailBox，多个生产者可以同时进入，整个过程不会阻塞；
+     * 如果MailBox正在被判断是否可移除，则直接进入并使本次移除失效；如果已被移除则返回false
+     */
     fun tryUsing(): Boolean {
-        return isUsing.compareAndSet(0, 1)
+        while (true) {
+            val state = usingState.get()
+            if (state == REMOVED) {
+                return false
+            }
+            val next = if (state == RETIRING) 1 else state + 1
+            if (usingState.compareAndSet(state, next)) {
+                return true
+            }
+        }
     }
 
     fun exitUsing() {
-        isUsing.set(0)
+        usingState.decrementAndGet()
+    }
+
+    /**
+     * 尝试锁定MailBox以判断是否可以移除，只有当前没有生产者进入时才能锁定成功；
+     * 锁定成功后调用markAsRemoved完成移除，或调用cancelRetire放弃移除
+     */
+    fun tryRetire(): Boolean {
+        return usingState.compareAndSet(0, RETIRING)
     }
 
-    fun markAsRemoved() {
-        isRemoved.set(1)
+    fun cancelRetire() {
+        usingState.compareAndSet(RETIRING, 0)
+    }
+
+    /**
+     * 将锁定的MailBox标记为已移除，如果锁定期间有生产者进入则返回false
+     */
+    fun markAsRemoved(): Boolean {
+        return usingState.compareAndSet(RETIRING, REMOVED)
     }
 
     fun isRemoved(): Boolean {
-        return isRemoved.get() == 1
+        return usingState.get() == REMOVED
     }
 
     private fun setAsNotRunning() {
-        isRunning = false
+        running.set(false)
+        if (isPauseRequested) {
+            tryCompletePause()
+        }
     }
 
+    companion object {
+        private const val RETIRING = -1
+        private const val REMOVED = -2
+    }
 
     init {
         lastActiveTime = Date()
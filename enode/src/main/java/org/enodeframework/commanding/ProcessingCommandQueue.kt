@@ -0,0 +1,28 @@
+package org.enodeframework.commanding
+
+/**
+ * 命令MailBox的消息容器，负责为命令分配连续递增的序号，并按序号存取命令
+ *
+ * @author anruence@gmail.com
+ */
+interface ProcessingCommandQueue {
+    /**
+     * 下一个待分配的序号，小于该序号的命令都已对消费者可见
+     */
+    fun nextSequence(): Long
+
+    /**
+     * 为命令分配序号并放入容器，返回是否放入成功
+     */
+    fun enqueue(message: ProcessingCommand): Boolean
+
+    /**
+     * 获取指定序号的命令，如果该命令已经完成则返回null
+     */
+    fun get(sequence: Long): ProcessingCommand?
+
+    /**
+     * 移除已完成的命令，返回是否移除成功
+     */
+    fun remove(message: ProcessingCommand): Boolean
+}
@@ -0,0 +1,16 @@
+package org.enodeframework.commanding
+
+/**
+ * A enum defines the message container used by the command mailbox.
+ */
+enum class ProcessingCommandQueueType {
+    /**
+     * Commands are stored in a ConcurrentHashMap keyed by sequence, enqueue is guarded by a monitor.
+     */
+    Default,
+
+    /**
+     * Commands are stored in a growable ring buffer, enqueue claims the sequence with CAS.
+     */
+    RingBuffer
+}
@@ -0,0 +1,49 @@
+package org.enodeframework.commanding.impl
+
+import org.enodeframework.domain.AggregateStorage
+import org.enodeframework.domain.Repository
+import org.enodeframework.queue.MessageContext
+import org.enodeframework.queue.QueueMessage
+import org.enodeframework.queue.SendReplyService
+import org.enodeframework.queue.command.GenericCommandMessage
+import java.util.concurrent.ArrayBlockingQueue
+
+/**
+ * DefaultCommandExecuteContext的对象池，命令完成并从MailBox中移除后归还上下文，供之后的命令复用；
+ * 池满时直接丢弃归还的上下文，池空时创建新的上下文，借出和归还都不会阻塞。
+ *
+ * @author anruence@gmail.com
+ */
+class CommandExecuteContextPool(
+    private val repository: Repository,
+    private val aggregateRootStorage: AggregateStorage,
+    private val sendReplyService: SendReplyService,
+    maxPoolSize: Int = 1024
+) {
+    private val contexts = ArrayBlockingQueue<DefaultCommandExecuteContext>(maxPoolSize)
+
+    fun borrow(
+        queueMessage: QueueMessage,
+        messageContext: MessageContext,
+        genericCommandMessage: GenericCommandMessage
+    ): DefaultCommandExecuteContext {
+        val context = contexts.poll()
+        if (context == null) {
+            val created = DefaultCommandExecuteContext(
+                repository, aggregateRootStorage, queueMessage, messageContext, genericCommandMessage, sendReplyService
+            )
+            created.pool = this
+            return created
+        }
+        context.reset(queueMessage, messageContext, genericCommandMessage)
+        return context
+    }
+
+    fun recycle(context: DefaultCommandExecuteContext) {
+        contexts.offer(context)
+    }
+
+    fun size(): Int {
+        return contexts.size
+    }
+}
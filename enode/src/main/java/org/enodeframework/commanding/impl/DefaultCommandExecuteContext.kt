@@ -19,32 +19,38 @@ import org.enodeframework.queue.SendReplyService
 import org.enodeframework.queue.command.CommandHandledMessage
 import org.enodeframework.queue.command.GenericCommandMessage
 import java.util.concurrent.CompletableFuture
-import java.util.concurrent.ConcurrentHashMap
-import java.util.concurrent.ConcurrentMap
 
 /**
+ * 命令执行的上下文，绝大多数命令只会访问一个聚合根，所以第一个聚合根保存在单独的字段中，更多的聚合根才使用数组保存；
+ * 通过CommandExecuteContextPool创建的上下文在命令完成后会被回收复用。
+ *
  * @author anruence@gmail.com
  */
 class DefaultCommandExecuteContext(
-    repository: Repository,
-    aggregateRootStorage: AggregateStorage,
+    private val repository: Repository,
+    private val aggregateRootStorage: AggregateStorage,
     queueMessage: QueueMessage,
     messageContext: MessageContext,
     genericCommandMessage: GenericCommandMessage,
-    sendReplyService: SendReplyService
-) : CommandExecuteContext {
-    private val trackingAggregateRootDict: ConcurrentMap<String, AggregateRoot>
-    private val repository: Repository
-    private val aggregateRootStorage: AggregateStorage
     private val sendReplyService: SendReplyService
-    private val queueMessage: QueueMessage
-    private val messageContext: MessageContext
-    private val genericCommandMessage: GenericCommandMessage
+) : CommandExecuteContext {
+    private var queueMessage: QueueMessage? = queueMessage
+    private var messageContext: MessageContext? = messageContext
+    private var genericCommandMessage: GenericCommandMessage? = genericCommandMessage
+    private var firstAggregateRoot: AggregateRoot? = null
+    private var moreAggregateRoots: Array<AggregateRoot?> = EMPTY_AGGREGATE_ROOTS
+    private var trackedCount = 0
+
+    /**
+     * 创建该上下文的对象池，为空表示不回收
+     */
+    internal var pool: CommandExecuteContextPool? = null
     override var result: String = ""
     override var applicationMessage: ApplicationMessage? = null
     override fun onCommandExecutedAsync(commandResult: CommandResult): CompletableFuture<Boolean> {
-        messageContext.onMessageHandled(queueMessage)
-        if (Strings.isNullOrEmpty(genericCommandMessage.replyAddress)) {
+        messageContext!!.onMessageHandled(queueMessage!!)
+        val replyAddress = genericCommandMessage!!.replyAddress
+        if (Strings.isNullOrEmpty(replyAddress)) {
             return Task.completedTask
         }
         val message = CommandHandledMessage()
@@ -53,7 +59,7 @@ class DefaultCommandExecuteContext(
         message.aggregateRootId = commandResult.aggregateRootId
         message.status = commandResult.status
         message.result = commandResult.result
-        message.address = genericCommandMessage.replyAddress
+        message.address = replyAddress
         sendReplyService.send(message)
         return Task.completedTask
     }
@@ -64,10 +70,12 @@ class DefaultCommandExecuteContext(
 
     private fun addInternal(aggregateRoot: AggregateRoot) {
         Assert.nonNull(aggregateRoot, "aggregateRoot")
-        if (trackingAggregateRootDict.containsKey(aggregateRoot.uniqueId)) {
-            throw AggregateRootAlreadyExistException(aggregateRoot.uniqueId, aggregateRoot.javaClass)
+        synchronized(this) {
+            if (findTracked(aggregateRoot.uniqueId) != null) {
+                throw AggregateRootAlreadyExistException(aggregateRoot.uniqueId, aggregateRoot.javaClass)
+            }
+            appendTracked(aggregateRoot)
         }
-        trackingAggregateRootDict[aggregateRoot.uniqueId] = aggregateRoot
     }
 
     override fun addAsync(aggregateRoot: AggregateRoot): CompletableFuture<Boolean> {
@@ -84,7 +92,7 @@ class DefaultCommandExecuteContext(
         aggregateRootType: Class<T>
     ): CompletableFuture<T> {
         Assert.nonNull(id, "id")
-        val trackingAggregateRoot = trackingAggregateRootDict[id] as T
+        val trackingAggregateRoot = synchronized(this) { findTracked(id) } as T
         var future = CompletableFuture<T>()
         if (trackingAggregateRoot != null) {
             future.complete(trackingAggregateRoot)
@@ -99,7 +107,7 @@ class DefaultCommandExecuteContext(
             if (aggregateRoot == null) {
                 throw AggregateRootNotFoundException(id, aggregateRootType)
             }
-            trackingAggregateRootDict[aggregateRoot.uniqueId] = aggregateRoot
+            replaceTracked(aggregateRoot)
             repository.refreshAggregate(aggregateRoot)
             aggregateRoot
         }
@@ -117,21 +125,107 @@ class DefaultCommandExecuteContext(
         return getAsync(id, aggregateRootType).await()
     }
 
+    /**
+     * 返回跟踪的聚合根的快照，上下文被回收复用之后快照也不会改变；绝大多数命令只跟踪一个聚合根，不需要创建数组
+     */
     override val trackedAggregateRoots: List<AggregateRoot>
-        get() = ArrayList(trackingAggregateRootDict.values)
+        get() = synchronized(this) {
+            when (trackedCount) {
+                0 -> emptyList()
+                1 -> listOf(firstAggregateRoot!!)
+                else -> {
+                    val aggregateRoots = ArrayList<AggregateRoot>(trackedCount)
+                    aggregateRoots.add(firstAggregateRoot!!)
+                    for (i in 0 until trackedCount - 1) {
+                        aggregateRoots.add(moreAggregateRoots[i]!!)
+                    }
+                    aggregateRoots
+                }
+            }
+        }
 
     override fun clear() {
-        trackingAggregateRootDict.clear()
+        clearTracked()
         result = ""
     }
 
-    init {
-        trackingAggregateRootDict = ConcurrentHashMap()
-        this.repository = repository
-        this.aggregateRootStorage = aggregateRootStorage
-        this.sendReplyService = sendReplyService
+    /**
+     * 归还到对象池，释放对消息和聚合根的引用
+     */
+    override fun release() {
+        val pool = this.pool ?: return
+        clearTracked()
+        result = ""
+        applicationMessage = null
+        queueMessage = null
+        messageContext = null
+        genericCommandMessage = null
+        pool.recycle(this)
+    }
+
+    internal fun reset(
+        queueMessage: QueueMessage,
+        messageContext: MessageContext,
+        genericCommandMessage: GenericCommandMessage
+    ) {
         this.queueMessage = queueMessage
-        this.genericCommandMessage = genericCommandMessage
         this.messageContext = messageContext
+        this.genericCommandMessage = genericCommandMessage
+    }
+
+    private fun findTracked(id: String): AggregateRoot? {
+        val first = firstAggregateRoot ?: return null
+        if (first.uniqueId == id) {
+            return first
+        }
+        for (i in 0 until trackedCount - 1) {
+            val aggregateRoot = moreAggregateRoots[i]!!
+            if (aggregateRoot.uniqueId == id) {
+                return aggregateRoot
+            }
+        }
+        return null
+    }
+
+    private fun appendTracked(aggregateRoot: AggregateRoot) {
+        if (trackedCount == 0) {
+            firstAggregateRoot = aggregateRoot
+        } else {
+            val index = trackedCount - 1
+            if (index == moreAggregateRoots.size) {
+                moreAggregateRoots = moreAggregateRoots.copyOf(maxOf(4, index * 2))
+            }
+            moreAggregateRoots[index] = aggregateRoot
+        }
+        trackedCount++
+    }
+
+    private fun replaceTracked(aggregateRoot: AggregateRoot) {
+        synchronized(this) {
+            val id = aggregateRoot.uniqueId
+            if (firstAggregateRoot?.uniqueId == id) {
+                firstAggregateRoot = aggregateRoot
+                return
+            }
+            for (i in 0 until trackedCount - 1) {
+                if (moreAggregateRoots[i]!!.uniqueId == id) {
+                    moreAggregateRoots[i] = aggregateRoot
+                    return
+                }
+            }
+            appendTracked(aggregateRoot)
+        }
+    }
+
+    private fun clearTracked() {
+        synchronized(this) {
+            firstAggregateRoot = null
+            moreAggregateRoots.fill(null, 0, maxOf(0, trackedCount - 1))
+            trackedCount = 0
+        }
+    }
+
+    companion object {
+        private val EMPTY_AGGREGATE_ROOTS = arrayOfNulls<AggregateRoot>(0)
     }
-}
\ No newline at end of file
+}
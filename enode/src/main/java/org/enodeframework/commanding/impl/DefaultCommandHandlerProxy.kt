@@ -4,11 +4,10 @@ import kotlinx.coroutines.future.await
 import org.enodeframework.commanding.CommandContext
 import org.enodeframework.commanding.CommandHandlerProxy
 import org.enodeframework.commanding.CommandMessage
-import reactor.core.publisher.Flux
-import reactor.core.publisher.Mono
+import org.enodeframework.infrastructure.impl.HandlerResultConverter
 import java.lang.invoke.MethodHandle
 import java.lang.reflect.Method
-import java.util.concurrent.CompletionStage
+import java.util.concurrent.CompletableFuture
 import kotlin.coroutines.intrinsics.suspendCoroutineUninterceptedOrReturn
 import kotlin.reflect.jvm.kotlinFunction
 
@@ -19,26 +18,19 @@ class DefaultCommandHandlerProxy : CommandHandlerProxy {
     private lateinit var innerObject: Any
     private lateinit var methodHandle: MethodHandle
     private lateinit var method: Method
+    private var suspendMethod = false
 
     override suspend fun handleAsync(context: CommandContext, command: CommandMessage) {
-        if (method.kotlinFunction?.isSuspend == true) {
+        if (suspendMethod) {
             invokeSuspend(getInnerObject(), context, command)
             return
         }
-        if (CompletionStage::class.java.isAssignableFrom(method.returnType)) {
-            val result = methodHandle.invoke(getInnerObject(), context, command) as CompletionStage<*>
-            Mono.fromCompletionStage(result).toFuture().await()
-        } else if (Mono::class.java.isAssignableFrom(method.returnType)) {
-            val result = methodHandle.invoke(getInnerObject(), context, command) as Mono<*>
-            result.toFuture().await()
-        } else if (Flux::class.java.isAssignableFrom(method.returnType)) {
-            val result = methodHandle.invoke(getInnerObject(), context, command) as Flux<*>
-            result.all { true }.toFuture().await()
-        } else {
-            Mono.fromCallable {
-                methodHandle.invoke(getInnerObject(), context, command)
-            }.toFuture().await()
-        }
+        handle(context, command).await()
+    }
+
+    override fun handle(context: CommandContext, command: CommandMessage): CompletableFuture<*> {
+        val result = methodHandle.invoke(getInnerObject(), context, command)
+        return HandlerResultConverter.toFuture(method.returnType, result)
     }
 
     private suspend fun invokeSuspend(obj: Any, context: CommandContext, command: CommandMessage): Any? =
@@ -64,5 +56,10 @@ class DefaultCommandHandlerProxy : CommandHandlerProxy {
 
     override fun setMethod(method: Method) {
         this.method = method
+        this.suspendMethod = method.kotlinFunction?.isSuspend == true
+    }
+
+    override fun isSuspendMethod(): Boolean {
+        return suspendMethod
     }
-}
\ No newline at end of file
+}
@@ -5,11 +5,14 @@ import org.enodeframework.commanding.CommandProcessor
 import org.enodeframework.commanding.ProcessingCommand
 import org.enodeframework.commanding.ProcessingCommandHandler
 import org.enodeframework.commanding.ProcessingCommandMailbox
-import org.enodeframework.common.io.Task
+import org.enodeframework.commanding.ProcessingCommandQueue
+import org.enodeframework.commanding.ProcessingCommandQueueType
+import org.enodeframework.common.extensions.AggregateHotspotMonitor
+import org.enodeframework.common.extensions.NoOpAggregateHotspotMonitor
 import org.enodeframework.common.scheduling.ScheduleService
 import org.enodeframework.common.utils.Assert
+import org.enodeframework.queue.MessageFlowController
 import org.slf4j.LoggerFactory
-import java.util.*
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ConcurrentMap
 
@@ -22,6 +25,7 @@ class DefaultCommandProcessor(
     private val coroutineDispatcher: CoroutineDispatcher,
     /**
      * 当使用默认的从内存清理聚合根的服务时，该属性用于配置扫描过期的聚合根的时间间隔，默认为5秒；
+     * MailBox注册到时间轮中按到期时间检查，该属性为MailBox到期时仍在处理命令时再次检查的间隔；
      */
     private val scanExpiredAggregateIntervalMilliseconds: Int = 5000,
     /**
@@ -31,87 +35,136 @@ class DefaultCommandProcessor(
     /**
      * CommandMailBox中的命令处理时一次最多处理多少个命令，默认为1000个
      */
-    private val commandMailBoxPersistenceMaxBatchSize: Int = 1000
+    private val commandMailBoxPersistenceMaxBatchSize: Int = 1000,
+    /**
+     * CommandMailBox中存放命令的容器类型，默认为基于ConcurrentHashMap的实现
+     */
+    private val commandMailBoxQueueType: ProcessingCommandQueueType = ProcessingCommandQueueType.Default,
+    /**
+     * 命令MailBox的积压消息的流量控制，默认不限制
+     */
+    private val flowController: MessageFlowController = MessageFlowController(),
+    /**
+     * 热点聚合根的监控，抽样记录命令的速率和MailBox的积压，默认不监控
+     */
+    private val hotspotMonitor: AggregateHotspotMonitor = NoOpAggregateHotspotMonitor.INSTANCE
 ) : CommandProcessor {
     constructor(
         processingCommandHandler: ProcessingCommandHandler,
         scheduleService: ScheduleService,
         coroutineDispatcher: CoroutineDispatcher
     ) : this(
-        processingCommandHandler, scheduleService, coroutineDispatcher, 5000, 3600 * 24 * 3, 1000
+        processingCommandHandler,
+        scheduleService,
+        coroutineDispatcher,
+        5000,
+        3600 * 24 * 3,
+        1000,
+        ProcessingCommandQueueType.Default,
+        MessageFlowController()
     )
 
     private val logger = LoggerFactory.getLogger(DefaultCommandProcessor::class.java)
     private val mailboxDict: ConcurrentMap<String, ProcessingCommandMailbox>
-    private val taskName: String
+
+    @Volatile
+    private var started = false
     override fun process(processingCommand: ProcessingCommand) {
         val aggregateRootId = processingCommand.message.aggregateRootId
         Assert.nonNullOrEmpty(
             aggregateRootId,
             "aggregateRootId of command, commandId: ${processingCommand.message.id}"
         )
-        var mailbox = mailboxDict.computeIfAbsent(aggregateRootId) { x: String ->
-            ProcessingCommandMailbox(
-                x, processingCommandHandler, coroutineDispatcher, commandMailBoxPersistenceMaxBatchSize
-            )
-        }
-        var mailboxTryUsingCount = 0L
-        while (!mailbox.tryUsing()) {
-            Task.sleep(1)
-            mailboxTryUsingCount++
-            if (mailboxTryUsingCount % 10000 == 0L) {
-                logger.warn(
-                    "Command mailbox try using count: {}, aggregateRootId: {}",
-                    mailboxTryUsingCount,
-                    mailbox.aggregateRootId
-                )
+        // 热点聚合根的MailBox积压过多时，只让发送该命令的消费线程等待，不暂停所有的消费者
+        mailboxDict[aggregateRootId]?.awaitAvailable()
+        // 不阻塞等待MailBox：MailBox允许多个生产者同时入队，如果遇到已被清理的MailBox，则将其从字典中移除后重新创建
+        while (true) {
+            val mailbox = mailboxDict.computeIfAbsent(aggregateRootId) { x: String ->
+                buildProcessingCommandMailbox(x).also { scheduleCleanInactiveMailbox(it) }
             }
-        }
-        if (mailbox.isRemoved()) {
-            mailbox = mailboxDict.computeIfAbsent(aggregateRootId) { x: String ->
-                ProcessingCommandMailbox(
-                    x, processingCommandHandler, coroutineDispatcher, commandMailBoxPersistenceMaxBatchSize
-                )
+            if (mailbox.tryUsing()) {
+                try {
+                    mailbox.enqueueMessage(processingCommand)
+                    if (hotspotMonitor.isSampled) {
+                        hotspotMonitor.onMessageEnqueued(
+                            AggregateHotspotMonitor.COMMAND_PROCESSOR,
+                            aggregateRootId,
+                            mailbox.getTotalUnHandledMessageCount()
+                        )
+                    }
+                } finally {
+                    mailbox.exitUsing()
+                }
+                return
             }
+            mailboxDict.remove(aggregateRootId, mailbox)
         }
-        mailbox.enqueueMessage(processingCommand)
-        mailbox.exitUsing()
     }
 
-    override fun start() {
-        scheduleService.startTask(
-            taskName,
-            { cleanInactiveMailbox() },
-            scanExpiredAggregateIntervalMilliseconds,
-            scanExpiredAggregateIntervalMilliseconds
+    private fun buildProcessingCommandMailbox(aggregateRootId: String): ProcessingCommandMailbox {
+        return ProcessingCommandMailbox(
+            aggregateRootId,
+            processingCommandHandler,
+            coroutineDispatcher,
+            commandMailBoxPersistenceMaxBatchSize,
+            buildProcessingCommandQueue(),
+            flowController
         )
     }
 
+    private fun buildProcessingCommandQueue(): ProcessingCommandQueue {
+        return when (commandMailBoxQueueType) {
+            ProcessingCommandQueueType.RingBuffer -> RingBufferProcessingCommandQueue()
+            ProcessingCommandQueueType.Default -> DefaultProcessingCommandQueue()
+        }
+    }
+
+    override fun start() {
+        started = true
+    }
+
     override fun stop() {
-        scheduleService.stopTask(taskName)
+        started = false
     }
 
     private fun isMailBoxAllowRemove(mailbox: ProcessingCommandMailbox): Boolean {
         return mailbox.isInactive(aggregateRootMaxInactiveSeconds) && !mailbox.isRunning && mailbox.getTotalUnHandledMessageCount() == 0L
     }
 
-    private fun cleanInactiveMailbox() {
-        val inactiveList: List<Map.Entry<String, ProcessingCommandMailbox>> =
-            mailboxDict.entries.filter { entry -> isMailBoxAllowRemove(entry.value) }
-        inactiveList.forEach { entry: Map.Entry<String, ProcessingCommandMailbox> ->
-            if (isMailBoxAllowRemove(entry.value)) {
-                val removed = mailboxDict.remove(entry.key)
-                if (removed != null) {
-                    removed.markAsRemoved()
-                    logger.info("Removed inactive command mailbox, aggregateRootId: {}", entry.key)
+    private fun scheduleCleanInactiveMailbox(mailbox: ProcessingCommandMailbox) {
+        val delayMillis = mailbox.getRemainingActiveMillis(aggregateRootMaxInactiveSeconds)
+        scheduleService.newTimeout({ cleanInactiveMailbox(mailbox) }, delayMillis)
+    }
+
+    /**
+     * MailBox的到期检查，只有到期的MailBox会被处理；期间有过活动的MailBox按最新的活跃时间重新注册
+     */
+    private fun cleanInactiveMailbox(mailbox: ProcessingCommandMailbox) {
+        // 未被移除的MailBox一定在字典中（或正在放入字典），已被移除的MailBox不再需要检查
+        if (mailbox.isRemoved()) {
+            return
+        }
+        val aggregateRootId = mailbox.aggregateRootId
+        if (!mailbox.isInactive(aggregateRootMaxInactiveSeconds)) {
+            scheduleCleanInactiveMailbox(mailbox)
+            return
+        }
+        if (started && mailbox.tryRetire()) {
+            if (isMailBoxAllowRemove(mailbox)) {
+                if (mailbox.markAsRemoved()) {
+                    if (mailboxDict.remove(aggregateRootId, mailbox)) {
+                        logger.info("Removed inactive command mailbox, aggregateRootId: {}", aggregateRootId)
+                    }
+                    return
                 }
+            } else {
+                mailbox.cancelRetire()
             }
         }
+        scheduleService.newTimeout({ cleanInactiveMailbox(mailbox) }, scanExpiredAggregateIntervalMilliseconds.toLong())
     }
 
-
     init {
         mailboxDict = ConcurrentHashMap()
-        taskName = "CleanInactiveProcessingCommandMailBoxes_" + System.nanoTime() + Random().nextInt(10000)
     }
 }
\ No newline at end of file
@@ -0,0 +1,47 @@
+package org.enodeframework.commanding.impl
+
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import org.enodeframework.commanding.ProcessedCommandCache
+import org.enodeframework.eventing.DomainEventStream
+import java.util.concurrent.TimeUnit
+
+/**
+ * 最近提交成功的命令的缓存，容量和时间窗口都有上限；只记录当前进程提交的命令，
+ * 所以只能用于肯定的回答，未命中时仍然需要查询EventStore。
+ *
+ * @author anruence@gmail.com
+ */
+class DefaultProcessedCommandCache(
+    /**
+     * 缓存的最大命令数
+     */
+    maxSize: Long = 10000,
+    /**
+     * 命令在缓存中保留的秒数
+     */
+    expireSeconds: Long = 600
+) : ProcessedCommandCache {
+    private val eventStreamDict: Cache<String, DomainEventStream> =
+        CacheBuilder.newBuilder().maximumSize(maxSize).expireAfterWrite(expireSeconds, TimeUnit.SECONDS).build()
+
+    override fun add(eventStream: DomainEventStream) {
+        if (eventStream.commandId.isEmpty()) {
+            return
+        }
+        eventStreamDict.put(eventStream.commandId, eventStream)
+    }
+
+    override fun get(aggregateRootId: String, commandId: String): DomainEventStream? {
+        val eventStream = eventStreamDict.getIfPresent(commandId) ?: return null
+        // 命令Id只在同一个聚合根内唯一
+        if (eventStream.aggregateRootId != aggregateRootId) {
+            return null
+        }
+        return eventStream
+    }
+
+    fun size(): Long {
+        return eventStreamDict.size()
+    }
+}
@@ -2,19 +2,19 @@ package org.enodeframework.commanding.impl
 
 import com.google.common.base.Strings
 import kotlinx.coroutines.CoroutineDispatcher
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.async
-import kotlinx.coroutines.future.asCompletableFuture
 import org.enodeframework.commanding.CommandHandlerProvider
 import org.enodeframework.commanding.CommandHandlerProxy
 import org.enodeframework.commanding.CommandResult
 import org.enodeframework.commanding.CommandStatus
 import org.enodeframework.commanding.HandlerFindResult
 import org.enodeframework.commanding.HandlerFindStatus
+import org.enodeframework.commanding.ProcessedCommandCache
 import org.enodeframework.commanding.ProcessingCommand
 import org.enodeframework.commanding.ProcessingCommandHandler
+import org.enodeframework.commanding.ProcessingCommandMailbox
 import org.enodeframework.common.exception.AggregateRootReferenceChangedException
 import org.enodeframework.common.extensions.SysProperties
+import org.enodeframework.common.io.DispatchingExecutor
 import org.enodeframework.common.io.IOHelper
 import org.enodeframework.common.io.Task
 import org.enodeframework.common.serializing.SerializeService
@@ -34,6 +34,7 @@ import org.slf4j.LoggerFactory
 import java.util.*
 import java.util.concurrent.CompletableFuture
 import java.util.concurrent.CompletionException
+import java.util.concurrent.ConcurrentHashMap
 import java.util.function.Function
 
 /**
@@ -48,9 +49,48 @@ class DefaultProcessingCommandHandler(
     private val applicationMessagePublisher: MessagePublisher<ApplicationMessage>,
     private val exceptionPublisher: MessagePublisher<DomainExceptionMessage>,
     private val serializeService: SerializeService,
-    private val coroutineDispatcher: CoroutineDispatcher
+    coroutineDispatcher: CoroutineDispatcher,
+    /**
+     * 同一个聚合根连续处理的多个命令合并提交的最大数量，合并后的事件流在同一次批量持久化中提交；默认为1，表示不合并
+     */
+    private val commandCommitBatchSize: Int = 1,
+    /**
+     * 最近提交成功的命令，重复处理的命令先从这里查找已经提交的事件流，未命中时再查询EventStore
+     */
+    private val processedCommandCache: ProcessedCommandCache = NoOpProcessedCommandCache
 ) : ProcessingCommandHandler {
+    constructor(
+        eventStore: EventStore,
+        commandHandlerProvider: CommandHandlerProvider,
+        typeNameProvider: TypeNameProvider,
+        eventCommittingService: EventCommittingService,
+        memoryCache: MemoryCache,
+        applicationMessagePublisher: MessagePublisher<ApplicationMessage>,
+        exceptionPublisher: MessagePublisher<DomainExceptionMessage>,
+        serializeService: SerializeService,
+        coroutineDispatcher: CoroutineDispatcher
+    ) : this(
+        eventStore,
+        commandHandlerProvider,
+        typeNameProvider,
+        eventCommittingService,
+        memoryCache,
+        applicationMessagePublisher,
+        exceptionPublisher,
+        serializeService,
+        coroutineDispatcher,
+        1,
+        NoOpProcessedCommandCache
+    )
+
     private val logger = LoggerFactory.getLogger(DefaultProcessingCommandHandler::class.java)
+    private val dispatchingExecutor = DispatchingExecutor(coroutineDispatcher)
+
+    /**
+     * 等待合并提交的事件流，按命令的聚合根Id分组；同一个聚合根的命令在MailBox中是串行处理的，所以每个列表同一时刻只会被一个线程访问
+     */
+    private val pendingCommittingContextDict: ConcurrentHashMap<String, PendingCommittingContexts> =
+        ConcurrentHashMap()
 
     override fun handleAsync(processingCommand: ProcessingCommand): CompletableFuture<Boolean> {
         val command = processingCommand.message
@@ -118,9 +158,11 @@ class DefaultProcessingCommandHandler(
         val taskSource = CompletableFuture<Boolean>()
         IOHelper.tryAsyncActionRecursivelyWithoutResult("HandleCommandAsync", {
             commandContext.clear()
-            CoroutineScope(coroutineDispatcher).async {
-                commandHandler.handleAsync(commandContext, command)
-            }.asCompletableFuture()
+            if (commandHandler.isSuspendMethod()) {
+                dispatchingExecutor.executeSuspend { commandHandler.handleAsync(commandContext, command) }
+            } else {
+                dispatchingExecutor.executeAsync { commandHandler.handle(commandContext, command) }
+            }
         }, {
             if (logger.isDebugEnabled) {
                 logger.debug(
@@ -241,17 +283,68 @@ class DefaultProcessingCommandHandler(
         val commandResult = processingCommand.commandExecuteContext.result
         processingCommand.items[SysProperties.ITEMS_COMMAND_RESULT_KEY] = commandResult
         //提交事件流进行后续的处理
-        eventCommittingService.commitDomainEventAsync(EventCommittingContext(eventStream, processingCommand))
+        val committingContext = EventCommittingContext(eventStream, processingCommand)
+        if (commandCommitBatchSize <= 1) {
+            eventCommittingService.commitDomainEventAsync(committingContext)
+            return Task.completedTask
+        }
+        commitOrBufferCommittingContext(committingContext)
         return Task.completedTask
     }
 
+    /**
+     * 合并提交模式下，MailBox中还有后续命令时先暂存事件流，等攒够一批或者没有后续命令时再一起提交；
+     * 剩余数量包含重置consumingSequence之后已经完成的命令，只是一个估计，MailBox的本次运行结束时总会提交暂存的事件流；
+     * 每个命令仍然有自己的事件流，所以命令结果、重复命令的检测和版本冲突的处理都和逐个提交时一样
+     */
+    private fun commitOrBufferCommittingContext(committingContext: EventCommittingContext) {
+        val processingCommand = committingContext.processingCommand
+        val mailbox = processingCommand.mailBox
+        // 按命令所在的MailBox暂存，MailBox重置过consumingSequence说明暂存的命令会被重新处理，需要丢弃
+        val pending = pendingCommittingContextDict.compute(processingCommand.message.aggregateRootId) { _, x ->
+            if (x == null || x.resetCount != mailbox.resetCount) PendingCommittingContexts(mailbox.resetCount) else x
+        }!!
+        pending.contexts.add(committingContext)
+        // 当前命令还没有被MailBox标记为已消费，所以剩余数量大于1才说明还有后续命令
+        if (pending.contexts.size < commandCommitBatchSize && mailbox.getTotalUnHandledMessageCount() > 1) {
+            return
+        }
+        flushPendingCommittingContexts(processingCommand)
+    }
+
+    override fun onRunCompleted(mailbox: ProcessingCommandMailbox) {
+        flushPendingCommittingContexts(mailbox)
+    }
+
+    /**
+     * 提交暂存的事件流，命令以其他方式完成之前也需要先提交，保证之前的命令不会一直等待
+     */
+    private fun flushPendingCommittingContexts(processingCommand: ProcessingCommand) {
+        flushPendingCommittingContexts(processingCommand.mailBox)
+    }
+
+    private fun flushPendingCommittingContexts(mailbox: ProcessingCommandMailbox) {
+        if (commandCommitBatchSize <= 1 || pendingCommittingContextDict.isEmpty()) {
+            return
+        }
+        val pending = pendingCommittingContextDict.remove(mailbox.aggregateRootId) ?: return
+        if (pending.resetCount == mailbox.resetCount && pending.contexts.isNotEmpty()) {
+            eventCommittingService.commitDomainEventsAsync(pending.contexts)
+        }
+    }
+
+    private class PendingCommittingContexts(val resetCount: Long) {
+        val contexts: MutableList<EventCommittingContext> = ArrayList()
+    }
+
     private fun republishCommandEvents(
         processingCommand: ProcessingCommand, retryTimes: Int
     ): CompletableFuture<Boolean> {
+        flushPendingCommittingContexts(processingCommand)
         val future = CompletableFuture<Boolean>()
         val command = processingCommand.message
         IOHelper.tryAsyncActionRecursively("ProcessIfNoEventsOfCommand", {
-            eventStore.findAsync(command.aggregateRootId, command.id)
+            findCommittedEventStreamAsync(command.aggregateRootId, command.id)
         }, { result: DomainEventStream? ->
             if (result != null) {
                 eventCommittingService.publishDomainEventAsync(processingCommand, result)
@@ -270,6 +363,16 @@ class DefaultProcessingCommandHandler(
         return future
     }
 
+    private fun findCommittedEventStreamAsync(
+        aggregateRootId: String, commandId: String
+    ): CompletableFuture<DomainEventStream?> {
+        val eventStream = processedCommandCache.get(aggregateRootId, commandId)
+        if (eventStream != null) {
+            return CompletableFuture.completedFuture(eventStream)
+        }
+        return eventStore.findAsync(aggregateRootId, commandId)
+    }
+
     private fun handleExceptionAsync(
         processingCommand: ProcessingCommand,
         commandHandler: CommandHandlerProxy,
@@ -278,9 +381,10 @@ class DefaultProcessingCommandHandler(
         retryTimes: Int
     ): CompletableFuture<Boolean> {
         val command = processingCommand.message
+        flushPendingCommittingContexts(processingCommand)
         val future = CompletableFuture<Boolean>()
         IOHelper.tryAsyncActionRecursively("FindEventByCommandIdAsync", {
-            eventStore.findAsync(command.aggregateRootId, command.id)
+            findCommittedEventStreamAsync(command.aggregateRootId, command.id)
         }, { result: DomainEventStream? ->
             if (result != null) {
                 //这里，我们需要再重新做一遍发布事件这个操作；
@@ -398,6 +502,7 @@ class DefaultProcessingCommandHandler(
     private fun completeCommand(
         processingCommand: ProcessingCommand, commandStatus: CommandStatus, resultType: String, result: String
     ): CompletableFuture<Boolean> {
+        flushPendingCommittingContexts(processingCommand)
         val commandResult = CommandResult(
             commandStatus,
             processingCommand.message.id,
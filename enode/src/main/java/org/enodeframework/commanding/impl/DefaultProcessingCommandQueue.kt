@@ -0,0 +1,40 @@
+package org.enodeframework.commanding.impl
+
+import org.enodeframework.commanding.ProcessingCommand
+import org.enodeframework.commanding.ProcessingCommandQueue
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * @author anruence@gmail.com
+ */
+class DefaultProcessingCommandQueue : ProcessingCommandQueue {
+    private val lockObj = Any()
+    private val messageDict: ConcurrentHashMap<Long, ProcessingCommand> = ConcurrentHashMap()
+
+    @Volatile
+    private var nextSequence: Long = 0
+
+    override fun nextSequence(): Long {
+        return nextSequence
+    }
+
+    override fun enqueue(message: ProcessingCommand): Boolean {
+        synchronized(lockObj) {
+            message.sequence = nextSequence
+            // If the specified key is not already associated with a value (or is mapped to null) associates it with the given value and returns null, else returns the current value.
+            if (messageDict.putIfAbsent(message.sequence, message) == null) {
+                nextSequence++
+                return true
+            }
+            return false
+        }
+    }
+
+    override fun get(sequence: Long): ProcessingCommand? {
+        return messageDict[sequence]
+    }
+
+    override fun remove(message: ProcessingCommand): Boolean {
+        return messageDict.remove(message.sequence) != null
+    }
+}
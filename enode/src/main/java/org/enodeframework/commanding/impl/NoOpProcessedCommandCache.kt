@@ -0,0 +1,16 @@
+package org.enodeframework.commanding.impl
+
+import org.enodeframework.commanding.ProcessedCommandCache
+import org.enodeframework.eventing.DomainEventStream
+
+/**
+ * A processed command cache that remembers nothing, every lookup goes to the event store.
+ */
+object NoOpProcessedCommandCache : ProcessedCommandCache {
+    override fun add(eventStream: DomainEventStream) {
+    }
+
+    override fun get(aggregateRootId: String, commandId: String): DomainEventStream? {
+        return null
+    }
+}
@@ -0,0 +1,173 @@
+package org.enodeframework.commanding.impl
+
+import org.enodeframework.commanding.ProcessingCommand
+import org.enodeframework.commanding.ProcessingCommandQueue
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * 基于可扩容环形数组的命令容器，支持多生产者并发入队、单消费者按序号消费。
+ * 入队时通过CAS分配序号并写入槽位，不需要获取锁，也不需要为每个命令分配额外的Map节点；
+ * 只有当未完成的命令数超过当前容量时，才会在扩容锁内将数组扩大一倍。
+ *
+ * @author anruence@gmail.com
+ */
+class RingBufferProcessingCommandQueue(initialCapacity: Int = 16) : ProcessingCommandQueue {
+    private val growLock = Any()
+
+    @Volatile
+    private var buffer: AtomicReferenceArray<Any?>
+
+    /**
+     * 已分配的序号
+     */
+    private val claimSequence = AtomicLong(0)
+
+    /**
+     * 已发布的序号，消费者只能看到小于该序号的命令
+     */
+    private val publishSequence = AtomicLong(0)
+
+    /**
+     * 最小的未完成的序号，小于该序号的槽位都可以被复用
+     */
+    private val headSequence = AtomicLong(0)
+
+    override fun nextSequence(): Long {
+        return publishSequence.get()
+    }
+
+    override fun enqueue(message: ProcessingCommand): Boolean {
+        val sequence = claimSequence.getAndIncrement()
+        message.sequence = sequence
+        store(sequence, message)
+        advancePublish()
+        return true
+    }
+
+    override fun get(sequence: Long): ProcessingCommand? {
+        if (sequence < headSequence.get()) {
+            return null
+        }
+        while (true) {
+            val current = buffer
+            val value = current.get(indexOf(current, sequence))
+            if (value === MOVED) {
+                awaitGrow(current)
+                continue
+            }
+            val message = value as ProcessingCommand? ?: return null
+            return if (message.sequence == sequence) message else null
+        }
+    }
+
+    override fun remove(message: ProcessingCommand): Boolean {
+        while (true) {
+            val current = buffer
+            val index = indexOf(current, message.sequence)
+            val value = current.get(index)
+            if (value === MOVED) {
+                awaitGrow(current)
+                continue
+            }
+            if (value !== message) {
+                return false
+            }
+            if (current.compareAndSet(index, message, null)) {
+                advanceHead()
+                return true
+            }
+        }
+    }
+
+    private fun store(sequence: Long, message: ProcessingCommand) {
+        while (true) {
+            val current = buffer
+            if (sequence - headSequence.get() >= current.length()) {
+                grow(sequence)
+                continue
+            }
+            if (current.compareAndSet(indexOf(current, sequence), null, message)) {
+                return
+            }
+            awaitGrow(current)
+        }
+    }
+
+    /**
+     * 按分配顺序推进发布序号，保证小于publishSequence的槽位都已写入；
+     * 生产者不等待前面的生产者写入完成，而是由最后写入的生产者帮助推进
+     */
+    private fun advancePublish() {
+        while (true) {
+            val publish = publishSequence.get()
+            if (publish >= claimSequence.get() || get(publish) == null) {
+                return
+            }
+            publishSequence.compareAndSet(publish, publish + 1)
+        }
+    }
+
+    /**
+     * 从最小的未完成序号开始，跳过已经完成的槽位
+     */
+    private fun advanceHead() {
+        while (true) {
+            val head = headSequence.get()
+            if (head >= publishSequence.get() || get(head) != null) {
+                return
+            }
+            headSequence.compareAndSet(head, head + 1)
+        }
+    }
+
+    /**
+     * 扩容时先把旧数组的每个槽位标记为MOVED，再把其中的命令迁移到新数组；
+     * 并发写入或移除遇到MOVED时，等待新数组发布后在新数组上重试
+     */
+    private fun grow(sequence: Long) {
+        synchronized(growLock) {
+            val current = buffer
+            var capacity = current.length()
+            while (sequence - headSequence.get() >= capacity) {
+                capacity = capacity shl 1
+            }
+            if (capacity == current.length()) {
+                return
+            }
+            val next = AtomicReferenceArray<Any?>(capacity)
+            for (i in 0 until current.length()) {
+                val value = current.getAndSet(i, MOVED)
+                if (value != null) {
+                    val message = value as ProcessingCommand
+                    next.set(indexOf(next, message.sequence), message)
+                }
+            }
+            buffer = next
+        }
+    }
+
+    /**
+     * 槽位被标记为MOVED时扩容一定正在进行，进入扩容锁即可等到新数组发布
+     */
+    private fun awaitGrow(current: AtomicReferenceArray<Any?>) {
+        if (buffer === current) {
+            synchronized(growLock) {}
+        }
+    }
+
+    private fun indexOf(array: AtomicReferenceArray<Any?>, sequence: Long): Int {
+        return (sequence and (array.length() - 1).toLong()).toInt()
+    }
+
+    companion object {
+        private val MOVED = Any()
+    }
+
+    init {
+        require(initialCapacity > 0 && initialCapacity and (initialCapacity - 1) == 0) {
+            "initialCapacity must be a power of 2, but was $initialCapacity"
+        }
+        buffer = AtomicReferenceArray(initialCapacity)
+    }
+}
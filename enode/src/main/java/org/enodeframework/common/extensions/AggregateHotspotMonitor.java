@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.enodeframework.common.extensions;
+
+/**
+ * Samples the messages enqueued into the per aggregate mailboxes, so that the aggregates with the highest
+ * message rate or the largest backlog can be reported.
+ * <p>
+ * Callers ask {@link #isSampled()} first and only compute the backlog of the sampled messages, which keeps the
+ * overhead of an unsampled message to a single check.
+ */
+public interface AggregateHotspotMonitor {
+
+    /**
+     * Component name of the command mailboxes.
+     */
+    String COMMAND_PROCESSOR = "commandProcessor";
+
+    /**
+     * Component name of the domain event mailboxes on the consumer side.
+     */
+    String EVENT_PROCESSOR = "eventProcessor";
+
+    /**
+     * Component name of the event committing mailboxes.
+     */
+    String EVENT_COMMITTING = "eventCommitting";
+
+    /**
+     * Returns whether the current message should be reported.
+     *
+     * @return true if the caller should call {@link #onMessageEnqueued(String, String, long)}
+     */
+    boolean isSampled();
+
+    /**
+     * Reports a sampled message enqueued into the mailbox of the given aggregate.
+     *
+     * @param component       the component owning the mailbox
+     * @param aggregateRootId the aggregate root id of the mailbox
+     * @param backlog         the number of unhandled messages of the aggregate after the message is enqueued
+     */
+    void onMessageEnqueued(String component, String aggregateRootId, long backlog);
+}
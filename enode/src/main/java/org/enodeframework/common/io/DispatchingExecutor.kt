@@ -0,0 +1,73 @@
+package org.enodeframework.common.io
+
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.asExecutor
+import kotlinx.coroutines.future.future
+import org.enodeframework.common.function.Func
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.Executor
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * 在调度器上执行任务的执行层：普通任务直接提交Runnable到调度器，不创建协程；
+ * 只有suspend的Handler才会启动协程，并且直接返回CompletableFuture，不再额外创建CoroutineScope、Deferred及其适配对象。
+ * 启动的协程没有父Job，与之前每次新建CoroutineScope的行为一致，一个Handler的失败不会影响其他Handler。
+ *
+ * @author anruence@gmail.com
+ */
+class DispatchingExecutor(private val coroutineDispatcher: CoroutineDispatcher) : CoroutineScope {
+    override val coroutineContext: CoroutineContext
+        get() = coroutineDispatcher
+
+    /**
+     * 调度器本身是Executor时直接使用，否则由协程库适配
+     */
+    private val executor: Executor = coroutineDispatcher.asExecutor()
+
+    /**
+     * 在调度器上执行一个任务，调用方需要自己处理任务中的异常
+     */
+    fun execute(action: Runnable) {
+        executor.execute(action)
+    }
+
+    /**
+     * 在调度器上执行一个返回Future的任务，适用于非suspend的Handler，Handler的结果被忽略
+     */
+    fun executeAsync(action: Func<CompletableFuture<*>>): CompletableFuture<Boolean> {
+        val future = CompletableFuture<Boolean>()
+        execute {
+            try {
+                action.apply().whenComplete { _, ex ->
+                    if (ex != null) {
+                        future.completeExceptionally(unwrap(ex))
+                    } else {
+                        future.complete(true)
+                    }
+                }
+            } catch (ex: Throwable) {
+                future.completeExceptionally(ex)
+            }
+        }
+        return future
+    }
+
+    /**
+     * 启动一个协程执行suspend的Handler
+     */
+    fun executeSuspend(block: suspend CoroutineScope.() -> Unit): CompletableFuture<Boolean> {
+        return future {
+            block()
+            true
+        }
+    }
+
+    private fun unwrap(ex: Throwable): Throwable {
+        if (ex is CompletionException && ex.cause != null) {
+            return ex.cause!!
+        }
+        return ex
+    }
+}
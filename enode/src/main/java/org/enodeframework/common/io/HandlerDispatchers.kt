@@ -0,0 +1,83 @@
+package org.enodeframework.common.io
+
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.asCoroutineDispatcher
+import org.slf4j.LoggerFactory
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * 根据执行模式创建调度器：handlerDispatcher用于执行CommandHandler和MessageHandler，
+ * mailboxDispatcher用于MailBox的运行等内部调度。虚拟线程模式下阻塞的Handler运行在虚拟线程上，
+ * MailBox的调度只做少量的计算，保留在固定大小的平台线程池上。
+ *
+ * @author anruence@gmail.com
+ */
+class HandlerDispatchers(val mode: HandlerExecutionMode) : AutoCloseable {
+    private val logger = LoggerFactory.getLogger(HandlerDispatchers::class.java)
+    private var executorService: ExecutorService? = null
+
+    val handlerDispatcher: CoroutineDispatcher
+    val mailboxDispatcher: CoroutineDispatcher
+
+    /**
+     * 实际使用的执行模式，虚拟线程不可用时会退化为IO
+     */
+    val effectiveMode: HandlerExecutionMode
+
+    init {
+        when (mode) {
+            HandlerExecutionMode.IO -> {
+                effectiveMode = HandlerExecutionMode.IO
+                handlerDispatcher = Dispatchers.IO
+                mailboxDispatcher = Dispatchers.IO
+            }
+
+            HandlerExecutionMode.Default -> {
+                effectiveMode = HandlerExecutionMode.Default
+                handlerDispatcher = Dispatchers.Default
+                mailboxDispatcher = Dispatchers.Default
+            }
+
+            HandlerExecutionMode.VirtualThread -> {
+                val executor = newVirtualThreadPerTaskExecutor()
+                if (executor != null) {
+                    executorService = executor
+                    effectiveMode = HandlerExecutionMode.VirtualThread
+                    handlerDispatcher = executor.asCoroutineDispatcher()
+                    mailboxDispatcher = Dispatchers.Default
+                } else {
+                    logger.warn("Virtual threads are not supported by the running jdk {}, fallback to IO.", Runtime.version())
+                    effectiveMode = HandlerExecutionMode.IO
+                    handlerDispatcher = Dispatchers.IO
+                    mailboxDispatcher = Dispatchers.IO
+                }
+            }
+        }
+    }
+
+    /**
+     * 只关闭自己创建的线程池，Dispatchers.IO和Dispatchers.Default是共享的，不能关闭
+     */
+    override fun close() {
+        executorService?.shutdown()
+    }
+
+    companion object {
+        /**
+         * 当前编译的目标版本是JDK 17，通过反射创建虚拟线程的线程池，不可用时返回null
+         */
+        @JvmStatic
+        fun newVirtualThreadPerTaskExecutor(): ExecutorService? {
+            return try {
+                val method = Executors::class.java.getMethod("newVirtualThreadPerTaskExecutor")
+                method.invoke(null) as ExecutorService
+            } catch (ex: ReflectiveOperationException) {
+                null
+            } catch (ex: UnsupportedOperationException) {
+                null
+            }
+        }
+    }
+}
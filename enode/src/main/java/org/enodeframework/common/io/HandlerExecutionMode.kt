@@ -0,0 +1,22 @@
+package org.enodeframework.common.io
+
+/**
+ * A enum defines where the command handlers and message handlers are executed.
+ */
+enum class HandlerExecutionMode {
+    /**
+     * Handlers run on Dispatchers.IO, suitable for handlers doing blocking calls with a bounded concurrency.
+     */
+    IO,
+
+    /**
+     * Handlers run on Dispatchers.Default, suitable for handlers that never block.
+     */
+    Default,
+
+    /**
+     * Handlers run on JDK 21 virtual threads, one per handler invocation, mailbox bookkeeping stays on Dispatchers.Default.
+     * Falls back to IO when virtual threads are not supported by the running JDK.
+     */
+    VirtualThread
+}
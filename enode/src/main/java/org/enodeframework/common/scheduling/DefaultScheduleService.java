@@ -38,14 +38,24 @@ public class DefaultScheduleService implements ScheduleService {
     private final Object lockObject = new Object();
     private final Map<String, TimerBasedTask> taskDict = new HashMap<>();
     private final ScheduledExecutorService scheduledThreadPool;
+    private final TimingWheelTimer timingWheelTimer;
 
     public DefaultScheduleService() {
+        this(100, 64);
+    }
+
+    /**
+     * @param tickMillis 时间轮每个槽位的时间跨度
+     * @param wheelSize  每一层时间轮的槽位数量
+     */
+    public DefaultScheduleService(long tickMillis, int wheelSize) {
         scheduledThreadPool = new ScheduledThreadPoolExecutor(
             Runtime.getRuntime().availableProcessors(),
             new ThreadFactoryBuilder()
                 .setDaemon(true)
                 .setNameFormat("ScheduleService-%d")
                 .build());
+        timingWheelTimer = new TimingWheelTimer("ScheduleService-TimingWheel", tickMillis, wheelSize, scheduledThreadPool);
     }
 
     @Override
@@ -72,6 +82,11 @@ public class DefaultScheduleService implements ScheduleService {
         }
     }
 
+    @Override
+    public Timeout newTimeout(Action action, long delayMillis) {
+        return timingWheelTimer.newTimeout(action, delayMillis);
+    }
+
     static class TimerBasedTask {
         private String name;
         private Action action;
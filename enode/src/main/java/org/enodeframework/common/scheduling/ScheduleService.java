@@ -24,4 +24,12 @@ public interface ScheduleService {
     void startTask(String name, Action action, int dueTime, int period);
 
     void stopTask(String name);
+
+    /**
+     * 在delayMillis毫秒之后执行一次action；DefaultScheduleService基于分层时间轮实现，适合为大量对象注册到期检查，
+     * 默认实现使用共享的定时线程池，自定义的ScheduleService不需要实现该方法
+     */
+    default Timeout newTimeout(Action action, long delayMillis) {
+        return ScheduledFutureTimeout.schedule(action, delayMillis);
+    }
 }
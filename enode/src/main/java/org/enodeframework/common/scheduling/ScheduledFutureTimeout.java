@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.enodeframework.common.scheduling;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.enodeframework.common.function.Action;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ScheduleService.newTimeout的默认实现，所有未实现该方法的ScheduleService共享同一个定时线程池
+ *
+ * @author anruence@gmail.com
+ */
+final class ScheduledFutureTimeout implements Timeout {
+    private static final Logger logger = LoggerFactory.getLogger(ScheduledFutureTimeout.class);
+    private static final int PENDING = 0;
+    private static final int EXPIRED = 1;
+    private static final int CANCELLED = 2;
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+    private final Action action;
+    private volatile ScheduledFuture<?> scheduledFuture;
+
+    private ScheduledFutureTimeout(Action action) {
+        this.action = action;
+    }
+
+    static Timeout schedule(Action action, long delayMillis) {
+        ScheduledFutureTimeout timeout = new ScheduledFutureTimeout(action);
+        timeout.scheduledFuture = SchedulerHolder.SCHEDULER.schedule(timeout::expire, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+        return timeout;
+    }
+
+    private void expire() {
+        if (!state.compareAndSet(PENDING, EXPIRED)) {
+            return;
+        }
+        try {
+            action.apply();
+        } catch (Exception ex) {
+            logger.error("Timeout task has exception.", ex);
+        }
+    }
+
+    @Override
+    public boolean cancel() {
+        if (!state.compareAndSet(PENDING, CANCELLED)) {
+            return false;
+        }
+        ScheduledFuture<?> future = scheduledFuture;
+        if (future != null) {
+            future.cancel(false);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return state.get() == CANCELLED;
+    }
+
+    @Override
+    public boolean isExpired() {
+        return state.get() == EXPIRED;
+    }
+
+    private static class SchedulerHolder {
+        private static final ScheduledThreadPoolExecutor SCHEDULER = createScheduler();
+
+        private static ScheduledThreadPoolExecutor createScheduler() {
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(
+                1,
+                new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("ScheduleService-Timeout-%d")
+                    .build());
+            // 取消的任务立即从队列中移除，避免大量取消的到期检查占用内存
+            scheduler.setRemoveOnCancelPolicy(true);
+            return scheduler;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.enodeframework.common.scheduling;
+
+/**
+ * 通过ScheduleService.newTimeout注册的一次性定时任务
+ *
+ * @author anruence@gmail.com
+ */
+public interface Timeout {
+    /**
+     * 取消定时任务，如果任务已经到期或已被取消则返回false
+     */
+    boolean cancel();
+
+    boolean isCancelled();
+
+    boolean isExpired();
+}
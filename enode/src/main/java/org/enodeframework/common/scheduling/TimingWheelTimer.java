@@ -0,0 +1,298 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.enodeframework.common.scheduling;
+
+import org.enodeframework.common.function.Action;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 分层时间轮，添加和取消定时任务都是O(1)的操作，推进时间时只处理已经到期的槽位，
+ * 处理成本只和到期的任务数量相关，与定时任务的总数无关。
+ * 超出当前时间轮范围的任务放入上层时间轮，上层槽位到期时再降级到下层时间轮，直到真正到期后交给executor执行。
+ *
+ * @author anruence@gmail.com
+ */
+public class TimingWheelTimer {
+    private static final Logger logger = LoggerFactory.getLogger(TimingWheelTimer.class);
+    private final Object lockObject = new Object();
+    private final DelayQueue<Bucket> delayQueue = new DelayQueue<>();
+    private final Executor executor;
+    private final long tickMillis;
+    private final Wheel wheel;
+    private final Thread workerThread;
+    private volatile boolean stopped;
+
+    public TimingWheelTimer(String name, long tickMillis, int wheelSize, Executor executor) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be greater than 0, but was " + tickMillis);
+        }
+        if (wheelSize <= 0) {
+            throw new IllegalArgumentException("wheelSize must be greater than 0, but was " + wheelSize);
+        }
+        this.executor = executor;
+        this.tickMillis = tickMillis;
+        this.wheel = new Wheel(tickMillis, wheelSize, now());
+        this.workerThread = new Thread(this::run, name);
+        this.workerThread.setDaemon(true);
+        this.workerThread.start();
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * 在delayMillis毫秒之后执行一次action
+     */
+    public Timeout newTimeout(Action action, long delayMillis) {
+        Entry entry = new Entry(action, now() + Math.max(0, delayMillis));
+        boolean added;
+        synchronized (lockObject) {
+            added = wheel.add(entry);
+        }
+        if (!added) {
+            expire(entry);
+        }
+        return entry;
+    }
+
+    public void stop() {
+        stopped = true;
+        workerThread.interrupt();
+    }
+
+    private void run() {
+        List<Entry> expiredEntries = new ArrayList<>();
+        while (!stopped) {
+            try {
+                Bucket bucket = delayQueue.poll(tickMillis, TimeUnit.MILLISECONDS);
+                while (bucket != null) {
+                    synchronized (lockObject) {
+                        wheel.advanceClock(bucket.getExpiration());
+                        bucket.flush(entry -> {
+                            if (!wheel.add(entry)) {
+                                expiredEntries.add(entry);
+                            }
+                        });
+                    }
+                    bucket = delayQueue.poll();
+                }
+                expiredEntries.forEach(this::expire);
+                expiredEntries.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception ex) {
+                logger.error("Timing wheel advance has exception.", ex);
+            }
+        }
+    }
+
+    private void expire(Entry entry) {
+        if (!entry.markExpired()) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                entry.action.apply();
+            } catch (Exception ex) {
+                logger.error("Timeout task has exception.", ex);
+            }
+        });
+    }
+
+    private class Wheel {
+        private final long tickMillis;
+        private final int wheelSize;
+        private final long interval;
+        private final Bucket[] buckets;
+        private long currentTime;
+        private Wheel overflowWheel;
+
+        Wheel(long tickMillis, int wheelSize, long startTime) {
+            this.tickMillis = tickMillis;
+            this.wheelSize = wheelSize;
+            this.interval = tickMillis * wheelSize;
+            this.buckets = new Bucket[wheelSize];
+            for (int i = 0; i < wheelSize; i++) {
+                buckets[i] = new Bucket();
+            }
+            this.currentTime = startTime - (startTime % tickMillis);
+        }
+
+        /**
+         * 将任务放入对应的槽位，任务已经到期时返回false，由调用方执行
+         */
+        boolean add(Entry entry) {
+            long expiration = entry.expiration;
+            if (entry.cancelled) {
+                return true;
+            }
+            if (expiration < currentTime + tickMillis) {
+                return false;
+            }
+            if (expiration < currentTime + interval) {
+                long virtualId = expiration / tickMillis;
+                Bucket bucket = buckets[(int) (virtualId % wheelSize)];
+                bucket.add(entry);
+                // 槽位的到期时间变化说明槽位被复用，需要重新放入延迟队列
+                if (bucket.setExpiration(virtualId * tickMillis)) {
+                    delayQueue.offer(bucket);
+                }
+                return true;
+            }
+            if (overflowWheel == null) {
+                overflowWheel = new Wheel(interval, wheelSize, currentTime);
+            }
+            return overflowWheel.add(entry);
+        }
+
+        void advanceClock(long time) {
+            if (time >= currentTime + tickMillis) {
+                currentTime = time - (time % tickMillis);
+                if (overflowWheel != null) {
+                    overflowWheel.advanceClock(currentTime);
+                }
+            }
+        }
+    }
+
+    /**
+     * 时间轮的一个槽位，使用带哨兵的双向链表保存任务，只在lockObject内修改
+     */
+    private class Bucket implements Delayed {
+        private final Entry root = new Entry(null, -1);
+        private volatile long expiration = -1;
+
+        Bucket() {
+            root.next = root;
+            root.prev = root;
+        }
+
+        long getExpiration() {
+            return expiration;
+        }
+
+        boolean setExpiration(long expiration) {
+            if (this.expiration == expiration) {
+                return false;
+            }
+            this.expiration = expiration;
+            return true;
+        }
+
+        void add(Entry entry) {
+            entry.bucket = this;
+            entry.next = root;
+            entry.prev = root.prev;
+            root.prev.next = entry;
+            root.prev = entry;
+        }
+
+        void remove(Entry entry) {
+            if (entry.bucket != this) {
+                return;
+            }
+            entry.prev.next = entry.next;
+            entry.next.prev = entry.prev;
+            entry.next = null;
+            entry.prev = null;
+            entry.bucket = null;
+        }
+
+        void flush(Consumer<Entry> consumer) {
+            expiration = -1;
+            Entry entry = root.next;
+            while (entry != root) {
+                Entry next = entry.next;
+                remove(entry);
+                consumer.accept(entry);
+                entry = next;
+            }
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(Math.max(expiration - now(), 0), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(expiration, ((Bucket) other).expiration);
+        }
+    }
+
+    private class Entry implements Timeout {
+        private final Action action;
+        private final long expiration;
+        private Bucket bucket;
+        private Entry prev;
+        private Entry next;
+        private volatile boolean cancelled;
+        private volatile boolean expired;
+
+        Entry(Action action, long expiration) {
+            this.action = action;
+            this.expiration = expiration;
+        }
+
+        boolean markExpired() {
+            synchronized (lockObject) {
+                if (cancelled || expired) {
+                    return false;
+                }
+                expired = true;
+                return true;
+            }
+        }
+
+        @Override
+        public boolean cancel() {
+            synchronized (lockObject) {
+                if (cancelled || expired) {
+                    return false;
+                }
+                cancelled = true;
+                if (bucket != null) {
+                    bucket.remove(this);
+                }
+                return true;
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return expired;
+        }
+    }
+}
@@ -25,6 +25,14 @@ class DefaultSerializeService : SerializeService {
         }
     }
 
+    override fun <T> deserializeBytes(value: ByteArray, offset: Int, length: Int, type: Class<T>): T {
+        return try {
+            MAPPER.readValue(value, offset, length, type)
+        } catch (e: JsonProcessingException) {
+            throw EnodeException(e)
+        }
+    }
+
     override fun serialize(target: Any): String {
         return try {
             MAPPER.writeValueAsString(target)
@@ -7,6 +7,13 @@ interface SerializeService {
     fun <T> deserialize(value: String, type: Class<T>): T
     fun <T> deserializeBytes(value: ByteArray, type: Class<T>): T
 
+    /**
+     * deserialize the given range of the value to given type
+     */
+    fun <T> deserializeBytes(value: ByteArray, offset: Int, length: Int, type: Class<T>): T {
+        return deserializeBytes(value.copyOfRange(offset, offset + length), type)
+    }
+
     /**
      * serialize the value to string
      */
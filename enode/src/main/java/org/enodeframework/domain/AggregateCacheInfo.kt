@@ -21,4 +21,11 @@ class AggregateCacheInfo(var aggregateRoot: AggregateRoot) {
     fun isExpired(timeoutSeconds: Int): Boolean {
         return (SystemClock.now() - lastUpdateTime.time) / 1000 >= timeoutSeconds
     }
+
+    /**
+     * 距离过期还剩余的毫秒数，小于等于0表示已经过期
+     */
+    fun getRemainingMillis(timeoutSeconds: Int): Long {
+        return lastUpdateTime.time + timeoutSeconds * 1000L - SystemClock.now()
+    }
 }
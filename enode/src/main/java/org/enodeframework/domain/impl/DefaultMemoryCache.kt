@@ -10,7 +10,6 @@ import org.enodeframework.domain.AggregateStorage
 import org.enodeframework.domain.MemoryCache
 import org.enodeframework.infrastructure.TypeNameProvider
 import org.slf4j.LoggerFactory
-import java.util.*
 import java.util.concurrent.CompletableFuture
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ConcurrentMap
@@ -26,9 +25,11 @@ class DefaultMemoryCache(
 ) : MemoryCache {
     private val aggregateRootInfoDict: ConcurrentMap<String, AggregateCacheInfo>
     private val lockObj = Any()
-    private val taskName: String
     private var timeoutSeconds = 5000
     private var scanExpiredAggregateIntervalMilliseconds = 5000
+
+    @Volatile
+    private var started = false
     override fun <T : AggregateRoot?> getAsync(
         aggregateRootId: String, aggregateRootType: Class<T>
     ): CompletableFuture<T> {
@@ -73,6 +74,7 @@ class DefaultMemoryCache(
                 AggregateCacheInfo(aggregateRoot)
             }
             if (cacheReset.get()) {
+                scheduleCleanInactiveAggregateRoot(aggregateRoot.uniqueId, cacheInfo)
                 return
             }
             val aggregateRootOldVersion = cacheInfo!!.aggregateRoot.version
@@ -133,16 +135,11 @@ class DefaultMemoryCache(
     }
 
     override fun start() {
-        scheduleService.startTask(
-            taskName,
-            { cleanInactiveAggregateRoot() },
-            scanExpiredAggregateIntervalMilliseconds,
-            scanExpiredAggregateIntervalMilliseconds
-        )
+        started = true
     }
 
     override fun stop() {
-        scheduleService.stopTask(taskName)
+        started = false
     }
 
     private fun resetAggregateRootCache(
@@ -173,6 +170,7 @@ class DefaultMemoryCache(
                 AggregateCacheInfo(aggregateRoot)
             }
             if (cacheReset.get()) {
+                scheduleCleanInactiveAggregateRoot(aggregateRoot.uniqueId, cacheInfo)
                 return
             }
             val aggregateRootOldVersion = cacheInfo!!.aggregateRoot.version
@@ -189,13 +187,31 @@ class DefaultMemoryCache(
         }
     }
 
-    private fun cleanInactiveAggregateRoot() {
-        val inactiveList: List<Map.Entry<String, AggregateCacheInfo>> =
-            aggregateRootInfoDict.entries.filter { entry -> entry.value.isExpired(timeoutSeconds) }
-        inactiveList.forEach { entry: Map.Entry<String, AggregateCacheInfo> ->
-            if (aggregateRootInfoDict.remove(entry.key) != null) {
-                logger.info("Removed inactive aggregate root, id: {}", entry.key)
-            }
+    private fun scheduleCleanInactiveAggregateRoot(aggregateRootId: String, cacheInfo: AggregateCacheInfo) {
+        val delayMillis = cacheInfo.getRemainingMillis(timeoutSeconds)
+        scheduleService.newTimeout({ cleanInactiveAggregateRoot(aggregateRootId, cacheInfo) }, delayMillis)
+    }
+
+    /**
+     * 聚合根缓存的到期检查，缓存被重置后旧的缓存信息不再检查，期间有过更新的缓存按最新的更新时间重新注册
+     */
+    private fun cleanInactiveAggregateRoot(aggregateRootId: String, cacheInfo: AggregateCacheInfo) {
+        if (aggregateRootInfoDict[aggregateRootId] !== cacheInfo) {
+            return
+        }
+        if (!cacheInfo.isExpired(timeoutSeconds)) {
+            scheduleCleanInactiveAggregateRoot(aggregateRootId, cacheInfo)
+            return
+        }
+        if (!started) {
+            scheduleService.newTimeout(
+                { cleanInactiveAggregateRoot(aggregateRootId, cacheInfo) },
+                scanExpiredAggregateIntervalMilliseconds.toLong()
+            )
+            return
+        }
+        if (aggregateRootInfoDict.remove(aggregateRootId, cacheInfo)) {
+            logger.info("Removed inactive aggregate root, id: {}", aggregateRootId)
         }
     }
 
@@ -203,6 +219,5 @@ class DefaultMemoryCache(
 
     init {
         aggregateRootInfoDict = ConcurrentHashMap()
-        taskName = "CleanInactiveAggregates_" + System.nanoTime() + Random().nextInt(10000)
     }
 }
\ No newline at end of file
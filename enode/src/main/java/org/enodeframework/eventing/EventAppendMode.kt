@@ -0,0 +1,16 @@
+package org.enodeframework.eventing
+
+/**
+ * How a batch of event streams of several aggregates is appended to a database event store.
+ */
+enum class EventAppendMode {
+    /**
+     * Every aggregate is appended in its own transaction.
+     */
+    PerAggregate,
+
+    /**
+     * The whole batch is appended in one transaction, aggregates with a unique key conflict are isolated afterwards.
+     */
+    SingleTransaction
+}
@@ -5,13 +5,28 @@ import com.google.common.collect.Maps
 
 class EventAppendResult {
     private val lockObj = Any()
+
+    /**
+     * 与结果列表对应的聚合根Id集合，添加时去重不需要扫描列表
+     */
+    private var successAggregateRootIdSet: MutableSet<String> = HashSet()
+    private var duplicateEventAggregateRootIdSet: MutableSet<String> = HashSet()
+
     var successAggregateRootIdList: MutableList<String> = Lists.newArrayList()
+        set(value) {
+            field = value
+            successAggregateRootIdSet = HashSet(value)
+        }
     var duplicateEventAggregateRootIdList: MutableList<String> = Lists.newArrayList()
+        set(value) {
+            field = value
+            duplicateEventAggregateRootIdSet = HashSet(value)
+        }
     var duplicateCommandAggregateRootIdList: MutableMap<String, List<String>> = Maps.newHashMap()
 
     fun addSuccessAggregateRootId(aggregateRootId: String) {
         synchronized(lockObj) {
-            if (!successAggregateRootIdList.contains(aggregateRootId)) {
+            if (successAggregateRootIdSet.add(aggregateRootId)) {
                 successAggregateRootIdList.add(aggregateRootId)
             }
         }
@@ -19,7 +34,7 @@ class EventAppendResult {
 
     fun addDuplicateEventAggregateRootId(aggregateRootId: String) {
         synchronized(lockObj) {
-            if (!duplicateEventAggregateRootIdList.contains(aggregateRootId)) {
+            if (duplicateEventAggregateRootIdSet.add(aggregateRootId)) {
                 duplicateEventAggregateRootIdList.add(aggregateRootId)
             }
         }
@@ -0,0 +1,26 @@
+package org.enodeframework.eventing
+
+/**
+ * 按聚合根Id索引一批待持久化的事件上下文，每批只建立一次；
+ * 将持久化结果中的聚合根映射回事件上下文时直接查找，不再为每个聚合根扫描整批上下文
+ *
+ * @author anruence@gmail.com
+ */
+class EventCommittingContextIndex(committingContexts: List<EventCommittingContext>) {
+    private val contextDict: Map<String, List<EventCommittingContext>> =
+        committingContexts.groupBy { x -> x.eventStream.aggregateRootId }
+
+    /**
+     * 指定聚合根在这一批中的所有事件上下文，保持放入时的顺序
+     */
+    fun get(aggregateRootId: String): List<EventCommittingContext> {
+        return contextDict[aggregateRootId] ?: emptyList()
+    }
+
+    /**
+     * 指定聚合根在这一批中的第一个事件上下文
+     */
+    fun first(aggregateRootId: String): EventCommittingContext? {
+        return contextDict[aggregateRootId]?.firstOrNull()
+    }
+}
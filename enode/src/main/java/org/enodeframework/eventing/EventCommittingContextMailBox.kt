@@ -1,68 +1,224 @@
 package org.enodeframework.eventing
 
 import kotlinx.coroutines.CoroutineDispatcher
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.async
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
 import org.enodeframework.common.exception.DuplicateEventStreamException
 import org.enodeframework.common.extensions.SystemClock
 import org.enodeframework.common.function.Action1
+import org.enodeframework.common.io.DispatchingExecutor
 import org.enodeframework.common.io.Task
+import org.enodeframework.queue.MessageFlowController
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import java.util.*
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 
 class EventCommittingContextMailBox(
     private val number: Int,
     private val batchSize: Int,
-    private val coroutineDispatcher: CoroutineDispatcher,
+    /**
+     * 组提交的最长等待时间，MailBox开始运行时如果积压的消息不足一批，则最多等待这么久，让并发提交的消息合并到同一批中持久化；
+     * 实际等待的时间为观察到的持久化耗时的一半，并且不超过该值，小于等于0表示不等待
+     */
+    private val maxLingerMilliseconds: Long,
+    coroutineDispatcher: CoroutineDispatcher,
+    flowController: MessageFlowController,
     handleEventAction: Action1<List<EventCommittingContext>>
 ) {
     private val logger: Logger = LoggerFactory.getLogger(EventCommittingContextMailBox::class.java)
     private val lockObj = Any()
+    private val dispatchingExecutor = DispatchingExecutor(coroutineDispatcher)
+
+    /**
+     * 每次运行复用同一个任务，直接提交到调度器，不再为每次运行创建协程
+     */
+    private val runAction = Runnable { processMessages() }
+
+    /**
+     * 组提交等待中，等待结束或者积压的消息达到一批时，由先到的一方开始处理消息
+     */
+    private val lingering = AtomicBoolean(false)
+    private val queuedCount = AtomicInteger(0)
+
+    /**
+     * 持久化耗时的指数移动平均，用于计算组提交的等待时间
+     */
+    @Volatile
+    private var averageBatchLatencyMillis = 0.0
     private val asyncLockObj = Any()
-    private val aggregateDictDict: ConcurrentHashMap<String, ConcurrentHashMap<String, Byte>> = ConcurrentHashMap()
+
+    /**
+     * 聚合根到它排队中的事件流的映射，值为放入时的消息本身，取出消息时只有仍然映射到同一个消息才会处理，
+     * 隔离之前放入的过期消息即使事件流id相同也不会顶替解除隔离之后重新放入的消息
+     */
+    private val aggregateDictDict: ConcurrentHashMap<String, ConcurrentHashMap<String, EventCommittingContext>> = ConcurrentHashMap()
     private val messageQueue: ConcurrentLinkedQueue<EventCommittingContext> = ConcurrentLinkedQueue()
+
+    /**
+     * 持久化时版本冲突、正在重置命令MailBox的聚合根，这些聚合根的事件流在解除隔离之前都会被丢弃，
+     * 重置之后命令MailBox会从冲突的命令开始重新处理，被丢弃的事件流会重新产生
+     */
+    private val quarantinedAggregates: MutableSet<String> = ConcurrentHashMap.newKeySet()
     private val handleMessageAction: Action1<List<EventCommittingContext>> = handleEventAction
     private var lastActiveTime: Date = Date()
+    private val inFlightCounter = flowController.createMailboxCounter("EventCommittingContextMailBox-$number")
 
+    @Volatile
     private var isRunning = false
 
+    /**
+     * 已退役的MailBox不再接收消息，只在调整MailBox数量后，旧的MailBox处理完所有消息时被标记
+     */
+    @Volatile
+    private var retired = false
+
+    /**
+     * 本次运行取出的消息的聚合根，取出消息时先加入这里再从aggregateDictDict中移除，本次运行完成后清空
+     */
+    private val processingAggregateRootIds: MutableSet<String> = ConcurrentHashMap.newKeySet()
+    private var batchStartNanos = 0L
+
+    @Volatile
+    private var batchCount = 0L
+
+    @Volatile
+    private var totalBatchLatencyMillis = 0L
+
+    @Volatile
+    private var lastBatchLatencyMillis = 0L
+
+    @Volatile
+    private var maxBatchLatencyMillis = 0L
+
     private fun totalUnHandledMessageCount(): Long {
-        return messageQueue.count().toLong()
+        return queuedCount.get().toLong()
     }
 
-    fun getNumber() {
-        number
+    /**
+     * 当前MailBox的队列深度和批量持久化的耗时
+     */
+    fun getStatistics(): EventCommittingMailBoxStatistics {
+        val count = batchCount
+        return EventCommittingMailBoxStatistics(
+            number,
+            totalUnHandledMessageCount(),
+            isRunning,
+            count,
+            lastBatchLatencyMillis,
+            if (count == 0L) 0L else totalBatchLatencyMillis / count,
+            maxBatchLatencyMillis
+        )
     }
 
     /**
-     * 放入一个消息到MailBox，并自动尝试运行MailBox
+     * 指定聚合根是否还有排队中或正在持久化的事件流；同一个聚合根的事件流是依次放入的，
+     * 返回false时可以保证该聚合根之前的事件流都已经处理完成
      */
-    fun enqueueMessage(message: EventCommittingContext) {
+    fun hasUnfinishedMessages(aggregateRootId: String): Boolean {
+        if (aggregateDictDict[aggregateRootId]?.isNotEmpty() == true) {
+            return true
+        }
+        if (quarantinedAggregates.contains(aggregateRootId)) {
+            return true
+        }
+        return processingAggregateRootIds.contains(aggregateRootId)
+    }
+
+    /**
+     * 尝试退役当前MailBox，只有没有排队中的消息并且不在运行时才能退役，退役之后放入消息会失败
+     */
+    fun tryRetire(): Boolean {
         synchronized(lockObj) {
-            val eventDict =
-                aggregateDictDict.computeIfAbsent(message.eventStream.aggregateRootId) { ConcurrentHashMap() }
-            // If the specified key is not already associated with a value (or is mapped to null) associates it with the given value and returns null, else returns the current value.
-            if (eventDict.putIfAbsent(message.eventStream.id, ONE_BYTE) == null) {
-                message.mailBox = this
-                messageQueue.add(message)
-                if (logger.isDebugEnabled) {
-                    logger.debug("{} enqueued new message, mailboxNumber: {}, aggregateRootId: {}, commandId: {}, eventVersion: {}, eventStreamId: {}, eventIds: {}",
-                        javaClass.name,
-                        number,
-                        message.eventStream.aggregateRootId,
-                        message.processingCommand.message.id,
-                        message.eventStream.version,
-                        message.eventStream.id,
-                        message.eventStream.events.joinToString("|") { obj: DomainEventMessage -> obj.id })
-                }
-                lastActiveTime = Date()
+            if (!retired && !isRunning && messageQueue.isEmpty() && quarantinedAggregates.isEmpty()) {
+                retired = true
+            }
+            return retired
+        }
+    }
+
+    /**
+     * 指定聚合根在MailBox中尚未持久化的事件流数量
+     */
+    fun getAggregateUnHandledMessageCount(aggregateRootId: String): Long {
+        return aggregateDictDict[aggregateRootId]?.size?.toLong() ?: 0L
+    }
+
+    fun getNumber(): Int {
+        return number
+    }
+
+    /**
+     * 放入一个消息到MailBox，并自动尝试运行MailBox，MailBox已退役时返回false
+     */
+    fun enqueueMessage(message: EventCommittingContext): Boolean {
+        synchronized(lockObj) {
+            if (retired) {
+                return false
+            }
+            enqueue(message)
+            tryRun()
+            return true
+        }
+    }
+
+    /**
+     * 一次放入多个消息到MailBox后再尝试运行MailBox，使这些消息可以在同一批中被处理，MailBox已退役时返回false
+     */
+    fun enqueueMessages(messages: List<EventCommittingContext>): Boolean {
+        synchronized(lockObj) {
+            if (retired) {
+                return false
+            }
+            try {
+                messages.forEach { message -> enqueue(message) }
+            } finally {
                 tryRun()
-            } else {
-                throw DuplicateEventStreamException(message.eventStream)
             }
+            return true
+        }
+    }
+
+    private fun enqueue(message: EventCommittingContext) {
+        if (quarantinedAggregates.contains(message.eventStream.aggregateRootId)) {
+            if (logger.isDebugEnabled) {
+                logger.debug("{} dropped message of quarantined aggregate, mailboxNumber: {}, aggregateRootId: {}, commandId: {}, eventVersion: {}",
+                    javaClass.name,
+                    number,
+                    message.eventStream.aggregateRootId,
+                    message.processingCommand.message.id,
+                    message.eventStream.version)
+            }
+            return
+        }
+        val eventDict =
+            aggregateDictDict.computeIfAbsent(message.eventStream.aggregateRootId) { ConcurrentHashMap() }
+        // If the specified key is not already associated with a value (or is mapped to null) associates it with the given value and returns null, else returns the current value.
+        if (eventDict.putIfAbsent(message.eventStream.id, message) == null) {
+            message.mailBox = this
+            messageQueue.add(message)
+            if (queuedCount.incrementAndGet() >= batchSize && lingering.compareAndSet(true, false)) {
+                // 积压的消息已经足够一批，不再等待
+                dispatchingExecutor.execute(runAction)
+            }
+            inFlightCounter.increment()
+            if (logger.isDebugEnabled) {
+                logger.debug("{} enqueued new message, mailboxNumber: {}, aggregateRootId: {}, commandId: {}, eventVersion: {}, eventStreamId: {}, eventIds: {}",
+                    javaClass.name,
+                    number,
+                    message.eventStream.aggregateRootId,
+                    message.processingCommand.message.id,
+                    message.eventStream.version,
+                    message.eventStream.id,
+                    message.eventStream.events.joinToString("|") { obj: DomainEventMessage -> obj.id })
+            }
+            lastActiveTime = Date()
+        } else {
+            throw DuplicateEventStreamException(message.eventStream)
         }
     }
 
@@ -78,11 +234,33 @@ class EventCommittingContextMailBox(
             if (logger.isDebugEnabled) {
                 logger.debug("{} start run, mailboxNumber: {}", javaClass.name, number)
             }
-            CoroutineScope(coroutineDispatcher).async { processMessages() }
+            val lingerMillis = getLingerMilliseconds()
+            if (lingerMillis > 0 && queuedCount.get() < batchSize) {
+                lingering.set(true)
+                dispatchingExecutor.launch {
+                    delay(lingerMillis)
+                    if (lingering.compareAndSet(true, false)) {
+                        processMessages()
+                    }
+                }
+                return
+            }
+            dispatchingExecutor.execute(runAction)
             return
         }
     }
 
+    /**
+     * 组提交的等待时间：等待持久化耗时的一半，使合并带来的吞吐提升不以成倍增加的延迟为代价；
+     * 持久化足够快时不再等待
+     */
+    private fun getLingerMilliseconds(): Long {
+        if (maxLingerMilliseconds <= 0) {
+            return 0
+        }
+        return minOf(maxLingerMilliseconds, (averageBatchLatencyMillis / 2).toLong())
+    }
+
     /**
      * 请求完成MailBox的单次运行，如果MailBox中还有剩余消息，则继续尝试运行下一次
      */
@@ -91,6 +269,8 @@ class EventCommittingContextMailBox(
         if (logger.isDebugEnabled) {
             logger.debug("{} complete run, mailboxNumber: {}", javaClass.name, number)
         }
+        recordBatchLatency()
+        processingAggregateRootIds.clear()
         setAsNotRunning()
         if (totalUnHandledMessageCount() > 0) {
             tryRun()
@@ -101,6 +281,39 @@ class EventCommittingContextMailBox(
         aggregateDictDict.remove(aggregateRootId)
     }
 
+    /**
+     * 隔离版本冲突的聚合根：丢弃该聚合根所有排队中的事件流，并且在解除隔离之前不再接收它的事件流，
+     * 这样不需要等待冲突处理完成就可以完成本次运行，继续持久化其他聚合根的事件流
+     */
+    fun quarantineAggregate(aggregateRootId: String) {
+        synchronized(lockObj) {
+            quarantinedAggregates.add(aggregateRootId)
+            aggregateDictDict.remove(aggregateRootId)
+            // 从队列中移除，丢弃的消息不再占用积压数量，也不会留到解除隔离之后
+            messageQueue.filter { x -> x.eventStream.aggregateRootId == aggregateRootId }.forEach { x ->
+                // 运行中的MailBox可能同时取出了这个消息，只有移除成功的一方减少计数
+                if (messageQueue.remove(x)) {
+                    queuedCount.decrementAndGet()
+                    inFlightCounter.decrement()
+                }
+            }
+        }
+    }
+
+    /**
+     * 冲突处理完成、命令MailBox恢复之前解除隔离
+     */
+    fun releaseAggregate(aggregateRootId: String) {
+        synchronized(lockObj) {
+            aggregateDictDict.remove(aggregateRootId)
+            quarantinedAggregates.remove(aggregateRootId)
+        }
+    }
+
+    fun isQuarantined(aggregateRootId: String): Boolean {
+        return quarantinedAggregates.contains(aggregateRootId)
+    }
+
     fun isInactive(timeoutSeconds: Int): Boolean {
         return SystemClock.now() - lastActiveTime.time >= timeoutSeconds
     }
@@ -112,11 +325,15 @@ class EventCommittingContextMailBox(
             while (messageList.size < batchSize) {
                 val message = messageQueue.poll()
                 if (message != null) {
-                    val eventDict = aggregateDictDict[message.eventStream.aggregateRootId]
-                    if (eventDict != null) {
-                        if (eventDict.remove(message.eventStream.id) != null) {
-                            messageList.add(message)
-                        }
+                    queuedCount.decrementAndGet()
+                    inFlightCounter.decrement()
+                    val aggregateRootId = message.eventStream.aggregateRootId
+                    // 先登记再移除，hasUnfinishedMessages在两处之一总能看到这个聚合根
+                    processingAggregateRootIds.add(aggregateRootId)
+                    val eventDict = aggregateDictDict[aggregateRootId]
+                    // 只处理仍然登记为这个消息的事件流，隔离之前放入的过期消息会被丢弃
+                    if (eventDict != null && eventDict.remove(message.eventStream.id, message)) {
+                        messageList.add(message)
                     }
                 } else {
                     break
@@ -126,6 +343,7 @@ class EventCommittingContextMailBox(
                 completeRun()
                 return
             }
+            batchStartNanos = System.nanoTime()
             try {
                 handleMessageAction.apply(messageList)
             } catch (ex: Exception) {
@@ -136,6 +354,22 @@ class EventCommittingContextMailBox(
         }
     }
 
+    private fun recordBatchLatency() {
+        if (batchStartNanos == 0L) {
+            return
+        }
+        val latencyNanos = System.nanoTime() - batchStartNanos
+        val latencyMillis = TimeUnit.NANOSECONDS.toMillis(latencyNanos)
+        batchStartNanos = 0L
+        averageBatchLatencyMillis += (latencyNanos / 1_000_000.0 - averageBatchLatencyMillis) * EWMA_WEIGHT
+        lastBatchLatencyMillis = latencyMillis
+        if (latencyMillis > maxBatchLatencyMillis) {
+            maxBatchLatencyMillis = latencyMillis
+        }
+        totalBatchLatencyMillis += latencyMillis
+        batchCount++
+    }
+
     private fun setAsRunning() {
         isRunning = true
     }
@@ -145,7 +379,7 @@ class EventCommittingContextMailBox(
     }
 
     companion object {
-        private const val ONE_BYTE: Byte = 1
+        private const val EWMA_WEIGHT = 0.2
     }
 
     init {
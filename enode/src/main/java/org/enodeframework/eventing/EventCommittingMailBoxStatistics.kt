@@ -0,0 +1,14 @@
+package org.enodeframework.eventing
+
+/**
+ * Statistics of an event committing mailbox: the queue depth and the latency of the batches it persisted.
+ */
+data class EventCommittingMailBoxStatistics(
+    val number: Int,
+    val queueDepth: Long,
+    val running: Boolean,
+    val batchCount: Long,
+    val lastBatchLatencyMillis: Long,
+    val meanBatchLatencyMillis: Long,
+    val maxBatchLatencyMillis: Long
+)
@@ -9,6 +9,20 @@ interface EventCommittingService {
      */
     fun commitDomainEventAsync(eventCommittingContext: EventCommittingContext)
 
+    /**
+     * Commit the domain events of several commands of the same aggregate together, so that they are appended in one batch.
+     */
+    fun commitDomainEventsAsync(eventCommittingContexts: List<EventCommittingContext>) {
+        eventCommittingContexts.forEach { commitDomainEventAsync(it) }
+    }
+
+    /**
+     * Statistics of the mailboxes the domain events are committed through, one per shard.
+     */
+    fun getMailBoxStatistics(): List<EventCommittingMailBoxStatistics> {
+        return emptyList()
+    }
+
     /**
      * Publish the given domain event stream async.
      */
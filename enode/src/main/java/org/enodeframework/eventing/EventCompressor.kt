@@ -0,0 +1,16 @@
+package org.enodeframework.eventing
+
+/**
+ * Compresses the binary records of event streams, with a preset dictionary per aggregate type.
+ */
+interface EventCompressor {
+    /**
+     * Compress the given range of the data of an aggregate type, return null to store it uncompressed.
+     */
+    fun compress(aggregateRootTypeName: String, data: ByteArray, offset: Int, length: Int): ByteArray?
+
+    /**
+     * Decompress the given range of the data to the original length, whichever dictionary it was compressed with.
+     */
+    fun decompress(data: ByteArray, offset: Int, length: Int, originalLength: Int): ByteArray
+}
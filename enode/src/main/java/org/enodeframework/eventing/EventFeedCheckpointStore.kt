@@ -0,0 +1,15 @@
+package org.enodeframework.eventing
+
+import java.util.concurrent.CompletableFuture
+
+interface EventFeedCheckpointStore {
+    /**
+     * Update the last handled feed position of the given reader.
+     */
+    fun updatePositionAsync(readerName: String, position: Long): CompletableFuture<Int>
+
+    /**
+     * Get the last handled feed position of the given reader, 0 if it has never handled anything.
+     */
+    fun getPositionAsync(readerName: String): CompletableFuture<Long>
+}
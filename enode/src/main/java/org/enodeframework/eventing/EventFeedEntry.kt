@@ -0,0 +1,12 @@
+package org.enodeframework.eventing
+
+/**
+ * An event stream with its position in the ordered feed of all event streams of an event store.
+ */
+class EventFeedEntry(
+    /**
+     * The position, increasing in the order the event streams were appended; positions of failed appends are gaps.
+     */
+    val position: Long,
+    val eventStream: DomainEventStream
+)
@@ -0,0 +1,13 @@
+package org.enodeframework.eventing
+
+import java.util.concurrent.CompletableFuture
+
+/**
+ * Handles the pages of the event feed read by an event feed reader, e.g. to rebuild a read model.
+ */
+interface EventFeedHandler {
+    /**
+     * Handle a page of entries ordered by position, the checkpoint is saved after the returned future completes.
+     */
+    fun handleAsync(entries: List<EventFeedEntry>): CompletableFuture<Boolean>
+}
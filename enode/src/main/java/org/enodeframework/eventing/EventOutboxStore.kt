@@ -0,0 +1,19 @@
+package org.enodeframework.eventing
+
+import java.util.concurrent.CompletableFuture
+
+/**
+ * Event streams written to the outbox in the same transaction as the events, waiting to be published.
+ */
+interface EventOutboxStore {
+    /**
+     * Claim at most maxCount un-published event streams for the given owner, and return the streams held by the owner in the order they were persisted.
+     * Claimed streams are skipped by other owners until they are removed or the lease expires, the owner itself gets them again until then.
+     */
+    fun claimAsync(owner: String, maxCount: Int, leaseMilliseconds: Long): CompletableFuture<List<DomainEventStream>>
+
+    /**
+     * Remove the given event streams from the outbox after they have been published.
+     */
+    fun removeAsync(eventStreams: List<DomainEventStream>): CompletableFuture<Int>
+}
@@ -13,4 +13,14 @@ interface EventSerializer {
      * Deserialize the given data to events.
      */
     fun deserialize(data: Map<String, String>): List<DomainEventMessage>
-}
\ No newline at end of file
+
+    /**
+     * Serialize the given events to the binary storage format.
+     */
+    fun serializeBytes(evnts: List<DomainEventMessage>): ByteArray
+
+    /**
+     * Deserialize the given data to events, the data is either in the binary storage format or the utf-8 bytes of the json map.
+     */
+    fun deserializeBytes(data: ByteArray): List<DomainEventMessage>
+}
@@ -0,0 +1,15 @@
+package org.enodeframework.eventing
+
+/**
+ * A hash bucket of aggregate root ids in the shard-map table.
+ */
+class EventShardBucket(
+    /**
+     * The name of the shard which keeps the events of the bucket.
+     */
+    val shardName: String,
+    /**
+     * Whether the bucket is being moved to another shard, the events of a frozen bucket can not be appended.
+     */
+    val frozen: Boolean
+)
@@ -0,0 +1,13 @@
+package org.enodeframework.eventing
+
+import java.util.concurrent.CompletableFuture
+
+/**
+ * The shard-map table which assigns every hash bucket of aggregate root ids to a named event store shard.
+ */
+interface EventShardMapStore {
+    /**
+     * Load the buckets by their number.
+     */
+    fun loadAsync(): CompletableFuture<Map<Int, EventShardBucket>>
+}
@@ -0,0 +1,16 @@
+package org.enodeframework.eventing
+
+/**
+ * Routes an aggregate to the event store shard which keeps its events and published versions.
+ */
+interface EventShardRouter {
+    /**
+     * Get the name of the shard of the given aggregate.
+     */
+    fun route(aggregateRootId: String): String
+
+    /**
+     * Whether the events and published versions of the given aggregate can be written, false while its bucket is moved to another shard.
+     */
+    fun isWritable(aggregateRootId: String): Boolean
+}
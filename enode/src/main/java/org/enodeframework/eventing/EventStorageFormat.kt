@@ -0,0 +1,17 @@
+package org.enodeframework.eventing
+
+/**
+ * How the events of an event stream are stored in the events column or field of an event store.
+ */
+enum class EventStorageFormat {
+    /**
+     * A json map of event type name to the json of the event, stored as text.
+     */
+    Json,
+
+    /**
+     * A compact binary record of event headers (type id, length) followed by the event payloads, stored as binary.
+     * Rows or documents written in the json format are still readable.
+     */
+    Binary
+}
@@ -27,4 +27,14 @@ interface EventStore {
         minVersion: Int,
         maxVersion: Int
     ): CompletableFuture<List<DomainEventStream>>
+
+    /**
+     * Read at most maxCount event streams of all aggregates whose position is greater than fromPosition, ordered by position.
+     * Event stores without a global feed return a failed future.
+     */
+    fun readAllAsync(fromPosition: Long, maxCount: Int): CompletableFuture<List<EventFeedEntry>> {
+        return CompletableFuture.failedFuture(
+            UnsupportedOperationException("Reading all event streams is not supported by ${javaClass.name}.")
+        )
+    }
 }
\ No newline at end of file
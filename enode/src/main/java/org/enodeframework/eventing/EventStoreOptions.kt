@@ -32,6 +32,42 @@ interface EventStoreOptions {
      */
     var publishedUkName: String
 
+    /**
+     * 多个聚合根的事件流的写入方式；默认为：每个聚合根一个事务
+     */
+    val appendMode: EventAppendMode
+        get() = EventAppendMode.PerAggregate
+
+    /**
+     * 事件的存储格式；默认为：json文本，读取时两种格式都可以识别
+     */
+    val storageFormat: EventStorageFormat
+        get() = EventStorageFormat.Json
+
+    /**
+     * 是否在写入事件的同一个事务中写入发件箱，由中继批量发布；默认为：否，持久化成功后直接发布
+     */
+    val outboxEnabled: Boolean
+        get() = false
+
+    /**
+     * 发件箱表的默认名称；默认为：event_outbox
+     */
+    val outboxTableName: String
+        get() = "event_outbox"
+
+    /**
+     * 是否为Mongo的事件文档分配递增的序号以支持readAllAsync，SQL使用自增id不需要开启；默认为：否
+     */
+    val feedEnabled: Boolean
+        get() = false
+
+    /**
+     * 分片映射表的默认名称；默认为：event_shard_map
+     */
+    val shardMapTableName: String
+        get() = "event_shard_map"
+
     /**
      * 通过异常消息解析CommandId
      */
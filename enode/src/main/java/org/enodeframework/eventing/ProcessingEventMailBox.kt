@@ -1,11 +1,10 @@
 package org.enodeframework.eventing
 
 import kotlinx.coroutines.CoroutineDispatcher
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.async
 import org.enodeframework.common.exception.MailBoxProcessException
 import org.enodeframework.common.extensions.SystemClock
 import org.enodeframework.common.function.Action1
+import org.enodeframework.common.io.DispatchingExecutor
 import org.enodeframework.common.io.Task
 import org.slf4j.LoggerFactory
 import java.util.*
@@ -16,12 +15,21 @@ import java.util.concurrent.atomic.AtomicInteger
 class ProcessingEventMailBox(
     val aggregateRootTypeName: String,
     val aggregateRootId: String,
-    private val coroutineDispatcher: CoroutineDispatcher,
+    coroutineDispatcher: CoroutineDispatcher,
     private var handleProcessingEventAction: Action1<ProcessingEvent>
 ) {
     private val lockObj = Any()
-    private val isUsing = AtomicInteger(0)
-    private val isRemoved = AtomicInteger(0)
+    private val dispatchingExecutor = DispatchingExecutor(coroutineDispatcher)
+
+    /**
+     * 每次运行复用同一个任务，直接提交到调度器，不再为每次运行创建协程
+     */
+    private val runAction = Runnable { processMessage() }
+
+    /**
+     * 大于等于0时表示当前进入MailBox的生产者数量，RETIRING表示正在判断是否可移除，REMOVED表示已被移除
+     */
+    private val usingState = AtomicInteger(0)
     private val isRunning = AtomicInteger(0)
     private var waitingProcessingEventDict = ConcurrentHashMap<Int, ProcessingEvent>()
     private var processingEventQueue: ConcurrentLinkedQueue<ProcessingEvent> = ConcurrentLinkedQueue()
@@ -175,7 +183,7 @@ class ProcessingEventMailBox(
             if (logger.isDebugEnabled) {
                 logger.debug("{} start run, aggregateRootId: {}", javaClass.name, aggregateRootId)
             }
-            CoroutineScope(coroutineDispatcher).async { processMessage() }
+            dispatchingExecutor.execute(runAction)
             return
         }
     }
@@ -198,6 +206,13 @@ class ProcessingEventMailBox(
         return SystemClock.now() - lastActiveTime.time >= timeoutSeconds
     }
 
+    /**
+     * 距离变为不活跃还剩余的毫秒数，小于等于0表示已经不活跃，与isInactive的判断保持一致
+     */
+    fun getRemainingActiveMillis(timeoutSeconds: Int): Long {
+        return lastActiveTime.time + timeoutSeconds - SystemClock.now()
+    }
+
     private fun processMessage() {
         val message = processingEventQueue.poll()
         if (message != null) {
@@ -216,16 +231,48 @@ class ProcessingEventMailBox(
         }
     }
 
+    /**
+     * 尝试进入MailBox，多个生产者可以同时进入，整个过程不会阻塞；
+     * 如果MailBox正在被判断是否可移除，则直接进入并使本次移除失效；如果已被移除则返回false
+     */
     fun tryUsing(): Boolean {
-        return isUsing.compareAndSet(0, 1)
+        while (true) {
+            val state = usingState.get()
+            if (state == REMOVED) {
+                return false
+            }
+            val next = if (state == RETIRING) 1 else state + 1
+            if (usingState.compareAndSet(state, next)) {
+                return true
+            }
+        }
     }
 
     fun exitUsing() {
-        isUsing.set(0)
+        usingState.decrementAndGet()
     }
 
-    fun markAsRemoved() {
-        isRemoved.set(1)
+    /**
+     * 尝试锁定MailBox以判断是否可以移除，只有当前没有生产者进入时才能锁定成功；
+     * 锁定成功后调用markAsRemoved完成移除，或调用cancelRetire放弃移除
+     */
+    fun tryRetire(): Boolean {
+        return usingState.compareAndSet(0, RETIRING)
+    }
+
+    fun cancelRetire() {
+        usingState.compareAndSet(RETIRING, 0)
+    }
+
+    /**
+     * 将锁定的MailBox标记为已移除，如果锁定期间有生产者进入则返回false
+     */
+    fun markAsRemoved(): Boolean {
+        return usingState.compareAndSet(RETIRING, REMOVED)
+    }
+
+    fun isRemoved(): Boolean {
+        return usingState.get() == REMOVED
     }
 
     private fun setAsRunning() {
@@ -236,10 +283,6 @@ class ProcessingEventMailBox(
         return isRunning.get() == 1
     }
 
-    fun isRemoved(): Boolean {
-        return isRemoved.get() == 1
-    }
-
     private fun setAsNotRunning() {
         isRunning.set(0)
     }
@@ -250,6 +293,11 @@ class ProcessingEventMailBox(
 
     private val logger = LoggerFactory.getLogger(ProcessingEventMailBox::class.java)
 
+    companion object {
+        private const val RETIRING = -1
+        private const val REMOVED = -2
+    }
+
     init {
         this.lastActiveTime = Date()
     }
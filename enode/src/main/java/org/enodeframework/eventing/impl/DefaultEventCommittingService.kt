@@ -3,7 +3,13 @@ package org.enodeframework.eventing.impl
 import kotlinx.coroutines.CoroutineDispatcher
 import org.enodeframework.commanding.CommandResult
 import org.enodeframework.commanding.CommandStatus
+import org.enodeframework.commanding.ProcessedCommandCache
 import org.enodeframework.commanding.ProcessingCommand
+import org.enodeframework.commanding.impl.NoOpProcessedCommandCache
+import org.enodeframework.common.extensions.AggregateHotspotMonitor
+import org.enodeframework.common.extensions.NoOpAggregateHotspotMonitor
+import org.enodeframework.common.extensions.SystemClock
+import org.enodeframework.common.io.DispatchingExecutor
 import org.enodeframework.common.io.IOHelper
 import org.enodeframework.common.serializing.SerializeService
 import org.enodeframework.domain.AggregateRoot
@@ -11,13 +17,18 @@ import org.enodeframework.domain.MemoryCache
 import org.enodeframework.eventing.DomainEventStream
 import org.enodeframework.eventing.EventAppendResult
 import org.enodeframework.eventing.EventCommittingContext
+import org.enodeframework.eventing.EventCommittingContextIndex
 import org.enodeframework.eventing.EventCommittingContextMailBox
+import org.enodeframework.eventing.EventCommittingMailBoxStatistics
 import org.enodeframework.eventing.EventCommittingService
 import org.enodeframework.eventing.EventStore
 import org.enodeframework.messaging.MessagePublisher
+import org.enodeframework.queue.MessageFlowController
 import org.slf4j.LoggerFactory
 import java.util.concurrent.CompletableFuture
-import kotlin.math.abs
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * @author anruence@gmail.com
@@ -28,11 +39,55 @@ class DefaultEventCommittingService(
     private val serializeService: SerializeService,
     private val domainEventPublisher: MessagePublisher<DomainEventStream>,
     private val coroutineDispatcher: CoroutineDispatcher,
-    private val eventMailBoxCount: Int = 4,
+    /**
+     * 事件MailBox的数量，同一个聚合根的事件总是在同一个MailBox中持久化，小于等于0表示使用CPU核数
+     */
+    eventMailBoxCount: Int = 4,
     private val eventMailBoxPersistenceMaxBatchSize: Int = 1000,
+    /**
+     * 事件MailBox的积压消息的流量控制，默认不限制
+     */
+    private val flowController: MessageFlowController = MessageFlowController(),
+    /**
+     * 记录持久化成功的命令，供重复处理的命令查找已经提交的事件流
+     */
+    private val processedCommandCache: ProcessedCommandCache = NoOpProcessedCommandCache,
+    /**
+     * 热点聚合根的监控，抽样记录事件提交的速率和聚合根待持久化的事件数量，默认不监控
+     */
+    private val hotspotMonitor: AggregateHotspotMonitor = NoOpAggregateHotspotMonitor.INSTANCE,
+    /**
+     * 事件MailBox组提交的最长等待时间，积压的事件不足一批时最多等待这么久再持久化，默认不等待
+     */
+    private val eventMailBoxMaxLingerMilliseconds: Long = 0,
+    /**
+     * 持久化成功的事件流按批发布，最多同时发布多少批，同一个聚合根的事件流总是按顺序依次发布
+     */
+    private val eventPublishWindowSize: Int = 64,
+    /**
+     * 发件箱模式，事件流和发件箱在同一个事务中持久化后即完成命令，由发件箱中继发布事件流，默认持久化后直接发布
+     */
+    private val eventOutboxEnabled: Boolean = false,
 ) : EventCommittingService {
 
-    private val eventCommittingContextMailBoxList: MutableList<EventCommittingContextMailBox> = ArrayList()
+    /**
+     * 当前的事件MailBox，以及调整数量之后还有未处理完消息的旧MailBox，两者作为一个整体替换
+     */
+    @Volatile
+    private var mailBoxRouting: MailBoxRouting
+
+    private val resizeLock = Any()
+    private val dispatchingExecutor = DispatchingExecutor(coroutineDispatcher)
+
+    /**
+     * 每个聚合根最后一个等待发布或正在发布的事件流，之后的事件流在其发布完成后再发布
+     */
+    private val publishingAggregateDict = ConcurrentHashMap<String, CompletableFuture<Boolean>>()
+    private val pendingPublications = ConcurrentLinkedQueue<Runnable>()
+    private val publishingCount = AtomicInteger(0)
+
+    @Volatile
+    private var lastRetireTime = 0L
 
     constructor(
         memoryCache: MemoryCache,
@@ -40,20 +95,122 @@ class DefaultEventCommittingService(
         serializeService: SerializeService,
         domainEventPublisher: MessagePublisher<DomainEventStream>,
         coroutineDispatcher: CoroutineDispatcher
-    ) : this(memoryCache, eventStore, serializeService, domainEventPublisher, coroutineDispatcher, 4, 1000)
+    ) : this(
+        memoryCache, eventStore, serializeService, domainEventPublisher, coroutineDispatcher, 4, 1000, MessageFlowController(), NoOpProcessedCommandCache
+    )
 
     override fun commitDomainEventAsync(eventCommittingContext: EventCommittingContext) {
-        val eventMailboxIndex = getEventMailBoxIndex(eventCommittingContext.eventStream.aggregateRootId)
-        val eventMailbox = eventCommittingContextMailBoxList[eventMailboxIndex]
-        eventMailbox.enqueueMessage(eventCommittingContext)
+        // 选中的旧MailBox可能恰好已经退役，此时重新选择
+        while (true) {
+            val eventMailbox = getEventMailBox(eventCommittingContext.eventStream.aggregateRootId)
+            if (eventMailbox.enqueueMessage(eventCommittingContext)) {
+                reportEnqueued(eventMailbox, eventCommittingContext)
+                return
+            }
+        }
+    }
+
+    override fun commitDomainEventsAsync(eventCommittingContexts: List<EventCommittingContext>) {
+        var contextList = eventCommittingContexts
+        while (contextList.isNotEmpty()) {
+            val rejectedContexts = ArrayList<EventCommittingContext>()
+            contextList.groupBy { x -> getEventMailBox(x.eventStream.aggregateRootId) }
+                .forEach { (eventMailbox, contexts) ->
+                    if (eventMailbox.enqueueMessages(contexts)) {
+                        contexts.forEach { x -> reportEnqueued(eventMailbox, x) }
+                    } else {
+                        rejectedContexts.addAll(contexts)
+                    }
+                }
+            contextList = rejectedContexts
+        }
+    }
+
+    /**
+     * 当前事件MailBox的数量
+     */
+    fun getEventMailBoxCount(): Int {
+        return mailBoxRouting.mailBoxes.size
+    }
+
+    /**
+     * 调整事件MailBox的数量，小于等于0表示使用CPU核数；调整后聚合根按新的数量分配MailBox，
+     * 在旧MailBox中还有未持久化事件的聚合根继续使用旧MailBox，直到这些事件处理完成，保证同一个聚合根的事件按顺序持久化
+     */
+    fun resize(eventMailBoxCount: Int) {
+        val count = resolveEventMailBoxCount(eventMailBoxCount)
+        synchronized(resizeLock) {
+            val routing = mailBoxRouting
+            if (routing.mailBoxes.size == count) {
+                return
+            }
+            mailBoxRouting = MailBoxRouting(createMailBoxes(count), listOf(routing.mailBoxes) + routing.drainingMailBoxes)
+            logger.info("Resized event committing mailboxes, from: {}, to: {}", routing.mailBoxes.size, count)
+        }
+    }
+
+    override fun getMailBoxStatistics(): List<EventCommittingMailBoxStatistics> {
+        return mailBoxRouting.mailBoxes.map { x -> x.getStatistics() }
+    }
+
+    private fun getEventMailBox(aggregateRootId: String): EventCommittingContextMailBox {
+        val routing = mailBoxRouting
+        if (routing.drainingMailBoxes.isNotEmpty()) {
+            for (mailBoxes in routing.drainingMailBoxes) {
+                val mailBox = mailBoxes[getEventMailBoxIndex(aggregateRootId, mailBoxes.size)]
+                if (mailBox.hasUnfinishedMessages(aggregateRootId)) {
+                    return mailBox
+                }
+            }
+            retireDrainedMailBoxes()
+        }
+        return routing.mailBoxes[getEventMailBoxIndex(aggregateRootId, routing.mailBoxes.size)]
+    }
+
+    /**
+     * 移除所有消息都已处理完成的旧MailBox，控制检查的频率，避免每次放入消息都检查
+     */
+    private fun retireDrainedMailBoxes() {
+        val now = SystemClock.now()
+        if (now - lastRetireTime < RETIRE_INTERVAL_MILLIS) {
+            return
+        }
+        lastRetireTime = now
+        synchronized(resizeLock) {
+            val routing = mailBoxRouting
+            // 已退役的MailBox不再接收消息，之后不会再有未处理的消息
+            val drainingMailBoxes = routing.drainingMailBoxes.filterNot { mailBoxes -> mailBoxes.all { x -> x.tryRetire() } }
+            if (drainingMailBoxes.size != routing.drainingMailBoxes.size) {
+                mailBoxRouting = MailBoxRouting(routing.mailBoxes, drainingMailBoxes)
+                logger.info("Retired drained event committing mailboxes, remaining: {}", drainingMailBoxes.size)
+            }
+        }
+    }
+
+    private fun reportEnqueued(eventMailbox: EventCommittingContextMailBox, context: EventCommittingContext) {
+        if (!hotspotMonitor.isSampled) {
+            return
+        }
+        val aggregateRootId = context.eventStream.aggregateRootId
+        hotspotMonitor.onMessageEnqueued(
+            AggregateHotspotMonitor.EVENT_COMMITTING,
+            aggregateRootId,
+            eventMailbox.getAggregateUnHandledMessageCount(aggregateRootId)
+        )
     }
 
     override fun publishDomainEventAsync(
         processingCommand: ProcessingCommand, eventStream: DomainEventStream
     ): CompletableFuture<Boolean> {
+        return publishDomainEventAsync(processingCommand, createEventStreamMessage(processingCommand, eventStream), 0)
+    }
+
+    private fun createEventStreamMessage(
+        processingCommand: ProcessingCommand, eventStream: DomainEventStream
+    ): DomainEventStream {
         // 这里取出event时，没有合并command的信息
         eventStream.mergeItems(processingCommand.items)
-        val eventStreamMessage = DomainEventStream(
+        return DomainEventStream(
             processingCommand.message.id,
             eventStream.aggregateRootId,
             eventStream.version,
@@ -61,34 +218,60 @@ class DefaultEventCommittingService(
             eventStream.events,
             eventStream.items
         )
-        return publishDomainEventAsync(processingCommand, eventStreamMessage, 0)
     }
 
-    private fun getEventMailBoxIndex(aggregateRootId: String): Int {
-        var hash = 23
-        for (c in aggregateRootId.toCharArray()) {
-            hash = (hash shl 5) - hash + c.code
-        }
-        if (hash < 0) {
-            hash = abs(hash)
+    private fun getEventMailBoxIndex(aggregateRootId: String, count: Int): Int {
+        val hash = aggregateRootId.hashCode()
+        // 混合高位，使只在末尾字符不同的聚合根Id也能分散到不同的MailBox
+        return Math.floorMod(hash xor (hash ushr 16), count)
+    }
+
+    private fun resolveEventMailBoxCount(eventMailBoxCount: Int): Int {
+        return if (eventMailBoxCount > 0) eventMailBoxCount else Runtime.getRuntime().availableProcessors()
+    }
+
+    private fun createMailBoxes(count: Int): Array<EventCommittingContextMailBox> {
+        return Array(count) { i ->
+            EventCommittingContextMailBox(
+                i,
+                eventMailBoxPersistenceMaxBatchSize,
+                eventMailBoxMaxLingerMilliseconds,
+                coroutineDispatcher,
+                flowController
+            ) { x: List<EventCommittingContext> ->
+                batchPersistEventAsync(
+                    x, 0
+                )
+            }
         }
-        return hash % eventMailBoxCount
     }
 
+    private class MailBoxRouting(
+        val mailBoxes: Array<EventCommittingContextMailBox>,
+        val drainingMailBoxes: List<Array<EventCommittingContextMailBox>>
+    )
+
     private fun batchPersistEventAsync(committingContexts: List<EventCommittingContext>, retryTimes: Int) {
         if (committingContexts.isEmpty()) {
             return
         }
+        if (eventOutboxEnabled) {
+            // 发件箱中的事件流由中继直接发布，需要在持久化之前合并command的信息
+            committingContexts.forEach { x -> x.eventStream.mergeItems(x.processingCommand.items) }
+        }
         IOHelper.tryAsyncActionRecursively("BatchPersistEventAsync", {
             eventStore.batchAppendAsync(committingContexts.map { obj: EventCommittingContext -> obj.eventStream })
         }, { result: EventAppendResult ->
             val eventMailBox = committingContexts.first().mailBox
             val appendContextList = ArrayList<EventAppendContext>()
+            // 每批只建立一次聚合根到事件上下文的索引，映射持久化结果时不再扫描整批上下文
+            val contextIndex = EventCommittingContextIndex(committingContexts)
             //针对持久化成功的聚合根，正常发布这些聚合根的事件到Q端
             if (result.successAggregateRootIdList.size > 0) {
                 for (aggregateRootId in result.successAggregateRootIdList) {
-                    committingContexts.filter { x: EventCommittingContext -> x.eventStream.aggregateRootId == aggregateRootId }
+                    contextIndex.get(aggregateRootId)
                         .forEach { eventCommittingContext ->
+                            processedCommandCache.add(eventCommittingContext.eventStream)
                             val context = EventAppendContext()
                             context.success = true
                             context.duplicateCommandIdList = ArrayList()
@@ -107,13 +290,12 @@ class DefaultEventCommittingService(
             //针对持久化出现重复的命令ID，在命令MailBox中标记为已重复，在事件MailBox中清除对应聚合根产生的事件，且重新发布这些命令对应的领域事件到Q端
             if (result.duplicateCommandAggregateRootIdList.isNotEmpty()) {
                 for ((key, value) in result.duplicateCommandAggregateRootIdList) {
-                    committingContexts.filter { x: EventCommittingContext -> key == x.eventStream.aggregateRootId }
-                        .firstOrNull { eventCommittingContext: EventCommittingContext ->
-                            val context = EventAppendContext()
-                            context.duplicateCommandIdList = value
-                            context.committingContext = eventCommittingContext
-                            appendContextList.add(context)
-                        }
+                    contextIndex.first(key)?.let { eventCommittingContext ->
+                        val context = EventAppendContext()
+                        context.duplicateCommandIdList = value
+                        context.committingContext = eventCommittingContext
+                        appendContextList.add(context)
+                    }
                 }
                 logger.warn(
                     "Batch persist events has duplicate commandIds, mailboxNumber: {}, result: {}",
@@ -124,13 +306,12 @@ class DefaultEventCommittingService(
             //针对持久化出现版本冲突的聚合根，则自动处理每个聚合根的冲突
             if (result.duplicateEventAggregateRootIdList.size > 0) {
                 for (aggregateRootId in result.duplicateEventAggregateRootIdList) {
-                    committingContexts.filter { x: EventCommittingContext -> x.eventStream.aggregateRootId == aggregateRootId }
-                        .firstOrNull { eventCommittingContext ->
-                            val context = EventAppendContext()
-                            context.duplicateCommandIdList = ArrayList()
-                            context.committingContext = eventCommittingContext
-                            appendContextList.add(context)
-                        }
+                    contextIndex.first(aggregateRootId)?.let { eventCommittingContext ->
+                        val context = EventAppendContext()
+                        context.duplicateCommandIdList = ArrayList()
+                        context.committingContext = eventCommittingContext
+                        appendContextList.add(context)
+                    }
                 }
                 logger.warn(
                     "Batch persist events duplicated, mailboxNumber: {}, result: {}",
@@ -138,8 +319,17 @@ class DefaultEventCommittingService(
                     serializeService.serialize(result.duplicateEventAggregateRootIdList)
                 )
             }
-            processDuplicateAggregateRootRecursively(0, appendContextList, eventMailBox)
-            //最终将当前的EventMailBox的本次处理标记为处理完成，然后继续可以处理下一批事件
+            // 持久化成功的事件流并发发布，不等待发布完成，处理完持久化失败的聚合根后即可开始持久化下一批事件
+            val successContextList = appendContextList.filter { x -> x.success }
+            if (eventOutboxEnabled) {
+                // 事件流已经和发件箱一起持久化，由发件箱中继发布，命令直接完成
+                successContextList.forEach { x ->
+                    completeCommittedCommand(x.committingContext.processingCommand, x.committingContext.eventStream)
+                }
+            } else {
+                publishInOrder(successContextList.map { x -> x.committingContext })
+            }
+            processDuplicateAggregateRoots(appendContextList.filterNot { x -> x.success }, eventMailBox)
         }, {
             "[contextListCount: ${committingContexts.size}]"
         }, null, retryTimes, true)
@@ -151,37 +341,73 @@ class DefaultEventCommittingService(
         var success: Boolean = false
     }
 
-    private fun processDuplicateAggregateRootRecursively(
-        index: Int, contexts: List<EventAppendContext>, eventMailBox: EventCommittingContextMailBox
+    /**
+     * 先隔离所有冲突的聚合根，然后立即完成EventMailBox的本次运行，继续持久化其他聚合根的事件；
+     * 每个冲突的聚合根各自异步地暂停命令MailBox、刷新聚合根、重置消费序号，完成后解除隔离
+     */
+    private fun processDuplicateAggregateRoots(
+        contexts: List<EventAppendContext>, eventMailBox: EventCommittingContextMailBox
     ) {
-        if (contexts.isEmpty()) {
-            return
+        contexts.forEach { x -> eventMailBox.quarantineAggregate(x.committingContext.eventStream.aggregateRootId) }
+        eventMailBox.completeRun()
+        for (context in contexts) {
+            val eventCommittingContext = context.committingContext
+            if (eventCommittingContext.eventStream.version == 1) {
+                handleFirstEventDuplicationAsync(eventCommittingContext, 0)
+            } else {
+                resetCommandMailBoxConsumingSequence(
+                    eventCommittingContext, eventCommittingContext.processingCommand.sequence, context.duplicateCommandIdList
+                )
+            }
         }
-        if (index == contexts.size) {
-            eventMailBox.completeRun()
+    }
+
+    /**
+     * 一次发布一批持久化成功的事件流：批中每个聚合根的事件流排在该聚合根之前的发布之后，不同批的事件流最多同时发布eventPublishWindowSize批
+     */
+    private fun publishInOrder(contexts: List<EventCommittingContext>) {
+        if (contexts.isEmpty()) {
             return
         }
-        val context = contexts[index]
-        val eventCommittingContext = context.committingContext
-        val duplicateCommandIdList = context.duplicateCommandIdList
-        if (context.success) {
-            publishDomainEventAsync(
-                eventCommittingContext.processingCommand, eventCommittingContext.eventStream
-            ).whenComplete { _, _ ->
-                processDuplicateAggregateRootRecursively(index + 1, contexts, eventMailBox)
+        val aggregateRootIds = contexts.map { x -> x.eventStream.aggregateRootId }.distinct()
+        val future = CompletableFuture<Boolean>()
+        val previousList = aggregateRootIds.mapNotNull { aggregateRootId -> publishingAggregateDict.put(aggregateRootId, future) }
+        val publication = Runnable {
+            publishDomainEventsAsync(contexts, 0).whenComplete { _, _ ->
+                aggregateRootIds.forEach { aggregateRootId -> publishingAggregateDict.remove(aggregateRootId, future) }
+                future.complete(true)
+                publishingCount.decrementAndGet()
+                startPendingPublications()
             }
-            return
         }
-        if (eventCommittingContext.eventStream.version == 1) {
-            handleFirstEventDuplicationAsync(eventCommittingContext, 0).whenComplete { _, _ ->
-                processDuplicateAggregateRootRecursively(index + 1, contexts, eventMailBox)
-            }
+        if (previousList.isEmpty()) {
+            submitPublication(publication)
         } else {
-            resetCommandMailBoxConsumingSequence(
-                eventCommittingContext, eventCommittingContext.processingCommand.sequence, duplicateCommandIdList
-            ).whenComplete { _, _ ->
-                processDuplicateAggregateRootRecursively(index + 1, contexts, eventMailBox)
+            CompletableFuture.allOf(*previousList.toTypedArray()).whenComplete { _, _ -> submitPublication(publication) }
+        }
+    }
+
+    private fun submitPublication(publication: Runnable) {
+        pendingPublications.add(publication)
+        startPendingPublications()
+    }
+
+    private fun startPendingPublications() {
+        while (pendingPublications.isNotEmpty()) {
+            val count = publishingCount.get()
+            if (count >= eventPublishWindowSize) {
+                return
+            }
+            if (!publishingCount.compareAndSet(count, count + 1)) {
+                continue
+            }
+            val publication = pendingPublications.poll()
+            if (publication == null) {
+                publishingCount.decrementAndGet()
+                continue
             }
+            // 在调度器上开始发布，避免同步完成的发布在回调中层层递归
+            dispatchingExecutor.execute(publication)
         }
     }
 
@@ -191,21 +417,24 @@ class DefaultEventCommittingService(
         val commandMailBox = context.processingCommand.mailBox
         val eventMailBox = context.mailBox
         val aggregateRootId = context.eventStream.aggregateRootId
-        commandMailBox.pause()
         val future = CompletableFuture<Boolean>()
-        eventMailBox.removeAggregateAllEventCommittingContexts(aggregateRootId)
-        memoryCache.refreshAggregateFromEventStoreAsync<AggregateRoot>(
-            context.eventStream.aggregateRootTypeName,
-            aggregateRootId
-        ).whenComplete { _, _ ->
+        // 异步等待命令MailBox的当前运行结束，不阻塞事件MailBox的线程，其他聚合根的事件可以继续持久化
+        commandMailBox.pauseAsync().thenCompose {
+            memoryCache.refreshAggregateFromEventStoreAsync<AggregateRoot>(
+                context.eventStream.aggregateRootTypeName,
+                aggregateRootId
+            )
+        }.whenComplete { _, _ ->
             try {
+                commandMailBox.resetConsumingSequence(consumingSequence)
                 if (duplicateCommandIdList != null) {
                     for (commandId in duplicateCommandIdList) {
                         commandMailBox.addDuplicateCommandId(commandId)
                     }
                 }
-                commandMailBox.resetConsumingSequence(consumingSequence)
             } finally {
+                // 命令MailBox已经暂停，不会再产生该聚合根的事件流，恢复之前解除隔离
+                eventMailBox.releaseAggregate(aggregateRootId)
                 commandMailBox.resume()
                 commandMailBox.tryRun()
             }
@@ -281,6 +510,10 @@ class DefaultEventCommittingService(
     private fun publishDomainEventAsync(
         processingCommand: ProcessingCommand, eventStream: DomainEventStream, retryTimes: Int
     ): CompletableFuture<Boolean> {
+        if (eventOutboxEnabled) {
+            // 已经持久化的事件流一定在发件箱中或者已经被中继发布，不需要再次发布
+            return completeCommittedCommand(processingCommand, eventStream)
+        }
         val future = CompletableFuture<Boolean>()
         IOHelper.tryAsyncActionRecursivelyWithoutResult("PublishDomainEventAsync", {
             domainEventPublisher.publishAsync(eventStream)
@@ -288,14 +521,7 @@ class DefaultEventCommittingService(
             if (logger.isDebugEnabled) {
                 logger.debug("Publish domain events success, {}", serializeService.serialize(eventStream))
             }
-            val commandHandleResult = processingCommand.commandExecuteContext.result
-            val commandResult = CommandResult(
-                CommandStatus.Success,
-                processingCommand.message.id,
-                eventStream.aggregateRootId,
-                commandHandleResult,
-            )
-            completeCommand(processingCommand, commandResult).whenComplete { _, _ ->
+            completeCommittedCommand(processingCommand, eventStream).whenComplete { _, _ ->
                 future.complete(true)
             }
         }, {
@@ -304,6 +530,45 @@ class DefaultEventCommittingService(
         return future
     }
 
+    /**
+     * 通过一次批量发送发布多个事件流，发送失败时整批重试，消费端按已发布版本去重
+     */
+    private fun publishDomainEventsAsync(
+        contexts: List<EventCommittingContext>, retryTimes: Int
+    ): CompletableFuture<Boolean> {
+        val future = CompletableFuture<Boolean>()
+        val eventStreamMessages = contexts.map { x -> createEventStreamMessage(x.processingCommand, x.eventStream) }
+        IOHelper.tryAsyncActionRecursivelyWithoutResult("PublishDomainEventsAsync", {
+            domainEventPublisher.publishAllAsync(eventStreamMessages)
+        }, {
+            if (logger.isDebugEnabled) {
+                logger.debug("Publish domain events success, eventStreamCount: {}", eventStreamMessages.size)
+            }
+            val futures = contexts.zip(eventStreamMessages) { context, eventStream ->
+                completeCommittedCommand(context.processingCommand, eventStream)
+            }
+            CompletableFuture.allOf(*futures.toTypedArray()).whenComplete { _, _ ->
+                future.complete(true)
+            }
+        }, {
+            "[eventStreamCount: ${eventStreamMessages.size}]"
+        }, null, retryTimes, true)
+        return future
+    }
+
+    private fun completeCommittedCommand(
+        processingCommand: ProcessingCommand, eventStream: DomainEventStream
+    ): CompletableFuture<Boolean> {
+        val commandHandleResult = processingCommand.commandExecuteContext.result
+        val commandResult = CommandResult(
+            CommandStatus.Success,
+            processingCommand.message.id,
+            eventStream.aggregateRootId,
+            commandHandleResult,
+        )
+        return completeCommand(processingCommand, commandResult)
+    }
+
     private fun completeCommand(
         processingCommand: ProcessingCommand, commandResult: CommandResult
     ): CompletableFuture<Boolean> {
@@ -312,19 +577,11 @@ class DefaultEventCommittingService(
 
     private val logger = LoggerFactory.getLogger(DefaultEventCommittingService::class.java)
 
+    companion object {
+        private const val RETIRE_INTERVAL_MILLIS = 100L
+    }
+
     init {
-        for (i in 0 until eventMailBoxCount) {
-            val mailBox =
-                EventCommittingContextMailBox(
-                    i,
-                    eventMailBoxPersistenceMaxBatchSize,
-                    coroutineDispatcher
-                ) { x: List<EventCommittingContext> ->
-                    batchPersistEventAsync(
-                        x, 0
-                    )
-                }
-            eventCommittingContextMailBoxList.add(mailBox)
-        }
+        mailBoxRouting = MailBoxRouting(createMailBoxes(resolveEventMailBoxCount(eventMailBoxCount)), emptyList())
     }
 }
\ No newline at end of file
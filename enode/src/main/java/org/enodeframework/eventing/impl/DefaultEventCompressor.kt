@@ -0,0 +1,191 @@
+package org.enodeframework.eventing.impl
+
+import org.enodeframework.common.exception.EnodeException
+import org.enodeframework.eventing.EventCompressor
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.util.zip.Adler32
+import java.util.zip.DataFormatException
+import java.util.zip.Deflater
+import java.util.zip.Inflater
+
+/**
+ * 基于jdk的Deflater压缩事件流的二进制记录，只压缩超过阈值并且压缩后变小的记录；
+ * 每个聚合根类型可以预置一个训练好的字典，压缩数据的头部带有字典的adler32校验和，解压时按校验和找到字典，
+ * 所以曾经使用过的字典都要保留，阈值为0时不再压缩，但是仍然可以解压之前压缩的记录
+ *
+ * @author anruence@gmail.com
+ */
+class DefaultEventCompressor @JvmOverloads constructor(
+    /**
+     * 超过这个字节数的记录才压缩，0表示不压缩
+     */
+    private val threshold: Int = 0,
+    /**
+     * 聚合根类型名到预置字典的映射
+     */
+    private val dictionaries: Map<String, ByteArray> = emptyMap(),
+    private val level: Int = Deflater.DEFAULT_COMPRESSION
+) : EventCompressor {
+
+    private val dictionaryById: Map<Long, ByteArray> = dictionaries.values.filter { x -> x.isNotEmpty() }.associateBy { dictionary ->
+        val adler32 = Adler32()
+        adler32.update(dictionary)
+        adler32.value
+    }
+
+    private val deflaters = ThreadLocal.withInitial { Deflater(level) }
+
+    private val inflaters = ThreadLocal.withInitial { Inflater() }
+
+    override fun compress(aggregateRootTypeName: String, data: ByteArray, offset: Int, length: Int): ByteArray? {
+        if (threshold <= 0 || length <= threshold) {
+            return null
+        }
+        val deflater = deflaters.get()
+        deflater.reset()
+        val dictionary = dictionaries[aggregateRootTypeName]
+        if (dictionary != null && dictionary.isNotEmpty()) {
+            deflater.setDictionary(dictionary)
+        }
+        deflater.setInput(data, offset, length)
+        deflater.finish()
+        val output = ByteArrayOutputStream(length / 2)
+        val buffer = ByteArray(BUFFER_SIZE)
+        while (!deflater.finished()) {
+            val count = deflater.deflate(buffer)
+            output.write(buffer, 0, count)
+            if (output.size() >= length) {
+                return null
+            }
+        }
+        return output.toByteArray()
+    }
+
+    override fun decompress(data: ByteArray, offset: Int, length: Int, originalLength: Int): ByteArray {
+        val inflater = inflaters.get()
+        inflater.reset()
+        inflater.setInput(data, offset, length)
+        val output = ByteArray(originalLength)
+        var position = 0
+        try {
+            while (position < originalLength) {
+                val count = inflater.inflate(output, position, originalLength - position)
+                if (count == 0 && inflater.needsDictionary()) {
+                    val dictionaryId = inflater.adler.toLong() and 0xFFFFFFFFL
+                    val dictionary = dictionaryById[dictionaryId]
+                        ?: throw EnodeException("Compression dictionary not found, adler32: $dictionaryId")
+                    inflater.setDictionary(dictionary)
+                    continue
+                }
+                if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break
+                }
+                position += count
+            }
+        } catch (ex: DataFormatException) {
+            throw EnodeException(ex)
+        }
+        if (position != originalLength) {
+            throw EnodeException("Decompressed event record is truncated, expected: $originalLength, but was: $position")
+        }
+        return output
+    }
+
+    companion object {
+        private const val BUFFER_SIZE = 8192
+
+        /**
+         * Deflater的窗口是32KB，超过的部分不会被引用
+         */
+        const val MAX_DICTIONARY_SIZE = 32 * 1024
+
+        /**
+         * 用同一个聚合根类型的事件json样本训练字典：按json的分隔符切分成片段，统计在多个样本中重复出现的片段，
+         * 按出现次数乘以长度打分，选取得分最高的片段拼接，得分越高的片段越靠近字典末尾，压缩时引用的距离更短
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun trainDictionary(samples: Collection<ByteArray>, maxSize: Int = MAX_DICTIONARY_SIZE): ByteArray {
+            val counts = HashMap<String, Int>()
+            samples.forEach { sample ->
+                val text = String(sample, Charsets.UTF_8)
+                var start = 0
+                for (i in text.indices) {
+                    if (text[i] in SEPARATORS) {
+                        val segment = text.substring(start, i + 1)
+                        counts[segment] = (counts[segment] ?: 0) + 1
+                        start = i + 1
+                    }
+                }
+            }
+            val selected = ArrayList<ByteArray>()
+            var size = 0
+            counts.entries
+                .filter { entry -> entry.value > 1 && entry.key.length > 1 }
+                .sortedByDescending { entry -> entry.value.toLong() * entry.key.length }
+                .forEach { entry ->
+                    val bytes = entry.key.toByteArray(Charsets.UTF_8)
+                    if (size + bytes.size <= maxSize) {
+                        selected.add(bytes)
+                        size += bytes.size
+                    }
+                }
+            val output = ByteArrayOutputStream(size)
+            selected.asReversed().forEach { bytes -> output.write(bytes) }
+            return output.toByteArray()
+        }
+
+        /**
+         * 读取目录下的字典文件，文件名为：聚合根类型名.dict
+         */
+        @JvmStatic
+        fun loadDictionaries(directory: String): Map<String, ByteArray> {
+            if (directory.isEmpty()) {
+                return emptyMap()
+            }
+            val files = File(directory).listFiles { file -> file.isFile && file.name.endsWith(DICTIONARY_SUFFIX) }
+                ?: throw EnodeException("Compression dictionary directory not found: $directory")
+            return files.associate { file -> file.name.removeSuffix(DICTIONARY_SUFFIX) to file.readBytes() }
+        }
+
+        /**
+         * 保存聚合根类型的字典，已有的字典改名为：聚合根类型名.序号.dict，继续用于解压之前压缩的记录
+         */
+        @JvmStatic
+        fun saveDictionary(directory: String, aggregateRootTypeName: String, dictionary: ByteArray): File {
+            val file = File(directory, aggregateRootTypeName + DICTIONARY_SUFFIX)
+            if (file.exists()) {
+                var index = 1
+                while (File(directory, "$aggregateRootTypeName.$index$DICTIONARY_SUFFIX").exists()) {
+                    index++
+                }
+                if (!file.renameTo(File(directory, "$aggregateRootTypeName.$index$DICTIONARY_SUFFIX"))) {
+                    throw EnodeException("Keep the replaced compression dictionary failed: ${file.path}")
+                }
+            }
+            file.parentFile?.mkdirs()
+            file.writeBytes(dictionary)
+            return file
+        }
+
+        /**
+         * 训练字典的命令行入口，参数为：聚合根类型名、样本文件、字典目录；样本文件每行是一个事件流的json，例如导出的events列
+         */
+        @JvmStatic
+        fun main(args: Array<String>) {
+            if (args.size != 3) {
+                System.err.println("Usage: DefaultEventCompressor <aggregateRootTypeName> <samplesFile> <dictionaryDirectory>")
+                return
+            }
+            val samples = File(args[1]).readLines().filter { x -> x.isNotBlank() }.map { x -> x.toByteArray(Charsets.UTF_8) }
+            val dictionary = trainDictionary(samples)
+            val file = saveDictionary(args[2], args[0], dictionary)
+            println("Trained compression dictionary from ${samples.size} samples, size: ${dictionary.size}, file: ${file.path}")
+        }
+
+        private const val DICTIONARY_SUFFIX = ".dict"
+
+        private val SEPARATORS = charArrayOf(',', ':', '{', '}', '[', ']')
+    }
+}
@@ -0,0 +1,176 @@
+package org.enodeframework.eventing.impl
+
+import org.enodeframework.common.extensions.SystemClock
+import org.enodeframework.common.scheduling.ScheduleService
+import org.enodeframework.eventing.EventFeedCheckpointStore
+import org.enodeframework.eventing.EventFeedEntry
+import org.enodeframework.eventing.EventFeedHandler
+import org.enodeframework.eventing.EventStore
+import org.slf4j.LoggerFactory
+import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * 从检查点开始按位置分页读取所有的事件流交给处理器，处理成功后保存检查点，读满一页时立即读取下一页；
+ * 自增位置在分配时递增而不是在事务提交时，所以读到的位置中间有空缺时，空缺之后的事件流要等空缺补齐之后再处理，
+ * 写入失败的事务会留下永久的空缺：读取者记录每个最大位置第一次被看到的时间，位置在分配时递增，所以小于这个最大位置的空缺
+ * 在那个时间之前就已经分配，从那时起超过超时时间还没有补齐的空缺可以立即跳过，只有靠近最新位置的空缺才需要等待超时；
+ * 不能按空缺之后的事件流的产生时间提前跳过，事件流的时间在应用中生成，和事务提交的时间无关，一个长事务在超时之前仍然可能补齐空缺
+ *
+ * @author anruence@gmail.com
+ */
+class DefaultEventFeedReader(
+    private val scheduleService: ScheduleService,
+    private val eventStore: EventStore,
+    private val eventFeedCheckpointStore: EventFeedCheckpointStore,
+    /**
+     * 读取者的名称，保存检查点时使用
+     */
+    private val readerName: String,
+    private val eventFeedHandler: EventFeedHandler,
+    /**
+     * 每次读取的最大事件流数量
+     */
+    private val batchSize: Int = 5000,
+    /**
+     * 等待空缺补齐的最长时间
+     */
+    private val gapTimeoutMilliseconds: Long = 5000,
+    /**
+     * 没有新的事件流时，两次读取之间的间隔
+     */
+    private val intervalMilliseconds: Int = 100
+) {
+    private val logger = LoggerFactory.getLogger(DefaultEventFeedReader::class.java)
+    private val readTaskName: String = "ReadEventFeed_" + readerName + "_" + SystemClock.now() + Random().nextInt(10000)
+    private val reading = AtomicBoolean(false)
+
+    @Volatile
+    private var started = false
+
+    /**
+     * 已经处理的最大位置
+     */
+    @Volatile
+    var position: Long = 0
+        private set
+
+    /**
+     * 看到过的最大位置和第一次看到它的时间，按时间和位置递增，只在读取线程中访问
+     */
+    private val watermarks = ArrayDeque<Watermark>()
+
+    fun start() {
+        position = eventFeedCheckpointStore.getPositionAsync(readerName).join()
+        started = true
+        scheduleService.startTask(readTaskName, { tryRead() }, intervalMilliseconds, intervalMilliseconds)
+    }
+
+    fun stop() {
+        started = false
+        scheduleService.stopTask(readTaskName)
+    }
+
+    private fun tryRead() {
+        if (!reading.compareAndSet(false, true)) {
+            return
+        }
+        readAsync()
+    }
+
+    private fun readAsync() {
+        val future = try {
+            eventStore.readAllAsync(position, batchSize).thenCompose { entries ->
+                recordWatermark(entries)
+                val readyEntries = takeContiguous(entries)
+                handleAsync(readyEntries).thenCompose {
+                    if (readyEntries.size < entries.size && entries.size >= batchSize) {
+                        // 停在空缺处时向后多读一页，让看到的最大位置尽快接近最新位置，之后较早的空缺都不用再单独等待
+                        readAheadAsync().thenApply { false }
+                    } else {
+                        CompletableFuture.completedFuture(entries.size >= batchSize && readyEntries.size == entries.size)
+                    }
+                }
+            }
+        } catch (ex: Exception) {
+            CompletableFuture.failedFuture(ex)
+        }
+        future.whenComplete { hasMore, ex ->
+            if (ex != null) {
+                logger.error("Read event feed has exception, readerName: {}, position: {}", readerName, position, ex)
+            }
+            if (ex == null && hasMore && started) {
+                readAsync()
+                return@whenComplete
+            }
+            reading.set(false)
+        }
+    }
+
+    private fun readAheadAsync(): CompletableFuture<Void> {
+        return eventStore.readAllAsync(watermarks.last().position, batchSize).thenAccept { entries ->
+            recordWatermark(entries)
+        }
+    }
+
+    private fun recordWatermark(entries: List<EventFeedEntry>) {
+        if (entries.isEmpty()) {
+            return
+        }
+        val maxPosition = entries.last().position
+        if (watermarks.isNotEmpty() && watermarks.last().position >= maxPosition) {
+            return
+        }
+        val now = SystemClock.now()
+        // 超过超时时间的记录只需要保留最新的一个，它的位置最大
+        while (watermarks.size > 1 && now - watermarks.elementAt(1).seenAt >= gapTimeoutMilliseconds) {
+            watermarks.removeFirst()
+        }
+        watermarks.addLast(Watermark(maxPosition, now))
+    }
+
+    private fun handleAsync(entries: List<EventFeedEntry>): CompletableFuture<Boolean> {
+        if (entries.isEmpty()) {
+            return CompletableFuture.completedFuture(true)
+        }
+        val lastPosition = entries.last().position
+        return eventFeedHandler.handleAsync(entries).thenCompose {
+            eventFeedCheckpointStore.updatePositionAsync(readerName, lastPosition)
+        }.thenApply {
+            position = lastPosition
+            true
+        }
+    }
+
+    /**
+     * 取出从当前位置开始连续的事件流，遇到还不能跳过的空缺时停止
+     */
+    private fun takeContiguous(entries: List<EventFeedEntry>): List<EventFeedEntry> {
+        var expectedPosition = position + 1
+        entries.forEachIndexed { index, entry ->
+            if (entry.position > expectedPosition && !canSkipGap(expectedPosition, entry.position)) {
+                return entries.subList(0, index)
+            }
+            expectedPosition = entry.position + 1
+        }
+        return entries
+    }
+
+    /**
+     * 第一次看到不小于空缺之后位置的最大位置时，空缺已经分配，从那时起超过超时时间时才跳过
+     */
+    private fun canSkipGap(expectedPosition: Long, positionAfterGap: Long): Boolean {
+        val watermark = watermarks.firstOrNull { x -> x.position >= positionAfterGap } ?: return false
+        if (SystemClock.now() - watermark.seenAt >= gapTimeoutMilliseconds) {
+            logger.warn(
+                "Skip event feed gap after timeout, readerName: {}, gap: [{}, {})",
+                readerName, expectedPosition, positionAfterGap
+            )
+            return true
+        }
+        return false
+    }
+
+    private class Watermark(val position: Long, val seenAt: Long)
+}
@@ -0,0 +1,121 @@
+package org.enodeframework.eventing.impl
+
+import org.enodeframework.common.extensions.SystemClock
+import org.enodeframework.common.scheduling.ScheduleService
+import org.enodeframework.common.utils.IdGenerator
+import org.enodeframework.eventing.DomainEventStream
+import org.enodeframework.eventing.EventOutboxStore
+import org.enodeframework.messaging.MessagePublisher
+import org.slf4j.LoggerFactory
+import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * 发件箱中继：按持久化的顺序批量认领发件箱中未发布的事件流并发布，发布成功后从发件箱中删除；
+ * 多个实例同时运行时，每个事件流在租约期间只会被一个中继认领和发布，中继宕机后租约过期的事件流由其他中继重新认领；
+ * 发布失败、发布和删除之间宕机或者租约过期会导致事件流被重复发布，由消费端按已发布版本去重
+ *
+ * @author anruence@gmail.com
+ */
+class DefaultEventOutboxRelay(
+    private val scheduleService: ScheduleService,
+    private val eventOutboxStore: EventOutboxStore,
+    private val domainEventPublisher: MessagePublisher<DomainEventStream>,
+    /**
+     * 每次从发件箱读取的最大事件流数量
+     */
+    private val batchSize: Int = 1000,
+    /**
+     * 发件箱中没有积压的事件流时，两次读取之间的间隔
+     */
+    private val intervalMilliseconds: Int = 100,
+    /**
+     * 认领的租约时长，需要远大于一批事件流的发布时间，各实例之间的时钟偏差也需要小于租约
+     */
+    private val leaseMilliseconds: Long = 30000
+) {
+    private val logger = LoggerFactory.getLogger(DefaultEventOutboxRelay::class.java)
+    private val relayTaskName: String = "RelayOutboxEventStreams_" + SystemClock.now() + Random().nextInt(10000)
+    private val relaying = AtomicBoolean(false)
+
+    /**
+     * 中继实例的标识，发布失败的事件流仍然由当前实例持有，下一次认领时重新发布
+     */
+    private val owner: String = IdGenerator.id()
+
+    @Volatile
+    private var started = false
+
+    fun start() {
+        started = true
+        scheduleService.startTask(relayTaskName, { tryRelay() }, intervalMilliseconds, intervalMilliseconds)
+    }
+
+    fun stop() {
+        started = false
+        scheduleService.stopTask(relayTaskName)
+    }
+
+    private fun tryRelay() {
+        if (!relaying.compareAndSet(false, true)) {
+            return
+        }
+        relayAsync()
+    }
+
+    /**
+     * 认领一批事件流发布，认领满一批并且全部发布成功时说明还有积压，立即认领下一批，否则等待下一次调度
+     */
+    private fun relayAsync() {
+        val future = try {
+            eventOutboxStore.claimAsync(owner, batchSize, leaseMilliseconds).thenCompose { eventStreams ->
+                publishAsync(eventStreams).thenCompose { publishedStreams ->
+                    removeAsync(publishedStreams).thenApply {
+                        eventStreams.size >= batchSize && publishedStreams.size == eventStreams.size
+                    }
+                }
+            }
+        } catch (ex: Exception) {
+            CompletableFuture.failedFuture(ex)
+        }
+        future.whenComplete { hasMore, ex ->
+            if (ex != null) {
+                logger.error("Relay outbox event streams has exception.", ex)
+            }
+            if (ex == null && hasMore && started) {
+                relayAsync()
+                return@whenComplete
+            }
+            relaying.set(false)
+        }
+    }
+
+    /**
+     * 整批事件流通过一次批量发送发布，同一个聚合根的事件流按顺序发送；发送失败时整批留在发件箱中，等待下一次认领后重新发布
+     */
+    private fun publishAsync(eventStreams: List<DomainEventStream>): CompletableFuture<List<DomainEventStream>> {
+        if (eventStreams.isEmpty()) {
+            return CompletableFuture.completedFuture(emptyList())
+        }
+        val future = try {
+            domainEventPublisher.publishAllAsync(eventStreams)
+        } catch (ex: Exception) {
+            CompletableFuture.failedFuture(ex)
+        }
+        return future.handle { _, ex ->
+            if (ex != null) {
+                logger.error("Relay outbox event streams failed, eventStreamCount: {}", eventStreams.size, ex)
+                return@handle emptyList()
+            }
+            eventStreams
+        }
+    }
+
+    private fun removeAsync(eventStreams: List<DomainEventStream>): CompletableFuture<Int> {
+        if (eventStreams.isEmpty()) {
+            return CompletableFuture.completedFuture(0)
+        }
+        return eventOutboxStore.removeAsync(eventStreams)
+    }
+}
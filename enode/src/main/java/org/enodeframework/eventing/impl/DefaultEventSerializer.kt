@@ -1,16 +1,20 @@
 package org.enodeframework.eventing.impl
 
+import org.enodeframework.common.exception.EnodeException
 import org.enodeframework.common.serializing.SerializeService
 import org.enodeframework.eventing.DomainEventMessage
+import org.enodeframework.eventing.EventCompressor
 import org.enodeframework.eventing.EventSerializer
 import org.enodeframework.infrastructure.TypeNameProvider
+import java.io.ByteArrayOutputStream
 
 /**
  * @author anruence@gmail.com
  */
-class DefaultEventSerializer(
+class DefaultEventSerializer @JvmOverloads constructor(
     private val typeNameProvider: TypeNameProvider,
-    private val serializeService: SerializeService
+    private val serializeService: SerializeService,
+    private val eventCompressor: EventCompressor = DefaultEventCompressor()
 ) : EventSerializer {
     override fun serialize(evnts: List<DomainEventMessage>): Map<String, String> {
         return evnts.associateBy({ k -> typeNameProvider.getTypeName(k.javaClass) },
@@ -23,4 +27,152 @@ class DefaultEventSerializer(
             serializeService.deserialize(value, eventType) as DomainEventMessage
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 二进制格式：魔数、头部（格式版本和压缩标记）、记录体；记录体为类型名表（数量，每个类型名的长度和utf-8字节），
+     * 事件数量，然后每个事件依次为头部（类型名表中的序号、载荷长度）和载荷（事件的json字节）；
+     * 压缩的记录体前面是压缩之前的长度，按聚合根类型选择压缩字典；所有的数量和长度都是varint编码，同一个事件流中的类型名只保存一次
+     */
+    override fun serializeBytes(evnts: List<DomainEventMessage>): ByteArray {
+        val typeNames = LinkedHashMap<String, Int>()
+        val typeIds = evnts.map { evnt ->
+            typeNames.getOrPut(typeNameProvider.getTypeName(evnt.javaClass)) { typeNames.size }
+        }
+        val payloads = evnts.map { evnt -> serializeService.serializeBytes(evnt) }
+        val output = ByteArrayOutputStream(payloads.sumOf { x -> x.size + 8 } + 16)
+        output.write(MAGIC.toInt())
+        output.write(VERSION.toInt())
+        writeVarInt(output, typeNames.size)
+        typeNames.keys.forEach { typeName ->
+            val bytes = typeName.toByteArray(Charsets.UTF_8)
+            writeVarInt(output, bytes.size)
+            output.write(bytes)
+        }
+        writeVarInt(output, payloads.size)
+        payloads.forEachIndexed { index, payload ->
+            writeVarInt(output, typeIds[index])
+            writeVarInt(output, payload.size)
+            output.write(payload)
+        }
+        val record = output.toByteArray()
+        val aggregateRootTypeName = evnts.firstOrNull()?.aggregateRootTypeName ?: ""
+        val compressed = eventCompressor.compress(aggregateRootTypeName, record, HEADER_SIZE, record.size - HEADER_SIZE)
+            ?: return record
+        val compressedOutput = ByteArrayOutputStream(compressed.size + HEADER_SIZE + 5)
+        compressedOutput.write(MAGIC.toInt())
+        compressedOutput.write(VERSION.toInt() or FLAG_COMPRESSED)
+        writeVarInt(compressedOutput, record.size - HEADER_SIZE)
+        compressedOutput.write(compressed)
+        return compressedOutput.toByteArray()
+    }
+
+    /**
+     * 一次遍历解码：按头部中的长度直接从原始字节中反序列化载荷，不再解析外层的json和转义内层的json；
+     * 压缩的记录体先整体解压再解码；不是以魔数开头的数据按json格式解析，以便读取迁移之前写入的事件；
+     * 截断或者损坏的记录抛出EnodeException
+     */
+    override fun deserializeBytes(data: ByteArray): List<DomainEventMessage> {
+        if (data.isEmpty() || data[0] != MAGIC) {
+            return deserialize(serializeService.deserializeBytes(data, MutableMap::class.java) as MutableMap<String, String>)
+        }
+        if (data.size < HEADER_SIZE) {
+            throw EnodeException("Invalid event record, truncated header.")
+        }
+        val header = data[1].toInt() and 0xFF
+        val version = header and FLAG_COMPRESSED.inv()
+        if (version != VERSION.toInt()) {
+            throw EnodeException("Unsupported event storage format version: $version")
+        }
+        if (header and FLAG_COMPRESSED == 0) {
+            return readBody(data, HEADER_SIZE)
+        }
+        val reader = ByteReader(data, HEADER_SIZE)
+        val originalLength = reader.readVarInt()
+        val compressedLength = data.size - reader.position
+        // deflate最多压缩到原来的1/1032，超过这个比例的长度说明记录已经损坏，不能按它分配内存
+        if (originalLength < 0 || originalLength.toLong() > compressedLength.toLong() * MAX_DEFLATE_RATIO) {
+            throw EnodeException("Invalid event record, original length out of range: $originalLength")
+        }
+        val body = eventCompressor.decompress(data, reader.position, compressedLength, originalLength)
+        return readBody(body, 0)
+    }
+
+    private fun readBody(data: ByteArray, offset: Int): List<DomainEventMessage> {
+        val reader = ByteReader(data, offset)
+        // 每个类型名至少占用1个字节的长度，每个事件至少占用2个字节的头部
+        val eventTypes = Array(reader.readCount(1)) {
+            val length = reader.readCount(1)
+            val typeName = String(data, reader.position, length, Charsets.UTF_8)
+            reader.position += length
+            typeNameProvider.getType(typeName)
+        }
+        val evnts = List(reader.readCount(2)) {
+            val typeIndex = reader.readVarInt()
+            if (typeIndex < 0 || typeIndex >= eventTypes.size) {
+                throw EnodeException("Invalid event record, type index out of range: $typeIndex")
+            }
+            val length = reader.readCount(1)
+            val evnt = serializeService.deserializeBytes(data, reader.position, length, eventTypes[typeIndex]) as DomainEventMessage
+            reader.position += length
+            evnt
+        }
+        if (reader.position != data.size) {
+            throw EnodeException("Invalid event record, unexpected bytes after the events at position: ${reader.position}")
+        }
+        return evnts
+    }
+
+    private fun writeVarInt(output: ByteArrayOutputStream, value: Int) {
+        var remaining = value
+        while (remaining and 0x7F.inv() != 0) {
+            output.write((remaining and 0x7F) or 0x80)
+            remaining = remaining ushr 7
+        }
+        output.write(remaining)
+    }
+
+    private class ByteReader(private val data: ByteArray, var position: Int) {
+        fun readVarInt(): Int {
+            var value = 0
+            var shift = 0
+            while (shift < 32) {
+                if (position >= data.size) {
+                    throw EnodeException("Invalid event record, truncated at position: $position")
+                }
+                val b = data[position++].toInt()
+                value = value or ((b and 0x7F) shl shift)
+                if (b and 0x80 == 0) {
+                    return value
+                }
+                shift += 7
+            }
+            throw EnodeException("Invalid event record, malformed varint at position: $position")
+        }
+
+        /**
+         * 读取一个长度或者数量，每个单位至少占用unitSize个字节，超过剩余的字节数说明记录已经损坏
+         */
+        fun readCount(unitSize: Int): Int {
+            val count = readVarInt()
+            if (count < 0 || count.toLong() * unitSize > data.size - position) {
+                throw EnodeException("Invalid event record, length out of range: $count")
+            }
+            return count
+        }
+    }
+
+    companion object {
+        /**
+         * json格式的数据以'{'开头，不会和魔数冲突
+         */
+        private const val MAGIC: Byte = 0xEE.toByte()
+        private const val VERSION: Byte = 1
+
+        /**
+         * 头部中的压缩标记
+         */
+        private const val FLAG_COMPRESSED = 0x80
+        private const val HEADER_SIZE = 2
+        private const val MAX_DEFLATE_RATIO = 1032L
+    }
+}
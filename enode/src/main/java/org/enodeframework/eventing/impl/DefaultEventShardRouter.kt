@@ -0,0 +1,115 @@
+package org.enodeframework.eventing.impl
+
+import org.enodeframework.common.exception.EnodeException
+import org.enodeframework.common.extensions.SystemClock
+import org.enodeframework.common.scheduling.ScheduleService
+import org.enodeframework.eventing.EventShardBucket
+import org.enodeframework.eventing.EventShardMapStore
+import org.enodeframework.eventing.EventShardRouter
+import org.slf4j.LoggerFactory
+import java.util.*
+import java.util.zip.CRC32
+
+/**
+ * 按聚合根id的crc32把聚合根分到固定数量的桶，桶到分片的映射从分片映射表中读取并定时刷新；
+ * 增加分片时先冻结要迁移的桶，冻结的桶不能写入，迁移完数据后修改桶的分片并解冻，不需要修改应用
+ *
+ * @author anruence@gmail.com
+ */
+class DefaultEventShardRouter @JvmOverloads constructor(
+    private val scheduleService: ScheduleService,
+    private val eventShardMapStore: EventShardMapStore,
+    /**
+     * 桶的数量，确定之后不能修改
+     */
+    private val bucketCount: Int = DEFAULT_BUCKET_COUNT,
+    /**
+     * 刷新分片映射表的间隔
+     */
+    private val refreshIntervalMilliseconds: Int = 10000,
+    /**
+     * 超过这个时间没有刷新成功时不再允许写入，因为可能没有看到桶的冻结，冻结桶之后要等待超过这个时间再迁移数据
+     */
+    private val maxStaleMilliseconds: Int = refreshIntervalMilliseconds * 3
+) : EventShardRouter {
+    private val logger = LoggerFactory.getLogger(DefaultEventShardRouter::class.java)
+    private val refreshTaskName: String = "RefreshEventShardMap_" + SystemClock.now() + Random().nextInt(10000)
+
+    @Volatile
+    private var buckets: Array<EventShardBucket> = emptyArray()
+
+    @Volatile
+    private var refreshedTime: Long = 0
+
+    /**
+     * 启动时同步读取一次分片映射表，映射不完整时启动失败
+     */
+    fun start() {
+        buckets = toBuckets(eventShardMapStore.loadAsync().join())
+        refreshedTime = SystemClock.now()
+        scheduleService.startTask(
+            refreshTaskName, { refresh() }, refreshIntervalMilliseconds, refreshIntervalMilliseconds
+        )
+    }
+
+    fun stop() {
+        scheduleService.stopTask(refreshTaskName)
+    }
+
+    override fun route(aggregateRootId: String): String {
+        return getBucket(aggregateRootId).shardName
+    }
+
+    override fun isWritable(aggregateRootId: String): Boolean {
+        if (SystemClock.now() - refreshedTime > maxStaleMilliseconds) {
+            return false
+        }
+        return !getBucket(aggregateRootId).frozen
+    }
+
+    private fun getBucket(aggregateRootId: String): EventShardBucket {
+        val current = buckets
+        if (current.isEmpty()) {
+            throw EnodeException("Event shard map is not loaded, aggregateRootId: $aggregateRootId")
+        }
+        return current[bucketOf(aggregateRootId, bucketCount)]
+    }
+
+    /**
+     * 刷新失败或者映射不完整时继续使用之前的映射
+     */
+    private fun refresh() {
+        eventShardMapStore.loadAsync().whenComplete { shardMap, ex ->
+            if (ex != null) {
+                logger.error("Refresh event shard map has exception.", ex)
+                return@whenComplete
+            }
+            try {
+                buckets = toBuckets(shardMap)
+                refreshedTime = SystemClock.now()
+            } catch (e: EnodeException) {
+                logger.error("Refresh event shard map failed.", e)
+            }
+        }
+    }
+
+    private fun toBuckets(shardMap: Map<Int, EventShardBucket>): Array<EventShardBucket> {
+        return Array(bucketCount) { bucket ->
+            shardMap[bucket] ?: throw EnodeException("Event shard map has no shard for bucket: $bucket")
+        }
+    }
+
+    companion object {
+        const val DEFAULT_BUCKET_COUNT = 1024
+
+        /**
+         * 和MySQL的CRC32(aggregate_root_id) % bucketCount一致，迁移数据时可以直接在数据库中计算桶
+         */
+        @JvmStatic
+        fun bucketOf(aggregateRootId: String, bucketCount: Int): Int {
+            val crc32 = CRC32()
+            crc32.update(aggregateRootId.toByteArray(Charsets.UTF_8))
+            return (crc32.value % bucketCount).toInt()
+        }
+    }
+}
@@ -3,10 +3,11 @@ package org.enodeframework.eventing.impl
 import com.google.common.base.Strings
 import com.google.common.collect.Lists
 import kotlinx.coroutines.CoroutineDispatcher
+import org.enodeframework.common.extensions.AggregateHotspotMonitor
+import org.enodeframework.common.extensions.NoOpAggregateHotspotMonitor
 import org.enodeframework.common.extensions.SystemClock
 import org.enodeframework.common.io.IOHelper.tryAsyncActionRecursively
 import org.enodeframework.common.io.IOHelper.tryAsyncActionRecursivelyWithoutResult
-import org.enodeframework.common.io.Task.sleep
 import org.enodeframework.common.scheduling.ScheduleService
 import org.enodeframework.common.serializing.SerializeService
 import org.enodeframework.eventing.EnqueueMessageResult
@@ -31,7 +32,11 @@ class DefaultProcessingEventProcessor(
     /**
      * 处理领域事件的处理器的名字，默认为DefaultEventHandler
      */
-    private val domainEventStreamMessageHandlerName: String = "DefaultEventProcessor"
+    private val domainEventStreamMessageHandlerName: String = "DefaultEventProcessor",
+    /**
+     * 热点聚合根的监控，抽样记录事件的速率和MailBox的积压，默认不监控
+     */
+    private val hotspotMonitor: AggregateHotspotMonitor = NoOpAggregateHotspotMonitor.INSTANCE
 ) : ProcessingEventProcessor {
     constructor(
         scheduleService: ScheduleService,
@@ -49,8 +54,6 @@ class DefaultProcessingEventProcessor(
     )
 
     private val logger = LoggerFactory.getLogger(DefaultProcessingEventProcessor::class.java)
-    private val scanInactiveMailBoxTaskName: String =
-        "CleanInactiveProcessingEventMailBoxes_" + SystemClock.now() + Random().nextInt(10000)
     private val processTryToRefreshAggregateTaskName: String =
         "ProcessTryToRefreshAggregate_" + SystemClock.now() + Random().nextInt(10000)
 
@@ -67,35 +70,39 @@ class DefaultProcessingEventProcessor(
     private var scanExpiredAggregateIntervalMilliseconds = 5000
     private var processTryToRefreshAggregateIntervalMilliseconds = 1000
 
+    @Volatile
+    private var started = false
+
     override fun process(processingEvent: ProcessingEvent) {
         val aggregateRootId = processingEvent.message.aggregateRootId
         require(!Strings.isNullOrEmpty(aggregateRootId)) { "aggregateRootId of domain event stream cannot be null or empty, domainEventStreamId:" + processingEvent.message.id }
-        var mailbox = mailboxDict.computeIfAbsent(aggregateRootId) { buildProcessingEventMailBox(processingEvent) }
-        var mailboxTryUsingCount = 0L
-        while (!mailbox.tryUsing()) {
-            sleep(1)
-            mailboxTryUsingCount++
-            if (mailboxTryUsingCount % 10000 == 0L) {
-                logger.warn(
-                    "Event mailbox try using count: {}, aggregateRootId: {}, aggregateRootTypeName: {}",
-                    mailboxTryUsingCount,
-                    mailbox.aggregateRootId,
-                    mailbox.aggregateRootTypeName
-                )
+        // 不阻塞等待MailBox：MailBox允许多个生产者同时入队，如果遇到已被清理的MailBox，则将其从字典中移除后重新创建
+        while (true) {
+            val mailbox = mailboxDict.computeIfAbsent(aggregateRootId) {
+                buildProcessingEventMailBox(processingEvent).also { scheduleCleanInactiveMailbox(it) }
             }
-        }
-        if (mailbox.isRemoved()) {
-            mailbox = mailboxDict.computeIfAbsent(aggregateRootId) {
-                buildProcessingEventMailBox(processingEvent)
+            if (mailbox.tryUsing()) {
+                try {
+                    val enqueueResult = mailbox.enqueueMessage(processingEvent)
+                    if (enqueueResult == EnqueueMessageResult.Ignored) {
+                        processingEvent.processContext.notifyEventProcessed()
+                    } else if (enqueueResult == EnqueueMessageResult.AddToWaitingList) {
+                        addToRefreshAggregateMailBoxToDict(mailbox)
+                    }
+                    if (hotspotMonitor.isSampled) {
+                        hotspotMonitor.onMessageEnqueued(
+                            AggregateHotspotMonitor.EVENT_PROCESSOR,
+                            aggregateRootId,
+                            mailbox.getTotalUnHandledMessageCount().toLong()
+                        )
+                    }
+                } finally {
+                    mailbox.exitUsing()
+                }
+                return
             }
+            mailboxDict.remove(aggregateRootId, mailbox)
         }
-        val enqueueResult = mailbox.enqueueMessage(processingEvent)
-        if (enqueueResult == EnqueueMessageResult.Ignored) {
-            processingEvent.processContext.notifyEventProcessed()
-        } else if (enqueueResult == EnqueueMessageResult.AddToWaitingList) {
-            addToRefreshAggregateMailBoxToDict(mailbox)
-        }
-        mailbox.exitUsing()
     }
 
     private fun addToRefreshAggregateMailBoxToDict(mailbox: ProcessingEventMailBox) {
@@ -140,12 +147,7 @@ class DefaultProcessingEventProcessor(
     }
 
     override fun start() {
-        scheduleService.startTask(
-            scanInactiveMailBoxTaskName,
-            { cleanInactiveMailbox() },
-            scanExpiredAggregateIntervalMilliseconds,
-            scanExpiredAggregateIntervalMilliseconds
-        )
+        started = true
         scheduleService.startTask(
             processTryToRefreshAggregateTaskName,
             { processToRefreshAggregateRootMailBoxs() },
@@ -155,7 +157,7 @@ class DefaultProcessingEventProcessor(
     }
 
     override fun stop() {
-        scheduleService.stopTask(scanInactiveMailBoxTaskName)
+        started = false
         scheduleService.stopTask(processTryToRefreshAggregateTaskName)
     }
 
@@ -224,23 +226,40 @@ class DefaultProcessingEventProcessor(
         }
     }
 
-    private fun cleanInactiveMailbox() {
-        val inactiveList = mailboxDict.entries.filter { entry -> isMailBoxAllowRemove(entry.value) }
-        inactiveList.forEach { (key, value): Map.Entry<String, ProcessingEventMailBox> ->
-            if (value.tryUsing()) {
-                if (isMailBoxAllowRemove(value)) {
-                    val removed = mailboxDict.remove(key)
-                    if (removed != null) {
-                        removed.markAsRemoved()
+    private fun scheduleCleanInactiveMailbox(mailbox: ProcessingEventMailBox) {
+        val delayMillis = mailbox.getRemainingActiveMillis(timeoutSeconds)
+        scheduleService.newTimeout({ cleanInactiveMailbox(mailbox) }, delayMillis)
+    }
+
+    /**
+     * MailBox的到期检查，只有到期的MailBox会被处理；期间有过活动的MailBox按最新的活跃时间重新注册
+     */
+    private fun cleanInactiveMailbox(mailbox: ProcessingEventMailBox) {
+        // 未被移除的MailBox一定在字典中（或正在放入字典），已被移除的MailBox不再需要检查
+        if (mailbox.isRemoved()) {
+            return
+        }
+        if (!mailbox.isInactive(timeoutSeconds)) {
+            scheduleCleanInactiveMailbox(mailbox)
+            return
+        }
+        if (started && mailbox.tryRetire()) {
+            if (isMailBoxAllowRemove(mailbox)) {
+                if (mailbox.markAsRemoved()) {
+                    if (mailboxDict.remove(mailbox.aggregateRootId, mailbox)) {
                         logger.info(
                             "Removed inactive domain event stream mailbox, aggregateRootTypeName: {}, aggregateRootId: {}",
-                            removed.aggregateRootTypeName,
-                            removed.aggregateRootId
+                            mailbox.aggregateRootTypeName,
+                            mailbox.aggregateRootId
                         )
                     }
+                    return
                 }
+            } else {
+                mailbox.cancelRetire()
             }
         }
+        scheduleService.newTimeout({ cleanInactiveMailbox(mailbox) }, scanExpiredAggregateIntervalMilliseconds.toLong())
     }
 
     private fun isMailBoxAllowRemove(mailbox: ProcessingEventMailBox): Boolean {
@@ -0,0 +1,21 @@
+package org.enodeframework.eventing.impl
+
+import org.enodeframework.eventing.EventFeedCheckpointStore
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+
+/**
+ * @author anruence@gmail.com
+ */
+class InMemoryEventFeedCheckpointStore : EventFeedCheckpointStore {
+    private val positionDict: ConcurrentMap<String, Long> = ConcurrentHashMap()
+    override fun updatePositionAsync(readerName: String, position: Long): CompletableFuture<Int> {
+        positionDict[readerName] = position
+        return CompletableFuture.completedFuture(1)
+    }
+
+    override fun getPositionAsync(readerName: String): CompletableFuture<Long> {
+        return CompletableFuture.completedFuture(positionDict.getOrDefault(readerName, 0L))
+    }
+}
@@ -2,6 +2,7 @@ package org.enodeframework.eventing.impl
 
 import org.enodeframework.eventing.DomainEventStream
 import org.enodeframework.eventing.EventAppendResult
+import org.enodeframework.eventing.EventFeedEntry
 import org.enodeframework.eventing.EventStore
 import java.util.concurrent.CompletableFuture
 import java.util.concurrent.ConcurrentHashMap
@@ -13,6 +14,11 @@ import java.util.concurrent.ConcurrentMap
 class InMemoryEventStore : EventStore {
     private val lockObj = Any()
     private val aggregateInfoDict: ConcurrentMap<String, AggregateInfo>
+
+    /**
+     * 按写入顺序保存的所有事件流，位置从1开始连续递增
+     */
+    private val feed: MutableList<EventFeedEntry> = ArrayList()
     private fun queryAggregateEvents(
         aggregateRootId: String,
         aggregateRootTypeName: String,
@@ -62,6 +68,14 @@ class InMemoryEventStore : EventStore {
         )
     }
 
+    override fun readAllAsync(fromPosition: Long, maxCount: Int): CompletableFuture<List<EventFeedEntry>> {
+        synchronized(lockObj) {
+            val fromIndex = fromPosition.coerceIn(0, feed.size.toLong()).toInt()
+            val toIndex = (fromIndex + maxCount).coerceAtMost(feed.size)
+            return CompletableFuture.completedFuture(ArrayList(feed.subList(fromIndex, toIndex)))
+        }
+    }
+
     private fun find(aggregateRootId: String, version: Int): DomainEventStream? {
         return aggregateInfoDict[aggregateRootId]?.eventDict?.get(version)
     }
@@ -108,10 +122,9 @@ class InMemoryEventStore : EventStore {
                 aggregateInfo.eventDict[eventStream.version] = eventStream
                 aggregateInfo.commandDict[eventStream.commandId] = eventStream
                 aggregateInfo.currentVersion = eventStream.version
+                feed.add(EventFeedEntry(feed.size + 1L, eventStream))
             }
-            if (!eventAppendResult.successAggregateRootIdList.contains(aggregateRootId)) {
-                eventAppendResult.addSuccessAggregateRootId(aggregateRootId)
-            }
+            eventAppendResult.addSuccessAggregateRootId(aggregateRootId)
         }
     }
 
@@ -0,0 +1,150 @@
+package org.enodeframework.eventing.impl
+
+import org.enodeframework.common.exception.EnodeException
+import org.enodeframework.common.function.DelayedTask
+import org.enodeframework.eventing.DomainEventStream
+import org.enodeframework.eventing.EventAppendResult
+import org.enodeframework.eventing.EventFeedEntry
+import org.enodeframework.eventing.EventShardRouter
+import org.enodeframework.eventing.EventStore
+import org.slf4j.LoggerFactory
+import java.time.Duration
+import java.util.*
+import java.util.concurrent.CompletableFuture
+
+/**
+ * 按聚合根路由到多个分片的事件存储，一个聚合根的所有事件都在同一个分片中；
+ * 批量写入时按分片拆分后并行写入，再合并每个分片的写入结果
+ *
+ * @author anruence@gmail.com
+ */
+class ShardedEventStore @JvmOverloads constructor(
+    /**
+     * 分片名称到分片的事件存储的映射
+     */
+    val shards: Map<String, EventStore>,
+    private val eventShardRouter: EventShardRouter,
+    /**
+     * 分片写入失败或者桶正在迁移时，重试这部分事件流的间隔
+     */
+    private val retryIntervalMilliseconds: Long = 1000
+) : EventStore {
+    private val logger = LoggerFactory.getLogger(ShardedEventStore::class.java)
+
+    override fun batchAppendAsync(eventStreams: List<DomainEventStream>): CompletableFuture<EventAppendResult> {
+        if (eventStreams.isEmpty()) {
+            return CompletableFuture.completedFuture(EventAppendResult())
+        }
+        val shardEventStreams = eventStreams.groupBy { x -> eventShardRouter.route(x.aggregateRootId) }
+        if (shardEventStreams.size == 1 && eventStreams.all { x -> eventShardRouter.isWritable(x.aggregateRootId) }) {
+            val (shardName, streams) = shardEventStreams.entries.first()
+            return getShard(shardName).batchAppendAsync(streams)
+        }
+        val future = CompletableFuture<EventAppendResult>()
+        appendAsync(eventStreams, EventAppendResult(), future, 0)
+        return future
+    }
+
+    /**
+     * 每个分片的写入结果合并到eventAppendResult，写入失败的分片和正在迁移的桶只重试它们自己的事件流，直到全部写入；
+     * 如果返回失败由调用方整批重试，已经写入成功的分片会再写入一次，这些聚合根会被当成版本冲突处理
+     */
+    private fun appendAsync(
+        eventStreams: List<DomainEventStream>,
+        eventAppendResult: EventAppendResult,
+        future: CompletableFuture<EventAppendResult>,
+        retryTimes: Int
+    ) {
+        val retryEventStreams = Collections.synchronizedSet(Collections.newSetFromMap(IdentityHashMap<DomainEventStream, Boolean>()))
+        val futures = try {
+            val (writableEventStreams, frozenEventStreams) = eventStreams.partition { x ->
+                eventShardRouter.isWritable(x.aggregateRootId)
+            }
+            if (frozenEventStreams.isNotEmpty()) {
+                logger.warn(
+                    "Event shard buckets are not writable, retry later, aggregateRootIds: {}, retryTimes: {}",
+                    frozenEventStreams.map { x -> x.aggregateRootId }.distinct(), retryTimes
+                )
+                retryEventStreams.addAll(frozenEventStreams)
+            }
+            writableEventStreams.groupBy { x -> eventShardRouter.route(x.aggregateRootId) }.map { (shardName, streams) ->
+                appendToShardAsync(shardName, streams).handle { shardResult, ex ->
+                    if (ex != null) {
+                        logger.error(
+                            "Batch append events to shard has exception, retry later, shardName: {}, retryTimes: {}",
+                            shardName, retryTimes, ex
+                        )
+                        retryEventStreams.addAll(streams)
+                    } else {
+                        merge(eventAppendResult, shardResult)
+                    }
+                }
+            }
+        } catch (ex: Exception) {
+            logger.error("Route event streams to shards has exception, retry later, retryTimes: {}", retryTimes, ex)
+            retryEventStreams.clear()
+            retryEventStreams.addAll(eventStreams)
+            emptyList()
+        }
+        CompletableFuture.allOf(*futures.toTypedArray()).whenComplete { _, _ ->
+            if (retryEventStreams.isEmpty()) {
+                future.complete(eventAppendResult)
+                return@whenComplete
+            }
+            // 保持事件流原来的顺序，同一个聚合根的多个事件流按版本写入
+            val remaining = eventStreams.filter { x -> retryEventStreams.contains(x) }
+            DelayedTask.startDelayedTask(Duration.ofMillis(retryIntervalMilliseconds)) {
+                appendAsync(remaining, eventAppendResult, future, retryTimes + 1)
+            }
+        }
+    }
+
+    private fun appendToShardAsync(shardName: String, eventStreams: List<DomainEventStream>): CompletableFuture<EventAppendResult> {
+        return try {
+            getShard(shardName).batchAppendAsync(eventStreams)
+        } catch (ex: Exception) {
+            CompletableFuture.failedFuture(ex)
+        }
+    }
+
+    private fun merge(eventAppendResult: EventAppendResult, shardResult: EventAppendResult) {
+        shardResult.successAggregateRootIdList.forEach { x -> eventAppendResult.addSuccessAggregateRootId(x) }
+        shardResult.duplicateEventAggregateRootIdList.forEach { x -> eventAppendResult.addDuplicateEventAggregateRootId(x) }
+        shardResult.duplicateCommandAggregateRootIdList.forEach { (aggregateRootId, commandIds) ->
+            eventAppendResult.addDuplicateCommandIds(aggregateRootId, commandIds)
+        }
+    }
+
+    override fun findAsync(aggregateRootId: String, version: Int): CompletableFuture<DomainEventStream?> {
+        return getShardOf(aggregateRootId).findAsync(aggregateRootId, version)
+    }
+
+    override fun findAsync(aggregateRootId: String, commandId: String): CompletableFuture<DomainEventStream?> {
+        return getShardOf(aggregateRootId).findAsync(aggregateRootId, commandId)
+    }
+
+    override fun queryAggregateEventsAsync(
+        aggregateRootId: String, aggregateRootTypeName: String, minVersion: Int, maxVersion: Int
+    ): CompletableFuture<List<DomainEventStream>> {
+        return getShardOf(aggregateRootId).queryAggregateEventsAsync(
+            aggregateRootId, aggregateRootTypeName, minVersion, maxVersion
+        )
+    }
+
+    /**
+     * 每个分片的位置各自独立，没有全局的顺序，需要对每个分片分别读取
+     */
+    override fun readAllAsync(fromPosition: Long, maxCount: Int): CompletableFuture<List<EventFeedEntry>> {
+        return CompletableFuture.failedFuture(
+            EnodeException("Sharded event store has no global feed, read the feed of every shard instead.")
+        )
+    }
+
+    private fun getShardOf(aggregateRootId: String): EventStore {
+        return getShard(eventShardRouter.route(aggregateRootId))
+    }
+
+    private fun getShard(shardName: String): EventStore {
+        return shards[shardName] ?: throw EnodeException("Event store shard not found: $shardName")
+    }
+}
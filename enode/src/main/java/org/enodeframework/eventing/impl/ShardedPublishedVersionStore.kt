@@ -0,0 +1,46 @@
+package org.enodeframework.eventing.impl
+
+import org.enodeframework.common.exception.EnodeException
+import org.enodeframework.common.exception.IORuntimeException
+import org.enodeframework.eventing.EventShardRouter
+import org.enodeframework.eventing.PublishedVersionStore
+import java.util.concurrent.CompletableFuture
+
+/**
+ * 按聚合根路由到多个分片的已发布版本存储，和ShardedEventStore使用同一个路由
+ *
+ * @author anruence@gmail.com
+ */
+class ShardedPublishedVersionStore(
+    /**
+     * 分片名称到分片的已发布版本存储的映射
+     */
+    private val shards: Map<String, PublishedVersionStore>,
+    private val eventShardRouter: EventShardRouter
+) : PublishedVersionStore {
+
+    override fun updatePublishedVersionAsync(
+        processorName: String, aggregateRootTypeName: String, aggregateRootId: String, publishedVersion: Int
+    ): CompletableFuture<Int> {
+        // 正在迁移的桶不能写入，由调用方稍后重试
+        if (!eventShardRouter.isWritable(aggregateRootId)) {
+            return CompletableFuture.failedFuture(
+                IORuntimeException("Event shard bucket is not writable, aggregateRootId: $aggregateRootId")
+            )
+        }
+        return getShardOf(aggregateRootId).updatePublishedVersionAsync(
+            processorName, aggregateRootTypeName, aggregateRootId, publishedVersion
+        )
+    }
+
+    override fun getPublishedVersionAsync(
+        processorName: String, aggregateRootTypeName: String, aggregateRootId: String
+    ): CompletableFuture<Int> {
+        return getShardOf(aggregateRootId).getPublishedVersionAsync(processorName, aggregateRootTypeName, aggregateRootId)
+    }
+
+    private fun getShardOf(aggregateRootId: String): PublishedVersionStore {
+        val shardName = eventShardRouter.route(aggregateRootId)
+        return shards[shardName] ?: throw EnodeException("Published version store shard not found: $shardName")
+    }
+}
@@ -7,4 +7,12 @@ interface MethodInvocation {
     fun setMethodHandle(methodHandle: MethodHandle)
     fun setMethod(method: Method)
     fun getMethod(): Method
+
+    /**
+     * 处理方法是否是suspend方法，在setMethod时计算，避免每次调用时的反射开销；
+     * 默认为false，调用方会通过非suspend的handle方法调用处理方法
+     */
+    fun isSuspendMethod(): Boolean {
+        return false
+    }
 }
\ No newline at end of file
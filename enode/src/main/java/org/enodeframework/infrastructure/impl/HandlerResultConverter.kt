@@ -0,0 +1,30 @@
+package org.enodeframework.infrastructure.impl
+
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionStage
+
+/**
+ * 将非suspend的Handler方法的返回值转换为CompletableFuture
+ *
+ * @author anruence@gmail.com
+ */
+object HandlerResultConverter {
+    @JvmStatic
+    fun toFuture(returnType: Class<*>, result: Any?): CompletableFuture<*> {
+        if (CompletionStage::class.java.isAssignableFrom(returnType)) {
+            if (result is CompletableFuture<*>) {
+                return result
+            }
+            return Mono.fromCompletionStage(result as CompletionStage<*>).toFuture()
+        }
+        if (Mono::class.java.isAssignableFrom(returnType)) {
+            return (result as Mono<*>).toFuture()
+        }
+        if (Flux::class.java.isAssignableFrom(returnType)) {
+            return (result as Flux<*>).all { true }.toFuture()
+        }
+        return CompletableFuture.completedFuture(result)
+    }
+}
@@ -1,8 +1,19 @@
 package org.enodeframework.messaging
 
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.future.future
 import org.enodeframework.infrastructure.MethodInvocation
 import org.enodeframework.infrastructure.ObjectProxy
+import java.util.concurrent.CompletableFuture
 
 interface MessageHandlerProxy1 : ObjectProxy, MethodInvocation {
     suspend fun handleAsync(message: Message)
+
+    /**
+     * Runs handleAsync on the calling thread by default, implementations only need to override one of them.
+     */
+    fun handle(message: Message): CompletableFuture<*> {
+        return CoroutineScope(Dispatchers.Unconfined).future { handleAsync(message) }
+    }
 }
\ No newline at end of file
@@ -1,8 +1,19 @@
 package org.enodeframework.messaging
 
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.future.future
 import org.enodeframework.infrastructure.MethodInvocation
 import org.enodeframework.infrastructure.ObjectProxy
+import java.util.concurrent.CompletableFuture
 
 interface MessageHandlerProxy3 : ObjectProxy, MethodInvocation {
     suspend fun handleAsync(message1: Message, message2: Message, message3: Message)
+
+    /**
+     * Runs handleAsync on the calling thread by default, implementations only need to override one of them.
+     */
+    fun handle(message1: Message, message2: Message, message3: Message): CompletableFuture<*> {
+        return CoroutineScope(Dispatchers.Unconfined).future { handleAsync(message1, message2, message3) }
+    }
 }
\ No newline at end of file
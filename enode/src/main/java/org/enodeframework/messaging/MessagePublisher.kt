@@ -5,4 +5,13 @@ import java.util.concurrent.CompletableFuture
 
 interface MessagePublisher<TMessage : Message> {
     fun publishAsync(message: TMessage): CompletableFuture<SendMessageResult>
-}
\ No newline at end of file
+
+    /**
+     * Publish a batch of messages at once, the results are in the same order as the messages.
+     * The default publishes every message separately.
+     */
+    fun publishAllAsync(messages: List<TMessage>): CompletableFuture<List<SendMessageResult>> {
+        val futures = messages.map { x -> publishAsync(x) }
+        return CompletableFuture.allOf(*futures.toTypedArray()).thenApply { futures.map { x -> x.join() } }
+    }
+}
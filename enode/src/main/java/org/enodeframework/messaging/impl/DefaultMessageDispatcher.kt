@@ -2,10 +2,8 @@ package org.enodeframework.messaging.impl
 
 import com.google.common.collect.Lists
 import kotlinx.coroutines.CoroutineDispatcher
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.async
-import kotlinx.coroutines.future.asCompletableFuture
 import org.enodeframework.common.function.Action4
+import org.enodeframework.common.io.DispatchingExecutor
 import org.enodeframework.common.io.IOHelper
 import org.enodeframework.common.io.Task
 import org.enodeframework.common.serializing.SerializeService
@@ -32,8 +30,9 @@ class DefaultMessageDispatcher(
     private val twoMessageHandlerProvider: TwoMessageHandlerProvider,
     private val threeMessageHandlerProvider: ThreeMessageHandlerProvider,
     private val serializeService: SerializeService,
-    private val coroutineDispatcher: CoroutineDispatcher,
+    coroutineDispatcher: CoroutineDispatcher,
 ) : MessageDispatcher {
+    private val dispatchingExecutor = DispatchingExecutor(coroutineDispatcher)
 
     override fun dispatchMessageAsync(message: Message): CompletableFuture<Boolean> {
         return dispatchMessages(Lists.newArrayList(message))
@@ -190,9 +189,11 @@ class DefaultMessageDispatcher(
     ) {
         val message = singleMessageDispatching.message
         IOHelper.tryAsyncActionRecursivelyWithoutResult("HandleSingleMessageAsync", {
-            CoroutineScope(coroutineDispatcher).async {
-                handlerProxy.handleAsync(message)
-            }.asCompletableFuture()
+            if (handlerProxy.isSuspendMethod()) {
+                dispatchingExecutor.executeSuspend { handlerProxy.handleAsync(message) }
+            } else {
+                dispatchingExecutor.executeAsync { handlerProxy.handle(message) }
+            }
         }, {
             singleMessageDispatching.removeHandledHandler(handlerTypeName)
             queueHandler?.onHandlerFinished(handlerProxy)
@@ -215,9 +216,11 @@ class DefaultMessageDispatcher(
         val message1 = messages[0]
         val message2 = messages[1]
         IOHelper.tryAsyncActionRecursively("HandleTwoMessageAsync", {
-            CoroutineScope(coroutineDispatcher).async {
-                handlerProxy.handleAsync(message1, message2)
-            }.asCompletableFuture()
+            if (handlerProxy.isSuspendMethod()) {
+                dispatchingExecutor.executeSuspend { handlerProxy.handleAsync(message1, message2) }
+            } else {
+                dispatchingExecutor.executeAsync { handlerProxy.handle(message1, message2) }
+            }
         }, {
             multiMessageDispatching.removeHandledHandler(handlerTypeName)
             queueHandler?.onHandlerFinished(handlerProxy)
@@ -241,9 +244,11 @@ class DefaultMessageDispatcher(
         val message2 = messages[1]
         val message3 = messages[2]
         IOHelper.tryAsyncActionRecursively("HandleThreeMessageAsync", {
-            CoroutineScope(coroutineDispatcher).async {
-                handlerProxy.handleAsync(message1, message2, message3)
-            }.asCompletableFuture()
+            if (handlerProxy.isSuspendMethod()) {
+                dispatchingExecutor.executeSuspend { handlerProxy.handleAsync(message1, message2, message3) }
+            } else {
+                dispatchingExecutor.executeAsync { handlerProxy.handle(message1, message2, message3) }
+            }
         }, {
             multiMessageDispatching.removeHandledHandler(handlerTypeName)
             queueHandler?.onHandlerFinished(handlerProxy)
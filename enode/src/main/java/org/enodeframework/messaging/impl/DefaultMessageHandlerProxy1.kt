@@ -1,13 +1,12 @@
 package org.enodeframework.messaging.impl
 
 import kotlinx.coroutines.future.await
+import org.enodeframework.infrastructure.impl.HandlerResultConverter
 import org.enodeframework.messaging.Message
 import org.enodeframework.messaging.MessageHandlerProxy1
-import reactor.core.publisher.Flux
-import reactor.core.publisher.Mono
 import java.lang.invoke.MethodHandle
 import java.lang.reflect.Method
-import java.util.concurrent.CompletionStage
+import java.util.concurrent.CompletableFuture
 import kotlin.coroutines.intrinsics.suspendCoroutineUninterceptedOrReturn
 import kotlin.reflect.jvm.kotlinFunction
 
@@ -18,26 +17,19 @@ class DefaultMessageHandlerProxy1 : MessageHandlerProxy1 {
     private lateinit var innerObject: Any
     private lateinit var methodHandle: MethodHandle
     private lateinit var method: Method
+    private var suspendMethod = false
 
     override suspend fun handleAsync(message: Message) {
-        if (method.kotlinFunction?.isSuspend == true) {
+        if (suspendMethod) {
             invokeSuspend(getInnerObject(), message)
             return
         }
-        if (CompletionStage::class.java.isAssignableFrom(method.returnType)) {
-            val result = methodHandle.invoke(getInnerObject(), message) as CompletionStage<*>
-            Mono.fromCompletionStage(result).toFuture().await()
-        } else if (Mono::class.java.isAssignableFrom(method.returnType)) {
-            val result = methodHandle.invoke(getInnerObject(), message) as Mono<*>
-            result.toFuture().await()
-        } else if (Flux::class.java.isAssignableFrom(method.returnType)) {
-            val result = methodHandle.invoke(getInnerObject(), message) as Flux<*>
-            result.all { true }.toFuture().await()
-        } else {
-            Mono.fromCallable {
-                methodHandle.invoke(getInnerObject(), message)
-            }.toFuture().await()
-        }
+        handle(message).await()
+    }
+
+    override fun handle(message: Message): CompletableFuture<*> {
+        val result = methodHandle.invoke(getInnerObject(), message)
+        return HandlerResultConverter.toFuture(method.returnType, result)
     }
 
     private suspend fun invokeSuspend(obj: Any, message: Message): Any? =
@@ -63,5 +55,10 @@ class DefaultMessageHandlerProxy1 : MessageHandlerProxy1 {
 
     override fun setMethod(method: Method) {
         this.method = method
+        this.suspendMethod = method.kotlinFunction?.isSuspend == true
+    }
+
+    override fun isSuspendMethod(): Boolean {
+        return suspendMethod
     }
-}
\ No newline at end of file
+}
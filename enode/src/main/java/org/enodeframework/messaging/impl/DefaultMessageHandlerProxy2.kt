@@ -1,13 +1,12 @@
 package org.enodeframework.messaging.impl
 
 import kotlinx.coroutines.future.await
+import org.enodeframework.infrastructure.impl.HandlerResultConverter
 import org.enodeframework.messaging.Message
 import org.enodeframework.messaging.MessageHandlerProxy2
-import reactor.core.publisher.Flux
-import reactor.core.publisher.Mono
 import java.lang.invoke.MethodHandle
 import java.lang.reflect.Method
-import java.util.concurrent.CompletionStage
+import java.util.concurrent.CompletableFuture
 import kotlin.coroutines.intrinsics.suspendCoroutineUninterceptedOrReturn
 import kotlin.reflect.jvm.kotlinFunction
 
@@ -18,48 +17,28 @@ class DefaultMessageHandlerProxy2 : MessageHandlerProxy2 {
     private lateinit var innerObject: Any
     private lateinit var methodHandle: MethodHandle
     private lateinit var method: Method
+    private lateinit var firstParameterType: Class<*>
+    private var suspendMethod = false
 
     override suspend fun handleAsync(message1: Message, message2: Message) {
-        val methodParameterTypes = method.parameterTypes
-        if (method.kotlinFunction?.isSuspend == true) {
-            if (methodParameterTypes[0].isAssignableFrom(message1.javaClass)) {
+        if (suspendMethod) {
+            if (firstParameterType.isAssignableFrom(message1.javaClass)) {
                 invokeSuspend(getInnerObject(), message1, message2)
             } else {
                 invokeSuspend(getInnerObject(), message2, message1)
             }
             return
         }
-        if (methodParameterTypes[0].isAssignableFrom(message1.javaClass)) {
-            if (CompletionStage::class.java.isAssignableFrom(method.returnType)) {
-                val result = methodHandle.invoke(getInnerObject(), message1, message2) as CompletionStage<*>
-                Mono.fromCompletionStage(result).toFuture().await()
-            } else if (Mono::class.java.isAssignableFrom(method.returnType)) {
-                val result = methodHandle.invoke(getInnerObject(), message1, message2) as Mono<*>
-                result.toFuture().await()
-            } else if (Flux::class.java.isAssignableFrom(method.returnType)) {
-                val result = methodHandle.invoke(getInnerObject(), message1, message2) as Flux<*>
-                result.all { true }.toFuture().await()
-            } else {
-                Mono.fromCallable {
-                    methodHandle.invoke(getInnerObject(), message1, message2)
-                }.toFuture().await()
-            }
+        handle(message1, message2).await()
+    }
+
+    override fun handle(message1: Message, message2: Message): CompletableFuture<*> {
+        val result = if (firstParameterType.isAssignableFrom(message1.javaClass)) {
+            methodHandle.invoke(getInnerObject(), message1, message2)
         } else {
-            if (CompletionStage::class.java.isAssignableFrom(method.returnType)) {
-                val result = methodHandle.invoke(getInnerObject(), message2, message1) as CompletionStage<*>
-                Mono.fromCompletionStage(result).toFuture().await()
-            } else if (Mono::class.java.isAssignableFrom(method.returnType)) {
-                val result = methodHandle.invoke(getInnerObject(), message2, message1) as Mono<*>
-                result.toFuture().await()
-            } else if (Flux::class.java.isAssignableFrom(method.returnType)) {
-                val result = methodHandle.invoke(getInnerObject(), message2, message1) as Flux<*>
-                result.all { true }.toFuture().await()
-            } else {
-                Mono.fromCallable {
-                    methodHandle.invoke(getInnerObject(), message2, message1)
-                }.toFuture().await()
-            }
+            methodHandle.invoke(getInnerObject(), message2, message1)
         }
+        return HandlerResultConverter.toFuture(method.returnType, result)
     }
 
     private suspend fun invokeSuspend(obj: Any, message1: Message, message2: Message): Any? =
@@ -85,5 +64,11 @@ class DefaultMessageHandlerProxy2 : MessageHandlerProxy2 {
 
     override fun setMethod(method: Method) {
         this.method = method
+        this.firstParameterType = method.parameterTypes[0]
+        this.suspendMethod = method.kotlinFunction?.isSuspend == true
+    }
+
+    override fun isSuspendMethod(): Boolean {
+        return suspendMethod
     }
 }
\ No newline at end of file
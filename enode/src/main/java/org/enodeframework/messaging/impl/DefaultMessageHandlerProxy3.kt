@@ -1,13 +1,12 @@
 package org.enodeframework.messaging.impl
 
 import kotlinx.coroutines.future.await
+import org.enodeframework.infrastructure.impl.HandlerResultConverter
 import org.enodeframework.messaging.Message
 import org.enodeframework.messaging.MessageHandlerProxy3
-import reactor.core.publisher.Flux
-import reactor.core.publisher.Mono
 import java.lang.invoke.MethodHandle
 import java.lang.reflect.Method
-import java.util.concurrent.CompletionStage
+import java.util.concurrent.CompletableFuture
 import kotlin.coroutines.intrinsics.suspendCoroutineUninterceptedOrReturn
 import kotlin.reflect.jvm.kotlinFunction
 
@@ -18,27 +17,20 @@ class DefaultMessageHandlerProxy3 : MessageHandlerProxy3 {
     private lateinit var innerObject: Any
     private lateinit var methodHandle: MethodHandle
     private lateinit var method: Method
+    private var suspendMethod = false
 
     override suspend fun handleAsync(message1: Message, message2: Message, message3: Message) {
         // 参数按照方法定义参数类型列表传递
-        if (method.kotlinFunction?.isSuspend == true) {
+        if (suspendMethod) {
             invokeSuspend(innerObject, message1, message2, message3)
             return
         }
-        if (CompletionStage::class.java.isAssignableFrom(method.returnType)) {
-            val result = methodHandle.invoke(innerObject, message1, message2, message3) as CompletionStage<*>
-            Mono.fromCompletionStage(result).toFuture().await()
-        } else if (Mono::class.java.isAssignableFrom(method.returnType)) {
-            val result = methodHandle.invoke(innerObject, message1, message2, message3) as Mono<*>
-            result.toFuture().await()
-        } else if (Flux::class.java.isAssignableFrom(method.returnType)) {
-            val result = methodHandle.invoke(innerObject, message1, message2, message3) as Flux<*>
-            result.all { true }.toFuture().await()
-        } else {
-            Mono.fromCallable {
-                methodHandle.invoke(innerObject, message1, message2, message3)
-            }.toFuture().await()
-        }
+        handle(message1, message2, message3).await()
+    }
+
+    override fun handle(message1: Message, message2: Message, message3: Message): CompletableFuture<*> {
+        val result = methodHandle.invoke(innerObject, message1, message2, message3)
+        return HandlerResultConverter.toFuture(method.returnType, result)
     }
 
     private suspend fun invokeSuspend(obj: Any, message1: Message, message2: Message, message3: Message): Any? =
@@ -64,5 +56,10 @@ class DefaultMessageHandlerProxy3 : MessageHandlerProxy3 {
 
     override fun setMethod(method: Method) {
         this.method = method
+        this.suspendMethod = method.kotlinFunction?.isSuspend == true
+    }
+
+    override fun isSuspendMethod(): Boolean {
+        return suspendMethod
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,207 @@
+package org.enodeframework.queue
+
+import org.enodeframework.common.function.Action
+import org.slf4j.LoggerFactory
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * 消息消费的流量控制：所有命令MailBox中未完成的命令总数超过上限时进入过载状态，
+ * MQ的消费端在过载时暂停消费，等积压的消息降到上限的一半以下后再恢复消费，避免在过载时无限制地占用内存；
+ * 单个MailBox中积压的消息超过上限只影响这个MailBox，发往该聚合根的命令在消费线程上等待，其他消费者不受影响。
+ *
+ * @author anruence@gmail.com
+ */
+class MessageFlowController(
+    /**
+     * 所有命令MailBox中未完成的命令总数上限，小于等于0表示不限制
+     */
+    private val maxInFlightMessages: Int = 0,
+    /**
+     * 单个MailBox中积压的消息上限，小于等于0表示不限制
+     */
+    private val maxMailboxInFlightMessages: Int = 0,
+    /**
+     * 过载时消费线程最长的等待时间，超过后继续消费，避免消费线程阻塞太久导致MQ认为消费者失效
+     */
+    private val maxPauseMilliseconds: Long = 60000
+) {
+    private val logger = LoggerFactory.getLogger(MessageFlowController::class.java)
+    private val overloadedCount = AtomicInteger(0)
+    private val lock = ReentrantLock()
+    private val availableCondition = lock.newCondition()
+    private val availableActions = ConcurrentLinkedQueue<Action>()
+    private val globalCounter = InFlightCounter("global", maxInFlightMessages, true)
+
+    /**
+     * 所有MailBox共用的等待条件，任意一个MailBox恢复时唤醒所有等待者，各自检查自己的MailBox
+     */
+    private val mailboxAvailableCondition = lock.newCondition()
+
+    /**
+     * 是否处于过载状态
+     */
+    fun isOverloaded(): Boolean {
+        return overloadedCount.get() > 0
+    }
+
+    /**
+     * 记录一个进入命令MailBox的命令
+     */
+    fun increment() {
+        globalCounter.increment()
+    }
+
+    /**
+     * 记录一个处理完成的命令
+     */
+    fun decrement() {
+        globalCounter.decrement()
+    }
+
+    /**
+     * 为一个MailBox创建积压消息的计数器
+     */
+    fun createMailboxCounter(name: String): InFlightCounter {
+        return InFlightCounter(name, maxMailboxInFlightMessages, false)
+    }
+
+    /**
+     * 过载时阻塞当前的消费线程，直到恢复或者超过最长等待时间，返回是否已经恢复
+     */
+    fun awaitAvailable(): Boolean {
+        if (!isOverloaded()) {
+            return true
+        }
+        var remaining = TimeUnit.MILLISECONDS.toNanos(maxPauseMilliseconds)
+        lock.withLock {
+            while (isOverloaded()) {
+                if (remaining <= 0) {
+                    logger.warn("Message consumption paused for too long, continue consuming, maxPauseMilliseconds: {}", maxPauseMilliseconds)
+                    return false
+                }
+                remaining = availableCondition.awaitNanos(remaining)
+            }
+        }
+        return true
+    }
+
+    private fun awaitMailboxAvailable(counter: InFlightCounter): Boolean {
+        var remaining = TimeUnit.MILLISECONDS.toNanos(maxPauseMilliseconds)
+        lock.withLock {
+            while (counter.isOverloaded()) {
+                if (remaining <= 0) {
+                    logger.warn("Mailbox paused for too long, continue enqueuing, counter: {}, maxPauseMilliseconds: {}", counter.name, maxPauseMilliseconds)
+                    return false
+                }
+                remaining = mailboxAvailableCondition.awaitNanos(remaining)
+            }
+        }
+        return true
+    }
+
+    /**
+     * 恢复时执行一次action，如果当前没有过载则立即执行，用于支持暂停、恢复接口的MQ客户端
+     */
+    fun whenAvailable(action: Action) {
+        availableActions.add(action)
+        if (!isOverloaded()) {
+            runAvailableActions()
+        }
+    }
+
+    private fun onOverloaded(counter: InFlightCounter) {
+        if (!counter.global) {
+            logger.warn("Mailbox overloaded, counter: {}, inFlight: {}", counter.name, counter.get())
+            return
+        }
+        overloadedCount.incrementAndGet()
+        logger.warn("Message consumption overloaded, counter: {}, inFlight: {}", counter.name, counter.get())
+    }
+
+    private fun onRecovered(counter: InFlightCounter) {
+        if (!counter.global) {
+            logger.info("Mailbox recovered, counter: {}, inFlight: {}", counter.name, counter.get())
+            lock.withLock {
+                mailboxAvailableCondition.signalAll()
+            }
+            return
+        }
+        if (overloadedCount.decrementAndGet() > 0) {
+            return
+        }
+        logger.info("Message consumption recovered, counter: {}, inFlight: {}", counter.name, counter.get())
+        lock.withLock {
+            availableCondition.signalAll()
+        }
+        runAvailableActions()
+    }
+
+    private fun runAvailableActions() {
+        while (true) {
+            val action = availableActions.poll() ?: return
+            try {
+                action.apply()
+            } catch (ex: Exception) {
+                logger.error("Resume message consumption has exception.", ex)
+            }
+        }
+    }
+
+    /**
+     * 积压消息计数器，超过上限时进入过载状态，降到上限的一半以下时恢复；
+     * 只有全局计数器的过载会暂停所有的消费者，MailBox计数器的过载只影响该MailBox
+     */
+    inner class InFlightCounter(val name: String, private val limit: Int, internal val global: Boolean) {
+        private val count = AtomicLong(0)
+        private val overloaded = AtomicBoolean(false)
+
+        fun get(): Long {
+            return count.get()
+        }
+
+        fun isOverloaded(): Boolean {
+            return overloaded.get()
+        }
+
+        /**
+         * 过载时阻塞当前线程，直到该计数器恢复或者超过最长等待时间，返回是否已经恢复
+         */
+        fun awaitAvailable(): Boolean {
+            if (!isOverloaded()) {
+                return true
+            }
+            return awaitMailboxAvailable(this)
+        }
+
+        fun increment() {
+            if (limit <= 0) {
+                return
+            }
+            if (count.incrementAndGet() >= limit && overloaded.compareAndSet(false, true)) {
+                onOverloaded(this)
+                // 进入过载状态的同时可能已经消化完积压，需要再检查一次
+                tryRecover()
+            }
+        }
+
+        fun decrement() {
+            if (limit <= 0) {
+                return
+            }
+            count.decrementAndGet()
+            tryRecover()
+        }
+
+        private fun tryRecover() {
+            if (overloaded.get() && count.get() <= limit / 2 && overloaded.compareAndSet(true, false)) {
+                onRecovered(this)
+            }
+        }
+    }
+}
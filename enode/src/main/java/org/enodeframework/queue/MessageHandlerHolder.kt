@@ -3,7 +3,13 @@ package org.enodeframework.queue
 import com.google.common.collect.Maps
 import org.slf4j.LoggerFactory
 
-class MessageHandlerHolder(private val messageHandlerMap: MutableMap<String, MessageHandler> = Maps.newHashMap()) {
+class MessageHandlerHolder(
+    private val messageHandlerMap: MutableMap<String, MessageHandler> = Maps.newHashMap(),
+    /**
+     * MQ消费端根据流量控制的状态暂停或恢复消费
+     */
+    val flowController: MessageFlowController = MessageFlowController()
+) {
 
     fun put(type: String, handler: MessageHandler): MessageHandlerHolder {
         messageHandlerMap[type] = handler
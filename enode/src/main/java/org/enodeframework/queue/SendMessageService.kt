@@ -4,4 +4,13 @@ import java.util.concurrent.CompletableFuture
 
 interface SendMessageService {
     fun sendMessageAsync(queueMessage: QueueMessage): CompletableFuture<SendMessageResult>
+
+    /**
+     * Send a batch of messages, the results are in the same order as the messages.
+     * Messages with the same route key are sent in order. The default sends every message separately.
+     */
+    fun sendMessagesAsync(queueMessages: List<QueueMessage>): CompletableFuture<List<SendMessageResult>> {
+        val futures = queueMessages.map { x -> sendMessageAsync(x) }
+        return CompletableFuture.allOf(*futures.toTypedArray()).thenApply { futures.map { x -> x.join() } }
+    }
 }
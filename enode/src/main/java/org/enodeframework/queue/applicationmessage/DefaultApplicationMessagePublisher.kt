@@ -39,4 +39,8 @@ class DefaultApplicationMessagePublisher(
     override fun publishAsync(message: ApplicationMessage): CompletableFuture<SendMessageResult> {
         return producer.sendMessageAsync(createApplicationMessage(message))
     }
+
+    override fun publishAllAsync(messages: List<ApplicationMessage>): CompletableFuture<List<SendMessageResult>> {
+        return producer.sendMessagesAsync(messages.map { x -> createApplicationMessage(x) })
+    }
 }
@@ -0,0 +1,17 @@
+package org.enodeframework.queue.command
+
+/**
+ * 二进制格式的命令消息解码后的结果，命令的内容为原始消息体中从payloadOffset开始的payloadLength个字节
+ *
+ * @author anruence@gmail.com
+ */
+class CommandEnvelope(
+    val version: Int,
+    val commandType: String,
+    val replyAddress: String,
+    val commandId: String,
+    val aggregateRootId: String,
+    val body: ByteArray,
+    val payloadOffset: Int,
+    val payloadLength: Int
+)
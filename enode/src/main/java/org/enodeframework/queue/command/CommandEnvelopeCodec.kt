@@ -0,0 +1,124 @@
+package org.enodeframework.queue.command
+
+import org.enodeframework.common.exception.EnodeException
+
+/**
+ * 命令消息的二进制信封格式：
+ * magic(1字节) + version(1字节) + commandType + replyAddress + commandId + aggregateRootId + payload，
+ * 其中每个头部字段都是varint长度加UTF-8字节，payload为序列化后的命令的原始字节，不再作为字符串嵌套转义，可以一次解码。
+ * JSON格式的消息体总是以'{'开始，通过第一个字节即可区分两种格式，新旧生产者可以在同一个topic上共存。
+ *
+ * @author anruence@gmail.com
+ */
+object CommandEnvelopeCodec {
+    /**
+     * 不是合法的UTF-8首字节，也不会出现在JSON的开头
+     */
+    private const val MAGIC: Byte = 0xEC.toByte()
+    const val CURRENT_VERSION = 1
+
+    @JvmStatic
+    fun isEnvelope(body: ByteArray): Boolean {
+        return body.size >= 2 && body[0] == MAGIC
+    }
+
+    @JvmStatic
+    fun encode(
+        commandType: String,
+        replyAddress: String,
+        commandId: String,
+        aggregateRootId: String,
+        payload: ByteArray
+    ): ByteArray {
+        val commandTypeBytes = commandType.encodeToByteArray()
+        val replyAddressBytes = replyAddress.encodeToByteArray()
+        val commandIdBytes = commandId.encodeToByteArray()
+        val aggregateRootIdBytes = aggregateRootId.encodeToByteArray()
+        val size = 2 + fieldSize(commandTypeBytes) + fieldSize(replyAddressBytes) + fieldSize(commandIdBytes) +
+            fieldSize(aggregateRootIdBytes) + payload.size
+        val buffer = ByteArray(size)
+        buffer[0] = MAGIC
+        buffer[1] = CURRENT_VERSION.toByte()
+        var position = 2
+        position = writeField(buffer, position, commandTypeBytes)
+        position = writeField(buffer, position, replyAddressBytes)
+        position = writeField(buffer, position, commandIdBytes)
+        position = writeField(buffer, position, aggregateRootIdBytes)
+        System.arraycopy(payload, 0, buffer, position, payload.size)
+        return buffer
+    }
+
+    @JvmStatic
+    fun decode(body: ByteArray): CommandEnvelope {
+        if (!isEnvelope(body)) {
+            throw EnodeException("Invalid command envelope, magic not matched.")
+        }
+        val version = body[1].toInt()
+        if (version != CURRENT_VERSION) {
+            throw EnodeException("Unsupported command envelope version: $version")
+        }
+        val reader = FieldReader(body, 2)
+        val commandType = reader.readString()
+        val replyAddress = reader.readString()
+        val commandId = reader.readString()
+        val aggregateRootId = reader.readString()
+        return CommandEnvelope(
+            version, commandType, replyAddress, commandId, aggregateRootId, body, reader.position, body.size - reader.position
+        )
+    }
+
+    private fun fieldSize(bytes: ByteArray): Int {
+        return varIntSize(bytes.size) + bytes.size
+    }
+
+    private fun varIntSize(value: Int): Int {
+        var size = 1
+        var remaining = value ushr 7
+        while (remaining != 0) {
+            size++
+            remaining = remaining ushr 7
+        }
+        return size
+    }
+
+    private fun writeField(buffer: ByteArray, offset: Int, bytes: ByteArray): Int {
+        var position = offset
+        var value = bytes.size
+        while (value and 0x7F.inv() != 0) {
+            buffer[position++] = ((value and 0x7F) or 0x80).toByte()
+            value = value ushr 7
+        }
+        buffer[position++] = value.toByte()
+        System.arraycopy(bytes, 0, buffer, position, bytes.size)
+        return position + bytes.size
+    }
+
+    private class FieldReader(private val body: ByteArray, var position: Int) {
+        fun readString(): String {
+            val length = readVarInt()
+            if (length < 0 || position + length > body.size) {
+                throw EnodeException("Invalid command envelope, field length out of range: $length")
+            }
+            val value = body.decodeToString(position, position + length)
+            position += length
+            return value
+        }
+
+        private fun readVarInt(): Int {
+            var value = 0
+            var shift = 0
+            while (shift < 32) {
+                if (position >= body.size) {
+                    throw EnodeException("Invalid command envelope, truncated header.")
+                }
+                val b = body[position++].toInt()
+                value = value or ((b and 0x7F) shl shift)
+                if (b and 0x80 == 0) {
+                    return value
+                }
+                shift += 7
+            }
+            throw EnodeException("Invalid command envelope, malformed length.")
+        }
+    }
+}
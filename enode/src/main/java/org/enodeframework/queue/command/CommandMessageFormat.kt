@@ -0,0 +1,17 @@
+package org.enodeframework.queue.command
+
+/**
+ * A enum defines how the command bus encodes the command message body of a topic.
+ * The command message handler accepts both formats, so the consumers are upgraded first and then the producers of a topic switch to Binary.
+ */
+enum class CommandMessageFormat {
+    /**
+     * The command is serialized to a string and wrapped in a GenericCommandMessage, which is serialized again.
+     */
+    Json,
+
+    /**
+     * A versioned binary envelope with the header fields followed by the serialized command bytes, see CommandEnvelopeCodec.
+     */
+    Binary
+}
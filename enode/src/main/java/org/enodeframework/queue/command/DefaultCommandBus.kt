@@ -24,7 +24,16 @@ class DefaultCommandBus(
     private val commandResultProcessor: CommandResultProcessor,
     private val sendMessageService: SendMessageService,
     private val serializeService: SerializeService,
+    private val commandMessageFormat: CommandMessageFormat,
 ) : CommandBus {
+    constructor(
+        topic: String,
+        tag: String,
+        commandResultProcessor: CommandResultProcessor,
+        sendMessageService: SendMessageService,
+        serializeService: SerializeService
+    ) : this(topic, tag, commandResultProcessor, sendMessageService, serializeService, CommandMessageFormat.Json)
+
     override fun sendAsync(command: CommandMessage): CompletableFuture<SendMessageResult> {
         return sendMessageService.sendMessageAsync(buildCommandMessage(command, false))
     }
@@ -73,14 +82,24 @@ class DefaultCommandBus(
     private fun buildCommandMessage(command: CommandMessage, needReply: Boolean): QueueMessage {
         Assert.nonNull(command.aggregateRootId, "aggregateRootId")
         Assert.nonNull(topic, "topic")
-        val commandData = serializeService.serialize(command)
-        val genericCommandMessage = GenericCommandMessage()
-        if (needReply) {
-            genericCommandMessage.replyAddress = commandResultProcessor.replyAddress()
+        val replyAddress = if (needReply) commandResultProcessor.replyAddress() else ""
+        val messageData = when (commandMessageFormat) {
+            CommandMessageFormat.Binary -> CommandEnvelopeCodec.encode(
+                command.javaClass.name,
+                replyAddress,
+                command.id,
+                command.aggregateRootId,
+                serializeService.serializeBytes(command)
+            )
+
+            CommandMessageFormat.Json -> {
+                val genericCommandMessage = GenericCommandMessage()
+                genericCommandMessage.replyAddress = replyAddress
+                genericCommandMessage.commandData = serializeService.serialize(command)
+                genericCommandMessage.commandType = command.javaClass.name
+                serializeService.serializeBytes(genericCommandMessage)
+            }
         }
-        genericCommandMessage.commandData = commandData
-        genericCommandMessage.commandType = command.javaClass.name
-        val messageData = serializeService.serializeBytes(genericCommandMessage)
         val queueMessage = QueueMessage()
         queueMessage.topic = topic
         queueMessage.tag = tag
@@ -4,7 +4,7 @@ import com.google.common.base.Strings
 import org.enodeframework.commanding.CommandMessage
 import org.enodeframework.commanding.CommandProcessor
 import org.enodeframework.commanding.ProcessingCommand
-import org.enodeframework.commanding.impl.DefaultCommandExecuteContext
+import org.enodeframework.commanding.impl.CommandExecuteContextPool
 import org.enodeframework.common.extensions.SysProperties
 import org.enodeframework.common.serializing.SerializeService
 import org.enodeframework.domain.AggregateStorage
@@ -20,20 +20,32 @@ class DefaultCommandMessageHandler(
     private val sendReplyService: SendReplyService,
     private val typeNameProvider: TypeNameProvider,
     private val commandProcessor: CommandProcessor,
-    private val repository: Repository,
-    private val aggregateRootStorage: AggregateStorage,
+    repository: Repository,
+    aggregateRootStorage: AggregateStorage,
     private val serializeService: SerializeService
 ) : MessageHandler {
     private val logger = LoggerFactory.getLogger(DefaultCommandMessageHandler::class.java)
+    private val commandExecuteContextPool = CommandExecuteContextPool(repository, aggregateRootStorage, sendReplyService)
 
     override fun handle(queueMessage: QueueMessage, context: MessageContext) {
         logger.info("Received command message: {}", queueMessage)
-        val commandMessage = serializeService.deserializeBytes(queueMessage.body, GenericCommandMessage::class.java)
-        val commandType = typeNameProvider.getType(commandMessage.commandType)
-        val command = serializeService.deserialize(commandMessage.commandData, commandType) as CommandMessage
-        val commandExecuteContext = DefaultCommandExecuteContext(
-            repository, aggregateRootStorage, queueMessage, context, commandMessage, sendReplyService
-        )
+        val commandMessage: GenericCommandMessage
+        val command: CommandMessage
+        if (CommandEnvelopeCodec.isEnvelope(queueMessage.body)) {
+            val envelope = CommandEnvelopeCodec.decode(queueMessage.body)
+            commandMessage = GenericCommandMessage()
+            commandMessage.commandType = envelope.commandType
+            commandMessage.replyAddress = envelope.replyAddress
+            val commandType = typeNameProvider.getType(envelope.commandType)
+            command = serializeService.deserializeBytes(
+                envelope.body, envelope.payloadOffset, envelope.payloadLength, commandType
+            ) as CommandMessage
+        } else {
+            commandMessage = serializeService.deserializeBytes(queueMessage.body, GenericCommandMessage::class.java)
+            val commandType = typeNameProvider.getType(commandMessage.commandType)
+            command = serializeService.deserialize(commandMessage.commandData, commandType) as CommandMessage
+        }
+        val commandExecuteContext = commandExecuteContextPool.borrow(queueMessage, context, commandMessage)
         val commandItems: MutableMap<String, Any> = HashMap()
         val uri = commandMessage.replyAddress
         if (!Strings.isNullOrEmpty(uri)) {
@@ -45,4 +45,8 @@ class DefaultDomainEventPublisher(
     override fun publishAsync(message: DomainEventStream): CompletableFuture<SendMessageResult> {
         return sendMessageService.sendMessageAsync(createDomainEventStreamMessage(message))
     }
+
+    override fun publishAllAsync(messages: List<DomainEventStream>): CompletableFuture<List<SendMessageResult>> {
+        return sendMessageService.sendMessagesAsync(messages.map { x -> createDomainEventStreamMessage(x) })
+    }
 }
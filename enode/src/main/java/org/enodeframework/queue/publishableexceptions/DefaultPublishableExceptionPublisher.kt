@@ -43,4 +43,8 @@ class DefaultPublishableExceptionPublisher(
     override fun publishAsync(message: DomainExceptionMessage): CompletableFuture<SendMessageResult> {
         return sendMessageService.sendMessageAsync(createExceptionMessage(message))
     }
+
+    override fun publishAllAsync(messages: List<DomainExceptionMessage>): CompletableFuture<List<SendMessageResult>> {
+        return sendMessageService.sendMessagesAsync(messages.map { x -> createExceptionMessage(x) })
+    }
 }
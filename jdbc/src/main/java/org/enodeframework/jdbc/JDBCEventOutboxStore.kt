@@ -0,0 +1,79 @@
+package org.enodeframework.jdbc
+
+import io.vertx.core.Future
+import io.vertx.jdbcclient.JDBCPool
+import io.vertx.sqlclient.Tuple
+import org.enodeframework.common.io.IOHelper
+import org.enodeframework.common.serializing.SerializeService
+import org.enodeframework.eventing.DomainEventStream
+import org.enodeframework.eventing.EventOutboxStore
+import org.enodeframework.eventing.EventSerializer
+import org.enodeframework.eventing.EventStoreOptions
+import java.util.concurrent.CompletableFuture
+
+/**
+ * 发件箱表中的事件流，由JDBCEventStore在写入事件的同一个事务中写入
+ *
+ * @author anruence@gmail.com
+ */
+class JDBCEventOutboxStore(
+    private val sqlClient: JDBCPool,
+    private val options: EventStoreOptions,
+    private val eventSerializer: EventSerializer,
+    private val serializeService: SerializeService
+) : EventOutboxStore {
+
+    override fun claimAsync(
+        owner: String, maxCount: Int, leaseMilliseconds: Long
+    ): CompletableFuture<List<DomainEventStream>> {
+        return IOHelper.tryIOFuncAsync({
+            claim(owner, maxCount, leaseMilliseconds)
+        }, "ClaimOutboxEventsAsync")
+    }
+
+    /**
+     * 先查询可以认领的事件流，再逐行带条件更新，条件不再满足的行说明已经被其他中继认领；最后查询当前中继持有的事件流
+     */
+    private fun claim(owner: String, maxCount: Int, leaseMilliseconds: Long): CompletableFuture<List<DomainEventStream>> {
+        val handler = JDBCFindDomainEventsHandler(eventSerializer, serializeService, "outbox#$owner#$maxCount")
+        val now = System.currentTimeMillis()
+        val leaseUntil = now + leaseMilliseconds
+        val candidateSql = String.format(SELECT_CLAIMABLE_SQL, options.outboxTableName)
+        val claimSql = String.format(CLAIM_SQL, options.outboxTableName)
+        val selectSql = String.format(SELECT_CLAIMED_SQL, options.outboxTableName)
+        sqlClient.preparedQuery(candidateSql).execute(Tuple.of(now, owner, maxCount)).compose { rows ->
+            val tuples = rows.map { row -> Tuple.of(owner, leaseUntil, row.getLong("id"), now, owner) }
+            if (tuples.isEmpty()) {
+                return@compose Future.succeededFuture(rows)
+            }
+            sqlClient.preparedQuery(claimSql).executeBatch(tuples)
+        }.compose {
+            sqlClient.preparedQuery(selectSql).execute(Tuple.of(owner, now, maxCount))
+        }.onComplete(handler)
+        return handler.future
+    }
+
+    override fun removeAsync(eventStreams: List<DomainEventStream>): CompletableFuture<Int> {
+        return IOHelper.tryIOFuncAsync({
+            remove(eventStreams)
+        }, "RemoveOutboxEventsAsync")
+    }
+
+    private fun remove(eventStreams: List<DomainEventStream>): CompletableFuture<Int> {
+        val handler = JDBCRemoveOutboxEventsHandler("outbox#${eventStreams.size}")
+        val sql = String.format(DELETE_SQL, options.outboxTableName)
+        val tuples = eventStreams.map { x -> Tuple.of(x.aggregateRootId, x.version) }
+        sqlClient.preparedQuery(sql).executeBatch(tuples).onComplete(handler)
+        return handler.future
+    }
+
+    companion object {
+        private const val SELECT_CLAIMABLE_SQL =
+            "SELECT id FROM %s WHERE lease_until < ? OR owner_id = ? ORDER BY id ASC LIMIT ?"
+        private const val CLAIM_SQL =
+            "UPDATE %s SET owner_id = ?, lease_until = ? WHERE id = ? AND (lease_until < ? OR owner_id = ?)"
+        private const val SELECT_CLAIMED_SQL =
+            "SELECT * FROM %s WHERE owner_id = ? AND lease_until > ? ORDER BY id ASC LIMIT ?"
+        private const val DELETE_SQL = "DELETE FROM %s WHERE aggregate_root_id = ? AND version = ?"
+    }
+}
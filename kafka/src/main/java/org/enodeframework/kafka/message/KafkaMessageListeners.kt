@@ -113,6 +113,8 @@ fun onSingleMessage(
     data: ConsumerRecord<String, String>,
     acknowledgment: Acknowledgment?,
 ) {
+    // 过载时阻塞当前的消费线程，该线程负责的分区暂停拉取，直到积压的消息消化后恢复
+    messageHandlerHolder.flowController.awaitAvailable()
     val queueMessage = covertToQueueMessage(data)
     val messageHandler = messageHandlerHolder.chooseMessageHandler(queueMessage.type)
     messageHandler.handle(queueMessage) {
@@ -125,6 +127,7 @@ fun onBatchMessage(
     data: List<ConsumerRecord<String, String>>,
     acknowledgment: Acknowledgment?,
 ) {
+    messageHandlerHolder.flowController.awaitAvailable()
     val latch = CountDownLatch(data.size)
     data.forEach { message: ConsumerRecord<String, String> ->
         val queueMessage = covertToQueueMessage(message)
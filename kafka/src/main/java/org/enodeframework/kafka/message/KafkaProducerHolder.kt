@@ -31,6 +31,17 @@ class KafkaProducerHolder(
         }.asCompletableFuture()
     }
 
+    /**
+     * 先依次发送整批消息，再flush一次，使这批消息不必等待linger.ms就立即发往broker
+     */
+    fun sendBatch(queueMessages: List<QueueMessage>): CompletableFuture<List<SendMessageResult>> {
+        return CoroutineScope(dispatcher).async {
+            val futures = queueMessages.map { queueMessage -> sendAsync(queueMessage) }
+            kafkaTemplate.flush()
+            futures.map { future -> future.await() }
+        }.asCompletableFuture()
+    }
+
     private fun sendAsync(queueMessage: QueueMessage): CompletableFuture<SendMessageResult> {
         val message: ProducerRecord<String, String> = this.covertToProducerRecord(queueMessage)
         return kafkaTemplate.send(message)
@@ -12,4 +12,8 @@ class KafkaSendMessageService(private val kafkaProducerHolder: KafkaProducerHold
     override fun sendMessageAsync(queueMessage: QueueMessage): CompletableFuture<SendMessageResult> {
         return kafkaProducerHolder.send(queueMessage)
     }
-}
\ No newline at end of file
+
+    override fun sendMessagesAsync(queueMessages: List<QueueMessage>): CompletableFuture<List<SendMessageResult>> {
+        return kafkaProducerHolder.sendBatch(queueMessages)
+    }
+}
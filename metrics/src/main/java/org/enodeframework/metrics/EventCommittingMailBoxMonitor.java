@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.enodeframework.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import org.enodeframework.eventing.EventCommittingMailBoxStatistics;
+import org.enodeframework.eventing.EventCommittingService;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Exports the queue depth and the batch latency of every mailbox of an {@link EventCommittingService}, keyed by the
+ * mailbox number. The gauges follow the mailboxes of the service, also after the number of mailboxes is changed.
+ */
+public class EventCommittingMailBoxMonitor implements MetricSet {
+
+    private final EventCommittingService eventCommittingService;
+
+    /**
+     * Creates a monitor for the mailboxes of the given {@code eventCommittingService}
+     *
+     * @param eventCommittingService the service whose mailboxes are monitored
+     */
+    public EventCommittingMailBoxMonitor(EventCommittingService eventCommittingService) {
+        this.eventCommittingService = eventCommittingService;
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        Map<String, Metric> metrics = new HashMap<>();
+        metrics.put("mailBoxCount", (Gauge<Integer>) () -> eventCommittingService.getMailBoxStatistics().size());
+        metrics.put("queueDepth", (Gauge<Map<Integer, Long>>) () -> collect(EventCommittingMailBoxStatistics::getQueueDepth));
+        metrics.put("batchCount", (Gauge<Map<Integer, Long>>) () -> collect(EventCommittingMailBoxStatistics::getBatchCount));
+        metrics.put("lastBatchLatency", (Gauge<Map<Integer, Long>>) () -> collect(EventCommittingMailBoxStatistics::getLastBatchLatencyMillis));
+        metrics.put("meanBatchLatency", (Gauge<Map<Integer, Long>>) () -> collect(EventCommittingMailBoxStatistics::getMeanBatchLatencyMillis));
+        metrics.put("maxBatchLatency", (Gauge<Map<Integer, Long>>) () -> collect(EventCommittingMailBoxStatistics::getMaxBatchLatencyMillis));
+        return metrics;
+    }
+
+    private Map<Integer, Long> collect(ToLongFunction<EventCommittingMailBoxStatistics> value) {
+        Map<Integer, Long> result = new LinkedHashMap<>();
+        for (EventCommittingMailBoxStatistics statistics : eventCommittingService.getMailBoxStatistics()) {
+            result.put(statistics.getNumber(), value.applyAsLong(statistics));
+        }
+        return result;
+    }
+}
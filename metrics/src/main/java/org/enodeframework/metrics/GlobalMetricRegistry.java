@@ -25,6 +25,7 @@ import org.enodeframework.common.extensions.MessageMonitor;
 import org.enodeframework.common.extensions.NoOpMessageMonitor;
 import org.enodeframework.eventing.AbstractDomainEventMessage;
 import org.enodeframework.eventing.DomainEventMessage;
+import org.enodeframework.eventing.EventCommittingService;
 import org.enodeframework.eventing.ProcessingEventProcessor;
 import org.enodeframework.messaging.AbstractMessage;
 import org.enodeframework.messaging.Message;
@@ -157,6 +158,35 @@ public class GlobalMetricRegistry {
         return new MultiMessageMonitor<>(Arrays.asList(messageCounterMonitor, messageTimerMonitor));
     }
 
+    /**
+     * Registers a {@link HotAggregateMonitor} to the registry under the given {@code name}. The returned monitor can be
+     * installed on the command processor, the processing event processor and the event committing service to report
+     * their hottest aggregates.
+     *
+     * @param name the name under which the monitor should be registered to the registry
+     * @return a {@link HotAggregateMonitor} reporting the top aggregates by message rate and by backlog
+     */
+    public HotAggregateMonitor registerHotAggregateMonitor(String name) {
+        HotAggregateMonitor hotAggregateMonitor = new HotAggregateMonitor();
+        MetricRegistry hotAggregateRegistry = new MetricRegistry();
+        hotAggregateRegistry.registerAll(hotAggregateMonitor);
+        registry.register(name, hotAggregateRegistry);
+        return hotAggregateMonitor;
+    }
+
+    /**
+     * Registers the mailbox metrics of an {@link EventCommittingService} to the registry under the given {@code name}:
+     * the queue depth and the batch latency of every mailbox.
+     *
+     * @param name                   the name under which the mailbox metrics should be registered to the registry
+     * @param eventCommittingService the {@link EventCommittingService} whose mailboxes are monitored
+     */
+    public void registerEventCommittingService(String name, EventCommittingService eventCommittingService) {
+        MetricRegistry mailBoxRegistry = new MetricRegistry();
+        mailBoxRegistry.registerAll(new EventCommittingMailBoxMonitor(eventCommittingService));
+        registry.register(name, mailBoxRegistry);
+    }
+
     private MessageMonitor<Message> registerDefaultHandlerMessageMonitor(String name) {
         MessageTimerMonitor messageTimerMonitor = MessageTimerMonitor.builder().build();
         CapacityMonitor capacityMonitor = new CapacityMonitor(1, TimeUnit.MINUTES);
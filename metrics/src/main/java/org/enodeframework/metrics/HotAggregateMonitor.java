@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.enodeframework.metrics;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import org.enodeframework.common.extensions.AggregateHotspotMonitor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the hottest aggregates of the mailbox components: the top-K aggregate ids by message rate and by backlog.
+ * <p>
+ * One of every {@code sampleInterval} enqueued messages is sampled into space-saving sketches, which are reset every
+ * time window. The gauges report the last completed window, or the current one before the first window completes.
+ * The rate gauge values are estimated messages per second, the backlog gauge values are the largest sampled backlog.
+ */
+public class HotAggregateMonitor implements AggregateHotspotMonitor, MetricSet {
+
+    private final int topK;
+    private final int sampleInterval;
+    private final long windowMillis;
+    private final Clock clock;
+    private final Map<String, ComponentSketches> components = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a hot aggregate monitor reporting the top 10 aggregates, sampling one of 16 messages over 1 minute windows
+     */
+    public HotAggregateMonitor() {
+        this(10, 16, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Creates a hot aggregate monitor
+     *
+     * @param topK           The number of aggregates reported per component
+     * @param sampleInterval One of every sampleInterval enqueued messages is sampled
+     * @param window         The length of the window the sketches are reset after
+     * @param timeUnit       The time unit of the time window
+     */
+    public HotAggregateMonitor(int topK, int sampleInterval, long window, TimeUnit timeUnit) {
+        this(topK, sampleInterval, window, timeUnit, Clock.defaultClock());
+    }
+
+    /**
+     * Creates a hot aggregate monitor using the provided clock to rotate the time windows
+     *
+     * @param topK           The number of aggregates reported per component
+     * @param sampleInterval One of every sampleInterval enqueued messages is sampled
+     * @param window         The length of the window the sketches are reset after
+     * @param timeUnit       The time unit of the time window
+     * @param clock          The clock used to rotate the time windows
+     */
+    public HotAggregateMonitor(int topK, int sampleInterval, long window, TimeUnit timeUnit, Clock clock) {
+        this.topK = topK;
+        this.sampleInterval = Math.max(1, sampleInterval);
+        this.windowMillis = timeUnit.toMillis(window);
+        this.clock = clock;
+        for (String component : Arrays.asList(COMMAND_PROCESSOR, EVENT_PROCESSOR, EVENT_COMMITTING)) {
+            components.put(component, new ComponentSketches());
+        }
+    }
+
+    @Override
+    public boolean isSampled() {
+        return sampleInterval == 1 || ThreadLocalRandom.current().nextInt(sampleInterval) == 0;
+    }
+
+    @Override
+    public void onMessageEnqueued(String component, String aggregateRootId, long backlog) {
+        components.computeIfAbsent(component, x -> new ComponentSketches()).update(aggregateRootId, backlog);
+    }
+
+    /**
+     * Returns the top aggregates of the given component by estimated messages per second.
+     */
+    public Map<String, Double> getTopByRate(String component) {
+        ComponentSketches sketches = components.get(component);
+        return sketches == null ? new LinkedHashMap<>() : sketches.topByRate();
+    }
+
+    /**
+     * Returns the top aggregates of the given component by the largest sampled backlog.
+     */
+    public Map<String, Long> getTopByBacklog(String component) {
+        ComponentSketches sketches = components.get(component);
+        return sketches == null ? new LinkedHashMap<>() : sketches.topByBacklog();
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        Map<String, Metric> metrics = new HashMap<>();
+        for (String component : components.keySet()) {
+            metrics.put(component + ".topByRate", (Gauge<Map<String, Double>>) () -> getTopByRate(component));
+            metrics.put(component + ".topByBacklog", (Gauge<Map<String, Long>>) () -> getTopByBacklog(component));
+        }
+        return metrics;
+    }
+
+    private class ComponentSketches {
+        private volatile Window current = new Window(clock.getTime());
+        private volatile Window completed;
+
+        void update(String aggregateRootId, long backlog) {
+            Window window = rotateIfNeeded();
+            window.rate.add(aggregateRootId, 1);
+            window.backlog.max(aggregateRootId, backlog);
+        }
+
+        Map<String, Double> topByRate() {
+            rotateIfNeeded();
+            Window window = reported();
+            long elapsedMillis = window == completed ? windowMillis : Math.max(1, clock.getTime() - window.startMillis);
+            Map<String, Double> result = new LinkedHashMap<>();
+            window.rate.top(topK).forEach((key, count) -> result.put(key, count * sampleInterval * 1000.0 / elapsedMillis));
+            return result;
+        }
+
+        Map<String, Long> topByBacklog() {
+            rotateIfNeeded();
+            return reported().backlog.top(topK);
+        }
+
+        private Window reported() {
+            Window window = completed;
+            return window != null ? window : current;
+        }
+
+        private Window rotateIfNeeded() {
+            Window window = current;
+            long now = clock.getTime();
+            if (now - window.startMillis < windowMillis) {
+                return window;
+            }
+            synchronized (this) {
+                if (current == window) {
+                    // an idle window longer than one period has nothing worth reporting
+                    completed = now - window.startMillis < windowMillis * 2 ? window : new Window(now);
+                    current = new Window(now);
+                }
+                return current;
+            }
+        }
+    }
+
+    private class Window {
+        private final long startMillis;
+        private final SpaceSavingSketch rate = new SpaceSavingSketch(topK * 4);
+        private final SpaceSavingSketch backlog = new SpaceSavingSketch(topK * 4);
+
+        private Window(long startMillis) {
+            this.startMillis = startMillis;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.enodeframework.metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A space-saving sketch keeping a bounded number of counters, see Metwally et al.
+ * "Efficient Computation of Frequent and Top-k Elements in Data Streams". When the sketch is full, an unseen key
+ * replaces the counter with the smallest value, so the heavy hitters survive while the memory stays bounded.
+ * <p>
+ * Counters either accumulate the reported weights ({@link #add(String, long)}) or keep the largest reported value
+ * ({@link #max(String, long)}). The sketch is guarded by its monitor; it is only updated with sampled messages.
+ */
+class SpaceSavingSketch {
+
+    private final int capacity;
+    private final Map<String, Counter> counters;
+
+    SpaceSavingSketch(int capacity) {
+        this.capacity = capacity;
+        this.counters = new HashMap<>(capacity * 2);
+    }
+
+    synchronized void add(String key, long weight) {
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            counter.value += weight;
+            return;
+        }
+        if (counters.size() < capacity) {
+            counters.put(key, new Counter(weight));
+            return;
+        }
+        Map.Entry<String, Counter> min = findMin();
+        counters.remove(min.getKey());
+        Counter replaced = min.getValue();
+        replaced.error = replaced.value;
+        replaced.value += weight;
+        counters.put(key, replaced);
+    }
+
+    synchronized void max(String key, long value) {
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            counter.value = Math.max(counter.value, value);
+            return;
+        }
+        if (counters.size() < capacity) {
+            counters.put(key, new Counter(value));
+            return;
+        }
+        Map.Entry<String, Counter> min = findMin();
+        if (min.getValue().value >= value) {
+            return;
+        }
+        counters.remove(min.getKey());
+        Counter replaced = min.getValue();
+        replaced.value = value;
+        replaced.error = 0;
+        counters.put(key, replaced);
+    }
+
+    /**
+     * Returns the top {@code k} keys with their values, ordered by value descending.
+     */
+    synchronized Map<String, Long> top(int k) {
+        List<Map.Entry<String, Counter>> entries = new ArrayList<>(counters.entrySet());
+        entries.sort((x, y) -> Long.compare(y.getValue().value, x.getValue().value));
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < Math.min(k, entries.size()); i++) {
+            result.put(entries.get(i).getKey(), entries.get(i).getValue().value);
+        }
+        return result;
+    }
+
+    private Map.Entry<String, Counter> findMin() {
+        Map.Entry<String, Counter> min = null;
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            if (min == null || entry.getValue().value < min.getValue().value) {
+                min = entry;
+            }
+        }
+        return min;
+    }
+
+    private static class Counter {
+        private long value;
+        /**
+         * The value inherited from the evicted key, an upper bound of the overestimation.
+         */
+        private long error;
+
+        private Counter(long value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.enodeframework.mongo
+
+import io.vertx.core.Future
+import io.vertx.core.json.JsonArray
+import io.vertx.core.json.JsonObject
+import io.vertx.ext.mongo.BulkOperation
+import io.vertx.ext.mongo.FindOptions
+import io.vertx.ext.mongo.MongoClient
+import io.vertx.ext.mongo.MongoClientUpdateResult
+import io.vertx.ext.mongo.UpdateOptions
+import org.enodeframework.common.io.IOHelper.tryIOFuncAsync
+import org.enodeframework.common.serializing.SerializeService
+import org.enodeframework.eventing.DomainEventStream
+import org.enodeframework.eventing.EventOutboxStore
+import org.enodeframework.eventing.EventSerializer
+import org.enodeframework.eventing.EventStoreOptions
+import java.util.concurrent.CompletableFuture
+
+/**
+ * 带有发件箱标记的事件文档，由MongoEventStore在写入事件文档时一起写入，发布之后移除标记
+ *
+ * @author anruence@gmail.com
+ */
+class MongoEventOutboxStore(
+    private val mongoClient: MongoClient,
+    private val options: EventStoreOptions,
+    private val eventSerializer: EventSerializer,
+    private val serializeService: SerializeService
+) : EventOutboxStore {
+
+    /**
+     * 先查询可以认领的事件文档，再带条件批量更新，条件不再满足的文档说明已经被其他中继认领；最后查询当前中继持有的事件文档
+     */
+    override fun claimAsync(
+        owner: String, maxCount: Int, leaseMilliseconds: Long
+    ): CompletableFuture<List<DomainEventStream>> {
+        return tryIOFuncAsync({
+            val now = System.currentTimeMillis()
+            // 租约字段不存在或者已经过期，或者由当前中继持有
+            val claimable = JsonObject().put(MongoEventStore.OUTBOX_FIELD, true).put(
+                "\$or", JsonArray()
+                    .add(JsonObject().put(OUTBOX_LEASE_FIELD, JsonObject().put("\$not", JsonObject().put("\$gte", now))))
+                    .add(JsonObject().put(OUTBOX_OWNER_FIELD, owner))
+            )
+            val candidateOptions = FindOptions().setFields(JsonObject().put("_id", 1))
+                .setSort(JsonObject().put("_id", 1)).setLimit(maxCount)
+            val claimed = JsonObject().put(MongoEventStore.OUTBOX_FIELD, true).put(OUTBOX_OWNER_FIELD, owner)
+                .put(OUTBOX_LEASE_FIELD, JsonObject().put("\$gt", now))
+            val claimedOptions = FindOptions().setSort(JsonObject().put("_id", 1)).setLimit(maxCount)
+            val handler = MongoFindDomainEventsHandler(eventSerializer, serializeService, "outbox#$owner#$maxCount")
+            mongoClient.findWithOptions(options.eventTableName, claimable, candidateOptions).compose { documents ->
+                if (documents.isEmpty()) {
+                    return@compose Future.succeededFuture<MongoClientUpdateResult>()
+                }
+                val ids = JsonArray(documents.map { x -> x.getValue("_id") })
+                val filter = claimable.copy().put("_id", JsonObject().put("\$in", ids))
+                val update = JsonObject().put(
+                    "\$set", JsonObject().put(OUTBOX_OWNER_FIELD, owner).put(OUTBOX_LEASE_FIELD, now + leaseMilliseconds)
+                )
+                mongoClient.updateCollectionWithOptions(options.eventTableName, filter, update, UpdateOptions().setMulti(true))
+            }.compose {
+                mongoClient.findWithOptions(options.eventTableName, claimed, claimedOptions)
+            }.onComplete(handler)
+            handler.future
+        }, "ClaimOutboxEventsAsync")
+    }
+
+    override fun removeAsync(eventStreams: List<DomainEventStream>): CompletableFuture<Int> {
+        return tryIOFuncAsync({
+            val handler = MongoRemoveOutboxEventsHandler("outbox#${eventStreams.size}")
+            val update = JsonObject().put(
+                "\$unset", JsonObject().put(MongoEventStore.OUTBOX_FIELD, "").put(OUTBOX_OWNER_FIELD, "").put(OUTBOX_LEASE_FIELD, "")
+            )
+            val bulks = eventStreams.map { x ->
+                val filter = JsonObject().put("aggregateRootId", x.aggregateRootId).put("version", x.version)
+                BulkOperation.createUpdate(filter, update)
+            }
+            mongoClient.bulkWrite(options.eventTableName, bulks).onComplete(handler)
+            handler.future
+        }, "RemoveOutboxEventsAsync")
+    }
+
+    companion object {
+        /**
+         * 认领事件文档的中继
+         */
+        private const val OUTBOX_OWNER_FIELD = "outboxOwner"
+
+        /**
+         * 认领的租约到期时间
+         */
+        private const val OUTBOX_LEASE_FIELD = "outboxLeaseUntil"
+    }
+}
@@ -4,7 +4,10 @@ import com.google.common.collect.Lists
 import com.mongodb.client.model.Filters
 import io.vertx.core.json.JsonObject
 import io.vertx.ext.mongo.BulkOperation
+import io.vertx.ext.mongo.FindOptions
 import io.vertx.ext.mongo.MongoClient
+import io.vertx.ext.mongo.UpdateOptions
+import org.enodeframework.common.exception.IORuntimeException
 import org.enodeframework.common.io.IOHelper.tryAsyncActionRecursively
 import org.enodeframework.common.io.IOHelper.tryIOFuncAsync
 import org.enodeframework.common.serializing.SerializeService
@@ -80,17 +83,56 @@ open class MongoEventStore(
 
     private fun batchAppendAggregateEventsAsync(
         aggregateRootId: String, eventStreamList: List<DomainEventStream>
+    ): CompletableFuture<AggregateEventAppendResult> {
+        if (!options.feedEnabled) {
+            return insertAggregateEventsAsync(aggregateRootId, eventStreamList, 0)
+        }
+        return allocateSequencesAsync(eventStreamList.size).thenCompose { firstSequence ->
+            insertAggregateEventsAsync(aggregateRootId, eventStreamList, firstSequence)
+        }
+    }
+
+    /**
+     * 从计数器文档中一次分配一批连续的序号，写入失败的序号会成为空缺，由读取者跳过
+     */
+    private fun allocateSequencesAsync(count: Int): CompletableFuture<Long> {
+        val future = CompletableFuture<Long>()
+        val query = JsonObject().put("_id", options.eventTableName)
+        val update = JsonObject().put("\$inc", JsonObject().put(SEQUENCE_FIELD, count.toLong()))
+        val updateOptions = UpdateOptions().setUpsert(true).setReturningNewDocument(true)
+        mongoClient.findOneAndUpdateWithOptions(
+            options.eventTableName + SEQUENCE_COLLECTION_SUFFIX, query, update, FindOptions(), updateOptions
+        ).onComplete { ar ->
+            if (ar.succeeded()) {
+                future.complete(ar.result().getLong(SEQUENCE_FIELD) - count + 1)
+                return@onComplete
+            }
+            future.completeExceptionally(IORuntimeException(ar.cause()))
+        }
+        return future
+    }
+
+    private fun insertAggregateEventsAsync(
+        aggregateRootId: String, eventStreamList: List<DomainEventStream>, firstSequence: Long
     ): CompletableFuture<AggregateEventAppendResult> {
         val handler = MongoAddDomainEventsHandler(options, aggregateRootId)
         val bulks: MutableList<BulkOperation> = Lists.newArrayList()
-        for (domainEventStream in eventStreamList) {
+        for ((index, domainEventStream) in eventStreamList.withIndex()) {
             val document = JsonObject()
             document.put("aggregateRootId", domainEventStream.aggregateRootId)
             document.put("aggregateRootTypeName", domainEventStream.aggregateRootTypeName)
             document.put("commandId", domainEventStream.commandId)
             document.put("version", domainEventStream.version)
-            document.put("events", serializeService.serialize(eventSerializer.serialize(domainEventStream.events)))
+            document.put("events", serializeEvents(domainEventStream))
             document.put("createAt", domainEventStream.timestamp.time)
+            if (options.feedEnabled) {
+                document.put(SEQUENCE_FIELD, firstSequence + index)
+            }
+            if (options.outboxEnabled) {
+                // 没有跨文档事务，用事件文档本身作为发件箱，发布之后再移除标记
+                document.put("items", serializeService.serialize(domainEventStream.items))
+                document.put(OUTBOX_FIELD, true)
+            }
             val bulk = BulkOperation.createInsert(document)
             bulks.add(bulk)
         }
@@ -98,6 +140,16 @@ open class MongoEventStore(
         return handler.future
     }
 
+    /**
+     * 二进制格式保存为BinData，json格式保存为字符串
+     */
+    private fun serializeEvents(domainEventStream: DomainEventStream): Any {
+        if (options.storageFormat == EventStorageFormat.Binary) {
+            return JsonObject().put(BINARY_FIELD, eventSerializer.serializeBytes(domainEventStream.events))
+        }
+        return serializeService.serialize(eventSerializer.serialize(domainEventStream.events))
+    }
+
     override fun queryAggregateEventsAsync(
         aggregateRootId: String, aggregateRootTypeName: String, minVersion: Int, maxVersion: Int
     ): CompletableFuture<List<DomainEventStream>> {
@@ -146,4 +198,36 @@ open class MongoEventStore(
             findEventHandler.future.thenApply { x -> x.firstOrNull() }
         }, "FindEventByCommandIdAsync")
     }
-}
\ No newline at end of file
+
+    override fun readAllAsync(fromPosition: Long, maxCount: Int): CompletableFuture<List<EventFeedEntry>> {
+        return tryIOFuncAsync({
+            val query = JsonObject().put(SEQUENCE_FIELD, JsonObject().put("\$gt", fromPosition))
+            val findOptions = FindOptions().setSort(JsonObject().put(SEQUENCE_FIELD, 1)).setLimit(maxCount)
+            val handler = MongoReadAllEventsHandler(eventSerializer, serializeService, "$fromPosition#$maxCount")
+            mongoClient.findWithOptions(options.eventTableName, query, findOptions, handler)
+            handler.future
+        }, "ReadAllEventsAsync")
+    }
+
+    companion object {
+        /**
+         * 等待发件箱中继发布的事件文档的标记字段
+         */
+        const val OUTBOX_FIELD = "outbox"
+
+        /**
+         * vertx的mongo客户端中表示BinData的字段
+         */
+        const val BINARY_FIELD = "\$binary"
+
+        /**
+         * 事件文档在所有事件中的序号，用作readAllAsync的位置
+         */
+        const val SEQUENCE_FIELD = "sequence"
+
+        /**
+         * 分配序号的计数器集合的名称后缀
+         */
+        private const val SEQUENCE_COLLECTION_SUFFIX = "_sequence"
+    }
+}
@@ -115,12 +115,8 @@ class MongoFindDomainEventsHandler(
                     document.getString("aggregateRootId"),
                     document.getString("aggregateRootTypeName"),
                     Date(document.getLong("createAt")),
-                    eventSerializer.deserialize(
-                        (serializeService.deserialize(
-                            document.getString("events"), MutableMap::class.java
-                        ) as MutableMap<String, String>)
-                    ),
-                    Maps.newHashMap()
+                    convertEvents(document.getValue("events")),
+                    convertItems(document.getString("items"))
                 )
             }.toMutableList()
             streams.sortWith(Comparator.comparingInt { obj: DomainEventStream -> obj.version })
@@ -137,6 +133,57 @@ class MongoFindDomainEventsHandler(
         future.completeExceptionally(EventStoreException(msg, throwable))
         return
     }
+
+    /**
+     * BinData按二进制格式一次解码，字符串按json格式解析
+     */
+    private fun convertEvents(events: Any): List<DomainEventMessage> {
+        if (events is JsonObject) {
+            return eventSerializer.deserializeBytes(events.getBinary(MongoEventStore.BINARY_FIELD))
+        }
+        return eventSerializer.deserialize(
+            serializeService.deserialize(events.toString(), MutableMap::class.java) as MutableMap<String, String>
+        )
+    }
+
+    /**
+     * 只有等待发件箱中继发布的事件文档保存了扩展信息
+     */
+    private fun convertItems(items: String?): MutableMap<String, Any> {
+        if (items == null) {
+            return Maps.newHashMap()
+        }
+        return serializeService.deserialize(items, MutableMap::class.java) as MutableMap<String, Any>
+    }
+}
+
+/**
+ * 按序号读取所有的事件流，事件流的转换交给MongoFindDomainEventsHandler，它会按版本排序，所以转换之后再按序号排序
+ */
+class MongoReadAllEventsHandler(
+    eventSerializer: EventSerializer,
+    serializeService: SerializeService,
+    msg: String
+) : Handler<AsyncResult<List<JsonObject>>> {
+
+    private val findDomainEventsHandler = MongoFindDomainEventsHandler(eventSerializer, serializeService, msg)
+
+    private var positions: Map<String, Long> = emptyMap()
+
+    val future: CompletableFuture<List<EventFeedEntry>> = findDomainEventsHandler.future.thenApply { streams ->
+        streams.map { stream -> EventFeedEntry(positions.getValue("${stream.aggregateRootId}#${stream.version}"), stream) }
+            .sortedBy { entry -> entry.position }
+    }
+
+    override fun handle(ar: AsyncResult<List<JsonObject>>) {
+        if (ar.succeeded()) {
+            positions = ar.result().associate { document ->
+                "${document.getString("aggregateRootId")}#${document.getInteger("version")}" to
+                    document.getLong(MongoEventStore.SEQUENCE_FIELD)
+            }
+        }
+        findDomainEventsHandler.handle(ar)
+    }
 }
 
 class MongoFindPublishedVersionHandler(private val msg: String) : Handler<AsyncResult<JsonObject?>> {
@@ -181,4 +228,25 @@ class MongoUpdatePublishedVersionHandler(private val msg: String) : Handler<Asyn
         future.completeExceptionally(EventStoreException(msg, throwable))
         return
     }
-}
\ No newline at end of file
+}
+
+class MongoRemoveOutboxEventsHandler(private val msg: String) : Handler<AsyncResult<MongoClientBulkWriteResult>> {
+
+    private val logger = LoggerFactory.getLogger(MongoRemoveOutboxEventsHandler::class.java)
+
+    val future = CompletableFuture<Int>()
+
+    override fun handle(ar: AsyncResult<MongoClientBulkWriteResult>) {
+        if (ar.succeeded()) {
+            future.complete(ar.result().modifiedCount.toInt())
+            return
+        }
+        val throwable = ar.cause()
+        logger.error("Remove outbox events has exception, msg: {}", msg, throwable)
+        if (throwable is MongoServerException) {
+            future.completeExceptionally(IORuntimeException(msg, throwable))
+            return
+        }
+        future.completeExceptionally(EventStoreException(msg, throwable))
+    }
+}
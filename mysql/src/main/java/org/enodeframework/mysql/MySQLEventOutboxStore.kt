@@ -0,0 +1,70 @@
+package org.enodeframework.mysql
+
+import io.vertx.mysqlclient.MySQLPool
+import io.vertx.sqlclient.Tuple
+import org.enodeframework.common.io.IOHelper
+import org.enodeframework.common.serializing.SerializeService
+import org.enodeframework.eventing.DomainEventStream
+import org.enodeframework.eventing.EventOutboxStore
+import org.enodeframework.eventing.EventSerializer
+import org.enodeframework.eventing.EventStoreOptions
+import java.util.concurrent.CompletableFuture
+
+/**
+ * 发件箱表中的事件流，由MySQLEventStore在写入事件的同一个事务中写入
+ *
+ * @author anruence@gmail.com
+ */
+class MySQLEventOutboxStore(
+    private val sqlClient: MySQLPool,
+    private val options: EventStoreOptions,
+    private val eventSerializer: EventSerializer,
+    private val serializeService: SerializeService
+) : EventOutboxStore {
+
+    override fun claimAsync(
+        owner: String, maxCount: Int, leaseMilliseconds: Long
+    ): CompletableFuture<List<DomainEventStream>> {
+        return IOHelper.tryIOFuncAsync({
+            claim(owner, maxCount, leaseMilliseconds)
+        }, "ClaimOutboxEventsAsync")
+    }
+
+    /**
+     * 认领租约已经过期或者由当前中继持有的事件流，再查询当前中继持有的事件流
+     */
+    private fun claim(owner: String, maxCount: Int, leaseMilliseconds: Long): CompletableFuture<List<DomainEventStream>> {
+        val handler = MySQLFindDomainEventsHandler(eventSerializer, serializeService, "outbox#$owner#$maxCount")
+        val now = System.currentTimeMillis()
+        val leaseUntil = now + leaseMilliseconds
+        val claimSql = String.format(CLAIM_SQL, options.outboxTableName)
+        val selectSql = String.format(SELECT_CLAIMED_SQL, options.outboxTableName)
+        // 单条UPDATE在行锁下重新判断租约，多个中继同时认领时每个事件流只会被其中一个认领
+        sqlClient.preparedQuery(claimSql).execute(Tuple.of(owner, leaseUntil, now, owner, maxCount)).compose {
+            sqlClient.preparedQuery(selectSql).execute(Tuple.of(owner, now, maxCount))
+        }.onComplete(handler)
+        return handler.future
+    }
+
+    override fun removeAsync(eventStreams: List<DomainEventStream>): CompletableFuture<Int> {
+        return IOHelper.tryIOFuncAsync({
+            remove(eventStreams)
+        }, "RemoveOutboxEventsAsync")
+    }
+
+    private fun remove(eventStreams: List<DomainEventStream>): CompletableFuture<Int> {
+        val handler = MySQLRemoveOutboxEventsHandler("outbox#${eventStreams.size}")
+        val sql = String.format(DELETE_SQL, options.outboxTableName)
+        val tuples = eventStreams.map { x -> Tuple.of(x.aggregateRootId, x.version) }
+        sqlClient.preparedQuery(sql).executeBatch(tuples).onComplete(handler)
+        return handler.future
+    }
+
+    companion object {
+        private const val CLAIM_SQL =
+            "UPDATE %s SET owner_id = ?, lease_until = ? WHERE lease_until < ? OR owner_id = ? ORDER BY id ASC LIMIT ?"
+        private const val SELECT_CLAIMED_SQL =
+            "SELECT * FROM %s WHERE owner_id = ? AND lease_until > ? ORDER BY id ASC LIMIT ?"
+        private const val DELETE_SQL = "DELETE FROM %s WHERE aggregate_root_id = ? AND version = ?"
+    }
+}
@@ -0,0 +1,36 @@
+package org.enodeframework.mysql
+
+import io.vertx.mysqlclient.MySQLPool
+import org.enodeframework.common.io.IOHelper
+import org.enodeframework.eventing.EventShardBucket
+import org.enodeframework.eventing.EventShardMapStore
+import org.enodeframework.eventing.EventStoreOptions
+import java.util.concurrent.CompletableFuture
+
+/**
+ * 分片映射表，每一行是一个桶和它所在的分片名称
+ *
+ * @author anruence@gmail.com
+ */
+class MySQLEventShardMapStore(
+    private val sqlClient: MySQLPool,
+    private val options: EventStoreOptions
+) : EventShardMapStore {
+
+    override fun loadAsync(): CompletableFuture<Map<Int, EventShardBucket>> {
+        return IOHelper.tryIOFuncAsync({
+            load()
+        }, "LoadEventShardMapAsync")
+    }
+
+    private fun load(): CompletableFuture<Map<Int, EventShardBucket>> {
+        val handler = MySQLFindShardMapHandler(options.shardMapTableName)
+        val sql = String.format(SELECT_SQL, options.shardMapTableName)
+        sqlClient.query(sql).execute().onComplete(handler)
+        return handler.future
+    }
+
+    companion object {
+        private const val SELECT_SQL = "SELECT bucket, shard_name, frozen FROM %s"
+    }
+}
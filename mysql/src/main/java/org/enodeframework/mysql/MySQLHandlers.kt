@@ -5,6 +5,7 @@ import com.google.common.collect.Lists
 import com.google.common.collect.Maps
 import io.vertx.core.AsyncResult
 import io.vertx.core.Handler
+import io.vertx.core.buffer.Buffer
 import io.vertx.core.json.JsonObject
 import io.vertx.mysqlclient.MySQLBatchException
 import io.vertx.mysqlclient.MySQLException
@@ -84,7 +85,7 @@ class MySQLFindDomainEventsHandler(
     override fun handle(ar: AsyncResult<RowSet<Row>>) {
         if (ar.succeeded()) {
             future.complete(ar.result().map { row: Row ->
-                this.convertFrom(row.toJson())
+                this.convertFrom(row.toJson(), row.getValue("events"))
             }.toList())
             return
         }
@@ -98,20 +99,63 @@ class MySQLFindDomainEventsHandler(
         return
     }
 
-    private fun convertFrom(record: JsonObject): DomainEventStream {
+    private fun convertFrom(record: JsonObject, events: Any): DomainEventStream {
         return DomainEventStream(
             record.getString("command_id"),
             record.getString("aggregate_root_id"),
             record.getString("aggregate_root_type_name"),
             Date(record.getLong("create_at")),
-            eventSerializer.deserialize(
-                serializeService.deserialize(
-                    record.getString("events"), MutableMap::class.java
-                ) as MutableMap<String, String>
-            ),
-            Maps.newHashMap()
+            convertEvents(events),
+            convertItems(record.getString("items"))
         )
     }
+
+    /**
+     * 二进制列按二进制格式一次解码（迁移时从文本列转换过来的json字节也可以识别），文本列按json格式解析
+     */
+    private fun convertEvents(events: Any): List<DomainEventMessage> {
+        if (events is Buffer) {
+            return eventSerializer.deserializeBytes(events.bytes)
+        }
+        return eventSerializer.deserialize(
+            serializeService.deserialize(events.toString(), MutableMap::class.java) as MutableMap<String, String>
+        )
+    }
+
+    /**
+     * 只有发件箱中的事件流保存了扩展信息
+     */
+    private fun convertItems(items: String?): MutableMap<String, Any> {
+        if (items == null) {
+            return Maps.newHashMap()
+        }
+        return serializeService.deserialize(items, MutableMap::class.java) as MutableMap<String, Any>
+    }
+}
+
+/**
+ * 按位置读取所有的事件流，事件流的转换交给MySQLFindDomainEventsHandler
+ */
+class MySQLReadAllEventsHandler(
+    eventSerializer: EventSerializer,
+    serializeService: SerializeService,
+    msg: String
+) : Handler<AsyncResult<RowSet<Row>>> {
+
+    private val findDomainEventsHandler = MySQLFindDomainEventsHandler(eventSerializer, serializeService, msg)
+
+    private var positions: List<Long> = emptyList()
+
+    val future: CompletableFuture<List<EventFeedEntry>> = findDomainEventsHandler.future.thenApply { streams ->
+        streams.mapIndexed { index, stream -> EventFeedEntry(positions[index], stream) }
+    }
+
+    override fun handle(ar: AsyncResult<RowSet<Row>>) {
+        if (ar.succeeded()) {
+            positions = ar.result().map { row: Row -> row.getLong("id") }
+        }
+        findDomainEventsHandler.handle(ar)
+    }
 }
 
 class MySQLFindPublishedVersionHandler(private val msg: String) : Handler<AsyncResult<RowSet<Row>>> {
@@ -176,4 +220,55 @@ class MySQLUpsertPublishedVersionHandler(private val publishedUkName: String, pr
         future.completeExceptionally(PublishedVersionStoreException(msg, throwable))
         return
     }
-}
\ No newline at end of file
+}
+
+class MySQLRemoveOutboxEventsHandler(private val msg: String) : Handler<AsyncResult<RowSet<Row>>> {
+
+    private val logger = LoggerFactory.getLogger(MySQLRemoveOutboxEventsHandler::class.java)
+
+    val future = CompletableFuture<Int>()
+
+    override fun handle(ar: AsyncResult<RowSet<Row>>) {
+        if (ar.succeeded()) {
+            // 批量执行时每条语句的结果依次链接在一起
+            var rowCount = 0
+            var rowSet: RowSet<Row>? = ar.result()
+            while (rowSet != null) {
+                rowCount += rowSet.rowCount()
+                rowSet = rowSet.next()
+            }
+            future.complete(rowCount)
+            return
+        }
+        val throwable = ar.cause()
+        logger.error("Remove outbox events has exception, msg: {}", msg, throwable)
+        if (throwable is MySQLException) {
+            future.completeExceptionally(IORuntimeException(msg, throwable))
+            return
+        }
+        future.completeExceptionally(EventStoreException(msg, throwable))
+    }
+}
+
+class MySQLFindShardMapHandler(private val msg: String) : Handler<AsyncResult<RowSet<Row>>> {
+
+    private val logger = LoggerFactory.getLogger(MySQLFindShardMapHandler::class.java)
+
+    val future = CompletableFuture<Map<Int, EventShardBucket>>()
+
+    override fun handle(ar: AsyncResult<RowSet<Row>>) {
+        if (ar.succeeded()) {
+            future.complete(ar.result().associate { row: Row ->
+                row.getInteger("bucket") to EventShardBucket(row.getString("shard_name"), row.getInteger("frozen") != 0)
+            })
+            return
+        }
+        val throwable = ar.cause()
+        logger.error("Load event shard map has exception, msg: {}", msg, throwable)
+        if (throwable is MySQLException) {
+            future.completeExceptionally(IORuntimeException(msg, throwable))
+            return
+        }
+        future.completeExceptionally(EventStoreException(msg, throwable))
+    }
+}
@@ -43,6 +43,16 @@ class OnsProducerHolder(private val producer: Producer) {
         return future
     }
 
+    /**
+     * ONS的生产者没有批量发送的接口，依次异步发送整批消息，不等待前一条的结果
+     */
+    fun sendBatch(queueMessages: List<QueueMessage>): CompletableFuture<List<SendMessageResult>> {
+        val futures = queueMessages.map { queueMessage -> send(queueMessage) }
+        return CompletableFuture.allOf(*futures.toTypedArray()).thenApply {
+            futures.map { future -> future.join() }
+        }
+    }
+
     private fun covertToProducerRecord(queueMessage: QueueMessage): Message {
         val message = Message(queueMessage.topic, queueMessage.tag, queueMessage.key, queueMessage.body)
         message.shardingKey = queueMessage.routeKey
@@ -30,4 +30,8 @@ class OnsSendMessageService(private val producerHolder: OnsProducerHolder) : Sen
     override fun sendMessageAsync(queueMessage: QueueMessage): CompletableFuture<SendMessageResult> {
         return producerHolder.send(queueMessage)
     }
+
+    override fun sendMessagesAsync(queueMessages: List<QueueMessage>): CompletableFuture<List<SendMessageResult>> {
+        return producerHolder.sendBatch(queueMessages)
+    }
 }
@@ -0,0 +1,70 @@
+package org.enodeframework.pg
+
+import io.vertx.pgclient.PgPool
+import io.vertx.sqlclient.Tuple
+import org.enodeframework.common.io.IOHelper
+import org.enodeframework.common.serializing.SerializeService
+import org.enodeframework.eventing.DomainEventStream
+import org.enodeframework.eventing.EventOutboxStore
+import org.enodeframework.eventing.EventSerializer
+import org.enodeframework.eventing.EventStoreOptions
+import java.util.concurrent.CompletableFuture
+
+/**
+ * 发件箱表中的事件流，由PgEventStore在写入事件的同一个事务中写入
+ *
+ * @author anruence@gmail.com
+ */
+class PgEventOutboxStore(
+    private val sqlClient: PgPool,
+    private val options: EventStoreOptions,
+    private val eventSerializer: EventSerializer,
+    private val serializeService: SerializeService
+) : EventOutboxStore {
+
+    override fun claimAsync(
+        owner: String, maxCount: Int, leaseMilliseconds: Long
+    ): CompletableFuture<List<DomainEventStream>> {
+        return IOHelper.tryIOFuncAsync({
+            claim(owner, maxCount, leaseMilliseconds)
+        }, "ClaimOutboxEventsAsync")
+    }
+
+    /**
+     * 认领租约已经过期或者由当前中继持有的事件流，再查询当前中继持有的事件流
+     */
+    private fun claim(owner: String, maxCount: Int, leaseMilliseconds: Long): CompletableFuture<List<DomainEventStream>> {
+        val handler = PgFindDomainEventsHandler(eventSerializer, serializeService, "outbox#$owner#$maxCount")
+        val now = System.currentTimeMillis()
+        val leaseUntil = now + leaseMilliseconds
+        val claimSql = String.format(CLAIM_SQL, options.outboxTableName, options.outboxTableName)
+        val selectSql = String.format(SELECT_CLAIMED_SQL, options.outboxTableName)
+        // 子查询跳过其他中继正在认领的行，每个事件流只会被其中一个中继认领
+        sqlClient.preparedQuery(claimSql).execute(Tuple.of(owner, leaseUntil, now, maxCount)).compose {
+            sqlClient.preparedQuery(selectSql).execute(Tuple.of(owner, now, maxCount))
+        }.onComplete(handler)
+        return handler.future
+    }
+
+    override fun removeAsync(eventStreams: List<DomainEventStream>): CompletableFuture<Int> {
+        return IOHelper.tryIOFuncAsync({
+            remove(eventStreams)
+        }, "RemoveOutboxEventsAsync")
+    }
+
+    private fun remove(eventStreams: List<DomainEventStream>): CompletableFuture<Int> {
+        val handler = PgRemoveOutboxEventsHandler("outbox#${eventStreams.size}")
+        val sql = String.format(DELETE_SQL, options.outboxTableName)
+        val tuples = eventStreams.map { x -> Tuple.of(x.aggregateRootId, x.version) }
+        sqlClient.preparedQuery(sql).executeBatch(tuples).onComplete(handler)
+        return handler.future
+    }
+
+    companion object {
+        private const val CLAIM_SQL =
+            "UPDATE %s SET owner_id = $1, lease_until = $2 WHERE id IN (SELECT id FROM %s WHERE lease_until < $3 OR owner_id = $1 ORDER BY id ASC LIMIT $4 FOR UPDATE SKIP LOCKED)"
+        private const val SELECT_CLAIMED_SQL =
+            "SELECT * FROM %s WHERE owner_id = $1 AND lease_until > $2 ORDER BY id ASC LIMIT $3"
+        private const val DELETE_SQL = "DELETE FROM %s WHERE aggregate_root_id = $1 AND version = $2"
+    }
+}
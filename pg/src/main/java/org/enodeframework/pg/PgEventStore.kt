@@ -1,5 +1,6 @@
 package org.enodeframework.pg
 
+import io.vertx.core.buffer.Buffer
 import io.vertx.pgclient.PgPool
 import io.vertx.sqlclient.Tuple
 import org.enodeframework.common.io.IOHelper
@@ -7,8 +8,12 @@ import org.enodeframework.common.serializing.SerializeService
 import org.enodeframework.eventing.AggregateEventAppendResult
 import org.enodeframework.eventing.BatchAggregateEventAppendResult
 import org.enodeframework.eventing.DomainEventStream
+import org.enodeframework.eventing.EventAppendMode
 import org.enodeframework.eventing.EventAppendResult
+import org.enodeframework.eventing.EventAppendStatus
+import org.enodeframework.eventing.EventFeedEntry
 import org.enodeframework.eventing.EventSerializer
+import org.enodeframework.eventing.EventStorageFormat
 import org.enodeframework.eventing.EventStore
 import org.enodeframework.eventing.EventStoreOptions
 import java.util.concurrent.CompletableFuture
@@ -34,12 +39,63 @@ open class PgEventStore(
         }
         val eventStreamMap = eventStreams.distinct().groupBy { obj: DomainEventStream -> obj.aggregateRootId }
         val batchAggregateEventAppendResult = BatchAggregateEventAppendResult(eventStreamMap.keys.size)
+        if (options.appendMode == EventAppendMode.SingleTransaction) {
+            batchAppendAllAggregateEventsAsync(
+                eventStreamMap.keys.toList(), eventStreamMap, batchAggregateEventAppendResult, 0
+            )
+            return batchAggregateEventAppendResult.taskCompletionSource
+        }
         for ((key, value) in eventStreamMap) {
             batchAppendAggregateEventsAsync(key, value, batchAggregateEventAppendResult, 0)
         }
         return batchAggregateEventAppendResult.taskCompletionSource
     }
 
+    /**
+     * 在一个事务中写入多个聚合根的事件；出现唯一索引冲突时整个事务回滚，将聚合根分成两半分别重试，
+     * 直到冲突的聚合根被隔离为单独的事务，没有冲突的聚合根仍然在同一个事务中写入
+     */
+    private fun batchAppendAllAggregateEventsAsync(
+        aggregateRootIds: List<String>,
+        eventStreamMap: Map<String, List<DomainEventStream>>,
+        batchAggregateEventAppendResult: BatchAggregateEventAppendResult,
+        retryTimes: Int
+    ) {
+        if (aggregateRootIds.size == 1) {
+            val aggregateRootId = aggregateRootIds.first()
+            batchAppendAggregateEventsAsync(
+                aggregateRootId, eventStreamMap.getValue(aggregateRootId), batchAggregateEventAppendResult, retryTimes
+            )
+            return
+        }
+        val eventStreamList = aggregateRootIds.flatMap { aggregateRootId -> eventStreamMap.getValue(aggregateRootId) }
+        IOHelper.tryAsyncActionRecursively(
+            "BatchAppendAllAggregateEventsAsync",
+            { batchAppendAggregateEvents("aggregateRootCount: ${aggregateRootIds.size}", eventStreamList) },
+            { result: AggregateEventAppendResult ->
+                if (result.eventAppendStatus == EventAppendStatus.Success) {
+                    aggregateRootIds.forEach { aggregateRootId ->
+                        batchAggregateEventAppendResult.addCompleteAggregate(aggregateRootId, result)
+                    }
+                } else {
+                    val half = aggregateRootIds.size / 2
+                    batchAppendAllAggregateEventsAsync(
+                        aggregateRootIds.subList(0, half), eventStreamMap, batchAggregateEventAppendResult, 0
+                    )
+                    batchAppendAllAggregateEventsAsync(
+                        aggregateRootIds.subList(half, aggregateRootIds.size), eventStreamMap, batchAggregateEventAppendResult, 0
+                    )
+                }
+            },
+            {
+                "[aggregateRootCount: ${aggregateRootIds.size}, eventStreamCount: ${eventStreamList.size}]"
+            },
+            null,
+            retryTimes,
+            true
+        )
+    }
+
     private fun batchAppendAggregateEventsAsync(
         aggregateRootId: String,
         eventStreamList: List<DomainEventStream>,
@@ -64,26 +120,53 @@ open class PgEventStore(
     }
 
     private fun batchAppendAggregateEvents(
-        aggregateRootId: String, eventStreamList: List<DomainEventStream>
+        msg: String, eventStreamList: List<DomainEventStream>
     ): CompletableFuture<AggregateEventAppendResult> {
         val sql = String.format(INSERT_EVENT_SQL, options.eventTableName)
-        val handler = PgAddDomainEventsHandler(options, aggregateRootId)
+        val handler = PgAddDomainEventsHandler(options, msg)
         val tuples = eventStreamList.map { domainEventStream ->
             Tuple.of(
                 domainEventStream.aggregateRootId,
                 domainEventStream.aggregateRootTypeName,
                 domainEventStream.commandId,
                 domainEventStream.version,
-                serializeService.serialize(eventSerializer.serialize(domainEventStream.events)),
+                serializeEvents(domainEventStream),
                 domainEventStream.timestamp.time
             )
         }
         pgPool.withTransaction { client ->
-            client.preparedQuery(sql).executeBatch(tuples).onComplete(handler)
+            val future = client.preparedQuery(sql).executeBatch(tuples)
+            if (!options.outboxEnabled) {
+                return@withTransaction future.onComplete(handler)
+            }
+            // 发件箱和事件在同一个事务中写入，持久化成功的事件流一定会被中继发布
+            val outboxSql = String.format(INSERT_OUTBOX_SQL, options.outboxTableName)
+            val outboxTuples = eventStreamList.mapIndexed { index, domainEventStream ->
+                Tuple.of(
+                    domainEventStream.aggregateRootId,
+                    domainEventStream.aggregateRootTypeName,
+                    domainEventStream.commandId,
+                    domainEventStream.version,
+                    tuples[index].getValue(4),
+                    domainEventStream.timestamp.time,
+                    serializeService.serialize(domainEventStream.items)
+                )
+            }
+            future.compose { client.preparedQuery(outboxSql).executeBatch(outboxTuples) }.onComplete(handler)
         }
         return handler.future
     }
 
+    /**
+     * 二进制格式写入二进制列，json格式写入文本列
+     */
+    private fun serializeEvents(domainEventStream: DomainEventStream): Any {
+        if (options.storageFormat == EventStorageFormat.Binary) {
+            return Buffer.buffer(eventSerializer.serializeBytes(domainEventStream.events))
+        }
+        return serializeService.serialize(eventSerializer.serialize(domainEventStream.events))
+    }
+
     override fun queryAggregateEventsAsync(
         aggregateRootId: String, aggregateRootTypeName: String, minVersion: Int, maxVersion: Int
     ): CompletableFuture<List<DomainEventStream>> {
@@ -129,14 +212,30 @@ open class PgEventStore(
         return handler.future.thenApply { x -> x.firstOrNull() }
     }
 
+    override fun readAllAsync(fromPosition: Long, maxCount: Int): CompletableFuture<List<EventFeedEntry>> {
+        return IOHelper.tryIOFuncAsync({
+            readAll(fromPosition, maxCount)
+        }, "ReadAllEventsAsync")
+    }
+
+    private fun readAll(fromPosition: Long, maxCount: Int): CompletableFuture<List<EventFeedEntry>> {
+        val handler = PgReadAllEventsHandler(eventSerializer, serializeService, "$fromPosition#$maxCount")
+        val sql = String.format(SELECT_ALL_BY_POSITION_SQL, options.eventTableName)
+        pgPool.preparedQuery(sql).execute(Tuple.of(fromPosition, maxCount)).onComplete(handler)
+        return handler.future
+    }
+
     companion object {
         private const val INSERT_EVENT_SQL =
             "INSERT INTO %s (aggregate_root_id, aggregate_root_type_name, command_id, version, events, create_at) VALUES ($1, $2, $3, $4, $5, $6)"
+        private const val INSERT_OUTBOX_SQL =
+            "INSERT INTO %s (aggregate_root_id, aggregate_root_type_name, command_id, version, events, create_at, items) VALUES ($1, $2, $3, $4, $5, $6, $7)"
         private const val SELECT_MANY_BY_VERSION_SQL =
             "SELECT * FROM %s WHERE aggregate_root_id = $1 AND version >= $2 AND version <= $3 ORDER BY version ASC"
         private const val SELECT_ONE_BY_VERSION_SQL = "SELECT * FROM %s WHERE aggregate_root_id = $1 AND version = $2"
         private const val SELECT_ONE_BY_COMMAND_ID_SQL =
             "SELECT * FROM %s WHERE aggregate_root_id = $1 AND command_id = $2"
+        private const val SELECT_ALL_BY_POSITION_SQL = "SELECT * FROM %s WHERE id > $1 ORDER BY id ASC LIMIT $2"
     }
 
     init {
@@ -28,6 +28,7 @@ import org.enodeframework.queue.MessageHandlerHolder
 import org.enodeframework.queue.QueueMessage
 import org.slf4j.LoggerFactory
 import java.nio.charset.StandardCharsets
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * @author anruence@gmail.com
@@ -35,8 +36,10 @@ import java.nio.charset.StandardCharsets
 class PulsarMessageListener(private val messageHandlerHolder: MessageHandlerHolder) : MessageListener<ByteArray> {
 
     private val logger = LoggerFactory.getLogger(PulsarMessageListener::class.java)
+    private val pausedConsumers: MutableSet<Consumer<ByteArray>> = ConcurrentHashMap.newKeySet()
 
     override fun received(consumer: Consumer<ByteArray>, msg: Message<ByteArray>) {
+        pauseIfOverloaded(consumer)
         val queueMessage = toQueueMessage(msg)
         val messageHandler = messageHandlerHolder.chooseMessageHandler(queueMessage.type)
         messageHandler.handle(queueMessage) {
@@ -49,6 +52,23 @@ class PulsarMessageListener(private val messageHandlerHolder: MessageHandlerHold
         }
     }
 
+    /**
+     * 过载时暂停当前的消费者，已经收到的消息继续处理，积压的消息消化后再恢复
+     */
+    private fun pauseIfOverloaded(consumer: Consumer<ByteArray>) {
+        val flowController = messageHandlerHolder.flowController
+        if (!flowController.isOverloaded() || !pausedConsumers.add(consumer)) {
+            return
+        }
+        consumer.pause()
+        logger.warn("Pulsar consumer paused, topic: {}, subscription: {}.", consumer.topic, consumer.subscription)
+        flowController.whenAvailable {
+            pausedConsumers.remove(consumer)
+            consumer.resume()
+            logger.info("Pulsar consumer resumed, topic: {}, subscription: {}.", consumer.topic, consumer.subscription)
+        }
+    }
+
     private fun toQueueMessage(messageExt: Message<ByteArray>): QueueMessage {
         val queueMessage = QueueMessage()
         val mType = messageExt.getProperty(SysProperties.MESSAGE_TYPE_KEY)
@@ -42,6 +42,19 @@ class PulsarProducerHolder {
         producerMap[key] = value
     }
 
+    /**
+     * 批量发送：依次异步发送整批消息，由客户端的批量机制合并，再对用到的生产者各flush一次，使这批消息立即发往broker
+     */
+    fun sendBatchAsync(queueMessages: List<QueueMessage>): CompletableFuture<List<SendMessageResult>> {
+        val futures = queueMessages.map { queueMessage -> sendAsync(queueMessage) }
+        val flushFutures = queueMessages.map { queueMessage -> queueMessage.type }.distinct().map { type ->
+            chooseProducer(type).flushAsync()
+        }
+        return CompletableFuture.allOf(*(futures + flushFutures).toTypedArray()).thenApply {
+            futures.map { future -> future.join() }
+        }
+    }
+
     fun sendAsync(queueMessage: QueueMessage): CompletableFuture<SendMessageResult> {
         return chooseProducer(queueMessage.type).newMessage().key(queueMessage.routeKey)
             .property(SysProperties.MESSAGE_TYPE_KEY, queueMessage.type)
@@ -30,4 +30,8 @@ class PulsarSendMessageService(private val pulsarProducerHolder: PulsarProducerH
     override fun sendMessageAsync(queueMessage: QueueMessage): CompletableFuture<SendMessageResult> {
         return pulsarProducerHolder.sendAsync(queueMessage)
     }
+
+    override fun sendMessagesAsync(queueMessages: List<QueueMessage>): CompletableFuture<List<SendMessageResult>> {
+        return pulsarProducerHolder.sendBatchAsync(queueMessages)
+    }
 }
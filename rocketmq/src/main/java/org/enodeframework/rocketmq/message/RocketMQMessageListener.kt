@@ -40,6 +40,8 @@ class RocketMQMessageListener(private val messageHandlerHolder: MessageHandlerHo
         msgs: List<MessageExt>,
         context: ConsumeConcurrentlyContext,
     ): ConsumeConcurrentlyStatus {
+        // 过载时阻塞当前的消费线程，本地缓存的消息达到阈值后客户端会停止拉取
+        messageHandlerHolder.flowController.awaitAvailable()
         val latch = CountDownLatch(msgs.size)
         msgs.forEach(Consumer { msg: MessageExt ->
             val queueMessage = covertToQueueMessage(msg)
@@ -53,6 +55,10 @@ class RocketMQMessageListener(private val messageHandlerHolder: MessageHandlerHo
 
 class RocketMQMessageOrderlyListener(private val messageHandlerHolder: MessageHandlerHolder) : MessageListenerOrderly {
     override fun consumeMessage(msgs: List<MessageExt>, context: ConsumeOrderlyContext): ConsumeOrderlyStatus {
+        // 过载时挂起当前队列，稍后重新投递这批消息
+        if (messageHandlerHolder.flowController.isOverloaded()) {
+            return ConsumeOrderlyStatus.SUSPEND_CURRENT_QUEUE_A_MOMENT
+        }
         val latch = CountDownLatch(msgs.size)
         msgs.forEach(Consumer { msg: MessageExt ->
             val queueMessage = covertToQueueMessage(msg)
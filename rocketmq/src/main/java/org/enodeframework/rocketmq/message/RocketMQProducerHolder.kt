@@ -1,23 +1,30 @@
 package org.enodeframework.rocketmq.message
 
 import com.google.common.collect.Maps
+import org.apache.rocketmq.client.exception.MQBrokerException
 import org.apache.rocketmq.client.exception.MQClientException
 import org.apache.rocketmq.client.producer.MQProducer
 import org.apache.rocketmq.client.producer.SendCallback
 import org.apache.rocketmq.client.producer.SendResult
 import org.apache.rocketmq.client.producer.selector.SelectMessageQueueByHash
 import org.apache.rocketmq.common.message.Message
+import org.apache.rocketmq.common.message.MessageQueue
 import org.apache.rocketmq.remoting.exception.RemotingException
 import org.enodeframework.common.exception.IORuntimeException
 import org.enodeframework.common.extensions.SysProperties
+import org.enodeframework.common.extensions.SystemClock
 import org.enodeframework.queue.QueueMessage
 import org.enodeframework.queue.SendMessageResult
 import org.slf4j.LoggerFactory
 import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
 
 class RocketMQProducerHolder(private val producer: MQProducer) {
 
     private val logger = LoggerFactory.getLogger(RocketMQProducerHolder::class.java)
+    private val messageQueueSelector = SelectMessageQueueByHash()
+    private val topicMessageQueueDict = ConcurrentHashMap<String, TopicMessageQueues>()
+
     fun send(queueMessage: QueueMessage): CompletableFuture<SendMessageResult> {
         val future = CompletableFuture<SendMessageResult>()
         val message: Message = this.covertToProducerRecord(queueMessage)
@@ -50,9 +57,116 @@ class RocketMQProducerHolder(private val producer: MQProducer) {
         return future
     }
 
+    /**
+     * 批量发送：每条消息按路由键选择与单条发送相同的队列，同一个队列的消息合并为一次批量发送，
+     * 使同一个聚合根的消息仍然按顺序进入同一个队列；一批消息超过大小限制时拆分为多次发送
+     */
+    fun sendBatch(queueMessages: List<QueueMessage>): CompletableFuture<List<SendMessageResult>> {
+        val results = arrayOfNulls<SendMessageResult>(queueMessages.size)
+        val messages = queueMessages.map { queueMessage -> covertToProducerRecord(queueMessage) }
+        val queueIndexDict = LinkedHashMap<MessageQueue, MutableList<Int>>()
+        try {
+            queueMessages.forEachIndexed { index, queueMessage ->
+                val messageQueue = selectMessageQueue(messages[index], queueMessage.routeKey)
+                queueIndexDict.computeIfAbsent(messageQueue) { ArrayList() }.add(index)
+            }
+        } catch (ex: MQClientException) {
+            logger.error("Async send messages has exception, messageCount: {}", queueMessages.size, ex)
+            return CompletableFuture.failedFuture(IORuntimeException(ex))
+        }
+        val futures = queueIndexDict.flatMap { (messageQueue, indexes) ->
+            splitBySize(indexes, messages).map { chunk -> sendBatch(chunk, messages, messageQueue, results) }
+        }
+        return CompletableFuture.allOf(*futures.toTypedArray()).thenApply { results.map { x -> x!! } }
+    }
+
+    private fun sendBatch(
+        indexes: List<Int>, messages: List<Message>, messageQueue: MessageQueue, results: Array<SendMessageResult?>
+    ): CompletableFuture<Boolean> {
+        val future = CompletableFuture<Boolean>()
+        try {
+            producer.send(indexes.map { index -> messages[index] }, messageQueue, object : SendCallback {
+                override fun onSuccess(result: SendResult) {
+                    if (logger.isDebugEnabled) {
+                        logger.debug("Async send messages success, sendResult: {}, messageCount: {}", result, indexes.size)
+                    }
+                    // 批量发送的msgId是这批消息的msgId以逗号拼接而成
+                    val msgIds = result.msgId.split(",")
+                    indexes.forEachIndexed { i, index ->
+                        val items: MutableMap<String, Any> = Maps.newHashMap()
+                        items["result"] = result
+                        results[index] = SendMessageResult(msgIds.getOrElse(i) { result.msgId }, items)
+                    }
+                    future.complete(true)
+                }
+
+                override fun onException(ex: Throwable) {
+                    future.completeExceptionally(IORuntimeException(ex))
+                    logger.error("Async send messages has exception, messageQueue: {}, messageCount: {}", messageQueue, indexes.size, ex)
+                }
+            })
+        } catch (ex: MQClientException) {
+            future.completeExceptionally(IORuntimeException(ex))
+            logger.error("Async send messages has exception, messageQueue: {}, messageCount: {}", messageQueue, indexes.size, ex)
+        } catch (ex: RemotingException) {
+            future.completeExceptionally(IORuntimeException(ex))
+            logger.error("Async send messages has exception, messageQueue: {}, messageCount: {}", messageQueue, indexes.size, ex)
+        } catch (ex: MQBrokerException) {
+            future.completeExceptionally(IORuntimeException(ex))
+            logger.error("Async send messages has exception, messageQueue: {}, messageCount: {}", messageQueue, indexes.size, ex)
+        } catch (ex: InterruptedException) {
+            future.completeExceptionally(ex)
+            logger.error("Async send messages has exception, messageQueue: {}, messageCount: {}", messageQueue, indexes.size, ex)
+        }
+        return future
+    }
+
+    /**
+     * topic的队列列表需要查询NameServer，缓存一段时间，避免每次批量发送都查询
+     */
+    private fun selectMessageQueue(message: Message, routeKey: String): MessageQueue {
+        val now = SystemClock.now()
+        var topicMessageQueues = topicMessageQueueDict[message.topic]
+        if (topicMessageQueues == null || now - topicMessageQueues.fetchTime >= MESSAGE_QUEUE_REFRESH_MILLIS) {
+            topicMessageQueues = TopicMessageQueues(producer.fetchPublishMessageQueues(message.topic), now)
+            topicMessageQueueDict[message.topic] = topicMessageQueues
+        }
+        return messageQueueSelector.select(topicMessageQueues.messageQueues, message, routeKey)
+    }
+
+    private fun splitBySize(indexes: List<Int>, messages: List<Message>): List<List<Int>> {
+        val chunks = ArrayList<List<Int>>()
+        var chunk = ArrayList<Int>()
+        var chunkBytes = 0
+        for (index in indexes) {
+            val messageBytes = messages[index].body.size
+            if (chunk.isNotEmpty() && chunkBytes + messageBytes > MAX_BATCH_BYTES) {
+                chunks.add(chunk)
+                chunk = ArrayList()
+                chunkBytes = 0
+            }
+            chunk.add(index)
+            chunkBytes += messageBytes
+        }
+        if (chunk.isNotEmpty()) {
+            chunks.add(chunk)
+        }
+        return chunks
+    }
+
+    private class TopicMessageQueues(val messageQueues: List<MessageQueue>, val fetchTime: Long)
+
     private fun covertToProducerRecord(queueMessage: QueueMessage): Message {
         val message = Message(queueMessage.topic, queueMessage.tag, queueMessage.key, queueMessage.body)
         message.putUserProperty(SysProperties.MESSAGE_TYPE_KEY, queueMessage.type)
         return message
     }
+
+    companion object {
+        /**
+         * 一次批量发送的消息体总大小上限，低于broker默认的4M消息大小限制，给消息属性留出余量
+         */
+        private const val MAX_BATCH_BYTES = 1024 * 1024
+        private const val MESSAGE_QUEUE_REFRESH_MILLIS = 30000L
+    }
 }
@@ -1,6 +1,8 @@
 package org.enodeframework.spring
 
 import com.google.common.base.Strings
+import org.enodeframework.eventing.EventAppendMode
+import org.enodeframework.eventing.EventStorageFormat
 import org.enodeframework.eventing.EventStoreOptions
 import java.util.regex.Pattern
 
@@ -43,6 +45,36 @@ class DefaultEventStoreOptions : EventStoreOptions {
      */
     override var publishedUkName: String = "uk_aggregate_root_id_version_processor_name"
 
+    /**
+     * 多个聚合根的事件流的写入方式；默认为：每个聚合根一个事务
+     */
+    override var appendMode: EventAppendMode = EventAppendMode.PerAggregate
+
+    /**
+     * 事件的存储格式；默认为：json文本
+     */
+    override var storageFormat: EventStorageFormat = EventStorageFormat.Json
+
+    /**
+     * 是否在写入事件的同一个事务中写入发件箱；默认为：否
+     */
+    override var outboxEnabled: Boolean = false
+
+    /**
+     * 发件箱表的默认名称；默认为：event_outbox
+     */
+    override var outboxTableName: String = "event_outbox"
+
+    /**
+     * 是否为Mongo的事件文档分配递增的序号；默认为：否
+     */
+    override var feedEnabled: Boolean = false
+
+    /**
+     * 分片映射表的默认名称；默认为：event_shard_map
+     */
+    override var shardMapTableName: String = "event_shard_map"
+
     override fun seekCommandId(msg: String): String {
         val matcher = seekIdPattern.matcher(msg)
         if (!matcher.find()) {
@@ -19,14 +19,21 @@
 package org.enodeframework.spring;
 
 import com.google.common.collect.Maps;
-import kotlinx.coroutines.Dispatchers;
 import org.enodeframework.commanding.CommandHandlerProvider;
 import org.enodeframework.commanding.CommandOptions;
 import org.enodeframework.commanding.CommandProcessor;
+import org.enodeframework.commanding.ProcessedCommandCache;
 import org.enodeframework.commanding.ProcessingCommandHandler;
+import org.enodeframework.commanding.ProcessingCommandQueueType;
 import org.enodeframework.commanding.impl.DefaultCommandHandlerProvider;
 import org.enodeframework.commanding.impl.DefaultCommandProcessor;
+import org.enodeframework.commanding.impl.DefaultProcessedCommandCache;
 import org.enodeframework.commanding.impl.DefaultProcessingCommandHandler;
+import org.enodeframework.commanding.impl.NoOpProcessedCommandCache;
+import org.enodeframework.common.extensions.AggregateHotspotMonitor;
+import org.enodeframework.common.extensions.NoOpAggregateHotspotMonitor;
+import org.enodeframework.common.io.HandlerDispatchers;
+import org.enodeframework.common.io.HandlerExecutionMode;
 import org.enodeframework.common.scheduling.DefaultScheduleService;
 import org.enodeframework.common.scheduling.ScheduleService;
 import org.enodeframework.common.serializing.DefaultSerializeService;
@@ -48,11 +55,15 @@ import org.enodeframework.domain.impl.EventSourcingAggregateStorage;
 import org.enodeframework.domain.impl.SnapshotOnlyAggregateStorage;
 import org.enodeframework.eventing.DomainEventStream;
 import org.enodeframework.eventing.EventCommittingService;
+import org.enodeframework.eventing.EventCompressor;
+import org.enodeframework.eventing.EventOutboxStore;
 import org.enodeframework.eventing.EventSerializer;
 import org.enodeframework.eventing.EventStore;
 import org.enodeframework.eventing.ProcessingEventProcessor;
 import org.enodeframework.eventing.PublishedVersionStore;
 import org.enodeframework.eventing.impl.DefaultEventCommittingService;
+import org.enodeframework.eventing.impl.DefaultEventCompressor;
+import org.enodeframework.eventing.impl.DefaultEventOutboxRelay;
 import org.enodeframework.eventing.impl.DefaultEventSerializer;
 import org.enodeframework.eventing.impl.DefaultProcessingEventProcessor;
 import org.enodeframework.infrastructure.TypeNameProvider;
@@ -68,12 +79,14 @@ import org.enodeframework.messaging.impl.DefaultMessageHandlerProvider;
 import org.enodeframework.messaging.impl.DefaultThreeMessageHandlerProvider;
 import org.enodeframework.messaging.impl.DefaultTwoMessageHandlerProvider;
 import org.enodeframework.queue.MessageHandler;
+import org.enodeframework.queue.MessageFlowController;
 import org.enodeframework.queue.MessageHandlerHolder;
 import org.enodeframework.queue.MessageTypeCode;
 import org.enodeframework.queue.SendMessageService;
 import org.enodeframework.queue.SendReplyService;
 import org.enodeframework.queue.applicationmessage.DefaultApplicationMessageHandler;
 import org.enodeframework.queue.applicationmessage.DefaultApplicationMessagePublisher;
+import org.enodeframework.queue.command.CommandMessageFormat;
 import org.enodeframework.queue.command.CommandResultProcessor;
 import org.enodeframework.queue.command.DefaultCommandBus;
 import org.enodeframework.queue.command.DefaultCommandMessageHandler;
@@ -85,6 +98,7 @@ import org.enodeframework.queue.publishableexceptions.DefaultPublishableExceptio
 import org.enodeframework.queue.reply.DefaultReplyMessageHandler;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 
@@ -110,6 +124,63 @@ public class EnodeAutoConfiguration {
     @Value("${spring.enode.reply.server.port:8929}")
     private int port;
 
+    @Value("${spring.enode.command.mailbox.queue:Default}")
+    private ProcessingCommandQueueType commandMailBoxQueueType;
+
+    @Value("${spring.enode.command.format:Json}")
+    private CommandMessageFormat commandMessageFormat;
+
+    @Value("${spring.enode.command.commit.batch:1}")
+    private int commandCommitBatchSize;
+
+    @Value("${spring.enode.command.processed.cache.size:10000}")
+    private long processedCommandCacheSize;
+
+    @Value("${spring.enode.command.processed.cache.expire:600}")
+    private long processedCommandCacheExpireSeconds;
+
+    @Value("${spring.enode.event.mailbox.count:0}")
+    private int eventMailBoxCount;
+
+    @Value("${spring.enode.event.commit.batch:1000}")
+    private int eventCommitBatchSize;
+
+    @Value("${spring.enode.event.commit.linger:0}")
+    private long eventCommitLingerMilliseconds;
+
+    @Value("${spring.enode.event.publish.window:64}")
+    private int eventPublishWindowSize;
+
+    @Value("${spring.enode.eventstore.outbox:false}")
+    private boolean eventOutboxEnabled;
+
+    @Value("${spring.enode.eventstore.outbox.batch:1000}")
+    private int eventOutboxBatchSize;
+
+    @Value("${spring.enode.eventstore.outbox.interval:100}")
+    private int eventOutboxIntervalMilliseconds;
+
+    @Value("${spring.enode.eventstore.outbox.lease:30000}")
+    private long eventOutboxLeaseMilliseconds;
+
+    @Value("${spring.enode.eventstore.compression.threshold:0}")
+    private int eventCompressionThreshold;
+
+    @Value("${spring.enode.eventstore.compression.dictionary:}")
+    private String eventCompressionDictionary;
+
+    @Value("${spring.enode.handler.execution:IO}")
+    private HandlerExecutionMode handlerExecutionMode;
+
+    @Value("${spring.enode.flow.max.inflight:0}")
+    private int maxInFlightMessages;
+
+    @Value("${spring.enode.flow.mailbox.max.inflight:0}")
+    private int maxMailboxInFlightMessages;
+
+    @Value("${spring.enode.flow.max.pause:60000}")
+    private long maxPauseMilliseconds;
+
     @Bean(name = "defaultCommandResultProcessor", initMethod = "start", destroyMethod = "stop")
     public DefaultCommandResultProcessor defaultCommandResultProcessor(CommandOptions commandOptions, ScheduleService scheduleService, SerializeService serializeService) throws Exception {
         return new DefaultCommandResultProcessor(scheduleService, serializeService, commandOptions, commandOptions.getTimeoutMs());
@@ -125,19 +196,48 @@ public class EnodeAutoConfiguration {
         return new DefaultScheduleService();
     }
 
+    @Bean(name = "handlerDispatchers", destroyMethod = "close")
+    public HandlerDispatchers handlerDispatchers() {
+        return new HandlerDispatchers(handlerExecutionMode);
+    }
+
+    @Bean(name = "processedCommandCache")
+    public ProcessedCommandCache processedCommandCache() {
+        if (processedCommandCacheSize <= 0) {
+            return NoOpProcessedCommandCache.INSTANCE;
+        }
+        return new DefaultProcessedCommandCache(processedCommandCacheSize, processedCommandCacheExpireSeconds);
+    }
+
+    @Bean(name = "aggregateHotspotMonitor")
+    @ConditionalOnMissingBean(AggregateHotspotMonitor.class)
+    public AggregateHotspotMonitor aggregateHotspotMonitor() {
+        return NoOpAggregateHotspotMonitor.INSTANCE;
+    }
+
+    @Bean(name = "messageFlowController")
+    public MessageFlowController messageFlowController() {
+        return new MessageFlowController(maxInFlightMessages, maxMailboxInFlightMessages, maxPauseMilliseconds);
+    }
+
     @Bean(name = "defaultTypeNameProvider")
     public DefaultTypeNameProvider defaultTypeNameProvider() {
         return new DefaultTypeNameProvider(Maps.newHashMap());
     }
 
     @Bean(name = "defaultProcessingEventProcessor", initMethod = "start", destroyMethod = "stop")
-    public DefaultProcessingEventProcessor defaultProcessingEventProcessor(ScheduleService scheduleService, SerializeService serializeService, MessageDispatcher messageDispatcher, PublishedVersionStore publishedVersionStore) {
-        return new DefaultProcessingEventProcessor(scheduleService, serializeService, messageDispatcher, publishedVersionStore, Dispatchers.getIO());
+    public DefaultProcessingEventProcessor defaultProcessingEventProcessor(ScheduleService scheduleService, SerializeService serializeService, MessageDispatcher messageDispatcher, PublishedVersionStore publishedVersionStore, HandlerDispatchers handlerDispatchers, AggregateHotspotMonitor aggregateHotspotMonitor) {
+        return new DefaultProcessingEventProcessor(scheduleService, serializeService, messageDispatcher, publishedVersionStore, handlerDispatchers.getMailboxDispatcher(), "DefaultEventProcessor", aggregateHotspotMonitor);
+    }
+
+    @Bean(name = "defaultEventCompressor")
+    public DefaultEventCompressor defaultEventCompressor() {
+        return new DefaultEventCompressor(eventCompressionThreshold, DefaultEventCompressor.loadDictionaries(eventCompressionDictionary));
     }
 
     @Bean(name = "defaultEventSerializer")
-    public DefaultEventSerializer defaultEventSerializer(TypeNameProvider typeNameProvider, SerializeService serializeService) {
-        return new DefaultEventSerializer(typeNameProvider, serializeService);
+    public DefaultEventSerializer defaultEventSerializer(TypeNameProvider typeNameProvider, SerializeService serializeService, EventCompressor eventCompressor) {
+        return new DefaultEventSerializer(typeNameProvider, serializeService, eventCompressor);
     }
 
     @Bean(name = "defaultAggregateRootInternalHandlerProvider")
@@ -146,8 +246,8 @@ public class EnodeAutoConfiguration {
     }
 
     @Bean(name = "defaultMessageDispatcher")
-    public DefaultMessageDispatcher defaultMessageDispatcher(TypeNameProvider typeNameProvider, MessageHandlerProvider messageHandlerProvider, TwoMessageHandlerProvider twoMessageHandlerProvider, ThreeMessageHandlerProvider threeMessageHandlerProvider, SerializeService serializeService) {
-        return new DefaultMessageDispatcher(typeNameProvider, messageHandlerProvider, twoMessageHandlerProvider, threeMessageHandlerProvider, serializeService, Dispatchers.getIO());
+    public DefaultMessageDispatcher defaultMessageDispatcher(TypeNameProvider typeNameProvider, MessageHandlerProvider messageHandlerProvider, TwoMessageHandlerProvider twoMessageHandlerProvider, ThreeMessageHandlerProvider threeMessageHandlerProvider, SerializeService serializeService, HandlerDispatchers handlerDispatchers) {
+        return new DefaultMessageDispatcher(typeNameProvider, messageHandlerProvider, twoMessageHandlerProvider, threeMessageHandlerProvider, serializeService, handlerDispatchers.getHandlerDispatcher());
     }
 
     @Bean(name = "defaultRepository")
@@ -196,13 +296,19 @@ public class EnodeAutoConfiguration {
     }
 
     @Bean(name = "defaultProcessingCommandHandler")
-    public DefaultProcessingCommandHandler defaultProcessingCommandHandler(EventStore eventStore, CommandHandlerProvider commandHandlerProvider, TypeNameProvider typeNameProvider, EventCommittingService eventService, MemoryCache memoryCache, @Qualifier(value = "defaultApplicationMessagePublisher") MessagePublisher<ApplicationMessage> applicationMessagePublisher, @Qualifier(value = "defaultPublishableExceptionPublisher") MessagePublisher<DomainExceptionMessage> publishableExceptionPublisher, SerializeService serializeService) {
-        return new DefaultProcessingCommandHandler(eventStore, commandHandlerProvider, typeNameProvider, eventService, memoryCache, applicationMessagePublisher, publishableExceptionPublisher, serializeService, Dispatchers.getIO());
+    public DefaultProcessingCommandHandler defaultProcessingCommandHandler(EventStore eventStore, CommandHandlerProvider commandHandlerProvider, TypeNameProvider typeNameProvider, EventCommittingService eventService, MemoryCache memoryCache, @Qualifier(value = "defaultApplicationMessagePublisher") MessagePublisher<ApplicationMessage> applicationMessagePublisher, @Qualifier(value = "defaultPublishableExceptionPublisher") MessagePublisher<DomainExceptionMessage> publishableExceptionPublisher, SerializeService serializeService, HandlerDispatchers handlerDispatchers, ProcessedCommandCache processedCommandCache) {
+        return new DefaultProcessingCommandHandler(eventStore, commandHandlerProvider, typeNameProvider, eventService, memoryCache, applicationMessagePublisher, publishableExceptionPublisher, serializeService, handlerDispatchers.getHandlerDispatcher(), commandCommitBatchSize, processedCommandCache);
     }
 
     @Bean(name = "defaultEventCommittingService")
-    public DefaultEventCommittingService defaultEventCommittingService(MemoryCache memoryCache, EventStore eventStore, SerializeService serializeService, @Qualifier("defaultDomainEventPublisher") MessagePublisher<DomainEventStream> domainEventPublisher) {
-        return new DefaultEventCommittingService(memoryCache, eventStore, serializeService, domainEventPublisher, Dispatchers.getIO());
+    public DefaultEventCommittingService defaultEventCommittingService(MemoryCache memoryCache, EventStore eventStore, SerializeService serializeService, @Qualifier("defaultDomainEventPublisher") MessagePublisher<DomainEventStream> domainEventPublisher, MessageFlowController messageFlowController, HandlerDispatchers handlerDispatchers, ProcessedCommandCache processedCommandCache, AggregateHotspotMonitor aggregateHotspotMonitor) {
+        return new DefaultEventCommittingService(memoryCache, eventStore, serializeService, domainEventPublisher, handlerDispatchers.getMailboxDispatcher(), eventMailBoxCount, eventCommitBatchSize, messageFlowController, processedCommandCache, aggregateHotspotMonitor, eventCommitLingerMilliseconds, eventPublishWindowSize, eventOutboxEnabled);
+    }
+
+    @Bean(name = "defaultEventOutboxRelay", initMethod = "start", destroyMethod = "stop")
+    @ConditionalOnProperty(prefix = "spring.enode", name = "eventstore.outbox", havingValue = "true")
+    public DefaultEventOutboxRelay defaultEventOutboxRelay(ScheduleService scheduleService, EventOutboxStore eventOutboxStore, @Qualifier("defaultDomainEventPublisher") MessagePublisher<DomainEventStream> domainEventPublisher) {
+        return new DefaultEventOutboxRelay(scheduleService, eventOutboxStore, domainEventPublisher, eventOutboxBatchSize, eventOutboxIntervalMilliseconds, eventOutboxLeaseMilliseconds);
     }
 
     @Bean(name = "defaultSerializeService")
@@ -212,8 +318,8 @@ public class EnodeAutoConfiguration {
     }
 
     @Bean(name = "defaultCommandProcessor", initMethod = "start", destroyMethod = "stop")
-    public DefaultCommandProcessor defaultCommandProcessor(ProcessingCommandHandler processingCommandHandler, ScheduleService scheduleService) {
-        return new DefaultCommandProcessor(processingCommandHandler, scheduleService, Dispatchers.getIO());
+    public DefaultCommandProcessor defaultCommandProcessor(ProcessingCommandHandler processingCommandHandler, ScheduleService scheduleService, MessageFlowController messageFlowController, HandlerDispatchers handlerDispatchers, AggregateHotspotMonitor aggregateHotspotMonitor) {
+        return new DefaultCommandProcessor(processingCommandHandler, scheduleService, handlerDispatchers.getMailboxDispatcher(), 5000, 3600 * 24 * 3, 1000, commandMailBoxQueueType, messageFlowController, aggregateHotspotMonitor);
     }
 
     @Bean(name = "snapshotOnlyAggregateStorage")
@@ -230,7 +336,7 @@ public class EnodeAutoConfiguration {
 
     @Bean(name = "defaultCommandService")
     public DefaultCommandBus defaultCommandService(CommandResultProcessor commandResultProcessor, SendMessageService sendMessageService, SerializeService serializeService) {
-        return new DefaultCommandBus(commandTopic, "", commandResultProcessor, sendMessageService, serializeService);
+        return new DefaultCommandBus(commandTopic, "", commandResultProcessor, sendMessageService, serializeService, commandMessageFormat);
     }
 
     @Bean(name = "defaultDomainEventPublisher")
@@ -254,9 +360,10 @@ public class EnodeAutoConfiguration {
         @Qualifier(value = "defaultApplicationMessageHandler") MessageHandler defaultApplicationMessageHandler,
         @Qualifier(value = "defaultDomainEventMessageHandler") MessageHandler defaultDomainEventMessageHandler,
         @Qualifier(value = "defaultCommandMessageHandler") MessageHandler defaultCommandMessageHandler,
-        @Qualifier(value = "defaultReplyMessageHandler") MessageHandler defaultReplyMessageHandler
+        @Qualifier(value = "defaultReplyMessageHandler") MessageHandler defaultReplyMessageHandler,
+        MessageFlowController messageFlowController
     ) {
-        MessageHandlerHolder messageHandlerHolder = new MessageHandlerHolder();
+        MessageHandlerHolder messageHandlerHolder = new MessageHandlerHolder(Maps.newHashMap(), messageFlowController);
         messageHandlerHolder.put(MessageTypeCode.DomainEventMessage.getValue(), defaultDomainEventMessageHandler);
         messageHandlerHolder.put(MessageTypeCode.ApplicationMessage.getValue(), defaultApplicationMessageHandler);
         messageHandlerHolder.put(MessageTypeCode.ExceptionMessage.getValue(), defaultPublishableExceptionMessageHandler);
@@ -45,6 +45,8 @@ public class EnodeConfigurationSelector implements DeferredImportSelector {
             EnodePgEventStoreAutoConfig.class.getName(),
             EnodeMySQLEventStoreAutoConfig.class.getName(),
             EnodeMongoEventStoreAutoConfig.class.getName(),
+            EnodeShardedMySQLEventStoreAutoConfig.class.getName(),
+            EnodeShardedPgEventStoreAutoConfig.class.getName(),
             EnodeKafkaAutoConfiguration.class.getName(),
             EnodeAmqpAutoConfiguration.class.getName(),
             EnodeOnsAutoConfig.class.getName(),
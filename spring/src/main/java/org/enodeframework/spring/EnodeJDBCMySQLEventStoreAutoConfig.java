@@ -20,23 +20,40 @@ package org.enodeframework.spring;
 
 import io.vertx.jdbcclient.JDBCPool;
 import org.enodeframework.common.serializing.SerializeService;
+import org.enodeframework.eventing.EventAppendMode;
 import org.enodeframework.eventing.EventSerializer;
+import org.enodeframework.eventing.EventStorageFormat;
+import org.enodeframework.jdbc.JDBCEventOutboxStore;
 import org.enodeframework.jdbc.JDBCEventStore;
 import org.enodeframework.jdbc.JDBCPublishedVersionStore;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 
 @ConditionalOnProperty(prefix = "spring.enode", name = "eventstore", havingValue = "jdbc-mysql")
 public class EnodeJDBCMySQLEventStoreAutoConfig {
 
+    @Value("${spring.enode.eventstore.append:PerAggregate}")
+    private EventAppendMode appendMode;
+
+    @Value("${spring.enode.eventstore.outbox:false}")
+    private boolean outboxEnabled;
+
+    @Value("${spring.enode.eventstore.format:Json}")
+    private EventStorageFormat storageFormat;
+
     @Bean
     public JDBCEventStore jdbcEventStore(
         @Qualifier("enodeJDBCPool") JDBCPool jdbcPool,
         EventSerializer eventSerializer,
         SerializeService serializeService) {
+        DefaultEventStoreOptions options = DefaultEventStoreOptions.Driver.mysql();
+        options.setAppendMode(appendMode);
+        options.setOutboxEnabled(outboxEnabled);
+        options.setStorageFormat(storageFormat);
         JDBCEventStore eventStore = new JDBCEventStore(
-            jdbcPool, DefaultEventStoreOptions.Driver.mysql(), eventSerializer, serializeService);
+            jdbcPool, options, eventSerializer, serializeService);
         return eventStore;
     }
 
@@ -46,4 +63,15 @@ public class EnodeJDBCMySQLEventStoreAutoConfig {
             new JDBCPublishedVersionStore(jdbcPool, DefaultEventStoreOptions.Driver.mysql());
         return publishedVersionStore;
     }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "spring.enode", name = "eventstore.outbox", havingValue = "true")
+    public JDBCEventOutboxStore jdbcEventOutboxStore(
+        @Qualifier("enodeJDBCPool") JDBCPool jdbcPool,
+        EventSerializer eventSerializer,
+        SerializeService serializeService) {
+        DefaultEventStoreOptions options = DefaultEventStoreOptions.Driver.mysql();
+        options.setOutboxEnabled(true);
+        return new JDBCEventOutboxStore(jdbcPool, options, eventSerializer, serializeService);
+    }
 }
@@ -21,18 +21,42 @@ package org.enodeframework.spring;
 import io.vertx.ext.mongo.MongoClient;
 import org.enodeframework.common.serializing.SerializeService;
 import org.enodeframework.eventing.EventSerializer;
+import org.enodeframework.eventing.EventStorageFormat;
+import org.enodeframework.mongo.MongoEventOutboxStore;
 import org.enodeframework.mongo.MongoEventStore;
 import org.enodeframework.mongo.MongoPublishedVersionStore;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 
 @ConditionalOnProperty(prefix = "spring.enode", name = "eventstore", havingValue = "mongo")
 public class EnodeMongoEventStoreAutoConfig {
 
+    @Value("${spring.enode.eventstore.outbox:false}")
+    private boolean outboxEnabled;
+
+    @Value("${spring.enode.eventstore.format:Json}")
+    private EventStorageFormat storageFormat;
+
+    @Value("${spring.enode.eventstore.feed:false}")
+    private boolean feedEnabled;
+
     @Bean
     public MongoEventStore mongoEventStore(@Qualifier("enodeMongoClient") MongoClient mongoClient, EventSerializer eventSerializer, SerializeService serializeService) {
-        return new MongoEventStore(mongoClient, DefaultEventStoreOptions.Driver.mongo(), eventSerializer, serializeService);
+        DefaultEventStoreOptions options = DefaultEventStoreOptions.Driver.mongo();
+        options.setOutboxEnabled(outboxEnabled);
+        options.setStorageFormat(storageFormat);
+        options.setFeedEnabled(feedEnabled);
+        return new MongoEventStore(mongoClient, options, eventSerializer, serializeService);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "spring.enode", name = "eventstore.outbox", havingValue = "true")
+    public MongoEventOutboxStore mongoEventOutboxStore(@Qualifier("enodeMongoClient") MongoClient mongoClient, EventSerializer eventSerializer, SerializeService serializeService) {
+        DefaultEventStoreOptions options = DefaultEventStoreOptions.Driver.mongo();
+        options.setOutboxEnabled(true);
+        return new MongoEventOutboxStore(mongoClient, options, eventSerializer, serializeService);
     }
 
     @Bean
@@ -20,23 +20,40 @@ package org.enodeframework.spring;
 
 import io.vertx.mysqlclient.MySQLPool;
 import org.enodeframework.common.serializing.SerializeService;
+import org.enodeframework.eventing.EventAppendMode;
 import org.enodeframework.eventing.EventSerializer;
+import org.enodeframework.eventing.EventStorageFormat;
+import org.enodeframework.mysql.MySQLEventOutboxStore;
 import org.enodeframework.mysql.MySQLEventStore;
 import org.enodeframework.mysql.MySQLPublishedVersionStore;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 
 @ConditionalOnProperty(prefix = "spring.enode", name = "eventstore", havingValue = "mysql")
 public class EnodeMySQLEventStoreAutoConfig {
 
+    @Value("${spring.enode.eventstore.append:PerAggregate}")
+    private EventAppendMode appendMode;
+
+    @Value("${spring.enode.eventstore.outbox:false}")
+    private boolean outboxEnabled;
+
+    @Value("${spring.enode.eventstore.format:Json}")
+    private EventStorageFormat storageFormat;
+
     @Bean
     public MySQLEventStore mysqlEventStore(
         @Qualifier("enodeMySQLPool") MySQLPool pool,
         EventSerializer eventSerializer,
         SerializeService serializeService) {
+        DefaultEventStoreOptions options = DefaultEventStoreOptions.Driver.mysql();
+        options.setAppendMode(appendMode);
+        options.setOutboxEnabled(outboxEnabled);
+        options.setStorageFormat(storageFormat);
         MySQLEventStore eventStore = new MySQLEventStore(
-            pool, DefaultEventStoreOptions.Driver.mysql(), eventSerializer, serializeService);
+            pool, options, eventSerializer, serializeService);
         return eventStore;
     }
 
@@ -46,4 +63,15 @@ public class EnodeMySQLEventStoreAutoConfig {
             new MySQLPublishedVersionStore(pool, DefaultEventStoreOptions.Driver.mysql());
         return publishedVersionStore;
     }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "spring.enode", name = "eventstore.outbox", havingValue = "true")
+    public MySQLEventOutboxStore mysqlEventOutboxStore(
+        @Qualifier("enodeMySQLPool") MySQLPool pool,
+        EventSerializer eventSerializer,
+        SerializeService serializeService) {
+        DefaultEventStoreOptions options = DefaultEventStoreOptions.Driver.mysql();
+        options.setOutboxEnabled(true);
+        return new MySQLEventOutboxStore(pool, options, eventSerializer, serializeService);
+    }
 }
@@ -20,23 +20,40 @@ package org.enodeframework.spring;
 
 import io.vertx.pgclient.PgPool;
 import org.enodeframework.common.serializing.SerializeService;
+import org.enodeframework.eventing.EventAppendMode;
 import org.enodeframework.eventing.EventSerializer;
+import org.enodeframework.eventing.EventStorageFormat;
+import org.enodeframework.pg.PgEventOutboxStore;
 import org.enodeframework.pg.PgEventStore;
 import org.enodeframework.pg.PgPublishedVersionStore;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 
 @ConditionalOnProperty(prefix = "spring.enode", name = "eventstore", havingValue = "pg")
 public class EnodePgEventStoreAutoConfig {
 
+    @Value("${spring.enode.eventstore.append:PerAggregate}")
+    private EventAppendMode appendMode;
+
+    @Value("${spring.enode.eventstore.outbox:false}")
+    private boolean outboxEnabled;
+
+    @Value("${spring.enode.eventstore.format:Json}")
+    private EventStorageFormat storageFormat;
+
     @Bean
     public PgEventStore pgEventStore(
         @Qualifier("enodePgPool") PgPool pgPool,
         EventSerializer eventSerializer,
         SerializeService serializeService) {
+        DefaultEventStoreOptions options = DefaultEventStoreOptions.Driver.pg();
+        options.setAppendMode(appendMode);
+        options.setOutboxEnabled(outboxEnabled);
+        options.setStorageFormat(storageFormat);
         PgEventStore eventStore =
-            new PgEventStore(pgPool, DefaultEventStoreOptions.Driver.pg(), eventSerializer, serializeService);
+            new PgEventStore(pgPool, options, eventSerializer, serializeService);
         return eventStore;
     }
 
@@ -46,4 +63,15 @@ public class EnodePgEventStoreAutoConfig {
             new PgPublishedVersionStore(pgPool, DefaultEventStoreOptions.Driver.pg());
         return versionStore;
     }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "spring.enode", name = "eventstore.outbox", havingValue = "true")
+    public PgEventOutboxStore pgEventOutboxStore(
+        @Qualifier("enodePgPool") PgPool pgPool,
+        EventSerializer eventSerializer,
+        SerializeService serializeService) {
+        DefaultEventStoreOptions options = DefaultEventStoreOptions.Driver.pg();
+        options.setOutboxEnabled(true);
+        return new PgEventOutboxStore(pgPool, options, eventSerializer, serializeService);
+    }
 }
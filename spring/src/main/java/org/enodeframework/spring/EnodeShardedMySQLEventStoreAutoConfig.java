@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.enodeframework.spring;
+
+import io.vertx.mysqlclient.MySQLPool;
+import org.enodeframework.common.scheduling.ScheduleService;
+import org.enodeframework.common.serializing.SerializeService;
+import org.enodeframework.eventing.EventAppendMode;
+import org.enodeframework.eventing.EventSerializer;
+import org.enodeframework.eventing.EventShardRouter;
+import org.enodeframework.eventing.EventStorageFormat;
+import org.enodeframework.eventing.EventStore;
+import org.enodeframework.eventing.PublishedVersionStore;
+import org.enodeframework.eventing.impl.DefaultEventShardRouter;
+import org.enodeframework.eventing.impl.ShardedEventStore;
+import org.enodeframework.eventing.impl.ShardedPublishedVersionStore;
+import org.enodeframework.mysql.MySQLEventShardMapStore;
+import org.enodeframework.mysql.MySQLEventStore;
+import org.enodeframework.mysql.MySQLPublishedVersionStore;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Every MySQLPool bean is a shard named by its bean name, the shard-map table is read from the enodeMySQLPool pool.
+ */
+@ConditionalOnProperty(prefix = "spring.enode", name = "eventstore", havingValue = "sharded-mysql")
+public class EnodeShardedMySQLEventStoreAutoConfig {
+
+    @Value("${spring.enode.eventstore.append:PerAggregate}")
+    private EventAppendMode appendMode;
+
+    @Value("${spring.enode.eventstore.format:Json}")
+    private EventStorageFormat storageFormat;
+
+    @Value("${spring.enode.eventstore.shard.buckets:1024}")
+    private int bucketCount;
+
+    @Value("${spring.enode.eventstore.shard.refresh:10000}")
+    private int refreshIntervalMilliseconds;
+
+    @Bean(name = "defaultEventShardRouter", initMethod = "start", destroyMethod = "stop")
+    public DefaultEventShardRouter defaultEventShardRouter(
+        ScheduleService scheduleService,
+        @Qualifier("enodeMySQLPool") MySQLPool pool) {
+        MySQLEventShardMapStore shardMapStore = new MySQLEventShardMapStore(pool, DefaultEventStoreOptions.Driver.mysql());
+        return new DefaultEventShardRouter(scheduleService, shardMapStore, bucketCount, refreshIntervalMilliseconds);
+    }
+
+    @Bean
+    public ShardedEventStore shardedMySQLEventStore(
+        Map<String, MySQLPool> pools,
+        EventShardRouter eventShardRouter,
+        EventSerializer eventSerializer,
+        SerializeService serializeService) {
+        DefaultEventStoreOptions options = DefaultEventStoreOptions.Driver.mysql();
+        options.setAppendMode(appendMode);
+        options.setStorageFormat(storageFormat);
+        Map<String, EventStore> shards = new HashMap<>();
+        pools.forEach((name, pool) -> shards.put(name, new MySQLEventStore(pool, options, eventSerializer, serializeService)));
+        return new ShardedEventStore(shards, eventShardRouter);
+    }
+
+    @Bean
+    public ShardedPublishedVersionStore shardedMySQLPublishedVersionStore(
+        Map<String, MySQLPool> pools,
+        EventShardRouter eventShardRouter) {
+        Map<String, PublishedVersionStore> shards = new HashMap<>();
+        pools.forEach((name, pool) -> shards.put(name, new MySQLPublishedVersionStore(pool, DefaultEventStoreOptions.Driver.mysql())));
+        return new ShardedPublishedVersionStore(shards, eventShardRouter);
+    }
+}
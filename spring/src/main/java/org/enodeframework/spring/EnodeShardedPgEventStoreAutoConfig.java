@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.enodeframework.spring;
+
+import io.vertx.pgclient.PgPool;
+import org.enodeframework.common.scheduling.ScheduleService;
+import org.enodeframework.common.serializing.SerializeService;
+import org.enodeframework.eventing.EventAppendMode;
+import org.enodeframework.eventing.EventSerializer;
+import org.enodeframework.eventing.EventShardRouter;
+import org.enodeframework.eventing.EventStorageFormat;
+import org.enodeframework.eventing.EventStore;
+import org.enodeframework.eventing.PublishedVersionStore;
+import org.enodeframework.eventing.impl.DefaultEventShardRouter;
+import org.enodeframework.eventing.impl.ShardedEventStore;
+import org.enodeframework.eventing.impl.ShardedPublishedVersionStore;
+import org.enodeframework.pg.PgEventShardMapStore;
+import org.enodeframework.pg.PgEventStore;
+import org.enodeframework.pg.PgPublishedVersionStore;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Every PgPool bean is a shard named by its bean name, the shard-map table is read from the enodePgPool pool.
+ */
+@ConditionalOnProperty(prefix = "spring.enode", name = "eventstore", havingValue = "sharded-pg")
+public class EnodeShardedPgEventStoreAutoConfig {
+
+    @Value("${spring.enode.eventstore.append:PerAggregate}")
+    private EventAppendMode appendMode;
+
+    @Value("${spring.enode.eventstore.format:Json}")
+    private EventStorageFormat storageFormat;
+
+    @Value("${spring.enode.eventstore.shard.buckets:1024}")
+    private int bucketCount;
+
+    @Value("${spring.enode.eventstore.shard.refresh:10000}")
+    private int refreshIntervalMilliseconds;
+
+    @Bean(name = "defaultEventShardRouter", initMethod = "start", destroyMethod = "stop")
+    public DefaultEventShardRouter defaultEventShardRouter(
+        ScheduleService scheduleService,
+        @Qualifier("enodePgPool") PgPool pool) {
+        PgEventShardMapStore shardMapStore = new PgEventShardMapStore(pool, DefaultEventStoreOptions.Driver.pg());
+        return new DefaultEventShardRouter(scheduleService, shardMapStore, bucketCount, refreshIntervalMilliseconds);
+    }
+
+    @Bean
+    public ShardedEventStore shardedPgEventStore(
+        Map<String, PgPool> pools,
+        EventShardRouter eventShardRouter,
+        EventSerializer eventSerializer,
+        SerializeService serializeService) {
+        DefaultEventStoreOptions options = DefaultEventStoreOptions.Driver.pg();
+        options.setAppendMode(appendMode);
+        options.setStorageFormat(storageFormat);
+        Map<String, EventStore> shards = new HashMap<>();
+        pools.forEach((name, pool) -> shards.put(name, new PgEventStore(pool, options, eventSerializer, serializeService)));
+        return new ShardedEventStore(shards, eventShardRouter);
+    }
+
+    @Bean
+    public ShardedPublishedVersionStore shardedPgPublishedVersionStore(
+        Map<String, PgPool> pools,
+        EventShardRouter eventShardRouter) {
+        Map<String, PublishedVersionStore> shards = new HashMap<>();
+        pools.forEach((name, pool) -> shards.put(name, new PgPublishedVersionStore(pool, DefaultEventStoreOptions.Driver.pg())));
+        return new ShardedPublishedVersionStore(shards, eventShardRouter);
+    }
+}
@@ -0,0 +1,119 @@
+package org.enodeframework.test.commanding;
+
+import kotlinx.coroutines.Dispatchers;
+import org.enodeframework.commanding.CommandResult;
+import org.enodeframework.commanding.CommandStatus;
+import org.enodeframework.commanding.ProcessingCommand;
+import org.enodeframework.commanding.ProcessingCommandMailbox;
+import org.enodeframework.commanding.impl.CommandExecuteContextPool;
+import org.enodeframework.commanding.impl.DefaultCommandExecuteContext;
+import org.enodeframework.commanding.impl.DefaultProcessingCommandQueue;
+import org.enodeframework.domain.AggregateRoot;
+import org.enodeframework.domain.AggregateStorage;
+import org.enodeframework.domain.Repository;
+import org.enodeframework.queue.MessageFlowController;
+import org.enodeframework.queue.QueueMessage;
+import org.enodeframework.queue.SendReplyService;
+import org.enodeframework.queue.command.GenericCommandMessage;
+import org.enodeframework.test.command.ChangeNothingCommand;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+public class CommandExecuteContextPoolTest {
+
+    private final AtomicInteger handledCount = new AtomicInteger();
+
+    private CommandExecuteContextPool pool;
+
+    @BeforeEach
+    public void setUp() {
+        pool = new CommandExecuteContextPool(Mockito.mock(Repository.class), Mockito.mock(AggregateStorage.class), Mockito.mock(SendReplyService.class), 4);
+    }
+
+    @Test
+    public void tracked_aggregate_roots_are_a_snapshot() {
+        DefaultCommandExecuteContext context = borrow();
+        AggregateRoot first = newAggregateRoot("first");
+        AggregateRoot second = newAggregateRoot("second");
+        context.addAsync(first);
+        List<AggregateRoot> single = context.getTrackedAggregateRoots();
+        context.addAsync(second);
+        List<AggregateRoot> both = context.getTrackedAggregateRoots();
+        Assertions.assertEquals(List.of(first), single);
+        Assertions.assertEquals(List.of(first, second), both);
+
+        context.release();
+        DefaultCommandExecuteContext reused = borrow();
+        Assertions.assertSame(context, reused);
+        Assertions.assertTrue(reused.getTrackedAggregateRoots().isEmpty());
+        reused.addAsync(newAggregateRoot("other"));
+        Assertions.assertEquals(List.of(first), single);
+        Assertions.assertEquals(List.of(first, second), both);
+    }
+
+    @Test
+    public void released_context_is_not_reachable_from_completed_command() throws Exception {
+        DefaultCommandExecuteContext context = borrow();
+        ProcessingCommand[] completed = new ProcessingCommand[1];
+        ProcessingCommandMailbox mailbox = new ProcessingCommandMailbox("aggregate", processingCommand -> {
+            processingCommand.getCommandExecuteContext().setResult("handled");
+            completed[0] = processingCommand;
+            return processingCommand.getMailBox().completeMessage(processingCommand, newResult(processingCommand));
+        }, Dispatchers.getDefault(), 16, new DefaultProcessingCommandQueue(), new MessageFlowController());
+        ChangeNothingCommand command = new ChangeNothingCommand();
+        command.setAggregateRootId("aggregate");
+        ProcessingCommand processingCommand = new ProcessingCommand(command, context, new HashMap<>());
+        mailbox.enqueueMessage(processingCommand);
+        awaitCondition(() -> completed[0] != null && pool.size() == 1);
+
+        // the command as seen by the handler callback
+        ProcessingCommand fromCallback = completed[0];
+        Assertions.assertSame(processingCommand, fromCallback);
+        Assertions.assertNotSame(context, fromCallback.getCommandExecuteContext());
+        Assertions.assertEquals(1, handledCount.get());
+        // the pooled context is handed to the next command, the completed one must not see its state
+        DefaultCommandExecuteContext reused = borrow();
+        Assertions.assertSame(context, reused);
+        reused.setResult("next");
+        reused.addAsync(newAggregateRoot("next"));
+        Assertions.assertEquals("", fromCallback.getCommandExecuteContext().getResult());
+        Assertions.assertTrue(fromCallback.getCommandExecuteContext().getTrackedAggregateRoots().isEmpty());
+        Assertions.assertThrows(IllegalStateException.class, () -> fromCallback.getCommandExecuteContext().addAsync(newAggregateRoot("late")));
+        // completing the command again neither notifies nor releases the context a second time
+        mailbox.completeMessage(fromCallback, newResult(fromCallback)).get(1, TimeUnit.SECONDS);
+        fromCallback.completeAsync(newResult(fromCallback)).get(1, TimeUnit.SECONDS);
+        Assertions.assertEquals(1, handledCount.get());
+        Assertions.assertEquals(0, pool.size());
+    }
+
+    private DefaultCommandExecuteContext borrow() {
+        // no reply address, so completing a command only notifies the message context
+        return pool.borrow(new QueueMessage(), message -> handledCount.incrementAndGet(), new GenericCommandMessage());
+    }
+
+    private static CommandResult newResult(ProcessingCommand processingCommand) {
+        return new CommandResult(CommandStatus.Success, processingCommand.getMessage().getId(), processingCommand.getMessage().getAggregateRootId(), processingCommand.getCommandExecuteContext().getResult());
+    }
+
+    private static AggregateRoot newAggregateRoot(String id) {
+        AggregateRoot aggregateRoot = Mockito.mock(AggregateRoot.class);
+        Mockito.when(aggregateRoot.getUniqueId()).thenReturn(id);
+        return aggregateRoot;
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "condition not met in time");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.enodeframework.test.commanding;
+
+import org.enodeframework.commanding.impl.DefaultProcessedCommandCache;
+import org.enodeframework.eventing.DomainEventStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class DefaultProcessedCommandCacheTest {
+
+    @Test
+    public void event_stream_is_found_by_aggregate_and_command() {
+        DefaultProcessedCommandCache processedCommandCache = new DefaultProcessedCommandCache();
+        DomainEventStream eventStream = newEventStream("aggregate", "command");
+        processedCommandCache.add(eventStream);
+        Assertions.assertSame(eventStream, processedCommandCache.get("aggregate", "command"));
+        Assertions.assertNull(processedCommandCache.get("other", "command"));
+        Assertions.assertNull(processedCommandCache.get("aggregate", "other"));
+        // an event stream without command id is not cached
+        processedCommandCache.add(newEventStream("aggregate", ""));
+        Assertions.assertEquals(1, processedCommandCache.size());
+    }
+
+    @Test
+    public void oldest_commands_are_evicted_beyond_the_max_size() {
+        DefaultProcessedCommandCache processedCommandCache = new DefaultProcessedCommandCache(2, 600);
+        processedCommandCache.add(newEventStream("aggregate", "command1"));
+        processedCommandCache.add(newEventStream("aggregate", "command2"));
+        processedCommandCache.add(newEventStream("aggregate", "command3"));
+        Assertions.assertEquals(2, processedCommandCache.size());
+        Assertions.assertNull(processedCommandCache.get("aggregate", "command1"));
+        Assertions.assertNotNull(processedCommandCache.get("aggregate", "command2"));
+        Assertions.assertNotNull(processedCommandCache.get("aggregate", "command3"));
+    }
+
+    @Test
+    public void commands_expire_after_the_time_window() throws Exception {
+        DefaultProcessedCommandCache processedCommandCache = new DefaultProcessedCommandCache(100, 1);
+        processedCommandCache.add(newEventStream("aggregate", "command"));
+        Assertions.assertNotNull(processedCommandCache.get("aggregate", "command"));
+        Thread.sleep(1100);
+        Assertions.assertNull(processedCommandCache.get("aggregate", "command"));
+    }
+
+    private static DomainEventStream newEventStream(String aggregateRootId, String commandId) {
+        return new DomainEventStream(commandId, aggregateRootId, 1, "TestAggregate", new ArrayList<>(), new HashMap<>());
+    }
+}
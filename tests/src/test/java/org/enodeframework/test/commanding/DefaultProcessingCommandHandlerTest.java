@@ -0,0 +1,177 @@
+package org.enodeframework.test.commanding;
+
+import kotlinx.coroutines.Dispatchers;
+import org.enodeframework.commanding.CommandExecuteContext;
+import org.enodeframework.commanding.CommandHandlerProvider;
+import org.enodeframework.commanding.CommandHandlerProxy;
+import org.enodeframework.commanding.ProcessedCommandCache;
+import org.enodeframework.commanding.ProcessingCommand;
+import org.enodeframework.commanding.ProcessingCommandMailbox;
+import org.enodeframework.commanding.impl.DefaultProcessedCommandCache;
+import org.enodeframework.commanding.impl.DefaultProcessingCommandHandler;
+import org.enodeframework.commanding.impl.DefaultProcessingCommandQueue;
+import org.enodeframework.commanding.impl.NoOpProcessedCommandCache;
+import org.enodeframework.common.serializing.SerializeService;
+import org.enodeframework.domain.AggregateRoot;
+import org.enodeframework.domain.MemoryCache;
+import org.enodeframework.eventing.DomainEventStream;
+import org.enodeframework.eventing.EventCommittingContext;
+import org.enodeframework.eventing.EventCommittingService;
+import org.enodeframework.eventing.EventStore;
+import org.enodeframework.infrastructure.TypeNameProvider;
+import org.enodeframework.messaging.MessageHandlerData;
+import org.enodeframework.messaging.MessagePublisher;
+import org.enodeframework.queue.MessageFlowController;
+import org.enodeframework.test.command.ChangeNothingCommand;
+import org.enodeframework.test.domain.Event1;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+
+public class DefaultProcessingCommandHandlerTest {
+
+    private static final String AGGREGATE_ROOT_ID = "aggregate";
+
+    private EventStore eventStore;
+
+    private CommandHandlerProvider commandHandlerProvider;
+
+    private TypeNameProvider typeNameProvider;
+
+    private EventCommittingService eventCommittingService;
+
+    private ProcessingCommandMailbox mailbox;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        CommandHandlerProxy commandHandler = Mockito.mock(CommandHandlerProxy.class);
+        Mockito.when(commandHandler.isSuspendMethod()).thenReturn(false);
+        Mockito.when(commandHandler.handle(any(), any())).thenAnswer(invocation -> CompletableFuture.completedFuture(null));
+        Mockito.when(commandHandler.getInnerObject()).thenReturn(new Object());
+        MessageHandlerData<CommandHandlerProxy> handlerData = new MessageHandlerData<>();
+        handlerData.setListHandlers(List.of(commandHandler));
+        commandHandlerProvider = Mockito.mock(CommandHandlerProvider.class);
+        Mockito.when(commandHandlerProvider.getHandlers(any())).thenReturn(List.of(handlerData));
+        eventStore = Mockito.mock(EventStore.class);
+        Mockito.when(eventStore.findAsync(anyString(), anyString())).thenReturn(CompletableFuture.completedFuture(null));
+        typeNameProvider = Mockito.mock(TypeNameProvider.class);
+        Mockito.when(typeNameProvider.getTypeName(any())).thenReturn("TestAggregate");
+        eventCommittingService = Mockito.mock(EventCommittingService.class);
+        DefaultProcessingCommandHandler handler = newHandler(10, NoOpProcessedCommandCache.INSTANCE);
+        mailbox = new ProcessingCommandMailbox(AGGREGATE_ROOT_ID, handler, Dispatchers.getDefault(), 1000, new DefaultProcessingCommandQueue(), new MessageFlowController());
+    }
+
+    @Test
+    public void buffered_command_is_committed_after_reset_when_later_commands_are_completed() {
+        ProcessingCommand changing = newProcessingCommand(true);
+        ProcessingCommand nothingChanged = newProcessingCommand(false);
+        // the completed command no longer exposes its context
+        CommandExecuteContext nothingChangedContext = nothingChanged.getCommandExecuteContext();
+        // both commands are in the mailbox when the run starts, so the first one is buffered
+        mailbox.pause();
+        mailbox.enqueueMessage(changing);
+        mailbox.enqueueMessage(nothingChanged);
+        mailbox.resume();
+        mailbox.tryRun();
+        // the no-op command completes itself, and commits the buffered command before that
+        Mockito.verify(nothingChangedContext, Mockito.timeout(5000)).onCommandExecutedAsync(any());
+        Mockito.verify(eventCommittingService, Mockito.times(1)).commitDomainEventsAsync(anyList());
+
+        // a version conflict replays the first command, the completed no-op command is no longer in the mailbox
+        mailbox.pause();
+        mailbox.resetConsumingSequence(0);
+        mailbox.resume();
+        mailbox.tryRun();
+        ArgumentCaptor<List<EventCommittingContext>> captor = captorOfContexts();
+        Mockito.verify(eventCommittingService, Mockito.timeout(5000).times(2)).commitDomainEventsAsync(captor.capture());
+        for (List<EventCommittingContext> contexts : captor.getAllValues()) {
+            Assertions.assertEquals(1, contexts.size());
+            Assertions.assertSame(changing, contexts.get(0).getProcessingCommand());
+        }
+        Assertions.assertEquals(2, mailbox.getConsumingSequence().get());
+    }
+
+    @Test
+    public void cached_event_stream_is_republished_without_querying_the_store() throws Exception {
+        DefaultProcessedCommandCache processedCommandCache = new DefaultProcessedCommandCache();
+        ProcessingCommand nothingChanged = newProcessingCommand(false);
+        nothingChanged.setMailBox(newCommandMailbox());
+        DomainEventStream committed = newEventStream(AGGREGATE_ROOT_ID, nothingChanged.getMessage().getId());
+        processedCommandCache.add(committed);
+        Mockito.when(eventCommittingService.publishDomainEventAsync(any(), any())).thenReturn(CompletableFuture.completedFuture(true));
+        newHandler(1, processedCommandCache).handleAsync(nothingChanged).get(5, TimeUnit.SECONDS);
+        Mockito.verify(eventCommittingService).publishDomainEventAsync(nothingChanged, committed);
+        Mockito.verify(eventStore, Mockito.never()).findAsync(anyString(), anyString());
+    }
+
+    @Test
+    public void cached_command_of_another_aggregate_falls_through_to_the_store() throws Exception {
+        DefaultProcessedCommandCache processedCommandCache = new DefaultProcessedCommandCache();
+        ProcessingCommand nothingChanged = newProcessingCommand(false);
+        // command ids are only unique within an aggregate
+        processedCommandCache.add(newEventStream("other", nothingChanged.getMessage().getId()));
+        ProcessingCommandMailbox commandMailbox = newCommandMailbox();
+        nothingChanged.setMailBox(commandMailbox);
+        newHandler(1, processedCommandCache).handleAsync(nothingChanged).get(5, TimeUnit.SECONDS);
+        Mockito.verify(eventStore).findAsync(AGGREGATE_ROOT_ID, nothingChanged.getMessage().getId());
+        Mockito.verify(eventCommittingService, Mockito.never()).publishDomainEventAsync(any(), any());
+        Mockito.verify(commandMailbox).completeMessage(Mockito.eq(nothingChanged), any());
+    }
+
+    @SuppressWarnings("unchecked")
+    private DefaultProcessingCommandHandler newHandler(int commandCommitBatchSize, ProcessedCommandCache processedCommandCache) {
+        return new DefaultProcessingCommandHandler(
+            eventStore, commandHandlerProvider, typeNameProvider, eventCommittingService,
+            Mockito.mock(MemoryCache.class), Mockito.mock(MessagePublisher.class), Mockito.mock(MessagePublisher.class),
+            Mockito.mock(SerializeService.class), Dispatchers.getDefault(), commandCommitBatchSize, processedCommandCache
+        );
+    }
+
+    private static ProcessingCommandMailbox newCommandMailbox() {
+        ProcessingCommandMailbox commandMailbox = Mockito.mock(ProcessingCommandMailbox.class);
+        Mockito.when(commandMailbox.completeMessage(any(), any())).thenReturn(CompletableFuture.completedFuture(true));
+        return commandMailbox;
+    }
+
+    private static DomainEventStream newEventStream(String aggregateRootId, String commandId) {
+        return new DomainEventStream(commandId, aggregateRootId, 1, "TestAggregate", new ArrayList<>(), new HashMap<>());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<List<EventCommittingContext>> captorOfContexts() {
+        return ArgumentCaptor.forClass(List.class);
+    }
+
+    private ProcessingCommand newProcessingCommand(boolean changing) {
+        ChangeNothingCommand command = new ChangeNothingCommand();
+        command.setAggregateRootId(AGGREGATE_ROOT_ID);
+        AggregateRoot aggregateRoot = Mockito.mock(AggregateRoot.class);
+        Mockito.when(aggregateRoot.getUniqueId()).thenReturn(AGGREGATE_ROOT_ID);
+        List<Event1> changes = new ArrayList<>();
+        if (changing) {
+            Event1 event = new Event1();
+            event.setAggregateRootId(AGGREGATE_ROOT_ID);
+            event.setVersion(1);
+            changes.add(event);
+        }
+        Mockito.when(aggregateRoot.getChanges()).thenReturn(new ArrayList<>(changes));
+        CommandExecuteContext commandExecuteContext = Mockito.mock(CommandExecuteContext.class);
+        Mockito.when(commandExecuteContext.getTrackedAggregateRoots()).thenReturn(List.of(aggregateRoot));
+        Mockito.when(commandExecuteContext.getResult()).thenReturn("");
+        Mockito.when(commandExecuteContext.onCommandExecutedAsync(any())).thenReturn(CompletableFuture.completedFuture(true));
+        return new ProcessingCommand(command, commandExecuteContext, new HashMap<>());
+    }
+}
@@ -0,0 +1,54 @@
+package org.enodeframework.test.commanding;
+
+import kotlin.sequences.SequencesKt;
+import org.enodeframework.commanding.DuplicateCommandRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class DuplicateCommandRegistryTest {
+
+    private static final String COMMAND_ID = "5ee8b61bd7671114741829cf";
+
+    private static final String RAW_MESSAGE = "E11000 duplicate key error collection: enode.event_stream index: aggregateRootId_1_commandId_1 dup key: { aggregateRootId: \"5ee8b610d7671114741829c7\", commandId: \"" + COMMAND_ID + "\" }";
+
+    @Test
+    public void command_id_is_contained_until_removed() {
+        DuplicateCommandRegistry registry = new DuplicateCommandRegistry();
+        registry.add(COMMAND_ID, SequencesKt::emptySequence);
+        Assertions.assertTrue(registry.contains(COMMAND_ID));
+        registry.remove(COMMAND_ID);
+        Assertions.assertFalse(registry.contains(COMMAND_ID));
+    }
+
+    @Test
+    public void raw_message_is_resolved_against_pending_commands() {
+        DuplicateCommandRegistry registry = new DuplicateCommandRegistry();
+        registry.add(RAW_MESSAGE, () -> SequencesKt.sequenceOf("5ee8b61bd7671114741829aa", COMMAND_ID));
+        Assertions.assertTrue(registry.contains(COMMAND_ID));
+        Assertions.assertFalse(registry.contains("5ee8b61bd7671114741829aa"));
+        registry.remove(COMMAND_ID);
+        Assertions.assertFalse(registry.contains(COMMAND_ID));
+    }
+
+    @Test
+    public void unresolved_message_is_matched_when_checked() {
+        DuplicateCommandRegistry registry = new DuplicateCommandRegistry();
+        // the command is not in the mailbox yet when the duplicate is registered
+        registry.add(RAW_MESSAGE, SequencesKt::emptySequence);
+        Assertions.assertFalse(registry.contains("5ee8b61bd7671114741829aa"));
+        Assertions.assertFalse(registry.contains(RAW_MESSAGE.substring(0, 7)));
+        Assertions.assertTrue(registry.contains(COMMAND_ID));
+        Assertions.assertTrue(registry.contains(COMMAND_ID));
+        registry.remove(COMMAND_ID);
+        // the message was consumed by the match, so it is not matched again
+        Assertions.assertFalse(registry.contains(COMMAND_ID));
+    }
+
+    @Test
+    public void unresolved_message_is_cleared() {
+        DuplicateCommandRegistry registry = new DuplicateCommandRegistry();
+        registry.add(RAW_MESSAGE, SequencesKt::emptySequence);
+        registry.clearUnresolved();
+        Assertions.assertFalse(registry.contains(COMMAND_ID));
+    }
+}
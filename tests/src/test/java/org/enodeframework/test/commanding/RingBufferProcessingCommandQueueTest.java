@@ -0,0 +1,227 @@
+package org.enodeframework.test.commanding;
+
+import org.enodeframework.commanding.CommandExecuteContext;
+import org.enodeframework.commanding.ProcessingCommand;
+import org.enodeframework.commanding.impl.RingBufferProcessingCommandQueue;
+import org.enodeframework.test.command.ChangeNothingCommand;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class RingBufferProcessingCommandQueueTest {
+
+    private static final int PRODUCER_COUNT = 8;
+
+    private static final int COMMAND_COUNT_PER_PRODUCER = 20000;
+
+    private final CommandExecuteContext commandExecuteContext = Mockito.mock(CommandExecuteContext.class);
+
+    @Test
+    public void remove_out_of_order_does_not_skip_live_commands() {
+        RingBufferProcessingCommandQueue queue = new RingBufferProcessingCommandQueue(4);
+        List<ProcessingCommand> commands = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            ProcessingCommand command = newCommand(0, i);
+            queue.enqueue(command);
+            commands.add(command);
+        }
+        Assertions.assertEquals(4, queue.nextSequence());
+        Assertions.assertTrue(queue.remove(commands.get(1)));
+        Assertions.assertTrue(queue.remove(commands.get(2)));
+        Assertions.assertFalse(queue.remove(commands.get(2)));
+        Assertions.assertSame(commands.get(0), queue.get(0));
+        Assertions.assertNull(queue.get(1));
+        Assertions.assertSame(commands.get(3), queue.get(3));
+        Assertions.assertEquals(0, headSequence(queue));
+        Assertions.assertTrue(queue.remove(commands.get(0)));
+        Assertions.assertEquals(3, headSequence(queue));
+        Assertions.assertSame(commands.get(3), queue.get(3));
+    }
+
+    @Test
+    public void grow_keeps_live_commands_addressable() {
+        RingBufferProcessingCommandQueue queue = new RingBufferProcessingCommandQueue(2);
+        List<ProcessingCommand> commands = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ProcessingCommand command = newCommand(0, i);
+            queue.enqueue(command);
+            commands.add(command);
+        }
+        Assertions.assertEquals(4, capacity(queue));
+        Assertions.assertTrue(queue.remove(commands.get(1)));
+        for (int i = 3; i < 9; i++) {
+            ProcessingCommand command = newCommand(0, i);
+            queue.enqueue(command);
+            commands.add(command);
+        }
+        // command 0 is still live, so sequences 0..8 have to fit in the buffer at once
+        Assertions.assertEquals(16, capacity(queue));
+        for (int i = 0; i < 9; i++) {
+            if (i == 1) {
+                Assertions.assertNull(queue.get(i));
+                continue;
+            }
+            Assertions.assertSame(commands.get(i), queue.get(i));
+        }
+    }
+
+    @Test
+    public void concurrent_enqueue_while_growing_is_consumed_in_order() throws Exception {
+        RingBufferProcessingCommandQueue queue = new RingBufferProcessingCommandQueue(2);
+        int total = PRODUCER_COUNT * COMMAND_COUNT_PER_PRODUCER;
+        List<ProcessingCommand> consumed = new ArrayList<>(total);
+        ExecutorService executor = Executors.newFixedThreadPool(PRODUCER_COUNT + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> producers = startProducers(executor, queue, start);
+            Future<?> consumer = executor.submit(() -> {
+                long consumingSequence = 0;
+                while (consumingSequence < total) {
+                    long nextSequence = queue.nextSequence();
+                    for (; consumingSequence < nextSequence; consumingSequence++) {
+                        // every published sequence has to be readable, even while a grow is in progress
+                        ProcessingCommand command = queue.get(consumingSequence);
+                        Assertions.assertNotNull(command, "sequence " + consumingSequence);
+                        Assertions.assertEquals(consumingSequence, command.getSequence());
+                        consumed.add(command);
+                        Assertions.assertTrue(queue.remove(command));
+                    }
+                }
+                return null;
+            });
+            start.countDown();
+            for (Future<?> producer : producers) {
+                producer.get(30, TimeUnit.SECONDS);
+            }
+            consumer.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        Assertions.assertEquals(total, queue.nextSequence());
+        Assertions.assertEquals(total, headSequence(queue));
+        assertEachCommandOnceInProducerOrder(consumed, total);
+    }
+
+    @Test
+    public void remove_while_claimed_slots_are_unpublished() throws Exception {
+        RingBufferProcessingCommandQueue queue = new RingBufferProcessingCommandQueue(2);
+        int total = PRODUCER_COUNT * COMMAND_COUNT_PER_PRODUCER;
+        List<ProcessingCommand> consumed = new ArrayList<>(total);
+        ExecutorService executor = Executors.newFixedThreadPool(PRODUCER_COUNT + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> producers = startProducers(executor, queue, start);
+            Future<?> consumer = executor.submit(() -> {
+                long consumingSequence = 0;
+                List<ProcessingCommand> visible = new ArrayList<>();
+                while (consumingSequence < total) {
+                    long nextSequence = queue.nextSequence();
+                    for (; consumingSequence < nextSequence; consumingSequence++) {
+                        ProcessingCommand command = queue.get(consumingSequence);
+                        Assertions.assertNotNull(command, "sequence " + consumingSequence);
+                        visible.add(command);
+                    }
+                    // producers keep claiming sequences past nextSequence meanwhile,
+                    // complete the visible commands newest first, like out of order batch commits do
+                    Collections.reverse(visible);
+                    for (ProcessingCommand command : visible) {
+                        Assertions.assertTrue(queue.remove(command));
+                        Assertions.assertTrue(headSequence(queue) <= queue.nextSequence());
+                    }
+                    Collections.reverse(visible);
+                    consumed.addAll(visible);
+                    visible.clear();
+                }
+                return null;
+            });
+            start.countDown();
+            for (Future<?> producer : producers) {
+                producer.get(30, TimeUnit.SECONDS);
+            }
+            consumer.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        Assertions.assertEquals(total, queue.nextSequence());
+        Assertions.assertEquals(total, headSequence(queue));
+        for (long sequence = 0; sequence < total; sequence++) {
+            Assertions.assertNull(queue.get(sequence));
+        }
+        assertEachCommandOnceInProducerOrder(consumed, total);
+    }
+
+    private List<Future<?>> startProducers(ExecutorService executor, RingBufferProcessingCommandQueue queue, CountDownLatch start) {
+        List<Future<?>> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCER_COUNT; p++) {
+            int producer = p;
+            producers.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < COMMAND_COUNT_PER_PRODUCER; i++) {
+                    Assertions.assertTrue(queue.enqueue(newCommand(producer, i)));
+                }
+                return null;
+            }));
+        }
+        return producers;
+    }
+
+    private void assertEachCommandOnceInProducerOrder(List<ProcessingCommand> consumed, int total) {
+        Assertions.assertEquals(total, consumed.size());
+        Set<ProcessingCommand> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+        distinct.addAll(consumed);
+        Assertions.assertEquals(total, distinct.size());
+        int[] lastIndex = new int[PRODUCER_COUNT];
+        java.util.Arrays.fill(lastIndex, -1);
+        for (int i = 0; i < consumed.size(); i++) {
+            ProcessingCommand command = consumed.get(i);
+            Assertions.assertEquals(i, command.getSequence());
+            int producer = (int) command.getItems().get("producer");
+            int index = (int) command.getItems().get("index");
+            Assertions.assertEquals(lastIndex[producer] + 1, index);
+            lastIndex[producer] = index;
+        }
+    }
+
+    private ProcessingCommand newCommand(int producer, int index) {
+        ChangeNothingCommand command = new ChangeNothingCommand();
+        command.setAggregateRootId("aggregate");
+        Map<String, Object> items = new HashMap<>();
+        items.put("producer", producer);
+        items.put("index", index);
+        return new ProcessingCommand(command, commandExecuteContext, items);
+    }
+
+    private static long headSequence(RingBufferProcessingCommandQueue queue) {
+        return ((AtomicLong) field(queue, "headSequence")).get();
+    }
+
+    private static int capacity(RingBufferProcessingCommandQueue queue) {
+        return ((AtomicReferenceArray<?>) field(queue, "buffer")).length();
+    }
+
+    private static Object field(RingBufferProcessingCommandQueue queue, String name) {
+        try {
+            Field field = RingBufferProcessingCommandQueue.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(queue);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
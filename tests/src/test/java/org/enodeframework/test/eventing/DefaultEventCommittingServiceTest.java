@@ -0,0 +1,285 @@
+package org.enodeframework.test.eventing;
+
+import kotlinx.coroutines.Dispatchers;
+import org.enodeframework.commanding.CommandExecuteContext;
+import org.enodeframework.commanding.ProcessingCommand;
+import org.enodeframework.commanding.ProcessingCommandMailbox;
+import org.enodeframework.commanding.impl.NoOpProcessedCommandCache;
+import org.enodeframework.common.extensions.NoOpAggregateHotspotMonitor;
+import org.enodeframework.common.serializing.SerializeService;
+import org.enodeframework.domain.MemoryCache;
+import org.enodeframework.eventing.DomainEventStream;
+import org.enodeframework.eventing.EventAppendResult;
+import org.enodeframework.eventing.EventCommittingContext;
+import org.enodeframework.eventing.EventStore;
+import org.enodeframework.eventing.impl.DefaultEventCommittingService;
+import org.enodeframework.messaging.MessagePublisher;
+import org.enodeframework.queue.MessageFlowController;
+import org.enodeframework.queue.SendMessageResult;
+import org.enodeframework.test.command.ChangeNothingCommand;
+import org.enodeframework.test.domain.Event1;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+
+public class DefaultEventCommittingServiceTest {
+
+    private static final String CONFLICT_AGGREGATE_ID = "conflict";
+
+    private static final String OTHER_AGGREGATE_ID = "other";
+
+    private final List<DomainEventStream> appendedStreams = Collections.synchronizedList(new ArrayList<>());
+
+    private final CompletableFuture<Boolean> pauseFuture = new CompletableFuture<>();
+
+    private ProcessingCommandMailbox conflictCommandMailBox;
+
+    private ProcessingCommandMailbox otherCommandMailBox;
+
+    private MemoryCache memoryCache;
+
+    private MessagePublisher<DomainEventStream> domainEventPublisher;
+
+    private DefaultEventCommittingService eventCommittingService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        EventStore eventStore = Mockito.mock(EventStore.class);
+        Mockito.when(eventStore.batchAppendAsync(anyList())).thenAnswer(invocation -> {
+            List<DomainEventStream> eventStreams = invocation.getArgument(0);
+            EventAppendResult result = new EventAppendResult();
+            for (DomainEventStream eventStream : eventStreams) {
+                // the first persisted version 2 of the conflict aggregate was written by another node
+                if (eventStream.getAggregateRootId().equals(CONFLICT_AGGREGATE_ID) && eventStream.getCommandId().equals("c-2")) {
+                    result.addDuplicateEventAggregateRootId(eventStream.getAggregateRootId());
+                    continue;
+                }
+                appendedStreams.add(eventStream);
+                result.addSuccessAggregateRootId(eventStream.getAggregateRootId());
+            }
+            return CompletableFuture.completedFuture(result);
+        });
+        memoryCache = Mockito.mock(MemoryCache.class);
+        Mockito.when(memoryCache.refreshAggregateFromEventStoreAsync(anyString(), anyString())).thenReturn(CompletableFuture.completedFuture(null));
+        domainEventPublisher = Mockito.mock(MessagePublisher.class);
+        Mockito.when(domainEventPublisher.publishAllAsync(anyList())).thenReturn(CompletableFuture.completedFuture(new ArrayList<>()));
+        conflictCommandMailBox = Mockito.mock(ProcessingCommandMailbox.class);
+        Mockito.when(conflictCommandMailBox.pauseAsync()).thenReturn(pauseFuture);
+        Mockito.when(conflictCommandMailBox.completeMessage(any(), any())).thenReturn(CompletableFuture.completedFuture(true));
+        otherCommandMailBox = Mockito.mock(ProcessingCommandMailbox.class);
+        Mockito.when(otherCommandMailBox.completeMessage(any(), any())).thenReturn(CompletableFuture.completedFuture(true));
+        // a single event mailbox, so that both aggregates share it
+        eventCommittingService = newService(eventStore, 1);
+    }
+
+    @Test
+    public void version_conflict_does_not_stall_other_aggregates() {
+        ProcessingCommand conflicting = newProcessingCommand(conflictCommandMailBox, 5);
+        eventCommittingService.commitDomainEventAsync(newContext(conflicting, CONFLICT_AGGREGATE_ID, "c-2", 2));
+        Mockito.verify(conflictCommandMailBox, Mockito.timeout(5000)).pauseAsync();
+
+        // the command mailbox has not paused yet, the following event stream was built on the stale aggregate
+        eventCommittingService.commitDomainEventAsync(newContext(newProcessingCommand(conflictCommandMailBox, 6), CONFLICT_AGGREGATE_ID, "c-3", 3));
+        ProcessingCommand other = newProcessingCommand(otherCommandMailBox, 1);
+        eventCommittingService.commitDomainEventAsync(newContext(other, OTHER_AGGREGATE_ID, "o-2", 2));
+        Mockito.verify(otherCommandMailBox, Mockito.timeout(5000)).completeMessage(eq(other), any());
+        Assertions.assertTrue(appendedStreams.stream().noneMatch(x -> x.getAggregateRootId().equals(CONFLICT_AGGREGATE_ID)));
+        Mockito.verify(conflictCommandMailBox, Mockito.never()).resetConsumingSequence(Mockito.anyLong());
+
+        pauseFuture.complete(true);
+        Mockito.verify(conflictCommandMailBox, Mockito.timeout(5000)).resetConsumingSequence(5);
+        Mockito.verify(conflictCommandMailBox, Mockito.timeout(5000)).resume();
+        Mockito.verify(conflictCommandMailBox, Mockito.timeout(5000)).tryRun();
+
+        // the replayed command is persisted once the aggregate is released
+        ProcessingCommand replayed = newProcessingCommand(conflictCommandMailBox, 5);
+        eventCommittingService.commitDomainEventAsync(newContext(replayed, CONFLICT_AGGREGATE_ID, "c-3-replayed", 3));
+        Mockito.verify(conflictCommandMailBox, Mockito.timeout(5000)).completeMessage(eq(replayed), any());
+        Assertions.assertEquals(List.of("o-2", "c-3-replayed"), appendedStreams.stream().map(DomainEventStream::getCommandId).toList());
+    }
+
+    @Test
+    public void resized_aggregate_stays_on_the_draining_mailbox_until_persisted() throws Exception {
+        CompletableFuture<EventAppendResult> heldAppend = new CompletableFuture<>();
+        List<String> appendedCommandIds = Collections.synchronizedList(new ArrayList<>());
+        EventStore eventStore = Mockito.mock(EventStore.class);
+        Mockito.when(eventStore.batchAppendAsync(anyList())).thenAnswer(invocation -> {
+            List<DomainEventStream> eventStreams = invocation.getArgument(0);
+            eventStreams.forEach(x -> appendedCommandIds.add(x.getCommandId()));
+            EventAppendResult result = new EventAppendResult();
+            eventStreams.forEach(x -> result.addSuccessAggregateRootId(x.getAggregateRootId()));
+            // the first batch is held, so that the aggregate has unfinished events in the old mailbox
+            if (appendedCommandIds.size() == 1) {
+                return heldAppend.thenApply(x -> result);
+            }
+            return CompletableFuture.completedFuture(result);
+        });
+        DefaultEventCommittingService service = newService(eventStore, 1);
+        service.commitDomainEventAsync(newContext(newProcessingCommand(otherCommandMailBox, 1), "a", "a-1", 1));
+        Mockito.verify(eventStore, Mockito.timeout(5000)).batchAppendAsync(anyList());
+
+        service.resize(4);
+        Assertions.assertEquals(4, service.getEventMailBoxCount());
+        // the following version waits behind the held batch in the old mailbox, a new aggregate uses the new mailboxes
+        service.commitDomainEventAsync(newContext(newProcessingCommand(otherCommandMailBox, 2), "a", "a-2", 2));
+        ProcessingCommand other = newProcessingCommand(otherCommandMailBox, 3);
+        service.commitDomainEventAsync(newContext(other, "b", "b-1", 1));
+        Mockito.verify(otherCommandMailBox, Mockito.timeout(5000)).completeMessage(eq(other), any());
+        Assertions.assertEquals(List.of("a-1", "b-1"), appendedCommandIds);
+
+        heldAppend.complete(null);
+        Mockito.verify(eventStore, Mockito.timeout(5000).times(3)).batchAppendAsync(anyList());
+        Assertions.assertEquals(List.of("a-1", "b-1", "a-2"), appendedCommandIds);
+
+        // the drained mailbox retires, the aggregate then moves to the new mailboxes
+        Thread.sleep(200);
+        ProcessingCommand afterRetired = newProcessingCommand(otherCommandMailBox, 4);
+        service.commitDomainEventAsync(newContext(afterRetired, "a", "a-3", 3));
+        Mockito.verify(otherCommandMailBox, Mockito.timeout(5000)).completeMessage(eq(afterRetired), any());
+        Assertions.assertEquals(List.of("a-1", "b-1", "a-2", "a-3"), appendedCommandIds);
+        Assertions.assertEquals(4, service.getMailBoxStatistics().size());
+    }
+
+    @Test
+    public void later_batch_of_an_aggregate_is_published_after_the_earlier_one() throws Exception {
+        HeldPublisher publisher = new HeldPublisher();
+        EventStore eventStore = newSucceedingEventStore();
+        DefaultEventCommittingService service = newService(eventStore, publisher, 1, 64);
+        service.commitDomainEventAsync(newContext(newProcessingCommand(otherCommandMailBox, 1), "a", "a-1", 1));
+        Assertions.assertEquals(List.of("a-1"), publisher.next());
+
+        // the mailbox run completes before the publication, the next batch is persisted while a-1 is still being published
+        service.commitDomainEventAsync(newContext(newProcessingCommand(otherCommandMailBox, 2), "a", "a-2", 2));
+        Mockito.verify(eventStore, Mockito.timeout(5000).times(2)).batchAppendAsync(anyList());
+        service.commitDomainEventAsync(newContext(newProcessingCommand(otherCommandMailBox, 3), "b", "b-1", 1));
+        Assertions.assertEquals(List.of("b-1"), publisher.next());
+        Assertions.assertNull(publisher.published.poll(100, TimeUnit.MILLISECONDS));
+
+        publisher.complete("a-1");
+        Assertions.assertEquals(List.of("a-2"), publisher.next());
+        publisher.complete("b-1");
+        publisher.complete("a-2");
+        Mockito.verify(otherCommandMailBox, Mockito.timeout(5000).times(3)).completeMessage(any(), any());
+    }
+
+    @Test
+    public void publications_do_not_exceed_the_window() throws Exception {
+        HeldPublisher publisher = new HeldPublisher();
+        EventStore eventStore = newSucceedingEventStore();
+        DefaultEventCommittingService service = newService(eventStore, publisher, 1, 2);
+        for (int i = 1; i <= 4; i++) {
+            service.commitDomainEventAsync(newContext(newProcessingCommand(otherCommandMailBox, i), "a" + i, "a" + i + "-1", 1));
+            // one batch for each aggregate, the batches are persisted without waiting for the publications
+            Mockito.verify(eventStore, Mockito.timeout(5000).times(i)).batchAppendAsync(anyList());
+        }
+        Assertions.assertEquals(List.of("a1-1"), publisher.next());
+        Assertions.assertEquals(List.of("a2-1"), publisher.next());
+        Assertions.assertNull(publisher.published.poll(100, TimeUnit.MILLISECONDS));
+        Assertions.assertEquals(2, publisher.inFlight.size());
+
+        publisher.complete("a2-1");
+        Assertions.assertEquals(List.of("a3-1"), publisher.next());
+        Assertions.assertNull(publisher.published.poll(100, TimeUnit.MILLISECONDS));
+        publisher.complete("a1-1");
+        Assertions.assertEquals(List.of("a4-1"), publisher.next());
+        publisher.complete("a3-1");
+        publisher.complete("a4-1");
+        Mockito.verify(otherCommandMailBox, Mockito.timeout(5000).times(4)).completeMessage(any(), any());
+        Assertions.assertEquals(2, publisher.maxInFlight);
+    }
+
+    private DefaultEventCommittingService newService(EventStore eventStore, int eventMailBoxCount) {
+        return newService(eventStore, domainEventPublisher, eventMailBoxCount, 64);
+    }
+
+    private DefaultEventCommittingService newService(EventStore eventStore, MessagePublisher<DomainEventStream> publisher, int eventMailBoxCount, int eventPublishWindowSize) {
+        return new DefaultEventCommittingService(
+            memoryCache, eventStore, Mockito.mock(SerializeService.class), publisher, Dispatchers.getDefault(),
+            eventMailBoxCount, 1000, new MessageFlowController(), NoOpProcessedCommandCache.INSTANCE, NoOpAggregateHotspotMonitor.INSTANCE, 0L, eventPublishWindowSize, false
+        );
+    }
+
+    private static EventStore newSucceedingEventStore() {
+        EventStore eventStore = Mockito.mock(EventStore.class);
+        Mockito.when(eventStore.batchAppendAsync(anyList())).thenAnswer(invocation -> {
+            List<DomainEventStream> eventStreams = invocation.getArgument(0);
+            EventAppendResult result = new EventAppendResult();
+            eventStreams.forEach(x -> result.addSuccessAggregateRootId(x.getAggregateRootId()));
+            return CompletableFuture.completedFuture(result);
+        });
+        return eventStore;
+    }
+
+    private ProcessingCommand newProcessingCommand(ProcessingCommandMailbox mailBox, long sequence) {
+        CommandExecuteContext commandExecuteContext = Mockito.mock(CommandExecuteContext.class);
+        Mockito.when(commandExecuteContext.getResult()).thenReturn("");
+        ProcessingCommand processingCommand = new ProcessingCommand(new ChangeNothingCommand(), commandExecuteContext, new HashMap<>());
+        processingCommand.setMailBox(mailBox);
+        processingCommand.setSequence(sequence);
+        return processingCommand;
+    }
+
+    /**
+     * a publisher whose publications stay in flight until the test completes them, the event streams are named by aggregate id and version
+     */
+    private static class HeldPublisher implements MessagePublisher<DomainEventStream> {
+
+        private final BlockingQueue<List<String>> published = new LinkedBlockingQueue<>();
+
+        private final Map<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+        private volatile int maxInFlight;
+
+        @Override
+        public CompletableFuture<SendMessageResult> publishAsync(DomainEventStream message) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized CompletableFuture<List<SendMessageResult>> publishAllAsync(List<? extends DomainEventStream> messages) {
+            List<String> names = messages.stream().map(x -> x.getAggregateRootId() + "-" + x.getVersion()).toList();
+            CompletableFuture<Boolean> future = new CompletableFuture<>();
+            names.forEach(x -> inFlight.put(x, future));
+            maxInFlight = Math.max(maxInFlight, (int) inFlight.values().stream().distinct().count());
+            published.add(names);
+            return future.thenApply(x -> new ArrayList<>());
+        }
+
+        private List<String> next() throws InterruptedException {
+            List<String> names = published.poll(5, TimeUnit.SECONDS);
+            Assertions.assertNotNull(names, "nothing published in time");
+            return names;
+        }
+
+        private synchronized void complete(String name) {
+            inFlight.remove(name).complete(true);
+        }
+    }
+
+    private EventCommittingContext newContext(ProcessingCommand processingCommand, String aggregateRootId, String commandId, int version) {
+        Event1 event = new Event1();
+        event.setAggregateRootId(aggregateRootId);
+        event.setVersion(version);
+        DomainEventStream eventStream = new DomainEventStream(commandId, aggregateRootId, "TestAggregate", new Date(), List.of(event), new HashMap<>());
+        return new EventCommittingContext(eventStream, processingCommand);
+    }
+}
@@ -0,0 +1,137 @@
+package org.enodeframework.test.eventing;
+
+import org.enodeframework.common.exception.EnodeException;
+import org.enodeframework.eventing.impl.DefaultEventCompressor;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+public class DefaultEventCompressorTest {
+
+    private static final String TYPE_NAME = "NoteAggregate";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void small_or_incompressible_records_are_not_compressed() {
+        byte[] record = sample(1);
+        Assertions.assertNull(new DefaultEventCompressor().compress(TYPE_NAME, record, 0, record.length));
+        DefaultEventCompressor compressor = new DefaultEventCompressor(record.length);
+        Assertions.assertNull(compressor.compress(TYPE_NAME, record, 0, record.length));
+        Assertions.assertNotNull(new DefaultEventCompressor(record.length - 1).compress(TYPE_NAME, record, 0, record.length));
+        // random bytes do not get smaller, the record is stored as it is
+        byte[] random = new byte[4096];
+        new Random(1).nextBytes(random);
+        Assertions.assertNull(new DefaultEventCompressor(16).compress(TYPE_NAME, random, 0, random.length));
+    }
+
+    @Test
+    public void compressed_range_round_trip() {
+        byte[] record = sample(1);
+        byte[] data = new byte[record.length + 8];
+        System.arraycopy(record, 0, data, 4, record.length);
+        DefaultEventCompressor compressor = new DefaultEventCompressor(16);
+        byte[] compressed = compressor.compress(TYPE_NAME, data, 4, record.length);
+        Assertions.assertNotNull(compressed);
+        Assertions.assertTrue(compressed.length < record.length);
+        Assertions.assertArrayEquals(record, compressor.decompress(compressed, 0, compressed.length, record.length));
+    }
+
+    @Test
+    public void dictionary_is_found_by_checksum() {
+        byte[] dictionary = DefaultEventCompressor.trainDictionary(List.of(sample(1), sample(2), sample(3)));
+        byte[] record = sample(4);
+        DefaultEventCompressor compressor = new DefaultEventCompressor(16, Map.of(TYPE_NAME, dictionary), Deflater.DEFAULT_COMPRESSION);
+        byte[] compressed = compressor.compress(TYPE_NAME, record, 0, record.length);
+        Assertions.assertNotNull(compressed);
+        byte[] withoutDictionary = new DefaultEventCompressor(16).compress(TYPE_NAME, record, 0, record.length);
+        Assertions.assertTrue(compressed.length < withoutDictionary.length);
+        // a replaced dictionary is kept under another name, it is looked up by its adler32 and not by the type name
+        DefaultEventCompressor replaced = new DefaultEventCompressor(16, Map.of(TYPE_NAME, new byte[]{1, 2, 3}, TYPE_NAME + ".1", dictionary), Deflater.DEFAULT_COMPRESSION);
+        Assertions.assertArrayEquals(record, replaced.decompress(compressed, 0, compressed.length, record.length));
+        // compression turned off still reads the compressed records
+        DefaultEventCompressor disabled = new DefaultEventCompressor(0, Map.of(TYPE_NAME, dictionary), Deflater.DEFAULT_COMPRESSION);
+        Assertions.assertArrayEquals(record, disabled.decompress(compressed, 0, compressed.length, record.length));
+    }
+
+    @Test
+    public void missing_dictionary_is_rejected() {
+        byte[] dictionary = DefaultEventCompressor.trainDictionary(List.of(sample(1), sample(2)));
+        byte[] record = sample(3);
+        byte[] compressed = new DefaultEventCompressor(16, Map.of(TYPE_NAME, dictionary), Deflater.DEFAULT_COMPRESSION).compress(TYPE_NAME, record, 0, record.length);
+        EnodeException exception = Assertions.assertThrows(EnodeException.class, () -> new DefaultEventCompressor(16).decompress(compressed, 0, compressed.length, record.length));
+        Assertions.assertTrue(exception.getMessage().contains("dictionary not found"), exception.getMessage());
+    }
+
+    @Test
+    public void wrong_original_length_is_rejected() {
+        byte[] record = sample(1);
+        DefaultEventCompressor compressor = new DefaultEventCompressor(16);
+        byte[] compressed = compressor.compress(TYPE_NAME, record, 0, record.length);
+        EnodeException exception = Assertions.assertThrows(EnodeException.class, () -> compressor.decompress(compressed, 0, compressed.length, record.length + 1));
+        Assertions.assertTrue(exception.getMessage().contains("truncated"), exception.getMessage());
+        // the input ends before the deflate stream does
+        Assertions.assertThrows(EnodeException.class, () -> compressor.decompress(compressed, 0, compressed.length / 2, record.length));
+    }
+
+    @Test
+    public void trained_dictionary_keeps_repeated_segments() {
+        byte[] dictionary = DefaultEventCompressor.trainDictionary(List.of(sample(1), sample(2)));
+        String text = new String(dictionary, StandardCharsets.UTF_8);
+        Assertions.assertTrue(text.contains("\"aggregateRootTypeName\":"), text);
+        // the id differs in every sample, so it is not worth keeping
+        Assertions.assertFalse(text.contains("note-1"), text);
+        Assertions.assertTrue(DefaultEventCompressor.trainDictionary(List.of(sample(1), sample(2)), 16).length <= 16);
+        Assertions.assertEquals(0, DefaultEventCompressor.trainDictionary(List.of()).length);
+    }
+
+    @Test
+    public void replaced_dictionary_is_kept() throws Exception {
+        String path = directory.toString();
+        DefaultEventCompressor.saveDictionary(path, TYPE_NAME, new byte[]{1});
+        DefaultEventCompressor.saveDictionary(path, TYPE_NAME, new byte[]{2});
+        DefaultEventCompressor.saveDictionary(path, TYPE_NAME, new byte[]{3});
+        Map<String, byte[]> dictionaries = DefaultEventCompressor.loadDictionaries(path);
+        Assertions.assertEquals(3, dictionaries.size());
+        Assertions.assertArrayEquals(new byte[]{3}, dictionaries.get(TYPE_NAME));
+        Assertions.assertArrayEquals(new byte[]{1}, dictionaries.get(TYPE_NAME + ".1"));
+        Assertions.assertArrayEquals(new byte[]{2}, dictionaries.get(TYPE_NAME + ".2"));
+    }
+
+    @Test
+    public void dictionary_is_trained_from_the_command_line() throws Exception {
+        List<String> lines = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            lines.add(new String(sample(i), StandardCharsets.UTF_8));
+            lines.add("");
+        }
+        File samples = Files.write(directory.resolve("samples.txt"), lines).toFile();
+        String dictionaryDirectory = directory.resolve("dict").toString();
+        DefaultEventCompressor.main(new String[]{TYPE_NAME, samples.getPath(), dictionaryDirectory});
+        byte[] dictionary = DefaultEventCompressor.loadDictionaries(dictionaryDirectory).get(TYPE_NAME);
+        Assertions.assertArrayEquals(DefaultEventCompressor.trainDictionary(List.of(sample(1), sample(2), sample(3), sample(4), sample(5))), dictionary);
+    }
+
+    private static byte[] sample(int index) {
+        StringBuilder builder = new StringBuilder("{\"aggregateRootId\":\"note-").append(index).append("\",\"aggregateRootTypeName\":\"").append(TYPE_NAME).append("\",\"events\":[");
+        for (int version = 1; version <= 3; version++) {
+            if (version > 1) {
+                builder.append(',');
+            }
+            builder.append("{\"type\":\"org.enodeframework.test.domain.NoteTitleChanged\",\"version\":").append(version)
+                .append(",\"title\":\"title ").append(index * 10 + version).append("\"}");
+        }
+        return builder.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,214 @@
+package org.enodeframework.test.eventing;
+
+import org.enodeframework.common.function.Action;
+import org.enodeframework.common.scheduling.ScheduleService;
+import org.enodeframework.eventing.DomainEventStream;
+import org.enodeframework.eventing.EventFeedCheckpointStore;
+import org.enodeframework.eventing.EventFeedEntry;
+import org.enodeframework.eventing.EventFeedHandler;
+import org.enodeframework.eventing.EventStore;
+import org.enodeframework.eventing.impl.DefaultEventFeedReader;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+
+public class DefaultEventFeedReaderTest {
+
+    private static final String READER_NAME = "projection";
+
+    private final List<EventFeedEntry> feed = new CopyOnWriteArrayList<>();
+
+    private final List<List<Long>> handledPages = new CopyOnWriteArrayList<>();
+
+    private final ScheduleService scheduleService = Mockito.mock(ScheduleService.class);
+
+    private final EventStore eventStore = Mockito.mock(EventStore.class);
+
+    private final EventFeedCheckpointStore checkpointStore = Mockito.mock(EventFeedCheckpointStore.class);
+
+    private final EventFeedHandler eventFeedHandler = entries -> {
+        handledPages.add(entries.stream().map(EventFeedEntry::getPosition).collect(Collectors.toList()));
+        return CompletableFuture.completedFuture(true);
+    };
+
+    @BeforeEach
+    public void setUp() {
+        Mockito.when(eventStore.readAllAsync(anyLong(), anyInt())).thenAnswer(invocation -> {
+            long fromPosition = invocation.getArgument(0);
+            int maxCount = invocation.getArgument(1);
+            return CompletableFuture.completedFuture(feed.stream().filter(x -> x.getPosition() > fromPosition).limit(maxCount).collect(Collectors.toList()));
+        });
+        Mockito.when(checkpointStore.getPositionAsync(READER_NAME)).thenReturn(CompletableFuture.completedFuture(0L));
+        Mockito.when(checkpointStore.updatePositionAsync(anyString(), anyLong())).thenReturn(CompletableFuture.completedFuture(1));
+    }
+
+    @Test
+    public void full_pages_are_read_until_caught_up() {
+        append(1, 2, 3, 4, 5);
+        DefaultEventFeedReader reader = newReader(2, 5000);
+        Action read = start(reader);
+        read.apply();
+        Assertions.assertEquals(List.of(List.of(1L, 2L), List.of(3L, 4L), List.of(5L)), handledPages);
+        Assertions.assertEquals(5, reader.getPosition());
+        Mockito.verify(checkpointStore).updatePositionAsync(READER_NAME, 2);
+        Mockito.verify(checkpointStore).updatePositionAsync(READER_NAME, 4);
+        Mockito.verify(checkpointStore).updatePositionAsync(READER_NAME, 5);
+        read.apply();
+        Assertions.assertEquals(3, handledPages.size());
+    }
+
+    @Test
+    public void gap_is_waited_for_until_filled() {
+        append(1, 2, 4, 5);
+        DefaultEventFeedReader reader = newReader(2, 60000);
+        Action read = start(reader);
+        read.apply();
+        // the first page is full, the second one stops at the gap
+        Assertions.assertEquals(List.of(List.of(1L, 2L)), handledPages);
+        Assertions.assertEquals(2, reader.getPosition());
+        read.apply();
+        Assertions.assertEquals(1, handledPages.size());
+        // the transaction of position 3 commits
+        feed.add(2, newEntry(3));
+        read.apply();
+        Assertions.assertEquals(List.of(List.of(1L, 2L), List.of(3L, 4L), List.of(5L)), handledPages);
+        Assertions.assertEquals(5, reader.getPosition());
+    }
+
+    @Test
+    public void gap_is_skipped_only_after_observed_for_the_timeout() throws Exception {
+        append(1);
+        // created long before, the age of the event stream does not shorten the wait
+        EventFeedEntry afterGap = newEntry(3);
+        afterGap.getEventStream().setTimestamp(new Date(System.currentTimeMillis() - 3600000));
+        feed.add(afterGap);
+        DefaultEventFeedReader reader = newReader(10, 200);
+        Action read = start(reader);
+        read.apply();
+        read.apply();
+        Assertions.assertEquals(List.of(List.of(1L)), handledPages);
+        Assertions.assertEquals(1, reader.getPosition());
+        Thread.sleep(300);
+        read.apply();
+        Assertions.assertEquals(List.of(List.of(1L), List.of(3L)), handledPages);
+        Assertions.assertEquals(3, reader.getPosition());
+    }
+
+    @Test
+    public void gaps_below_an_old_watermark_are_skipped_at_once() throws Exception {
+        append(1, 3, 5, 7, 9);
+        DefaultEventFeedReader reader = newReader(10, 200);
+        Action read = start(reader);
+        read.apply();
+        Assertions.assertEquals(List.of(List.of(1L)), handledPages);
+        Thread.sleep(300);
+        // position 9 was seen a timeout ago, every gap below it is skipped without another wait
+        read.apply();
+        Assertions.assertEquals(List.of(List.of(1L), List.of(3L, 5L, 7L, 9L)), handledPages);
+        Assertions.assertEquals(9, reader.getPosition());
+    }
+
+    @Test
+    public void blocked_reader_reads_ahead_and_waits_only_near_the_head() throws Exception {
+        append(1, 3, 4, 6, 7, 9, 10);
+        DefaultEventFeedReader reader = newReader(2, 200);
+        Action read = start(reader);
+        // blocked at the gap of position 2, every read moves the watermark one page further
+        read.apply();
+        read.apply();
+        read.apply();
+        Assertions.assertEquals(List.of(List.of(1L)), handledPages);
+        Thread.sleep(300);
+        read.apply();
+        Assertions.assertEquals(List.of(List.of(1L), List.of(3L, 4L), List.of(6L, 7L), List.of(9L, 10L)), handledPages);
+        Assertions.assertEquals(10, reader.getPosition());
+
+        // a new gap near the head waits for the timeout again
+        append(12);
+        read.apply();
+        Assertions.assertEquals(10, reader.getPosition());
+        Thread.sleep(300);
+        read.apply();
+        Assertions.assertEquals(12, reader.getPosition());
+    }
+
+    @Test
+    public void reading_resumes_from_checkpoint() {
+        append(1, 2, 3, 4, 5);
+        Mockito.when(checkpointStore.getPositionAsync(READER_NAME)).thenReturn(CompletableFuture.completedFuture(3L));
+        DefaultEventFeedReader reader = newReader(10, 5000);
+        Action read = start(reader);
+        Assertions.assertEquals(3, reader.getPosition());
+        read.apply();
+        Assertions.assertEquals(List.of(List.of(4L, 5L)), handledPages);
+        Mockito.verify(eventStore).readAllAsync(3, 10);
+    }
+
+    @Test
+    public void failed_handling_does_not_move_the_checkpoint() {
+        append(1, 2);
+        List<Integer> calls = new ArrayList<>();
+        EventFeedHandler failingOnce = entries -> {
+            calls.add(entries.size());
+            if (calls.size() == 1) {
+                return CompletableFuture.failedFuture(new IllegalStateException("read model is unavailable"));
+            }
+            return CompletableFuture.completedFuture(true);
+        };
+        DefaultEventFeedReader reader = new DefaultEventFeedReader(scheduleService, eventStore, checkpointStore, READER_NAME, failingOnce, 10, 5000, 100);
+        Action read = start(reader);
+        read.apply();
+        Assertions.assertEquals(0, reader.getPosition());
+        Mockito.verify(checkpointStore, Mockito.never()).updatePositionAsync(anyString(), anyLong());
+        read.apply();
+        Assertions.assertEquals(List.of(2, 2), calls);
+        Assertions.assertEquals(2, reader.getPosition());
+    }
+
+    @Test
+    public void event_store_without_feed_fails() {
+        EventStore withoutFeed = Mockito.mock(EventStore.class, Mockito.CALLS_REAL_METHODS);
+        ExecutionException exception = Assertions.assertThrows(ExecutionException.class, () -> withoutFeed.readAllAsync(0, 10).get());
+        Assertions.assertInstanceOf(UnsupportedOperationException.class, exception.getCause());
+    }
+
+    private DefaultEventFeedReader newReader(int batchSize, long gapTimeoutMilliseconds) {
+        return new DefaultEventFeedReader(scheduleService, eventStore, checkpointStore, READER_NAME, eventFeedHandler, batchSize, gapTimeoutMilliseconds, 100);
+    }
+
+    /**
+     * starts the reader and returns its scheduled read task, the test runs it instead of the schedule service
+     */
+    private Action start(DefaultEventFeedReader reader) {
+        reader.start();
+        ArgumentCaptor<Action> captor = ArgumentCaptor.forClass(Action.class);
+        Mockito.verify(scheduleService).startTask(anyString(), captor.capture(), anyInt(), anyInt());
+        return captor.getValue();
+    }
+
+    private void append(long... positions) {
+        for (long position : positions) {
+            feed.add(newEntry(position));
+        }
+    }
+
+    private static EventFeedEntry newEntry(long position) {
+        DomainEventStream eventStream = new DomainEventStream("command" + position, "aggregate" + position, 1, "TestAggregate", new ArrayList<>(), new HashMap<>());
+        return new EventFeedEntry(position, eventStream);
+    }
+}
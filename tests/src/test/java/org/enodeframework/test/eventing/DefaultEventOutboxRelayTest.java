@@ -0,0 +1,151 @@
+package org.enodeframework.test.eventing;
+
+import io.vertx.jdbcclient.JDBCPool;
+import io.vertx.mysqlclient.MySQLPool;
+import org.enodeframework.common.function.Action;
+import org.enodeframework.common.scheduling.ScheduleService;
+import org.enodeframework.common.serializing.SerializeService;
+import org.enodeframework.eventing.DomainEventStream;
+import org.enodeframework.eventing.EventOutboxStore;
+import org.enodeframework.eventing.EventStoreOptions;
+import org.enodeframework.eventing.impl.DefaultEventOutboxRelay;
+import org.enodeframework.jdbc.JDBCEventOutboxStore;
+import org.enodeframework.messaging.MessagePublisher;
+import org.enodeframework.mysql.MySQLEventOutboxStore;
+import org.enodeframework.queue.SendMessageResult;
+import org.enodeframework.test.mock.MockOutboxTable;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+
+public class DefaultEventOutboxRelayTest {
+
+    private final MockOutboxTable outboxTable = new MockOutboxTable();
+
+    private final ScheduleService scheduleService = Mockito.mock(ScheduleService.class);
+
+    private final EventStoreOptions options = Mockito.mock(EventStoreOptions.class);
+
+    private final List<List<String>> publishedBatches = new CopyOnWriteArrayList<>();
+
+    private final AtomicBoolean publishFails = new AtomicBoolean();
+
+    private final MessagePublisher<DomainEventStream> publisher = new MessagePublisher<>() {
+        @Override
+        public CompletableFuture<SendMessageResult> publishAsync(DomainEventStream message) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<List<SendMessageResult>> publishAllAsync(List<? extends DomainEventStream> messages) {
+            if (publishFails.get()) {
+                return CompletableFuture.failedFuture(new IllegalStateException("broker is unavailable"));
+            }
+            publishedBatches.add(namesOf(messages));
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+    };
+
+    @BeforeEach
+    public void setUp() {
+        Mockito.when(options.getOutboxTableName()).thenReturn("event_outbox");
+    }
+
+    @Test
+    public void other_owner_skips_claimed_streams_until_the_lease_expires() throws Exception {
+        insert("a1", "a2", "a3");
+        EventOutboxStore eventOutboxStore = newMySQLStore();
+        Assertions.assertEquals(List.of("a1:1", "a2:1"), claim(eventOutboxStore, "owner1", 2, 60000));
+        Assertions.assertEquals(List.of("a3:1"), claim(eventOutboxStore, "owner2", 10, 60000));
+        Assertions.assertEquals(List.of(), claim(eventOutboxStore, "owner3", 10, 60000));
+        // the owner gets its streams again and renews the lease
+        Assertions.assertEquals(List.of("a1:1", "a2:1"), claim(eventOutboxStore, "owner1", 10, 200));
+        Thread.sleep(300);
+        Assertions.assertEquals(List.of("a1:1", "a2:1"), claim(eventOutboxStore, "owner3", 10, 60000));
+        Assertions.assertEquals(List.of(), claim(eventOutboxStore, "owner1", 10, 60000));
+    }
+
+    @Test
+    public void concurrent_claims_of_the_same_candidates_are_exclusive() throws Exception {
+        insert("a1", "a2", "a3");
+        EventOutboxStore eventOutboxStore = new JDBCEventOutboxStore(outboxTable.pool(JDBCPool.class), options, MockOutboxTable.eventSerializer(), Mockito.mock(SerializeService.class));
+        List<List<String>> claimedByOther = new ArrayList<>();
+        // both owners select the same candidates, the conditional update of the later one misses them
+        outboxTable.beforeNextUpdate(() -> claimedByOther.add(claim(eventOutboxStore, "owner2", 2, 60000)));
+        Assertions.assertEquals(List.of("a3:1"), claim(eventOutboxStore, "owner1", 3, 60000));
+        Assertions.assertEquals(List.of(List.of("a1:1", "a2:1")), claimedByOther);
+    }
+
+    @Test
+    public void failed_publication_keeps_the_streams_claimed() {
+        insert("a1", "a2");
+        EventOutboxStore eventOutboxStore = newMySQLStore();
+        Action relay = start(new DefaultEventOutboxRelay(scheduleService, eventOutboxStore, publisher, 10, 100, 60000));
+        publishFails.set(true);
+        relay.apply();
+        Assertions.assertEquals(List.of("a1", "a2"), outboxTable.aggregateRootIds());
+        // still held by the relay, another relay does not publish them again
+        Assertions.assertEquals(List.of(), claim(eventOutboxStore, "other", 10, 60000));
+
+        publishFails.set(false);
+        relay.apply();
+        Assertions.assertEquals(List.of(List.of("a1:1", "a2:1")), publishedBatches);
+        Assertions.assertEquals(List.of(), outboxTable.aggregateRootIds());
+    }
+
+    @Test
+    public void full_batch_is_followed_by_the_next_claim() {
+        insert("a1", "a2", "a3", "a4", "a5");
+        Action relay = start(new DefaultEventOutboxRelay(scheduleService, newMySQLStore(), publisher, 2, 100, 60000));
+        relay.apply();
+        Assertions.assertEquals(List.of(List.of("a1:1", "a2:1"), List.of("a3:1", "a4:1"), List.of("a5:1")), publishedBatches);
+        Assertions.assertEquals(List.of(), outboxTable.aggregateRootIds());
+        relay.apply();
+        Assertions.assertEquals(3, publishedBatches.size());
+    }
+
+    private EventOutboxStore newMySQLStore() {
+        return new MySQLEventOutboxStore(outboxTable.pool(MySQLPool.class), options, MockOutboxTable.eventSerializer(), Mockito.mock(SerializeService.class));
+    }
+
+    /**
+     * starts the relay and returns its scheduled task, the test runs it instead of the schedule service
+     */
+    private Action start(DefaultEventOutboxRelay relay) {
+        relay.start();
+        ArgumentCaptor<Action> captor = ArgumentCaptor.forClass(Action.class);
+        Mockito.verify(scheduleService).startTask(anyString(), captor.capture(), anyInt(), anyInt());
+        return captor.getValue();
+    }
+
+    private void insert(String... aggregateRootIds) {
+        for (String aggregateRootId : aggregateRootIds) {
+            outboxTable.insert(aggregateRootId, 1);
+        }
+    }
+
+    private static List<String> claim(EventOutboxStore eventOutboxStore, String owner, int maxCount, long leaseMilliseconds) {
+        try {
+            return namesOf(eventOutboxStore.claimAsync(owner, maxCount, leaseMilliseconds).get(5, TimeUnit.SECONDS));
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static List<String> namesOf(List<? extends DomainEventStream> eventStreams) {
+        return eventStreams.stream().map(x -> x.getAggregateRootId() + ":" + x.getVersion()).collect(Collectors.toList());
+    }
+}
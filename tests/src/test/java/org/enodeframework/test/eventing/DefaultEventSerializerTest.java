@@ -0,0 +1,163 @@
+package org.enodeframework.test.eventing;
+
+import org.enodeframework.common.exception.EnodeException;
+import org.enodeframework.common.serializing.DefaultSerializeService;
+import org.enodeframework.common.serializing.SerializeService;
+import org.enodeframework.eventing.DomainEventMessage;
+import org.enodeframework.eventing.impl.DefaultEventCompressor;
+import org.enodeframework.eventing.impl.DefaultEventSerializer;
+import org.enodeframework.infrastructure.impl.DefaultTypeNameProvider;
+import org.enodeframework.test.domain.Event1;
+import org.enodeframework.test.domain.TestAggregateCreated;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+public class DefaultEventSerializerTest {
+
+    private static final byte MAGIC = (byte) 0xEE;
+
+    private final SerializeService serializeService = new DefaultSerializeService();
+
+    private final DefaultEventSerializer eventSerializer = new DefaultEventSerializer(new DefaultTypeNameProvider(new HashMap<>()), serializeService);
+
+    @Test
+    public void binary_round_trip() {
+        List<DomainEventMessage> events = List.of(newCreated("first", 1), newEvent1(2), newCreated("标题", 3));
+        byte[] record = eventSerializer.serializeBytes(events);
+        Assertions.assertEquals(MAGIC, record[0]);
+        assertSameEvents(events, eventSerializer.deserializeBytes(record));
+    }
+
+    @Test
+    public void repeated_type_names_are_written_once() {
+        List<DomainEventMessage> events = List.of(newCreated("first", 1), newCreated("second", 2), newCreated("third", 3));
+        byte[] record = eventSerializer.serializeBytes(events);
+        byte[] typeName = TestAggregateCreated.class.getName().getBytes(StandardCharsets.UTF_8);
+        Assertions.assertEquals(1, occurrences(record, typeName));
+        assertSameEvents(events, eventSerializer.deserializeBytes(record));
+    }
+
+    @Test
+    public void legacy_json_is_readable() {
+        List<DomainEventMessage> events = List.of(newCreated("first", 1), newEvent1(1));
+        byte[] json = serializeService.serialize(eventSerializer.serialize(events)).getBytes(StandardCharsets.UTF_8);
+        Assertions.assertEquals('{', json[0]);
+        assertSameEvents(events, eventSerializer.deserializeBytes(json));
+    }
+
+    @Test
+    public void compressed_record_round_trip() {
+        DefaultEventSerializer compressing = new DefaultEventSerializer(new DefaultTypeNameProvider(new HashMap<>()), serializeService, new DefaultEventCompressor(16, Map.of(), Deflater.DEFAULT_COMPRESSION));
+        List<DomainEventMessage> events = List.of(newCreated("first", 1), newCreated("first", 2), newCreated("first", 3));
+        byte[] record = compressing.serializeBytes(events);
+        Assertions.assertTrue(record.length < eventSerializer.serializeBytes(events).length);
+        assertSameEvents(events, compressing.deserializeBytes(record));
+        // the uncompressed serializer reads it as well, compression only depends on the flag in the header
+        assertSameEvents(events, eventSerializer.deserializeBytes(record));
+    }
+
+    @Test
+    public void unsupported_version_is_rejected() {
+        byte[] record = eventSerializer.serializeBytes(List.of(newEvent1(1)));
+        record[1] = 2;
+        EnodeException exception = Assertions.assertThrows(EnodeException.class, () -> eventSerializer.deserializeBytes(record));
+        Assertions.assertTrue(exception.getMessage().contains("version"), exception.getMessage());
+    }
+
+    @Test
+    public void truncated_record_is_rejected() {
+        byte[] record = eventSerializer.serializeBytes(List.of(newCreated("first", 1), newEvent1(2)));
+        for (int length = 1; length < record.length; length++) {
+            byte[] truncated = Arrays.copyOf(record, length);
+            Assertions.assertThrows(EnodeException.class, () -> eventSerializer.deserializeBytes(truncated), "length " + length);
+        }
+        byte[] trailing = Arrays.copyOf(record, record.length + 1);
+        Assertions.assertThrows(EnodeException.class, () -> eventSerializer.deserializeBytes(trailing));
+    }
+
+    @Test
+    public void corrupted_lengths_are_rejected() {
+        byte[] typeName = Event1.class.getName().getBytes(StandardCharsets.UTF_8);
+        byte[] payload = serializeService.serializeBytes(newEvent1(1));
+        // type index 1 refers past the single entry of the type name table
+        assertRejected(record(1, typeName.length, typeName, 1, 1, payload.length, payload));
+        // more type names than there are bytes left, must not allocate the array
+        assertRejected(record(0x7FFFFFFF));
+        // payload length past the end of the record
+        assertRejected(record(1, typeName.length, typeName, 1, 0, payload.length + 1, payload));
+        // varint without a terminating byte
+        assertRejected(new byte[]{MAGIC, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 1});
+        // compressed record claiming an original length far beyond the deflate ratio
+        assertRejected(new byte[]{MAGIC, (byte) 0x81, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F, 1, 2, 3});
+    }
+
+    private void assertRejected(byte[] record) {
+        Assertions.assertThrows(EnodeException.class, () -> eventSerializer.deserializeBytes(record));
+    }
+
+    /**
+     * builds a binary record, int values are written as varints and byte arrays as they are
+     */
+    private static byte[] record(Object... parts) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(MAGIC);
+        output.write(1);
+        for (Object part : parts) {
+            if (part instanceof byte[]) {
+                output.writeBytes((byte[]) part);
+                continue;
+            }
+            int value = (Integer) part;
+            while ((value & ~0x7F) != 0) {
+                output.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            output.write(value);
+        }
+        return output.toByteArray();
+    }
+
+    private static int occurrences(byte[] data, byte[] value) {
+        int count = 0;
+        for (int i = 0; i + value.length <= data.length; i++) {
+            if (Arrays.equals(data, i, i + value.length, value, 0, value.length)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void assertSameEvents(List<DomainEventMessage> expected, List<DomainEventMessage> actual) {
+        Assertions.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assertions.assertEquals(expected.get(i).getClass(), actual.get(i).getClass());
+            Assertions.assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            Assertions.assertEquals(expected.get(i).getVersion(), actual.get(i).getVersion());
+            if (expected.get(i) instanceof TestAggregateCreated) {
+                Assertions.assertEquals(((TestAggregateCreated) expected.get(i)).getTitle(), ((TestAggregateCreated) actual.get(i)).getTitle());
+            }
+        }
+    }
+
+    private static TestAggregateCreated newCreated(String title, int version) {
+        TestAggregateCreated event = new TestAggregateCreated(title);
+        event.setAggregateRootId("aggregate");
+        event.setVersion(version);
+        return event;
+    }
+
+    private static Event1 newEvent1(int version) {
+        Event1 event = new Event1();
+        event.setAggregateRootId("aggregate");
+        event.setVersion(version);
+        return event;
+    }
+}
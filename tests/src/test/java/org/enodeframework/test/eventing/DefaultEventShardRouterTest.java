@@ -0,0 +1,116 @@
+package org.enodeframework.test.eventing;
+
+import org.enodeframework.common.exception.EnodeException;
+import org.enodeframework.common.exception.IORuntimeException;
+import org.enodeframework.common.function.Action;
+import org.enodeframework.common.scheduling.ScheduleService;
+import org.enodeframework.eventing.EventShardBucket;
+import org.enodeframework.eventing.EventShardMapStore;
+import org.enodeframework.eventing.impl.DefaultEventShardRouter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+
+public class DefaultEventShardRouterTest {
+
+    private static final int BUCKET_COUNT = 4;
+
+    private final ScheduleService scheduleService = Mockito.mock(ScheduleService.class);
+
+    private final EventShardMapStore eventShardMapStore = Mockito.mock(EventShardMapStore.class);
+
+    @Test
+    public void bucket_of_matches_crc32() {
+        // the check value of crc32, the same as SELECT CRC32('123456789') % 1024 in MySQL
+        Assertions.assertEquals(3421780262L % 1024, DefaultEventShardRouter.bucketOf("123456789", 1024));
+        Assertions.assertEquals(294, DefaultEventShardRouter.bucketOf("123456789", 1024));
+        Assertions.assertEquals(0, DefaultEventShardRouter.bucketOf("123456789", 1));
+        for (int i = 0; i < 1000; i++) {
+            String aggregateRootId = "聚合根-" + i;
+            CRC32 crc32 = new CRC32();
+            crc32.update(aggregateRootId.getBytes(StandardCharsets.UTF_8));
+            int bucket = DefaultEventShardRouter.bucketOf(aggregateRootId, 1024);
+            Assertions.assertTrue(bucket >= 0 && bucket < 1024, aggregateRootId);
+            Assertions.assertEquals(crc32.getValue() % 1024, bucket);
+        }
+    }
+
+    @Test
+    public void frozen_bucket_is_routed_but_not_writable() {
+        String frozenId = idOfBucket(1);
+        String otherId = idOfBucket(2);
+        Mockito.when(eventShardMapStore.loadAsync()).thenReturn(CompletableFuture.completedFuture(shardMap(1)));
+        DefaultEventShardRouter router = new DefaultEventShardRouter(scheduleService, eventShardMapStore, BUCKET_COUNT, 10000);
+        router.start();
+        Assertions.assertEquals("shard1", router.route(frozenId));
+        Assertions.assertFalse(router.isWritable(frozenId));
+        Assertions.assertEquals("shard2", router.route(otherId));
+        Assertions.assertTrue(router.isWritable(otherId));
+    }
+
+    @Test
+    public void incomplete_map_is_rejected() {
+        Map<Integer, EventShardBucket> shardMap = shardMap(-1);
+        shardMap.remove(3);
+        Mockito.when(eventShardMapStore.loadAsync()).thenReturn(CompletableFuture.completedFuture(shardMap));
+        DefaultEventShardRouter router = new DefaultEventShardRouter(scheduleService, eventShardMapStore, BUCKET_COUNT, 10000);
+        Assertions.assertThrows(EnodeException.class, () -> router.route("aggregate"));
+        Assertions.assertThrows(EnodeException.class, router::start);
+    }
+
+    @Test
+    public void stale_map_is_not_writable_until_refreshed() throws Exception {
+        String aggregateRootId = idOfBucket(1);
+        Mockito.when(eventShardMapStore.loadAsync()).thenReturn(CompletableFuture.completedFuture(shardMap(-1)));
+        DefaultEventShardRouter router = new DefaultEventShardRouter(scheduleService, eventShardMapStore, BUCKET_COUNT, 10000, 50);
+        router.start();
+        ArgumentCaptor<Action> refresh = ArgumentCaptor.forClass(Action.class);
+        Mockito.verify(scheduleService).startTask(anyString(), refresh.capture(), anyInt(), anyInt());
+        Assertions.assertTrue(router.isWritable(aggregateRootId));
+
+        // a failed refresh keeps the previous map, but it may miss a frozen bucket after a while
+        Mockito.when(eventShardMapStore.loadAsync()).thenReturn(CompletableFuture.failedFuture(new IORuntimeException("unavailable")));
+        refresh.getValue().apply();
+        Thread.sleep(100);
+        Assertions.assertEquals("shard1", router.route(aggregateRootId));
+        Assertions.assertFalse(router.isWritable(aggregateRootId));
+
+        // the moved bucket is unfrozen on another shard
+        Map<Integer, EventShardBucket> moved = shardMap(-1);
+        moved.put(1, new EventShardBucket("shard4", false));
+        Mockito.when(eventShardMapStore.loadAsync()).thenReturn(CompletableFuture.completedFuture(moved));
+        refresh.getValue().apply();
+        Assertions.assertEquals("shard4", router.route(aggregateRootId));
+        Assertions.assertTrue(router.isWritable(aggregateRootId));
+        router.stop();
+        Mockito.verify(scheduleService).stopTask(any());
+    }
+
+    private static Map<Integer, EventShardBucket> shardMap(int frozenBucket) {
+        Map<Integer, EventShardBucket> shardMap = new HashMap<>();
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            shardMap.put(bucket, new EventShardBucket("shard" + bucket, bucket == frozenBucket));
+        }
+        return shardMap;
+    }
+
+    private static String idOfBucket(int bucket) {
+        for (int i = 0; ; i++) {
+            String aggregateRootId = "aggregate" + i;
+            if (DefaultEventShardRouter.bucketOf(aggregateRootId, BUCKET_COUNT) == bucket) {
+                return aggregateRootId;
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package org.enodeframework.test.eventing;
+
+import kotlinx.coroutines.Dispatchers;
+import org.enodeframework.commanding.CommandExecuteContext;
+import org.enodeframework.commanding.ProcessingCommand;
+import org.enodeframework.eventing.DomainEventStream;
+import org.enodeframework.eventing.EventCommittingContext;
+import org.enodeframework.eventing.EventCommittingContextMailBox;
+import org.enodeframework.queue.MessageFlowController;
+import org.enodeframework.test.command.ChangeNothingCommand;
+import org.enodeframework.test.domain.Event1;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class EventCommittingContextMailBoxTest {
+
+    /**
+     * the batches handed to the mailbox action, a run stays in progress until the test completes it
+     */
+    private final BlockingQueue<List<EventCommittingContext>> batches = new LinkedBlockingQueue<>();
+
+    @Test
+    public void stale_context_is_not_persisted_after_release() throws Exception {
+        EventCommittingContextMailBox mailBox = newMailBox(10, 0);
+        // keeps the mailbox running, so that the following contexts stay queued
+        mailBox.enqueueMessage(newContext("other", "o-1", 1));
+        Assertions.assertEquals(List.of("o-1"), commandIdsOf(nextBatch()));
+
+        EventCommittingContext stale = newContext("aggregate", "c-2", 2);
+        mailBox.enqueueMessage(stale);
+        // a version conflict of the aggregate is handled, and the command mailbox replays the command before the stale context is polled
+        mailBox.quarantineAggregate("aggregate");
+        Assertions.assertEquals(0, mailBox.getStatistics().getQueueDepth());
+        mailBox.releaseAggregate("aggregate");
+        EventCommittingContext replayed = newContext("aggregate", "c-2-replayed", 2);
+        Assertions.assertEquals(stale.getEventStream().getId(), replayed.getEventStream().getId());
+        mailBox.enqueueMessage(replayed);
+        Assertions.assertEquals(1, mailBox.getStatistics().getQueueDepth());
+
+        mailBox.completeRun();
+        Assertions.assertEquals(List.of("c-2-replayed"), commandIdsOf(nextBatch()));
+        mailBox.completeRun();
+        Assertions.assertNull(batches.poll(100, TimeUnit.MILLISECONDS));
+        Assertions.assertEquals(0, mailBox.getStatistics().getQueueDepth());
+        Assertions.assertFalse(mailBox.hasUnfinishedMessages("aggregate"));
+    }
+
+    @Test
+    public void quarantine_drops_queued_contexts_beyond_one_batch() throws Exception {
+        EventCommittingContextMailBox mailBox = newMailBox(2, 0);
+        mailBox.enqueueMessage(newContext("other", "o-1", 1));
+        nextBatch();
+        for (int version = 2; version <= 6; version++) {
+            mailBox.enqueueMessage(newContext("aggregate", "c-" + version, version));
+        }
+        mailBox.enqueueMessage(newContext("other", "o-2", 2));
+        mailBox.quarantineAggregate("aggregate");
+        Assertions.assertEquals(1, mailBox.getStatistics().getQueueDepth());
+        mailBox.releaseAggregate("aggregate");
+        mailBox.enqueueMessage(newContext("aggregate", "c-2-replayed", 2));
+
+        mailBox.completeRun();
+        Assertions.assertEquals(List.of("o-2", "c-2-replayed"), commandIdsOf(nextBatch()));
+        mailBox.completeRun();
+        Assertions.assertNull(batches.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void only_polled_aggregates_stay_unfinished_during_a_run() throws Exception {
+        EventCommittingContextMailBox mailBox = newMailBox(10, 0);
+        mailBox.enqueueMessage(newContext("aggregate", "c-1", 1));
+        Assertions.assertEquals(List.of("c-1"), commandIdsOf(nextBatch()));
+        // the polled context has left the queue, the aggregate is still claimed by the run
+        Assertions.assertTrue(mailBox.hasUnfinishedMessages("aggregate"));
+        // an aggregate without contexts in this mailbox can be routed to another one
+        Assertions.assertFalse(mailBox.hasUnfinishedMessages("other"));
+        mailBox.enqueueMessage(newContext("other", "o-1", 1));
+        Assertions.assertTrue(mailBox.hasUnfinishedMessages("other"));
+
+        mailBox.completeRun();
+        Assertions.assertEquals(List.of("o-1"), commandIdsOf(nextBatch()));
+        Assertions.assertFalse(mailBox.hasUnfinishedMessages("aggregate"));
+        Assertions.assertTrue(mailBox.hasUnfinishedMessages("other"));
+        mailBox.completeRun();
+        Assertions.assertFalse(mailBox.hasUnfinishedMessages("other"));
+    }
+
+    @Test
+    public void drained_mailbox_retires_and_rejects_contexts() throws Exception {
+        EventCommittingContextMailBox mailBox = newMailBox(10, 0);
+        mailBox.enqueueMessage(newContext("aggregate", "c-1", 1));
+        nextBatch();
+        mailBox.enqueueMessage(newContext("aggregate", "c-2", 2));
+        Assertions.assertFalse(mailBox.tryRetire());
+        mailBox.completeRun();
+        nextBatch();
+        Assertions.assertFalse(mailBox.tryRetire());
+        mailBox.completeRun();
+        Assertions.assertTrue(mailBox.tryRetire());
+        Assertions.assertFalse(mailBox.enqueueMessage(newContext("aggregate", "c-3", 3)));
+        Assertions.assertFalse(mailBox.enqueueMessages(List.of(newContext("other", "o-1", 1))));
+        Assertions.assertFalse(mailBox.hasUnfinishedMessages("aggregate"));
+        Assertions.assertNull(batches.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void concurrent_commits_are_coalesced_during_the_linger() throws Exception {
+        EventCommittingContextMailBox mailBox = newMailBox(10, 1000);
+        // the mailbox lingers half of the measured batch latency, 200 milliseconds here
+        measureBatchLatency(mailBox, 2000);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int i = 1; i <= 3; i++) {
+                String aggregateRootId = "aggregate" + i;
+                executor.execute(() -> mailBox.enqueueMessage(newContext(aggregateRootId, aggregateRootId + "-2", 2)));
+            }
+            List<String> commandIds = new ArrayList<>(commandIdsOf(nextBatch()));
+            commandIds.sort(String::compareTo);
+            Assertions.assertEquals(List.of("aggregate1-2", "aggregate2-2", "aggregate3-2"), commandIds);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void full_batch_is_not_lingered() throws Exception {
+        EventCommittingContextMailBox mailBox = newMailBox(3, 1000);
+        measureBatchLatency(mailBox, 2000);
+        for (int i = 1; i <= 3; i++) {
+            mailBox.enqueueMessage(newContext("aggregate" + i, "c-" + i, 2));
+        }
+        List<EventCommittingContext> batch = batches.poll(100, TimeUnit.MILLISECONDS);
+        Assertions.assertNotNull(batch, "the full batch waited for the linger");
+        Assertions.assertEquals(3, batch.size());
+        mailBox.completeRun();
+        Assertions.assertNull(batches.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void zero_linger_runs_at_once() throws Exception {
+        EventCommittingContextMailBox mailBox = newMailBox(10, 0);
+        measureBatchLatency(mailBox, 2000);
+        mailBox.enqueueMessage(newContext("aggregate1", "c-1", 2));
+        Thread.sleep(100);
+        mailBox.enqueueMessage(newContext("aggregate2", "c-2", 2));
+        // the first context is handled alone, the second one waits for the run to complete
+        Assertions.assertEquals(List.of("c-1"), commandIdsOf(nextBatch()));
+        Assertions.assertNull(batches.poll(100, TimeUnit.MILLISECONDS));
+        mailBox.completeRun();
+        Assertions.assertEquals(List.of("c-2"), commandIdsOf(nextBatch()));
+    }
+
+    /**
+     * runs one batch taking the given time, the measured latency decides how long the following batches linger
+     */
+    private void measureBatchLatency(EventCommittingContextMailBox mailBox, long latencyMillis) throws InterruptedException {
+        mailBox.enqueueMessage(newContext("warm-up", "w-1", 1));
+        nextBatch();
+        Thread.sleep(latencyMillis);
+        mailBox.completeRun();
+    }
+
+    private EventCommittingContextMailBox newMailBox(int batchSize, long maxLingerMilliseconds) {
+        return new EventCommittingContextMailBox(0, batchSize, maxLingerMilliseconds, Dispatchers.getDefault(), new MessageFlowController(), batches::add);
+    }
+
+    private List<EventCommittingContext> nextBatch() throws InterruptedException {
+        List<EventCommittingContext> batch = batches.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(batch, "no batch handled in time");
+        return batch;
+    }
+
+    private static List<String> commandIdsOf(List<EventCommittingContext> batch) {
+        return batch.stream().map(x -> x.getEventStream().getCommandId()).toList();
+    }
+
+    private static EventCommittingContext newContext(String aggregateRootId, String commandId, int version) {
+        Event1 event = new Event1();
+        event.setAggregateRootId(aggregateRootId);
+        event.setVersion(version);
+        DomainEventStream eventStream = new DomainEventStream(commandId, aggregateRootId, "TestAggregate", new Date(), List.of(event), new HashMap<>());
+        ProcessingCommand processingCommand = new ProcessingCommand(new ChangeNothingCommand(), Mockito.mock(CommandExecuteContext.class), new HashMap<>());
+        return new EventCommittingContext(eventStream, processingCommand);
+    }
+}
@@ -0,0 +1,133 @@
+package org.enodeframework.test.eventing;
+
+import io.vertx.core.Future;
+import io.vertx.mysqlclient.MySQLException;
+import io.vertx.mysqlclient.MySQLPool;
+import io.vertx.sqlclient.PreparedQuery;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.SqlConnection;
+import io.vertx.sqlclient.Tuple;
+import org.enodeframework.common.serializing.SerializeService;
+import org.enodeframework.eventing.DomainEventStream;
+import org.enodeframework.eventing.EventAppendMode;
+import org.enodeframework.eventing.EventAppendResult;
+import org.enodeframework.eventing.EventSerializer;
+import org.enodeframework.eventing.EventStorageFormat;
+import org.enodeframework.eventing.EventStoreOptions;
+import org.enodeframework.mysql.MySQLEventStore;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+
+public class MySQLEventStoreTest {
+
+    private static final String VERSION_UK_NAME = "uk_aggregate_root_id_version";
+
+    private static final String COMMAND_ID_UK_NAME = "uk_aggregate_root_id_command_id";
+
+    /**
+     * the aggregate ids of every transaction, in the order they are executed
+     */
+    private final List<List<String>> transactions = new CopyOnWriteArrayList<>();
+
+    /**
+     * the unique index violated by a transaction containing the aggregate
+     */
+    private final Map<String, String> conflicts = new HashMap<>();
+
+    private MySQLEventStore eventStore;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        PreparedQuery<RowSet<Row>> preparedQuery = Mockito.mock(PreparedQuery.class);
+        Mockito.when(preparedQuery.executeBatch(anyList())).thenAnswer(invocation -> {
+            List<Tuple> tuples = invocation.getArgument(0);
+            List<String> aggregateRootIds = tuples.stream().map(x -> x.getString(0)).toList();
+            transactions.add(aggregateRootIds);
+            // the whole transaction is rolled back by the first violated unique index
+            for (String aggregateRootId : aggregateRootIds) {
+                String ukName = conflicts.get(aggregateRootId);
+                if (ukName != null) {
+                    return Future.failedFuture(new MySQLException("Duplicate entry 'command-" + aggregateRootId + "' for key '" + ukName + "'", 1062, "23000"));
+                }
+            }
+            return Future.succeededFuture(Mockito.mock(RowSet.class));
+        });
+        SqlConnection connection = Mockito.mock(SqlConnection.class);
+        Mockito.when(connection.preparedQuery(anyString())).thenReturn(preparedQuery);
+        MySQLPool sqlClient = Mockito.mock(MySQLPool.class);
+        Mockito.when(sqlClient.withTransaction(any(Function.class))).thenAnswer(invocation -> {
+            Function<SqlConnection, Future<?>> function = invocation.getArgument(0);
+            return function.apply(connection);
+        });
+        EventStoreOptions options = Mockito.mock(EventStoreOptions.class);
+        Mockito.when(options.getEventTableName()).thenReturn("event_stream");
+        Mockito.when(options.getEventVersionUkName()).thenReturn(VERSION_UK_NAME);
+        Mockito.when(options.getEventCommandIdUkName()).thenReturn(COMMAND_ID_UK_NAME);
+        Mockito.when(options.getAppendMode()).thenReturn(EventAppendMode.SingleTransaction);
+        Mockito.when(options.getStorageFormat()).thenReturn(EventStorageFormat.Json);
+        Mockito.when(options.seekCommandId(anyString())).thenAnswer(invocation -> {
+            String message = invocation.getArgument(0);
+            return message.substring(message.indexOf('\'') + 1, message.indexOf('\'', message.indexOf('\'') + 1));
+        });
+        eventStore = new MySQLEventStore(sqlClient, options, Mockito.mock(EventSerializer.class), Mockito.mock(SerializeService.class));
+    }
+
+    @Test
+    public void conflicting_aggregate_is_isolated_by_bisecting_the_transaction() throws Exception {
+        conflicts.put("a3", VERSION_UK_NAME);
+        EventAppendResult result = eventStore.batchAppendAsync(newEventStreams("a1", "a2", "a3", "a4", "a5")).get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(List.of("a1", "a2", "a4", "a5"), sorted(result.getSuccessAggregateRootIdList()));
+        Assertions.assertEquals(List.of("a3"), result.getDuplicateEventAggregateRootIdList());
+        Assertions.assertTrue(result.getDuplicateCommandAggregateRootIdList().isEmpty());
+        // the halves without the conflict are still written in one transaction each
+        Assertions.assertEquals(List.of(
+            List.of("a1", "a2", "a3", "a4", "a5"), List.of("a1", "a2"), List.of("a3", "a4", "a5"), List.of("a3"), List.of("a4", "a5")
+        ), transactions);
+    }
+
+    @Test
+    public void duplicate_command_is_reported_for_its_aggregate_only() throws Exception {
+        conflicts.put("a2", COMMAND_ID_UK_NAME);
+        EventAppendResult result = eventStore.batchAppendAsync(newEventStreams("a1", "a2", "a3", "a4")).get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(List.of("a1", "a3", "a4"), sorted(result.getSuccessAggregateRootIdList()));
+        Assertions.assertTrue(result.getDuplicateEventAggregateRootIdList().isEmpty());
+        Assertions.assertEquals(Map.of("a2", List.of("command-a2")), result.getDuplicateCommandAggregateRootIdList());
+    }
+
+    @Test
+    public void batch_without_conflict_is_written_in_one_transaction() throws Exception {
+        EventAppendResult result = eventStore.batchAppendAsync(newEventStreams("a1", "a2", "a3")).get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(List.of("a1", "a2", "a3"), sorted(result.getSuccessAggregateRootIdList()));
+        Assertions.assertEquals(List.of(List.of("a1", "a2", "a3")), transactions);
+    }
+
+    private static List<String> sorted(List<String> aggregateRootIds) {
+        List<String> sorted = new ArrayList<>(aggregateRootIds);
+        sorted.sort(String::compareTo);
+        return sorted;
+    }
+
+    private static List<DomainEventStream> newEventStreams(String... aggregateRootIds) {
+        List<DomainEventStream> eventStreams = new ArrayList<>();
+        for (String aggregateRootId : aggregateRootIds) {
+            eventStreams.add(new DomainEventStream("command-" + aggregateRootId, aggregateRootId, 2, "TestAggregate", new ArrayList<>(), new HashMap<>()));
+        }
+        return eventStreams;
+    }
+}
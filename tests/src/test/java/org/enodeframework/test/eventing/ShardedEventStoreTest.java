@@ -0,0 +1,142 @@
+package org.enodeframework.test.eventing;
+
+import org.enodeframework.common.exception.IORuntimeException;
+import org.enodeframework.eventing.DomainEventStream;
+import org.enodeframework.eventing.EventAppendResult;
+import org.enodeframework.eventing.EventShardRouter;
+import org.enodeframework.eventing.EventStore;
+import org.enodeframework.eventing.impl.ShardedEventStore;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+
+public class ShardedEventStoreTest {
+
+    private final EventStore shardA = Mockito.mock(EventStore.class);
+
+    private final EventStore shardB = Mockito.mock(EventStore.class);
+
+    private final EventShardRouter eventShardRouter = Mockito.mock(EventShardRouter.class);
+
+    private final Map<String, String> movedAggregateRoots = new ConcurrentHashMap<>();
+
+    private ShardedEventStore eventStore;
+
+    @BeforeEach
+    public void setUp() {
+        // aggregate ids starting with the shard name are routed to that shard, unless they are moved
+        Mockito.when(eventShardRouter.route(anyString())).thenAnswer(invocation -> {
+            String aggregateRootId = invocation.getArgument(0);
+            return movedAggregateRoots.getOrDefault(aggregateRootId, aggregateRootId.substring(0, 1));
+        });
+        Mockito.when(eventShardRouter.isWritable(anyString())).thenReturn(true);
+        Mockito.when(shardA.batchAppendAsync(anyList())).thenAnswer(invocation -> CompletableFuture.completedFuture(successOf(invocation.getArgument(0))));
+        Mockito.when(shardB.batchAppendAsync(anyList())).thenAnswer(invocation -> CompletableFuture.completedFuture(successOf(invocation.getArgument(0))));
+        Map<String, EventStore> shards = new HashMap<>();
+        shards.put("a", shardA);
+        shards.put("b", shardB);
+        eventStore = new ShardedEventStore(shards, eventShardRouter, 10);
+    }
+
+    @Test
+    public void single_shard_batch_is_passed_through() throws Exception {
+        List<DomainEventStream> eventStreams = List.of(newEventStream("a1", 1), newEventStream("a2", 1));
+        EventAppendResult result = eventStore.batchAppendAsync(eventStreams).get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(List.of("a1", "a2"), result.getSuccessAggregateRootIdList());
+        Mockito.verify(shardA).batchAppendAsync(eventStreams);
+        Mockito.verifyNoInteractions(shardB);
+    }
+
+    @Test
+    public void shard_results_are_merged() throws Exception {
+        EventAppendResult resultA = new EventAppendResult();
+        resultA.addSuccessAggregateRootId("a1");
+        resultA.addDuplicateEventAggregateRootId("a2");
+        EventAppendResult resultB = new EventAppendResult();
+        resultB.addSuccessAggregateRootId("b1");
+        resultB.addDuplicateCommandIds("b2", List.of("command"));
+        Mockito.when(shardA.batchAppendAsync(anyList())).thenReturn(CompletableFuture.completedFuture(resultA));
+        Mockito.when(shardB.batchAppendAsync(anyList())).thenReturn(CompletableFuture.completedFuture(resultB));
+        List<DomainEventStream> eventStreams = List.of(newEventStream("a1", 1), newEventStream("b1", 1), newEventStream("a2", 2), newEventStream("b2", 3));
+        EventAppendResult result = eventStore.batchAppendAsync(eventStreams).get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(List.of("a1", "b1"), sorted(result.getSuccessAggregateRootIdList()));
+        Assertions.assertEquals(List.of("a2"), result.getDuplicateEventAggregateRootIdList());
+        Assertions.assertEquals(Map.of("b2", List.of("command")), result.getDuplicateCommandAggregateRootIdList());
+        Mockito.verify(shardA).batchAppendAsync(List.of(eventStreams.get(0), eventStreams.get(2)));
+        Mockito.verify(shardB).batchAppendAsync(List.of(eventStreams.get(1), eventStreams.get(3)));
+    }
+
+    @Test
+    public void only_the_failed_shard_is_retried() throws Exception {
+        AtomicBoolean failed = new AtomicBoolean();
+        Mockito.when(shardB.batchAppendAsync(anyList())).thenAnswer(invocation -> {
+            if (failed.compareAndSet(false, true)) {
+                return CompletableFuture.failedFuture(new IORuntimeException("shard b is unavailable"));
+            }
+            return CompletableFuture.completedFuture(successOf(invocation.getArgument(0)));
+        });
+        List<DomainEventStream> eventStreams = List.of(newEventStream("a1", 1), newEventStream("b1", 1), newEventStream("b1", 2), newEventStream("a2", 1));
+        EventAppendResult result = eventStore.batchAppendAsync(eventStreams).get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(List.of("a1", "a2", "b1"), sorted(result.getSuccessAggregateRootIdList()));
+        Mockito.verify(shardA, Mockito.times(1)).batchAppendAsync(anyList());
+        ArgumentCaptor<List<DomainEventStream>> captor = captorOfEventStreams();
+        Mockito.verify(shardB, Mockito.times(2)).batchAppendAsync(captor.capture());
+        // the retry keeps the order of the versions
+        for (List<DomainEventStream> appended : captor.getAllValues()) {
+            Assertions.assertEquals(List.of(eventStreams.get(1), eventStreams.get(2)), appended);
+        }
+    }
+
+    @Test
+    public void frozen_bucket_is_appended_after_unfrozen() throws Exception {
+        AtomicBoolean frozen = new AtomicBoolean(true);
+        Mockito.when(eventShardRouter.isWritable(anyString())).thenAnswer(invocation -> !frozen.get() || !invocation.getArgument(0).equals("b1"));
+        List<DomainEventStream> eventStreams = List.of(newEventStream("a1", 1), newEventStream("b1", 1), newEventStream("b2", 1));
+        CompletableFuture<EventAppendResult> future = eventStore.batchAppendAsync(eventStreams);
+        Mockito.verify(shardB, Mockito.timeout(5000)).batchAppendAsync(List.of(eventStreams.get(2)));
+        Thread.sleep(50);
+        Assertions.assertFalse(future.isDone());
+        // the bucket is moved to shard a
+        movedAggregateRoots.put("b1", "a");
+        frozen.set(false);
+        EventAppendResult result = future.get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(List.of("a1", "b1", "b2"), sorted(result.getSuccessAggregateRootIdList()));
+        Mockito.verify(shardA).batchAppendAsync(List.of(eventStreams.get(1)));
+        Mockito.verify(shardB, Mockito.times(1)).batchAppendAsync(anyList());
+    }
+
+    private static List<String> sorted(List<String> aggregateRootIds) {
+        List<String> sorted = new ArrayList<>(aggregateRootIds);
+        sorted.sort(String::compareTo);
+        return sorted;
+    }
+
+    private static EventAppendResult successOf(List<DomainEventStream> eventStreams) {
+        EventAppendResult result = new EventAppendResult();
+        eventStreams.forEach(x -> result.addSuccessAggregateRootId(x.getAggregateRootId()));
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<List<DomainEventStream>> captorOfEventStreams() {
+        return ArgumentCaptor.forClass(List.class);
+    }
+
+    private static DomainEventStream newEventStream(String aggregateRootId, int version) {
+        return new DomainEventStream("command-" + aggregateRootId + "-" + version, aggregateRootId, version, "TestAggregate", new ArrayList<>(), new HashMap<>());
+    }
+}
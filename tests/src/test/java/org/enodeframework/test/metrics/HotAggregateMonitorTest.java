@@ -0,0 +1,123 @@
+package org.enodeframework.test.metrics;
+
+import com.codahale.metrics.Clock;
+import org.enodeframework.common.extensions.AggregateHotspotMonitor;
+import org.enodeframework.metrics.HotAggregateMonitor;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class HotAggregateMonitorTest {
+
+    private static final String COMPONENT = AggregateHotspotMonitor.EVENT_COMMITTING;
+
+    private final ManualClock clock = new ManualClock();
+
+    @Test
+    public void heavy_hitter_survives_eviction() {
+        // the top aggregate is kept in 4 counters
+        HotAggregateMonitor monitor = newMonitor(1);
+        for (int i = 0; i < 10; i++) {
+            monitor.onMessageEnqueued(COMPONENT, "hot", 0);
+            monitor.onMessageEnqueued(COMPONENT, "cold-" + i, 0);
+            monitor.onMessageEnqueued(COMPONENT, "cold-" + (i + 10), 0);
+        }
+        clock.time = 1000;
+        Assertions.assertEquals(Map.of("hot", 10.0), monitor.getTopByRate(COMPONENT));
+    }
+
+    @Test
+    public void evicting_key_inherits_the_evicted_count() {
+        HotAggregateMonitor monitor = newMonitor(1);
+        enqueue(monitor, "a", 3);
+        enqueue(monitor, "b", 2);
+        enqueue(monitor, "c", 2);
+        enqueue(monitor, "d", 2);
+        // e replaces a counter of 2 and is overestimated by it
+        enqueue(monitor, "e", 2);
+        clock.time = 1000;
+        Assertions.assertEquals(Map.of("e", 4.0), monitor.getTopByRate(COMPONENT));
+    }
+
+    @Test
+    public void backlog_keeps_the_largest_value() {
+        HotAggregateMonitor monitor = newMonitor(1);
+        monitor.onMessageEnqueued(COMPONENT, "a", 2);
+        monitor.onMessageEnqueued(COMPONENT, "b", 1);
+        monitor.onMessageEnqueued(COMPONENT, "c", 1);
+        monitor.onMessageEnqueued(COMPONENT, "d", 1);
+        Assertions.assertEquals(Map.of("a", 2L), monitor.getTopByBacklog(COMPONENT));
+        // a larger backlog replaces the smallest counter without inheriting its value
+        monitor.onMessageEnqueued(COMPONENT, "e", 3);
+        Assertions.assertEquals(Map.of("e", 3L), monitor.getTopByBacklog(COMPONENT));
+        monitor.onMessageEnqueued(COMPONENT, "e", 1);
+        Assertions.assertEquals(Map.of("e", 3L), monitor.getTopByBacklog(COMPONENT));
+        monitor.onMessageEnqueued(COMPONENT, "f", 5);
+        Assertions.assertEquals(Map.of("f", 5L), monitor.getTopByBacklog(COMPONENT));
+    }
+
+    @Test
+    public void completed_window_is_reported_until_the_next_one_completes() {
+        HotAggregateMonitor monitor = newMonitor(1);
+        enqueue(monitor, "a", 2);
+        monitor.onMessageEnqueued(COMPONENT, "a", 7);
+        // before the first window completes, the rate is over the elapsed time
+        clock.time = 500;
+        Assertions.assertEquals(Map.of("a", 6.0), monitor.getTopByRate(COMPONENT));
+        clock.time = 1000;
+        Assertions.assertEquals(Map.of("a", 3.0), monitor.getTopByRate(COMPONENT));
+        clock.time = 1200;
+        monitor.onMessageEnqueued(COMPONENT, "b", 1);
+        Assertions.assertEquals(Map.of("a", 3.0), monitor.getTopByRate(COMPONENT));
+        Assertions.assertEquals(Map.of("a", 7L), monitor.getTopByBacklog(COMPONENT));
+        clock.time = 2000;
+        Assertions.assertEquals(Map.of("b", 1.0), monitor.getTopByRate(COMPONENT));
+        Assertions.assertEquals(Map.of("b", 1L), monitor.getTopByBacklog(COMPONENT));
+    }
+
+    @Test
+    public void idle_window_is_reported_empty() {
+        HotAggregateMonitor monitor = newMonitor(1);
+        enqueue(monitor, "a", 2);
+        // nothing is enqueued for more than two windows, the stale window is not reported
+        clock.time = 2500;
+        Assertions.assertTrue(monitor.getTopByRate(COMPONENT).isEmpty());
+        Assertions.assertTrue(monitor.getTopByBacklog(COMPONENT).isEmpty());
+    }
+
+    @Test
+    public void rate_is_scaled_by_the_sample_interval() {
+        HotAggregateMonitor monitor = new HotAggregateMonitor(1, 4, 1, TimeUnit.SECONDS, clock);
+        enqueue(monitor, "a", 3);
+        clock.time = 1000;
+        Assertions.assertEquals(Map.of("a", 12.0), monitor.getTopByRate(COMPONENT));
+        Assertions.assertTrue(monitor.getTopByRate(AggregateHotspotMonitor.COMMAND_PROCESSOR).isEmpty());
+    }
+
+    private HotAggregateMonitor newMonitor(int topK) {
+        return new HotAggregateMonitor(topK, 1, 1, TimeUnit.SECONDS, clock);
+    }
+
+    private static void enqueue(HotAggregateMonitor monitor, String aggregateRootId, int count) {
+        for (int i = 0; i < count; i++) {
+            monitor.onMessageEnqueued(COMPONENT, aggregateRootId, 0);
+        }
+    }
+
+    private static class ManualClock extends Clock {
+
+        private volatile long time;
+
+        @Override
+        public long getTick() {
+            return TimeUnit.MILLISECONDS.toNanos(time);
+        }
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+    }
+}
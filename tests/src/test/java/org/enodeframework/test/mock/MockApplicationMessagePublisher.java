@@ -6,7 +6,10 @@ import org.enodeframework.messaging.ApplicationMessage;
 import org.enodeframework.messaging.MessagePublisher;
 import org.enodeframework.queue.SendMessageResult;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 public class MockApplicationMessagePublisher implements MessagePublisher<ApplicationMessage> {
     private static final CompletableFuture<SendMessageResult> successResultTask = CompletableFuture.completedFuture(new SendMessageResult(""));
@@ -38,4 +41,14 @@ public class MockApplicationMessagePublisher implements MessagePublisher<Applica
         }
         return successResultTask;
     }
+
+    @Override
+    public CompletableFuture<List<SendMessageResult>> publishAllAsync(List<? extends ApplicationMessage> messages) {
+        List<CompletableFuture<SendMessageResult>> futures = new ArrayList<>();
+        for (ApplicationMessage message : messages) {
+            futures.add(publishAsync(message));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+            .thenApply(x -> futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+    }
 }
@@ -4,6 +4,7 @@ import org.enodeframework.common.exception.EnodeException;
 import org.enodeframework.common.exception.IORuntimeException;
 import org.enodeframework.eventing.DomainEventStream;
 import org.enodeframework.eventing.EventAppendResult;
+import org.enodeframework.eventing.EventFeedEntry;
 import org.enodeframework.eventing.EventStore;
 import org.enodeframework.eventing.impl.InMemoryEventStore;
 
@@ -74,4 +75,9 @@ public class MockEventStore implements EventStore {
     public CompletableFuture<List<DomainEventStream>> queryAggregateEventsAsync(String aggregateRootId, String aggregateRootTypeName, int minVersion, int maxVersion) {
         return memoryEventStore.queryAggregateEventsAsync(aggregateRootId, aggregateRootTypeName, minVersion, maxVersion);
     }
+
+    @Override
+    public CompletableFuture<List<EventFeedEntry>> readAllAsync(long fromPosition, int maxCount) {
+        return memoryEventStore.readAllAsync(fromPosition, maxCount);
+    }
 }
@@ -0,0 +1,204 @@
+package org.enodeframework.test.mock;
+
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.sqlclient.Pool;
+import io.vertx.sqlclient.PreparedQuery;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowIterator;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.Tuple;
+import org.enodeframework.eventing.EventSerializer;
+import org.enodeframework.test.domain.Event1;
+import org.mockito.Mockito;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+
+/**
+ * An in-memory outbox table answering the statements of the sql outbox stores through a mocked pool.
+ * The events column holds "aggregateRootId:version", decoded by {@link #eventSerializer()}.
+ */
+public class MockOutboxTable {
+
+    private final List<OutboxRow> rows = new ArrayList<>();
+
+    private long nextId = 1;
+
+    private Runnable beforeNextUpdate;
+
+    public synchronized void insert(String aggregateRootId, int version) {
+        rows.add(new OutboxRow(nextId++, aggregateRootId, version));
+    }
+
+    public synchronized List<String> aggregateRootIds() {
+        return rows.stream().map(x -> x.aggregateRootId).collect(Collectors.toList());
+    }
+
+    /**
+     * runs the given action once, right before the next claiming update, as if another relay ran concurrently
+     */
+    public synchronized void beforeNextUpdate(Runnable action) {
+        beforeNextUpdate = action;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Pool> T pool(Class<T> poolType) {
+        T pool = Mockito.mock(poolType);
+        Mockito.when(pool.preparedQuery(anyString())).thenAnswer(invocation -> {
+            String sql = invocation.getArgument(0);
+            PreparedQuery<RowSet<Row>> preparedQuery = Mockito.mock(PreparedQuery.class);
+            Mockito.when(preparedQuery.execute(any(Tuple.class))).thenAnswer(x -> Future.succeededFuture(execute(sql, x.getArgument(0))));
+            Mockito.when(preparedQuery.executeBatch(anyList())).thenAnswer(x -> {
+                List<Tuple> tuples = x.getArgument(0);
+                int rowCount = 0;
+                for (Tuple tuple : tuples) {
+                    rowCount += execute(sql, tuple).rowCount();
+                }
+                return Future.succeededFuture(newRowSet(new ArrayList<>(), rowCount));
+            });
+            return preparedQuery;
+        });
+        return pool;
+    }
+
+    public static EventSerializer eventSerializer() {
+        EventSerializer eventSerializer = Mockito.mock(EventSerializer.class);
+        Mockito.when(eventSerializer.deserializeBytes(any())).thenAnswer(invocation -> {
+            String[] values = new String((byte[]) invocation.getArgument(0), StandardCharsets.UTF_8).split(":");
+            Event1 event = new Event1();
+            event.setAggregateRootId(values[0]);
+            event.setVersion(Integer.parseInt(values[1]));
+            return List.of(event);
+        });
+        return eventSerializer;
+    }
+
+    private RowSet<Row> execute(String sql, Tuple tuple) {
+        Runnable action = null;
+        synchronized (this) {
+            if (sql.startsWith("UPDATE") && beforeNextUpdate != null) {
+                action = beforeNextUpdate;
+                beforeNextUpdate = null;
+            }
+        }
+        if (action != null) {
+            action.run();
+        }
+        synchronized (this) {
+            return executeStatement(sql, tuple);
+        }
+    }
+
+    private RowSet<Row> executeStatement(String sql, Tuple tuple) {
+        if (sql.startsWith("UPDATE") && sql.contains("WHERE id = ?")) {
+            // UPDATE SET owner_id = ?, lease_until = ? WHERE id = ? AND (lease_until < ? OR owner_id = ?)
+            List<OutboxRow> matched = rows.stream()
+                .filter(x -> x.id == tuple.getLong(2) && (x.leaseUntil < tuple.getLong(3) || Objects.equals(x.ownerId, tuple.getString(4))))
+                .collect(Collectors.toList());
+            matched.forEach(x -> x.claim(tuple.getString(0), tuple.getLong(1)));
+            return newRowSet(new ArrayList<>(), matched.size());
+        }
+        if (sql.startsWith("UPDATE")) {
+            // UPDATE SET owner_id = ?, lease_until = ? WHERE lease_until < ? OR owner_id = ? ORDER BY id ASC LIMIT ?
+            List<OutboxRow> matched = rows.stream()
+                .filter(x -> x.leaseUntil < tuple.getLong(2) || Objects.equals(x.ownerId, tuple.getString(3)))
+                .sorted(Comparator.comparingLong(x -> x.id))
+                .limit(tuple.getInteger(4))
+                .collect(Collectors.toList());
+            matched.forEach(x -> x.claim(tuple.getString(0), tuple.getLong(1)));
+            return newRowSet(new ArrayList<>(), matched.size());
+        }
+        if (sql.startsWith("SELECT id")) {
+            // SELECT id WHERE lease_until < ? OR owner_id = ? ORDER BY id ASC LIMIT ?
+            List<OutboxRow> matched = rows.stream()
+                .filter(x -> x.leaseUntil < tuple.getLong(0) || Objects.equals(x.ownerId, tuple.getString(1)))
+                .sorted(Comparator.comparingLong(x -> x.id))
+                .limit(tuple.getInteger(2))
+                .collect(Collectors.toList());
+            return newRowSet(matched.stream().map(MockOutboxTable::newRow).collect(Collectors.toList()), matched.size());
+        }
+        if (sql.startsWith("SELECT")) {
+            // SELECT * WHERE owner_id = ? AND lease_until > ? ORDER BY id ASC LIMIT ?
+            List<OutboxRow> matched = rows.stream()
+                .filter(x -> Objects.equals(x.ownerId, tuple.getString(0)) && x.leaseUntil > tuple.getLong(1))
+                .sorted(Comparator.comparingLong(x -> x.id))
+                .limit(tuple.getInteger(2))
+                .collect(Collectors.toList());
+            return newRowSet(matched.stream().map(MockOutboxTable::newRow).collect(Collectors.toList()), matched.size());
+        }
+        if (sql.startsWith("DELETE")) {
+            // DELETE WHERE aggregate_root_id = ? AND version = ?
+            int size = rows.size();
+            rows.removeIf(x -> x.aggregateRootId.equals(tuple.getString(0)) && x.version == tuple.getInteger(1));
+            return newRowSet(new ArrayList<>(), size - rows.size());
+        }
+        throw new IllegalArgumentException("unexpected statement: " + sql);
+    }
+
+    private static Row newRow(OutboxRow outboxRow) {
+        JsonObject record = new JsonObject()
+            .put("id", outboxRow.id)
+            .put("command_id", "command-" + outboxRow.aggregateRootId + "-" + outboxRow.version)
+            .put("aggregate_root_id", outboxRow.aggregateRootId)
+            .put("aggregate_root_type_name", "TestAggregate")
+            .put("version", outboxRow.version)
+            .put("create_at", 0L);
+        Row row = Mockito.mock(Row.class);
+        Mockito.when(row.toJson()).thenReturn(record);
+        Mockito.when(row.getLong("id")).thenReturn(outboxRow.id);
+        Mockito.when(row.getValue("events")).thenReturn(Buffer.buffer(outboxRow.aggregateRootId + ":" + outboxRow.version));
+        return row;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RowSet<Row> newRowSet(List<Row> rows, int rowCount) {
+        RowSet<Row> rowSet = Mockito.mock(RowSet.class);
+        Mockito.when(rowSet.rowCount()).thenReturn(rowCount);
+        Mockito.when(rowSet.size()).thenReturn(rows.size());
+        Mockito.when(rowSet.iterator()).thenAnswer(invocation -> {
+            Iterator<Row> iterator = rows.iterator();
+            return new RowIterator<Row>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Row next() {
+                    return iterator.next();
+                }
+            };
+        });
+        return rowSet;
+    }
+
+    private static class OutboxRow {
+        private final long id;
+        private final String aggregateRootId;
+        private final int version;
+        private String ownerId;
+        private long leaseUntil;
+
+        private OutboxRow(long id, String aggregateRootId, int version) {
+            this.id = id;
+            this.aggregateRootId = aggregateRootId;
+            this.version = version;
+        }
+
+        private void claim(String ownerId, long leaseUntil) {
+            this.ownerId = ownerId;
+            this.leaseUntil = leaseUntil;
+        }
+    }
+}
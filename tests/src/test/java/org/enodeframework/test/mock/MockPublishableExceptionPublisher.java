@@ -6,7 +6,10 @@ import org.enodeframework.domain.DomainExceptionMessage;
 import org.enodeframework.messaging.MessagePublisher;
 import org.enodeframework.queue.SendMessageResult;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 public class MockPublishableExceptionPublisher implements MessagePublisher<DomainExceptionMessage> {
     private static final CompletableFuture<SendMessageResult> successResultTask = CompletableFuture.completedFuture(new SendMessageResult(""));
@@ -39,4 +42,14 @@ public class MockPublishableExceptionPublisher implements MessagePublisher<Domai
         }
         return successResultTask;
     }
+
+    @Override
+    public CompletableFuture<List<SendMessageResult>> publishAllAsync(List<? extends DomainExceptionMessage> messages) {
+        List<CompletableFuture<SendMessageResult>> futures = new ArrayList<>();
+        for (DomainExceptionMessage message : messages) {
+            futures.add(publishAsync(message));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+            .thenApply(x -> futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+    }
 }
@@ -0,0 +1,100 @@
+package org.enodeframework.test.perf;
+
+import kotlinx.coroutines.Dispatchers;
+import org.enodeframework.commanding.CommandExecuteContext;
+import org.enodeframework.commanding.CommandResult;
+import org.enodeframework.commanding.CommandStatus;
+import org.enodeframework.commanding.ProcessingCommand;
+import org.enodeframework.commanding.ProcessingCommandHandler;
+import org.enodeframework.commanding.ProcessingCommandMailbox;
+import org.enodeframework.commanding.impl.DefaultCommandExecuteContext;
+import org.enodeframework.commanding.impl.RingBufferProcessingCommandQueue;
+import org.enodeframework.common.io.Task;
+import org.enodeframework.domain.AggregateStorage;
+import org.enodeframework.domain.Repository;
+import org.enodeframework.queue.MessageFlowController;
+import org.enodeframework.queue.QueueMessage;
+import org.enodeframework.queue.SendReplyService;
+import org.enodeframework.queue.command.GenericCommandMessage;
+import org.enodeframework.test.command.ChangeNothingCommand;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per command cost of a mailbox run when every command handler completes synchronously.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 5)
+@Threads(1)
+@Fork(1)
+@State(value = Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandMailboxBatchTest {
+
+    private static final int COMMAND_COUNT = 100000;
+
+    @Param({"1000", "100000"})
+    private int batchSize;
+
+    private CommandExecuteContext commandExecuteContext;
+
+    private volatile CountDownLatch latch;
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(CommandMailboxBatchTest.class.getSimpleName()).resultFormat(ResultFormatType.JSON).build();
+        new Runner(opt).run();
+    }
+
+    @Setup
+    public void setUp() {
+        // no reply address, so completing a command only notifies the message context
+        commandExecuteContext = new DefaultCommandExecuteContext(Mockito.mock(Repository.class), Mockito.mock(AggregateStorage.class), new QueueMessage(), message -> {
+        }, new GenericCommandMessage(), Mockito.mock(SendReplyService.class));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COMMAND_COUNT)
+    public void testProcessBatch() {
+        latch = new CountDownLatch(COMMAND_COUNT);
+        ProcessingCommandHandler processingCommandHandler = processingCommand -> {
+            latch.countDown();
+            return processingCommand.getMailBox().completeMessage(
+                processingCommand,
+                new CommandResult(CommandStatus.Success, processingCommand.getMessage().getId(), processingCommand.getMessage().getAggregateRootId(), "")
+            );
+        };
+        ProcessingCommandMailbox mailbox = new ProcessingCommandMailbox("aggregate", processingCommandHandler, Dispatchers.getDefault(), batchSize, new RingBufferProcessingCommandQueue(), new MessageFlowController());
+        // enqueue the whole backlog first, so that a single run drains up to batchSize commands
+        mailbox.pause();
+        for (int i = 0; i < COMMAND_COUNT; i++) {
+            ChangeNothingCommand command = new ChangeNothingCommand();
+            command.setAggregateRootId("aggregate");
+            mailbox.enqueueMessage(new ProcessingCommand(command, commandExecuteContext, new HashMap<>()));
+        }
+        mailbox.resume();
+        mailbox.tryRun();
+        Task.await(latch);
+    }
+}
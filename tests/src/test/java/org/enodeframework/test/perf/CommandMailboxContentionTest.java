@@ -0,0 +1,92 @@
+package org.enodeframework.test.perf;
+
+import kotlinx.coroutines.Dispatchers;
+import org.enodeframework.commanding.CommandExecuteContext;
+import org.enodeframework.commanding.CommandResult;
+import org.enodeframework.commanding.CommandStatus;
+import org.enodeframework.commanding.ProcessingCommand;
+import org.enodeframework.commanding.ProcessingCommandHandler;
+import org.enodeframework.commanding.ProcessingCommandQueueType;
+import org.enodeframework.commanding.impl.DefaultCommandExecuteContext;
+import org.enodeframework.commanding.impl.DefaultCommandProcessor;
+import org.enodeframework.common.scheduling.DefaultScheduleService;
+import org.enodeframework.domain.AggregateStorage;
+import org.enodeframework.domain.Repository;
+import org.enodeframework.queue.MessageFlowController;
+import org.enodeframework.queue.QueueMessage;
+import org.enodeframework.queue.SendReplyService;
+import org.enodeframework.queue.command.GenericCommandMessage;
+import org.enodeframework.test.command.ChangeNothingCommand;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency distribution of DefaultCommandProcessor.process when several consumer threads
+ * hit the same aggregates while the inactive mailbox cleanup task keeps retiring them.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 5)
+@Threads(8)
+@Fork(1)
+@State(value = Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CommandMailboxContentionTest {
+
+    private static final int AGGREGATE_COUNT = 4;
+
+    private DefaultCommandProcessor commandProcessor;
+
+    private CommandExecuteContext commandExecuteContext;
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(CommandMailboxContentionTest.class.getSimpleName()).resultFormat(ResultFormatType.JSON).build();
+        new Runner(opt).run();
+    }
+
+    @Setup
+    public void setUp() {
+        ProcessingCommandHandler processingCommandHandler = processingCommand -> processingCommand.getMailBox().completeMessage(
+            processingCommand,
+            new CommandResult(CommandStatus.Success, processingCommand.getMessage().getId(), processingCommand.getMessage().getAggregateRootId(), "")
+        );
+        // scan every millisecond and treat every mailbox as inactive, so the cleanup task keeps racing with the producers
+        commandProcessor = new DefaultCommandProcessor(processingCommandHandler, new DefaultScheduleService(), Dispatchers.getDefault(), 1, 0, 1000, ProcessingCommandQueueType.RingBuffer, new MessageFlowController());
+        commandProcessor.start();
+        // no reply address, so completing a command only notifies the message context
+        commandExecuteContext = new DefaultCommandExecuteContext(Mockito.mock(Repository.class), Mockito.mock(AggregateStorage.class), new QueueMessage(), message -> {
+        }, new GenericCommandMessage(), Mockito.mock(SendReplyService.class));
+    }
+
+    @TearDown
+    public void tearDown() {
+        commandProcessor.stop();
+    }
+
+    @Benchmark
+    public void testProcessCommand() {
+        ChangeNothingCommand command = new ChangeNothingCommand();
+        command.setAggregateRootId("aggregate-" + ThreadLocalRandom.current().nextInt(AGGREGATE_COUNT));
+        commandProcessor.process(new ProcessingCommand(command, commandExecuteContext, new HashMap<>()));
+    }
+}
@@ -0,0 +1,106 @@
+package org.enodeframework.test.perf;
+
+import org.enodeframework.commanding.CommandExecuteContext;
+import org.enodeframework.commanding.ProcessingCommand;
+import org.enodeframework.commanding.impl.DefaultCommandExecuteContext;
+import org.enodeframework.domain.AggregateStorage;
+import org.enodeframework.domain.Repository;
+import org.enodeframework.eventing.DomainEventStream;
+import org.enodeframework.eventing.EventAppendResult;
+import org.enodeframework.eventing.EventCommittingContext;
+import org.enodeframework.eventing.EventCommittingContextIndex;
+import org.enodeframework.queue.QueueMessage;
+import org.enodeframework.queue.SendReplyService;
+import org.enodeframework.queue.command.GenericCommandMessage;
+import org.enodeframework.test.command.ChangeNothingCommand;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures mapping a batch append result back to the committing contexts, by scanning the batch per aggregate and
+ * by the aggregate id index the committing service builds once per batch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Threads(1)
+@Fork(1)
+@State(value = Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventAppendResultMappingTest {
+
+    @Param({"100", "1000"})
+    private int batchSize;
+
+    @Param({"1", "4"})
+    private int streamsPerAggregate;
+
+    private List<EventCommittingContext> committingContexts;
+
+    private EventAppendResult appendResult;
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(EventAppendResultMappingTest.class.getSimpleName()).resultFormat(ResultFormatType.JSON).build();
+        new Runner(opt).run();
+    }
+
+    @Setup
+    public void setUp() {
+        CommandExecuteContext commandExecuteContext = new DefaultCommandExecuteContext(Mockito.mock(Repository.class), Mockito.mock(AggregateStorage.class), new QueueMessage(), message -> {
+        }, new GenericCommandMessage(), Mockito.mock(SendReplyService.class));
+        ProcessingCommand processingCommand = new ProcessingCommand(new ChangeNothingCommand(), commandExecuteContext, new HashMap<>());
+        committingContexts = new ArrayList<>(batchSize);
+        appendResult = new EventAppendResult();
+        int aggregateCount = batchSize / streamsPerAggregate;
+        for (int i = 0; i < batchSize; i++) {
+            String aggregateRootId = "aggregate-" + (i % aggregateCount);
+            DomainEventStream eventStream = new DomainEventStream(UUID.randomUUID().toString(), aggregateRootId, i / aggregateCount + 1, "Aggregate", new ArrayList<>(), new HashMap<>());
+            committingContexts.add(new EventCommittingContext(eventStream, processingCommand));
+            appendResult.addSuccessAggregateRootId(aggregateRootId);
+        }
+    }
+
+    @Benchmark
+    public void testScan(Blackhole blackhole) {
+        for (String aggregateRootId : appendResult.getSuccessAggregateRootIdList()) {
+            for (EventCommittingContext context : committingContexts) {
+                if (context.getEventStream().getAggregateRootId().equals(aggregateRootId)) {
+                    blackhole.consume(context);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void testIndex(Blackhole blackhole) {
+        EventCommittingContextIndex contextIndex = new EventCommittingContextIndex(committingContexts);
+        for (String aggregateRootId : appendResult.getSuccessAggregateRootIdList()) {
+            for (EventCommittingContext context : contextIndex.get(aggregateRootId)) {
+                blackhole.consume(context);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.enodeframework.test.perf;
+
+import kotlinx.coroutines.BuildersKt;
+import kotlinx.coroutines.CoroutineScopeKt;
+import kotlinx.coroutines.CoroutineStart;
+import kotlinx.coroutines.Deferred;
+import kotlinx.coroutines.future.FutureKt;
+import org.enodeframework.common.io.HandlerDispatchers;
+import org.enodeframework.common.io.HandlerExecutionMode;
+import org.enodeframework.common.io.Task;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the handler execution modes with handlers that block for a short while, like a jdbc call in a command handler.
+ * VirtualThread falls back to IO when the benchmark runs on a jdk without virtual threads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 5)
+@Threads(1)
+@Fork(1)
+@State(value = Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HandlerExecutionModeTest {
+
+    private static final int HANDLER_COUNT = 1000;
+
+    @Param({"IO", "Default", "VirtualThread"})
+    private HandlerExecutionMode mode;
+
+    @Param({"1"})
+    private long blockingMillis;
+
+    private HandlerDispatchers handlerDispatchers;
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(HandlerExecutionModeTest.class.getSimpleName()).resultFormat(ResultFormatType.JSON).build();
+        new Runner(opt).run();
+    }
+
+    @Setup
+    public void setUp() {
+        handlerDispatchers = new HandlerDispatchers(mode);
+    }
+
+    @TearDown
+    public void tearDown() {
+        handlerDispatchers.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(HANDLER_COUNT)
+    public void testBlockingHandlers() {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[HANDLER_COUNT];
+        for (int i = 0; i < HANDLER_COUNT; i++) {
+            // same shape as the command handler invocation in DefaultProcessingCommandHandler
+            Deferred<Boolean> deferred = BuildersKt.async(CoroutineScopeKt.CoroutineScope(handlerDispatchers.getHandlerDispatcher()), handlerDispatchers.getHandlerDispatcher(), CoroutineStart.DEFAULT, (scope, continuation) -> {
+                Task.sleep(blockingMillis);
+                return true;
+            });
+            futures[i] = FutureKt.asCompletableFuture(deferred);
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+}
@@ -0,0 +1,84 @@
+package org.enodeframework.test.queue;
+
+import org.enodeframework.common.exception.EnodeException;
+import org.enodeframework.queue.command.CommandEnvelope;
+import org.enodeframework.queue.command.CommandEnvelopeCodec;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class CommandEnvelopeCodecTest {
+
+    private static final byte[] PAYLOAD = "{\"aggregateRootId\":\"5ee8b610d7671114741829c7\",\"title\":\"标题\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void encode_and_decode_round_trip() {
+        // longer than 127 bytes, so that the length takes two varint bytes
+        String commandType = "org.enodeframework.test.command.".repeat(5) + "CreateNoteCommand";
+        byte[] body = CommandEnvelopeCodec.encode(commandType, "127.0.0.1:2019", "5ee8b61bd7671114741829cf", "聚合根-1", PAYLOAD);
+        Assertions.assertTrue(CommandEnvelopeCodec.isEnvelope(body));
+        CommandEnvelope envelope = CommandEnvelopeCodec.decode(body);
+        Assertions.assertEquals(CommandEnvelopeCodec.CURRENT_VERSION, envelope.getVersion());
+        Assertions.assertEquals(commandType, envelope.getCommandType());
+        Assertions.assertEquals("127.0.0.1:2019", envelope.getReplyAddress());
+        Assertions.assertEquals("5ee8b61bd7671114741829cf", envelope.getCommandId());
+        Assertions.assertEquals("聚合根-1", envelope.getAggregateRootId());
+        Assertions.assertSame(body, envelope.getBody());
+        Assertions.assertEquals(body.length, envelope.getPayloadOffset() + envelope.getPayloadLength());
+        Assertions.assertArrayEquals(PAYLOAD, Arrays.copyOfRange(body, envelope.getPayloadOffset(), body.length));
+    }
+
+    @Test
+    public void empty_fields_and_payload_round_trip() {
+        byte[] body = CommandEnvelopeCodec.encode("type", "", "id", "", new byte[0]);
+        CommandEnvelope envelope = CommandEnvelopeCodec.decode(body);
+        Assertions.assertEquals("type", envelope.getCommandType());
+        Assertions.assertEquals("", envelope.getReplyAddress());
+        Assertions.assertEquals("", envelope.getAggregateRootId());
+        Assertions.assertEquals(body.length, envelope.getPayloadOffset());
+        Assertions.assertEquals(0, envelope.getPayloadLength());
+    }
+
+    @Test
+    public void json_body_is_not_an_envelope() {
+        Assertions.assertFalse(CommandEnvelopeCodec.isEnvelope(PAYLOAD));
+        Assertions.assertFalse(CommandEnvelopeCodec.isEnvelope(new byte[0]));
+        // a lone magic byte is too short to carry a version
+        byte[] body = CommandEnvelopeCodec.encode("type", "", "id", "aggregate", PAYLOAD);
+        Assertions.assertFalse(CommandEnvelopeCodec.isEnvelope(Arrays.copyOf(body, 1)));
+        Assertions.assertThrows(EnodeException.class, () -> CommandEnvelopeCodec.decode(PAYLOAD));
+    }
+
+    @Test
+    public void truncated_header_is_rejected() {
+        byte[] body = CommandEnvelopeCodec.encode("org.enodeframework.test.command.CreateNoteCommand", "127.0.0.1:2019", "5ee8b61bd7671114741829cf", "aggregate", PAYLOAD);
+        int headerLength = CommandEnvelopeCodec.decode(body).getPayloadOffset();
+        for (int length = 0; length < headerLength; length++) {
+            byte[] truncated = Arrays.copyOf(body, length);
+            Assertions.assertThrows(EnodeException.class, () -> CommandEnvelopeCodec.decode(truncated), "length " + length);
+        }
+        // cut right after the header, only the payload is lost
+        Assertions.assertEquals(0, CommandEnvelopeCodec.decode(Arrays.copyOf(body, headerLength)).getPayloadLength());
+    }
+
+    @Test
+    public void malformed_field_length_is_rejected() {
+        byte[] body = {(byte) 0xEC, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 1};
+        EnodeException exception = Assertions.assertThrows(EnodeException.class, () -> CommandEnvelopeCodec.decode(body));
+        Assertions.assertTrue(exception.getMessage().contains("malformed"), exception.getMessage());
+        // a negative length after overflow is rejected as well
+        byte[] negative = {(byte) 0xEC, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F};
+        Assertions.assertThrows(EnodeException.class, () -> CommandEnvelopeCodec.decode(negative));
+    }
+
+    @Test
+    public void unsupported_version_is_rejected() {
+        byte[] body = CommandEnvelopeCodec.encode("type", "", "id", "aggregate", PAYLOAD);
+        body[1] = (byte) (CommandEnvelopeCodec.CURRENT_VERSION + 1);
+        Assertions.assertTrue(CommandEnvelopeCodec.isEnvelope(body));
+        EnodeException exception = Assertions.assertThrows(EnodeException.class, () -> CommandEnvelopeCodec.decode(body));
+        Assertions.assertTrue(exception.getMessage().contains("version"), exception.getMessage());
+    }
+}
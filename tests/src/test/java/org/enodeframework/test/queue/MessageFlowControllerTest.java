@@ -0,0 +1,121 @@
+package org.enodeframework.test.queue;
+
+import kotlinx.coroutines.Dispatchers;
+import org.enodeframework.commanding.CommandExecuteContext;
+import org.enodeframework.commanding.CommandResult;
+import org.enodeframework.commanding.CommandStatus;
+import org.enodeframework.commanding.ProcessingCommand;
+import org.enodeframework.commanding.ProcessingCommandQueueType;
+import org.enodeframework.commanding.impl.DefaultCommandProcessor;
+import org.enodeframework.common.extensions.NoOpAggregateHotspotMonitor;
+import org.enodeframework.common.scheduling.DefaultScheduleService;
+import org.enodeframework.queue.MessageFlowController;
+import org.enodeframework.test.command.ChangeNothingCommand;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+
+public class MessageFlowControllerTest {
+
+    @Test
+    public void mailbox_overload_does_not_pause_consumers() throws Exception {
+        MessageFlowController flowController = new MessageFlowController(0, 4, 5000);
+        MessageFlowController.InFlightCounter hot = flowController.createMailboxCounter("hot");
+        for (int i = 0; i < 4; i++) {
+            hot.increment();
+        }
+        Assertions.assertTrue(hot.isOverloaded());
+        Assertions.assertFalse(flowController.isOverloaded());
+        Assertions.assertTrue(flowController.awaitAvailable());
+        AtomicInteger resumed = new AtomicInteger();
+        flowController.whenAvailable(resumed::incrementAndGet);
+        Assertions.assertEquals(1, resumed.get());
+
+        CountDownLatch waiting = new CountDownLatch(1);
+        CompletableFuture<Boolean> available = CompletableFuture.supplyAsync(() -> {
+            waiting.countDown();
+            return hot.awaitAvailable();
+        });
+        waiting.await();
+        hot.decrement();
+        Thread.sleep(50);
+        // recovers below half of the limit only
+        Assertions.assertFalse(available.isDone());
+        hot.decrement();
+        Assertions.assertTrue(available.get(5, TimeUnit.SECONDS));
+        Assertions.assertFalse(hot.isOverloaded());
+    }
+
+    @Test
+    public void global_overload_pauses_consumers_until_recovered() throws Exception {
+        MessageFlowController flowController = new MessageFlowController(4, 0, 5000);
+        for (int i = 0; i < 4; i++) {
+            flowController.increment();
+        }
+        Assertions.assertTrue(flowController.isOverloaded());
+        AtomicInteger resumed = new AtomicInteger();
+        flowController.whenAvailable(resumed::incrementAndGet);
+        Assertions.assertEquals(0, resumed.get());
+        CompletableFuture<Boolean> available = CompletableFuture.supplyAsync(flowController::awaitAvailable);
+        flowController.decrement();
+        flowController.decrement();
+        Assertions.assertTrue(available.get(5, TimeUnit.SECONDS));
+        Assertions.assertFalse(flowController.isOverloaded());
+        Assertions.assertEquals(1, resumed.get());
+    }
+
+    @Test
+    public void mailbox_wait_gives_up_after_max_pause() {
+        MessageFlowController flowController = new MessageFlowController(0, 1, 50);
+        MessageFlowController.InFlightCounter hot = flowController.createMailboxCounter("hot");
+        hot.increment();
+        long start = System.nanoTime();
+        Assertions.assertFalse(hot.awaitAvailable());
+        Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50);
+    }
+
+    @Test
+    public void hot_aggregate_only_delays_its_own_commands() throws Exception {
+        MessageFlowController flowController = new MessageFlowController(0, 2, 5000);
+        List<ProcessingCommand> handled = new CopyOnWriteArrayList<>();
+        // commands stay in flight until the test completes them
+        DefaultCommandProcessor commandProcessor = new DefaultCommandProcessor(processingCommand -> {
+            handled.add(processingCommand);
+            return new CompletableFuture<>();
+        }, new DefaultScheduleService(), Dispatchers.getDefault(), 5000, 3600, 1000, ProcessingCommandQueueType.Default, flowController, NoOpAggregateHotspotMonitor.INSTANCE);
+        commandProcessor.process(newProcessingCommand("hot"));
+        commandProcessor.process(newProcessingCommand("hot"));
+        Assertions.assertFalse(flowController.isOverloaded());
+
+        CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> commandProcessor.process(newProcessingCommand("hot")));
+        Thread.sleep(100);
+        Assertions.assertFalse(blocked.isDone());
+        // other aggregates are not affected
+        CompletableFuture.runAsync(() -> commandProcessor.process(newProcessingCommand("cold"))).get(1, TimeUnit.SECONDS);
+
+        for (ProcessingCommand processingCommand : handled) {
+            if (processingCommand.getMessage().getAggregateRootId().equals("hot")) {
+                processingCommand.getMailBox().completeMessage(processingCommand, new CommandResult(CommandStatus.Success, processingCommand.getMessage().getId(), "hot", ""));
+            }
+        }
+        blocked.get(5, TimeUnit.SECONDS);
+    }
+
+    private ProcessingCommand newProcessingCommand(String aggregateRootId) {
+        ChangeNothingCommand command = new ChangeNothingCommand();
+        command.setAggregateRootId(aggregateRootId);
+        CommandExecuteContext commandExecuteContext = Mockito.mock(CommandExecuteContext.class);
+        Mockito.when(commandExecuteContext.onCommandExecutedAsync(any())).thenReturn(CompletableFuture.completedFuture(true));
+        return new ProcessingCommand(command, commandExecuteContext, new HashMap<>());
+    }
+}
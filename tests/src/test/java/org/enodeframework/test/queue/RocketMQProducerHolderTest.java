@@ -0,0 +1,182 @@
+package org.enodeframework.test.queue;
+
+import org.apache.rocketmq.client.producer.MQProducer;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.enodeframework.common.exception.IORuntimeException;
+import org.enodeframework.common.serializing.SerializeService;
+import org.enodeframework.eventing.DomainEventStream;
+import org.enodeframework.eventing.EventSerializer;
+import org.enodeframework.queue.MessageTypeCode;
+import org.enodeframework.queue.QueueMessage;
+import org.enodeframework.queue.SendMessageResult;
+import org.enodeframework.queue.domainevent.DefaultDomainEventPublisher;
+import org.enodeframework.queue.domainevent.GenericDomainEventMessage;
+import org.enodeframework.rocketmq.message.RocketMQProducerHolder;
+import org.enodeframework.rocketmq.message.RocketMQSendMessageService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+
+public class RocketMQProducerHolderTest {
+
+    private static final String TOPIC = "topic";
+
+    private final MQProducer producer = Mockito.mock(MQProducer.class);
+
+    /**
+     * the message keys of every batch sent, with the queue it is sent to
+     */
+    private final List<SentBatch> sentBatches = new ArrayList<>();
+
+    private final RocketMQProducerHolder producerHolder = new RocketMQProducerHolder(producer);
+
+    private String failingKey;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        List<MessageQueue> messageQueues = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            messageQueues.add(new MessageQueue(TOPIC, "broker", i));
+        }
+        Mockito.when(producer.fetchPublishMessageQueues(TOPIC)).thenReturn(messageQueues);
+        Mockito.doAnswer(invocation -> {
+            Collection<Message> messages = invocation.getArgument(0);
+            MessageQueue messageQueue = invocation.getArgument(1);
+            SendCallback sendCallback = invocation.getArgument(2);
+            List<String> keys = messages.stream().map(Message::getKeys).collect(Collectors.toList());
+            sentBatches.add(new SentBatch(messageQueue.getQueueId(), keys));
+            if (keys.contains(failingKey)) {
+                sendCallback.onException(new IllegalStateException("broker is unavailable"));
+                return null;
+            }
+            SendResult sendResult = new SendResult();
+            sendResult.setSendStatus(SendStatus.SEND_OK);
+            sendResult.setMsgId(String.join(",", keys));
+            sendResult.setMessageQueue(messageQueue);
+            sendCallback.onSuccess(sendResult);
+            return null;
+        }).when(producer).send(anyCollection(), any(MessageQueue.class), any(SendCallback.class));
+    }
+
+    @Test
+    public void messages_of_a_route_key_are_sent_in_order_to_one_queue() throws Exception {
+        // "a" and "b" are hashed to different queues
+        List<SendMessageResult> results = await(producerHolder.sendBatch(List.of(
+            newQueueMessage("a", "a1", 10), newQueueMessage("b", "b1", 10), newQueueMessage("a", "a2", 10),
+            newQueueMessage("b", "b2", 10), newQueueMessage("a", "a3", 10)
+        )));
+        Assertions.assertEquals(List.of(
+            new SentBatch(1, List.of("a1", "a2", "a3")), new SentBatch(2, List.of("b1", "b2"))
+        ), sentBatches);
+        // the results follow the order of the messages, each with its own msgId
+        Assertions.assertEquals(List.of("a1", "b1", "a2", "b2", "a3"), idsOf(results));
+    }
+
+    @Test
+    public void batch_of_a_queue_is_split_beyond_one_megabyte() throws Exception {
+        int size = 400 * 1024;
+        List<SendMessageResult> results = await(producerHolder.sendBatch(List.of(
+            newQueueMessage("a", "a1", size), newQueueMessage("a", "a2", size), newQueueMessage("b", "b1", size),
+            newQueueMessage("a", "a3", size), newQueueMessage("a", "a4", 1024 * 1024), newQueueMessage("a", "a5", 1)
+        )));
+        // a message larger than the limit is still sent, alone
+        Assertions.assertEquals(List.of(
+            new SentBatch(1, List.of("a1", "a2")), new SentBatch(1, List.of("a3")), new SentBatch(1, List.of("a4")),
+            new SentBatch(1, List.of("a5")), new SentBatch(2, List.of("b1"))
+        ), sentBatches);
+        Assertions.assertEquals(List.of("a1", "a2", "b1", "a3", "a4", "a5"), idsOf(results));
+    }
+
+    @Test
+    public void failed_send_fails_the_whole_batch() {
+        failingKey = "b1";
+        CompletableFuture<List<SendMessageResult>> future = producerHolder.sendBatch(List.of(
+            newQueueMessage("a", "a1", 10), newQueueMessage("b", "b1", 10)
+        ));
+        ExecutionException ex = Assertions.assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        Assertions.assertInstanceOf(IORuntimeException.class, ex.getCause());
+        Assertions.assertEquals(2, sentBatches.size());
+    }
+
+    @Test
+    public void mixed_batch_is_published_in_aggregate_order() throws Exception {
+        SerializeService serializeService = Mockito.mock(SerializeService.class);
+        Mockito.when(serializeService.serializeBytes(any())).thenAnswer(invocation -> {
+            GenericDomainEventMessage message = invocation.getArgument(0);
+            return (message.getAggregateRootId() + ":" + message.getVersion()).getBytes(StandardCharsets.UTF_8);
+        });
+        EventSerializer eventSerializer = Mockito.mock(EventSerializer.class);
+        Mockito.when(eventSerializer.serialize(Mockito.anyList())).thenReturn(new HashMap<>());
+        DefaultDomainEventPublisher publisher = new DefaultDomainEventPublisher(
+            TOPIC, "tag", eventSerializer, new RocketMQSendMessageService(producerHolder), serializeService
+        );
+        Map<String, String> keyDict = new LinkedHashMap<>();
+        Mockito.doAnswer(invocation -> {
+            Collection<Message> messages = invocation.getArgument(0);
+            MessageQueue messageQueue = invocation.getArgument(1);
+            SendCallback sendCallback = invocation.getArgument(2);
+            List<String> bodies = messages.stream().map(x -> new String(x.getBody(), StandardCharsets.UTF_8)).collect(Collectors.toList());
+            sentBatches.add(new SentBatch(messageQueue.getQueueId(), bodies));
+            messages.forEach(x -> keyDict.put(x.getKeys(), new String(x.getBody(), StandardCharsets.UTF_8)));
+            SendResult sendResult = new SendResult();
+            sendResult.setMsgId(messages.stream().map(Message::getKeys).collect(Collectors.joining(",")));
+            sendCallback.onSuccess(sendResult);
+            return null;
+        }).when(producer).send(anyCollection(), any(MessageQueue.class), any(SendCallback.class));
+
+        List<DomainEventStream> eventStreams = List.of(
+            newEventStream("a", 1), newEventStream("b", 1), newEventStream("a", 2), newEventStream("b", 2), newEventStream("a", 3)
+        );
+        List<SendMessageResult> results = await(publisher.publishAllAsync(eventStreams));
+        Assertions.assertEquals(List.of(
+            new SentBatch(1, List.of("a:1", "a:2", "a:3")), new SentBatch(2, List.of("b:1", "b:2"))
+        ), sentBatches);
+        Assertions.assertEquals(List.of("a:1", "b:1", "a:2", "b:2", "a:3"), results.stream().map(x -> keyDict.get(x.getId())).collect(Collectors.toList()));
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        return future.get(5, TimeUnit.SECONDS);
+    }
+
+    private static List<String> idsOf(List<SendMessageResult> results) {
+        return results.stream().map(SendMessageResult::getId).collect(Collectors.toList());
+    }
+
+    private static QueueMessage newQueueMessage(String routeKey, String key, int size) {
+        QueueMessage queueMessage = new QueueMessage();
+        queueMessage.setTopic(TOPIC);
+        queueMessage.setTag("tag");
+        queueMessage.setRouteKey(routeKey);
+        queueMessage.setKey(key);
+        queueMessage.setBody(new byte[size]);
+        queueMessage.setType(MessageTypeCode.ApplicationMessage.getValue());
+        return queueMessage;
+    }
+
+    private static DomainEventStream newEventStream(String aggregateRootId, int version) {
+        return new DomainEventStream("command-" + aggregateRootId + "-" + version, aggregateRootId, version, "TestAggregate", new ArrayList<>(), new HashMap<>());
+    }
+
+    private record SentBatch(int queueId, List<String> keys) {
+    }
+}
@@ -0,0 +1,167 @@
+package org.enodeframework.test.scheduling;
+
+import org.enodeframework.common.function.Action;
+import org.enodeframework.common.scheduling.ScheduleService;
+import org.enodeframework.common.scheduling.Timeout;
+import org.enodeframework.common.scheduling.TimingWheelTimer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TimingWheelTimerTest {
+
+    private static final long TICK_MILLIS = 10;
+
+    /**
+     * 4 slots of 10ms, so the first wheel covers 40ms, the second 160ms and the third 640ms
+     */
+    private static final int WHEEL_SIZE = 4;
+
+    /**
+     * slack for thread scheduling on a loaded machine, on top of one tick of rounding
+     */
+    private static final long TOLERANCE_MILLIS = 200;
+
+    private ExecutorService executor;
+
+    private TimingWheelTimer timer;
+
+    @BeforeEach
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        timer = new TimingWheelTimer("TimingWheelTimerTest", TICK_MILLIS, WHEEL_SIZE, executor);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        timer.stop();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void expired_or_zero_delay_runs_immediately() throws Exception {
+        CountDownLatch latch = new CountDownLatch(2);
+        Timeout zero = timer.newTimeout(latch::countDown, 0);
+        Timeout negative = timer.newTimeout(latch::countDown, -100);
+        Assertions.assertTrue(latch.await(TOLERANCE_MILLIS, TimeUnit.MILLISECONDS));
+        Assertions.assertTrue(zero.isExpired());
+        Assertions.assertTrue(negative.isExpired());
+        Assertions.assertFalse(zero.cancel());
+    }
+
+    @Test
+    public void timeouts_overflowing_into_higher_wheels_expire_on_time() throws Exception {
+        long[] delays = {25, 35, 90, 150, 300, 700};
+        long[] firedAt = new long[delays.length];
+        CountDownLatch latch = new CountDownLatch(delays.length);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        long start = System.nanoTime();
+        // registered out of order, so that the wheels are not filled front to back
+        for (int i = delays.length - 1; i >= 0; i--) {
+            int index = i;
+            timer.newTimeout(() -> {
+                firedAt[index] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                order.add(index);
+                latch.countDown();
+            }, delays[i]);
+        }
+        Assertions.assertTrue(latch.await(delays[delays.length - 1] + TOLERANCE_MILLIS, TimeUnit.MILLISECONDS));
+        for (int i = 0; i < delays.length; i++) {
+            Assertions.assertTrue(firedAt[i] >= delays[i] - TICK_MILLIS, "timeout " + delays[i] + " fired early at " + firedAt[i]);
+            Assertions.assertTrue(firedAt[i] <= delays[i] + TOLERANCE_MILLIS, "timeout " + delays[i] + " fired late at " + firedAt[i]);
+        }
+        Assertions.assertEquals(List.of(0, 1, 2, 3, 4, 5), order);
+    }
+
+    @Test
+    public void cancelled_timeouts_do_not_run() throws Exception {
+        AtomicInteger fired = new AtomicInteger();
+        Timeout lowest = timer.newTimeout(fired::incrementAndGet, 30);
+        Timeout overflowed = timer.newTimeout(fired::incrementAndGet, 300);
+        CountDownLatch kept = new CountDownLatch(1);
+        Timeout keptTimeout = timer.newTimeout(kept::countDown, 300);
+        Assertions.assertTrue(lowest.cancel());
+        Assertions.assertTrue(overflowed.cancel());
+        Assertions.assertFalse(overflowed.cancel());
+        Assertions.assertTrue(lowest.isCancelled());
+        Assertions.assertTrue(kept.await(300 + TOLERANCE_MILLIS, TimeUnit.MILLISECONDS));
+        // the cancelled timeouts shared the buckets with the kept one, and are due by now
+        Thread.sleep(TICK_MILLIS * 2);
+        Assertions.assertEquals(0, fired.get());
+        Assertions.assertFalse(overflowed.isExpired());
+        Assertions.assertTrue(keptTimeout.isExpired());
+        Assertions.assertFalse(keptTimeout.cancel());
+    }
+
+    @Test
+    public void timeout_can_be_rearmed_from_its_action() throws Exception {
+        int times = 5;
+        CountDownLatch latch = new CountDownLatch(times);
+        AtomicInteger fired = new AtomicInteger();
+        Action[] rearm = new Action[1];
+        rearm[0] = () -> {
+            latch.countDown();
+            if (fired.incrementAndGet() < times) {
+                timer.newTimeout(rearm[0], 45);
+            }
+        };
+        long start = System.nanoTime();
+        timer.newTimeout(rearm[0], 45);
+        Assertions.assertTrue(latch.await(times * 45 + TOLERANCE_MILLIS * 2, TimeUnit.MILLISECONDS));
+        Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= times * (45 - TICK_MILLIS));
+        Thread.sleep(100);
+        Assertions.assertEquals(times, fired.get());
+    }
+
+    @Test
+    public void cancelled_timeout_can_be_registered_again() throws Exception {
+        AtomicInteger fired = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+        Action action = () -> {
+            fired.incrementAndGet();
+            latch.countDown();
+        };
+        Timeout first = timer.newTimeout(action, 100);
+        Assertions.assertTrue(first.cancel());
+        Timeout second = timer.newTimeout(action, 100);
+        Assertions.assertTrue(latch.await(100 + TOLERANCE_MILLIS, TimeUnit.MILLISECONDS));
+        Thread.sleep(TICK_MILLIS * 2);
+        Assertions.assertEquals(1, fired.get());
+        Assertions.assertTrue(second.isExpired());
+        Assertions.assertFalse(first.isExpired());
+    }
+
+    @Test
+    public void schedule_service_without_timer_falls_back_to_default_timeout() throws Exception {
+        ScheduleService scheduleService = new ScheduleService() {
+            @Override
+            public void startTask(String name, Action action, int dueTime, int period) {
+            }
+
+            @Override
+            public void stopTask(String name) {
+            }
+        };
+        CountDownLatch latch = new CountDownLatch(1);
+        Timeout timeout = scheduleService.newTimeout(latch::countDown, 20);
+        AtomicInteger cancelledFired = new AtomicInteger();
+        Timeout cancelled = scheduleService.newTimeout(cancelledFired::incrementAndGet, 20);
+        Assertions.assertTrue(cancelled.cancel());
+        Assertions.assertTrue(latch.await(20 + TOLERANCE_MILLIS, TimeUnit.MILLISECONDS));
+        Thread.sleep(50);
+        Assertions.assertTrue(timeout.isExpired());
+        Assertions.assertFalse(timeout.cancel());
+        Assertions.assertTrue(cancelled.isCancelled());
+        Assertions.assertEquals(0, cancelledFired.get());
+    }
+}